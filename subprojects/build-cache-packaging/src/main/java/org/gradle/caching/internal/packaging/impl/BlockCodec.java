@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * The codecs that can compress the blocks of a {@link BlockCompressedOutputStream}. Each block is compressed independently.
+ */
+enum BlockCodec {
+    /**
+     * No compression.
+     */
+    STORED(0) {
+        @Override
+        int compress(byte[] src, int srcLength, byte[] dst) {
+            System.arraycopy(src, 0, dst, 0, srcLength);
+            return srcLength;
+        }
+
+        @Override
+        void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+            if (srcLength != dstLength) {
+                throw new IOException("Corrupt stored block.");
+            }
+            System.arraycopy(src, 0, dst, 0, srcLength);
+        }
+    },
+    /**
+     * Raw DEFLATE, as used by gzip, at the default level.
+     */
+    DEFLATE(1) {
+        @Override
+        int compress(byte[] src, int srcLength, byte[] dst) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(src, 0, srcLength);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished() && length < dst.length) {
+                    length += deflater.deflate(dst, length, dst.length - length);
+                }
+                // Report data that does not fit as incompressible
+                return deflater.finished() ? length : Integer.MAX_VALUE;
+            } finally {
+                deflater.end();
+            }
+        }
+
+        @Override
+        void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(src, 0, srcLength);
+                int length = 0;
+                while (length < dstLength && !inflater.finished()) {
+                    int inflated = inflater.inflate(dst, length, dstLength - length);
+                    if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += inflated;
+                }
+                if (length != dstLength) {
+                    throw new IOException("Corrupt DEFLATE block.");
+                }
+            } catch (DataFormatException e) {
+                throw new IOException("Corrupt DEFLATE block.", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    },
+    /**
+     * The LZ4 block format, which compresses less than DEFLATE, but is several times faster.
+     */
+    LZ4(2) {
+        @Override
+        int compress(byte[] src, int srcLength, byte[] dst) {
+            return Lz4BlockCompressor.compress(src, srcLength, dst);
+        }
+
+        @Override
+        void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException {
+            Lz4BlockCompressor.decompress(src, 0, srcLength, dst, dstLength);
+        }
+    };
+
+    private final int id;
+
+    BlockCodec(int id) {
+        this.id = id;
+    }
+
+    int getId() {
+        return id;
+    }
+
+    static BlockCodec forId(int id) throws IOException {
+        for (BlockCodec codec : values()) {
+            if (codec.id == id) {
+                return codec;
+            }
+        }
+        throw new IOException("Unknown block codec: " + id);
+    }
+
+    /**
+     * Returns the size of the buffer that {@link #compress(byte[], int, byte[])} needs for the given number of bytes.
+     */
+    static int maxCompressedLength(int length) {
+        return Lz4BlockCompressor.maxCompressedLength(length);
+    }
+
+    /**
+     * Compresses the given bytes into {@code dst}, and returns the compressed length.
+     * The result may be larger than the input, in which case the caller should store the block uncompressed.
+     */
+    abstract int compress(byte[] src, int srcLength, byte[] dst);
+
+    abstract void decompress(byte[] src, int srcLength, byte[] dst, int dstLength) throws IOException;
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.internal.UncheckedException;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static org.gradle.caching.internal.packaging.impl.BlockCompressedOutputStream.BLOCK_SIZE;
+import static org.gradle.caching.internal.packaging.impl.BlockCompressedOutputStream.FORMAT_VERSION;
+import static org.gradle.caching.internal.packaging.impl.BlockCompressedOutputStream.MAGIC;
+
+/**
+ * Reads the data written by a {@link BlockCompressedOutputStream}, decompressing the blocks ahead of the reader concurrently.
+ */
+class BlockCompressedInputStream extends InputStream {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final DataInputStream input;
+    private final ExecutorService executor;
+    private final int readAhead;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+    private boolean endOfInput;
+    private byte[] block = EMPTY;
+    private int position;
+
+    BlockCompressedInputStream(InputStream input, ExecutorService executor, int readAhead) throws IOException {
+        this.input = new DataInputStream(input);
+        this.executor = executor;
+        this.readAhead = readAhead;
+        byte[] magic = new byte[MAGIC.length];
+        this.input.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException("Not a block compressed stream.");
+        }
+        int version = this.input.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported block compressed stream version: " + version);
+        }
+        // The codec of the stream is informational, as each block records its own codec
+        BlockCodec.forId(this.input.readUnsignedByte());
+    }
+
+    /**
+     * Checks whether the given stream starts with the header of a block compressed stream, without consuming any data from it.
+     */
+    static boolean hasHeader(InputStream input) throws IOException {
+        if (!input.markSupported()) {
+            throw new IllegalArgumentException("Stream must support mark.");
+        }
+        input.mark(MAGIC.length);
+        try {
+            for (byte b : MAGIC) {
+                if (input.read() != (b & 0xff)) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            input.reset();
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (!ensureData()) {
+            return -1;
+        }
+        return block[position++] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!ensureData()) {
+            return -1;
+        }
+        int count = Math.min(len, block.length - position);
+        System.arraycopy(block, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return block.length - position;
+    }
+
+    private boolean ensureData() throws IOException {
+        while (position == block.length) {
+            fill();
+            if (pendingBlocks.isEmpty()) {
+                return false;
+            }
+            try {
+                block = pendingBlocks.remove().get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                throw rethrow(e);
+            }
+            position = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Reads compressed blocks until enough of them are being decompressed.
+     */
+    private void fill() throws IOException {
+        while (!endOfInput && pendingBlocks.size() < readAhead) {
+            int length = input.readInt();
+            BlockCodec codec = BlockCodec.forId(input.readUnsignedByte());
+            int checksum = input.readInt();
+            int compressedLength = input.readInt();
+            if (length == 0) {
+                endOfInput = true;
+                return;
+            }
+            if (length < 0 || length > BLOCK_SIZE || compressedLength < 0 || compressedLength > BlockCodec.maxCompressedLength(length)) {
+                throw new IOException("Corrupt block header.");
+            }
+            byte[] compressed = new byte[compressedLength];
+            input.readFully(compressed);
+            pendingBlocks.add(executor.submit(() -> decodeBlock(codec, compressed, length, checksum)));
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Future<byte[]> pendingBlock : pendingBlocks) {
+            pendingBlock.cancel(false);
+        }
+        pendingBlocks.clear();
+        input.close();
+    }
+
+    private static byte[] decodeBlock(BlockCodec codec, byte[] compressed, int length, int checksum) throws IOException {
+        byte[] block = new byte[length];
+        codec.decompress(compressed, compressed.length, block, length);
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, length);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Corrupt block, checksum mismatch.");
+        }
+        return block;
+    }
+
+    static IOException rethrow(ExecutionException e) throws IOException {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+            throw (IOException) cause;
+        }
+        throw UncheckedException.throwAsUncheckedException(cause);
+    }
+}
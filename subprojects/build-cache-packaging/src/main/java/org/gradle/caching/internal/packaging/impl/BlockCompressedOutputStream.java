@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+/**
+ * Splits the data written to it into blocks that are compressed concurrently, and writes the compressed blocks in order.
+ *
+ * <p>The stream starts with a header of {@link #MAGIC}, the format version and the codec. Each block is written as its uncompressed length,
+ * the codec of the block, the CRC32 of the uncompressed data, the compressed length and the compressed data. A block that does not compress
+ * is stored as is. An empty block marks the end of the stream.</p>
+ */
+class BlockCompressedOutputStream extends OutputStream {
+    static final byte[] MAGIC = {'G', 'B', 'C', 'E'};
+    static final int FORMAT_VERSION = 1;
+    static final int BLOCK_SIZE = 1024 * 1024;
+    // uncompressed length, codec, checksum and compressed length
+    static final int BLOCK_HEADER_SIZE = 13;
+
+    private final OutputStream output;
+    private final BlockCodec codec;
+    private final ExecutorService executor;
+    private final int maxPendingBlocks;
+    private final Deque<Future<byte[]>> pendingBlocks = new ArrayDeque<Future<byte[]>>();
+    private byte[] buffer = new byte[BLOCK_SIZE];
+    private int count;
+    private boolean closed;
+
+    BlockCompressedOutputStream(OutputStream output, BlockCodec codec, ExecutorService executor, int maxPendingBlocks) throws IOException {
+        this.output = output;
+        this.codec = codec;
+        this.executor = executor;
+        this.maxPendingBlocks = maxPendingBlocks;
+        output.write(MAGIC);
+        output.write(FORMAT_VERSION);
+        output.write(codec.getId());
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        buffer[count++] = (byte) b;
+        if (count == BLOCK_SIZE) {
+            submitBlock();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            int chunk = Math.min(len, BLOCK_SIZE - count);
+            System.arraycopy(b, off, buffer, count, chunk);
+            count += chunk;
+            off += chunk;
+            len -= chunk;
+            if (count == BLOCK_SIZE) {
+                submitBlock();
+            }
+        }
+    }
+
+    private void submitBlock() throws IOException {
+        final byte[] block = buffer;
+        final int length = count;
+        pendingBlocks.add(executor.submit(() -> encodeBlock(codec, block, length)));
+        buffer = new byte[BLOCK_SIZE];
+        count = 0;
+        while (pendingBlocks.size() > maxPendingBlocks) {
+            writeNextBlock();
+        }
+    }
+
+    private void writeNextBlock() throws IOException {
+        Future<byte[]> next = pendingBlocks.remove();
+        try {
+            output.write(next.get());
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            throw BlockCompressedInputStream.rethrow(e);
+        }
+    }
+
+    /**
+     * Writes all data written so far to the underlying stream. Blocks are only compressed once they are full,
+     * so flushing writes a partial block.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (count > 0) {
+            submitBlock();
+        }
+        while (!pendingBlocks.isEmpty()) {
+            writeNextBlock();
+        }
+        output.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            // End of stream
+            output.write(new byte[BLOCK_HEADER_SIZE]);
+        } finally {
+            for (Future<byte[]> pendingBlock : pendingBlocks) {
+                pendingBlock.cancel(false);
+            }
+            output.close();
+        }
+    }
+
+    private static byte[] encodeBlock(BlockCodec codec, byte[] block, int length) {
+        byte[] compressed = new byte[BlockCodec.maxCompressedLength(length)];
+        int compressedLength = codec.compress(block, length, compressed);
+        BlockCodec blockCodec = codec;
+        if (compressedLength >= length) {
+            blockCodec = BlockCodec.STORED;
+            compressed = Arrays.copyOf(block, length);
+            compressedLength = length;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(block, 0, length);
+        ByteBuffer encoded = ByteBuffer.allocate(BLOCK_HEADER_SIZE + compressedLength);
+        encoded.putInt(length);
+        encoded.put((byte) blockCodec.getId());
+        encoded.putInt((int) crc.getValue());
+        encoded.putInt(compressedLength);
+        encoded.put(compressed, 0, compressedLength);
+        return encoded.array();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.gradle.caching.internal.CacheableEntity;
+import org.gradle.caching.internal.origin.OriginReader;
+import org.gradle.caching.internal.origin.OriginWriter;
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.concurrent.Stoppable;
+import org.gradle.internal.fingerprint.CurrentFileCollectionFingerprint;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses build cache entries, either with gzip or with a block compressed format that compresses and decompresses on multiple threads.
+ *
+ * <p>Entries are written with gzip unless another compression is selected via the {@value #COMPRESSION_PROPERTY} system property.
+ * Entries in either format can always be read, so the setting does not need to match between the builds sharing a cache.</p>
+ */
+public class CompressingBuildCacheEntryPacker implements BuildCacheEntryPacker, Stoppable {
+    public static final String COMPRESSION_PROPERTY = "org.gradle.unsafe.build-cache.compression";
+
+    public enum Compression {
+        /**
+         * A single gzip stream, which is compatible with all Gradle versions.
+         */
+        GZIP(null),
+        /**
+         * DEFLATE compressed blocks. Compresses about as well as gzip.
+         */
+        DEFLATE(BlockCodec.DEFLATE),
+        /**
+         * LZ4 compressed blocks. Produces larger entries than gzip, but packs and unpacks much faster.
+         */
+        LZ4(BlockCodec.LZ4);
+
+        private final BlockCodec codec;
+
+        Compression(BlockCodec codec) {
+            this.codec = codec;
+        }
+
+        /**
+         * Returns the compression selected via the {@value #COMPRESSION_PROPERTY} system property.
+         */
+        public static Compression fromSystemProperty() {
+            String value = System.getProperty(COMPRESSION_PROPERTY);
+            if (value == null) {
+                return GZIP;
+            }
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException(String.format("Unknown build cache compression '%s' set via system property '%s'.", value, COMPRESSION_PROPERTY), e);
+            }
+        }
+    }
+
+    private final BuildCacheEntryPacker delegate;
+    private final Compression compression;
+    private final ManagedExecutor executor;
+    private final int parallelism;
+
+    /**
+     * @param executor compresses and decompresses blocks, using at most {@code parallelism} threads per entry. Stopped together with this packer.
+     */
+    public CompressingBuildCacheEntryPacker(BuildCacheEntryPacker delegate, Compression compression, ManagedExecutor executor, int parallelism) {
+        this.delegate = delegate;
+        this.compression = compression;
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    @Override
+    public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollectionFingerprint> fingerprints, OutputStream output, OriginWriter writeOrigin) throws IOException {
+        try (OutputStream compressedOutput = compress(output)) {
+            return delegate.pack(entity, fingerprints, compressedOutput, writeOrigin);
+        }
+    }
+
+    OutputStream compress(OutputStream output) throws IOException {
+        if (compression.codec == null) {
+            return new GZIPOutputStream(output);
+        }
+        return new BlockCompressedOutputStream(output, compression.codec, executor, parallelism);
+    }
+
+    @Override
+    public UnpackResult unpack(CacheableEntity entity, InputStream input, OriginReader readOrigin) throws IOException {
+        try (InputStream decompressedInput = decompress(input)) {
+            return delegate.unpack(entity, decompressedInput, readOrigin);
+        }
+    }
+
+    InputStream decompress(InputStream input) throws IOException {
+        InputStream bufferedInput = input.markSupported() ? input : new BufferedInputStream(input);
+        if (BlockCompressedInputStream.hasHeader(bufferedInput)) {
+            return new BlockCompressedInputStream(bufferedInput, executor, parallelism);
+        }
+        // Anything else is expected to be gzip, which reports a missing header itself
+        return new GZIPInputStream(bufferedInput);
+    }
+
+    @Override
+    public void stop() {
+        executor.stop();
+    }
+}
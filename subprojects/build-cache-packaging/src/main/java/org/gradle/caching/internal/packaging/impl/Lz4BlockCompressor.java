@@ -0,0 +1,186 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import java.io.IOException;
+
+/**
+ * Compresses blocks of data into the LZ4 block format, favoring speed over compression ratio.
+ */
+final class Lz4BlockCompressor {
+    private static final int MIN_MATCH = 4;
+    // The last match must start at least 12 bytes before the end of the block
+    private static final int MF_LIMIT = 12;
+    // The last 5 bytes of a block are always literals
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_LOG = 16;
+    // Increase the step between match attempts after this many misses, to skip over incompressible data quickly
+    private static final int SKIP_TRIGGER = 6;
+    private static final int RUN_MASK = 15;
+
+    private Lz4BlockCompressor() {
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses the given bytes into {@code dst}, which must hold at least {@link #maxCompressedLength(int)} bytes, and returns the number of bytes written.
+     */
+    static int compress(byte[] src, int srcLength, byte[] dst) {
+        int anchor = 0;
+        int op = 0;
+        if (srcLength > MF_LIMIT) {
+            int[] table = new int[1 << HASH_LOG];
+            int matchLimit = srcLength - MF_LIMIT;
+            int copyLimit = srcLength - LAST_LITERALS;
+            int ip = 0;
+            int misses = 0;
+            while (ip < matchLimit) {
+                int sequence = readInt(src, ip);
+                int hash = hash(sequence);
+                // Positions are stored off by one, so that zero marks an empty slot
+                int ref = table[hash] - 1;
+                table[hash] = ip + 1;
+                if (ref < 0 || ip - ref > MAX_OFFSET || readInt(src, ref) != sequence) {
+                    ip += 1 + (misses++ >>> SKIP_TRIGGER);
+                    continue;
+                }
+                misses = 0;
+                int matchLength = MIN_MATCH;
+                while (ip + matchLength < copyLimit && src[ref + matchLength] == src[ip + matchLength]) {
+                    matchLength++;
+                }
+                op = writeSequence(src, anchor, ip - anchor, ip - ref, matchLength, dst, op);
+                ip += matchLength;
+                anchor = ip;
+            }
+        }
+        return writeLastLiterals(src, anchor, srcLength - anchor, dst, op);
+    }
+
+    /**
+     * Decompresses a block into {@code dst}, which must be exactly as long as the uncompressed data.
+     */
+    static void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstLength) throws IOException {
+        int ip = srcOffset;
+        int end = srcOffset + srcLength;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xff;
+                int literalLength = token >>> 4;
+                if (literalLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        literalLength += b;
+                    } while (b == 255);
+                }
+                if (literalLength > end - ip || literalLength > dstLength - op) {
+                    throw corrupt();
+                }
+                System.arraycopy(src, ip, dst, op, literalLength);
+                ip += literalLength;
+                op += literalLength;
+                if (ip == end) {
+                    break;
+                }
+
+                int offset = (src[ip] & 0xff) | (src[ip + 1] & 0xff) << 8;
+                ip += 2;
+                int matchLength = token & RUN_MASK;
+                if (matchLength == RUN_MASK) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xff;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += MIN_MATCH;
+                if (offset == 0 || offset > op || matchLength > dstLength - op) {
+                    throw corrupt();
+                }
+                int ref = op - offset;
+                if (offset >= matchLength) {
+                    System.arraycopy(dst, ref, dst, op, matchLength);
+                    op += matchLength;
+                } else {
+                    // Overlapping copy, which repeats the last offset bytes
+                    for (int i = 0; i < matchLength; i++) {
+                        dst[op++] = dst[ref++];
+                    }
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw corrupt();
+        }
+        if (op != dstLength) {
+            throw corrupt();
+        }
+    }
+
+    private static int writeSequence(byte[] src, int literalOffset, int literalLength, int offset, int matchLength, byte[] dst, int op) {
+        int extraMatchLength = matchLength - MIN_MATCH;
+        int tokenPosition = op++;
+        int token = (Math.min(literalLength, RUN_MASK) << 4) | Math.min(extraMatchLength, RUN_MASK);
+        dst[tokenPosition] = (byte) token;
+        op = writeLength(literalLength, dst, op);
+        System.arraycopy(src, literalOffset, dst, op, literalLength);
+        op += literalLength;
+        dst[op++] = (byte) offset;
+        dst[op++] = (byte) (offset >>> 8);
+        return writeLength(extraMatchLength, dst, op);
+    }
+
+    private static int writeLastLiterals(byte[] src, int literalOffset, int literalLength, byte[] dst, int op) {
+        dst[op++] = (byte) (Math.min(literalLength, RUN_MASK) << 4);
+        op = writeLength(literalLength, dst, op);
+        System.arraycopy(src, literalOffset, dst, op, literalLength);
+        return op + literalLength;
+    }
+
+    /**
+     * Writes the part of a length that does not fit into its half of the token.
+     */
+    private static int writeLength(int length, byte[] dst, int op) {
+        if (length < RUN_MASK) {
+            return op;
+        }
+        int remaining = length - RUN_MASK;
+        while (remaining >= 255) {
+            dst[op++] = (byte) 255;
+            remaining -= 255;
+        }
+        dst[op++] = (byte) remaining;
+        return op;
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8 | (bytes[offset + 2] & 0xff) << 16 | (bytes[offset + 3] & 0xff) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_LOG);
+    }
+
+    private static IOException corrupt() {
+        return new IOException("Corrupt LZ4 block.");
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.tar.TarConstants;
+import org.apache.commons.io.IOUtils;
+import org.gradle.caching.local.internal.BuildCacheEntryDeduplicator;
+import org.gradle.caching.local.internal.ContentAddressedFileStore;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.StreamHasher;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/**
+ * Deduplicates entries written by {@link TarBuildCacheEntryPacker} and compressed by {@link CompressingBuildCacheEntryPacker}.
+ *
+ * <p>In the manifest, each large file is replaced by a hard link entry whose link name is the hash of the file's content.
+ * Small files are kept in the manifest, as storing them separately would cost more than it saves.</p>
+ */
+public class TarBuildCacheEntryDeduplicator implements BuildCacheEntryDeduplicator {
+    static final long MIN_DEDUPLICATED_FILE_SIZE = 64 * 1024;
+
+    private final CompressingBuildCacheEntryPacker compression;
+    private final StreamHasher streamHasher;
+
+    public TarBuildCacheEntryDeduplicator(CompressingBuildCacheEntryPacker compression, StreamHasher streamHasher) {
+        this.compression = compression;
+        this.streamHasher = streamHasher;
+    }
+
+    @Override
+    public void deduplicate(File entry, File manifest, ContentAddressedFileStore contentStore) throws IOException {
+        try (
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(compression.decompress(new FileInputStream(entry)), TarBuildCacheEntryPacker.ENCODING.name());
+            TarArchiveOutputStream tarOutput = TarBuildCacheEntryPacker.createTarOutput(compression.compress(new BufferedOutputStream(new FileOutputStream(manifest))))
+        ) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                if (tarEntry.isFile() && tarEntry.getSize() >= MIN_DEDUPLICATED_FILE_SIZE) {
+                    HashCode hash = contentStore.add(contentFile -> {
+                        try (OutputStream contentOutput = new FileOutputStream(contentFile)) {
+                            return streamHasher.hashCopy(tarInput, contentOutput);
+                        }
+                    });
+                    TarArchiveEntry linkEntry = new TarArchiveEntry(tarEntry.getName(), TarConstants.LF_LINK, true);
+                    linkEntry.setLinkName(hash.toString());
+                    linkEntry.setMode(tarEntry.getMode());
+                    tarOutput.putArchiveEntry(linkEntry);
+                } else {
+                    tarOutput.putArchiveEntry(tarEntry);
+                    IOUtils.copy(tarInput, tarOutput);
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        }
+    }
+
+    @Override
+    public void expand(File manifest, File entry) throws IOException {
+        try (
+            TarArchiveInputStream tarInput = new TarArchiveInputStream(compression.decompress(new FileInputStream(manifest)), TarBuildCacheEntryPacker.ENCODING.name());
+            TarArchiveOutputStream tarOutput = TarBuildCacheEntryPacker.createTarOutput(compression.compress(new BufferedOutputStream(new FileOutputStream(entry))))
+        ) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                if (tarEntry.isLink()) {
+                    HashCode expectedHash = HashCode.fromString(tarEntry.getLinkName());
+                    File contentFile = ContentAddressedFileStore.getContentForCurrentLoad(expectedHash);
+                    TarArchiveEntry fileEntry = new TarArchiveEntry(tarEntry.getName(), true);
+                    fileEntry.setMode(tarEntry.getMode());
+                    fileEntry.setSize(contentFile.length());
+                    tarOutput.putArchiveEntry(fileEntry);
+                    HashCode hash;
+                    try (InputStream contentInput = new FileInputStream(contentFile)) {
+                        hash = streamHasher.hashCopy(contentInput, tarOutput);
+                    }
+                    if (!hash.equals(expectedHash)) {
+                        throw new IOException(String.format("Content %s of the local build cache is corrupt.", contentFile));
+                    }
+                } else {
+                    tarOutput.putArchiveEntry(tarEntry);
+                    IOUtils.copy(tarInput, tarOutput);
+                }
+                tarOutput.closeArchiveEntry();
+            }
+        }
+    }
+
+    @Override
+    public void visitReferencedContent(File manifest, Consumer<HashCode> visitor) throws IOException {
+        try (TarArchiveInputStream tarInput = new TarArchiveInputStream(compression.decompress(new FileInputStream(manifest)), TarBuildCacheEntryPacker.ENCODING.name())) {
+            TarArchiveEntry tarEntry;
+            while ((tarEntry = tarInput.getNextTarEntry()) != null) {
+                if (tarEntry.isLink()) {
+                    visitor.accept(HashCode.fromString(tarEntry.getLinkName()));
+                }
+            }
+        }
+    }
+}
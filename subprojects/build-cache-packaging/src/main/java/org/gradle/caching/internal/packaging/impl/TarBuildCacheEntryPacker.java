@@ -33,8 +33,10 @@
 import org.gradle.caching.internal.origin.OriginReader;
 import org.gradle.caching.internal.origin.OriginWriter;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
+import org.gradle.caching.local.internal.ContentAddressedFileStore;
 import org.gradle.internal.IoActions;
 import org.gradle.internal.MutableLong;
+import org.gradle.internal.UncheckedException;
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.file.FileType;
 import org.gradle.internal.file.TreeType;
@@ -52,20 +54,29 @@
 
 import javax.annotation.Nullable;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -86,22 +97,34 @@ private interface UnixPermissions {
         int PERM_MASK           = 07777;
     }
 
-    private static final Charset ENCODING = StandardCharsets.UTF_8;
+    static final Charset ENCODING = StandardCharsets.UTF_8;
     private static final String METADATA_PATH = "METADATA";
     private static final Pattern TREE_PATH = Pattern.compile("(missing-)?tree-([^/]+)(?:/(.*))?");
     private static final int BUFFER_SIZE = 64 * 1024;
     private static final ThreadLocal<byte[]> COPY_BUFFERS = ThreadLocal.withInitial(() -> new byte[BUFFER_SIZE]);
+    // Larger files are written while reading the archive
+    private static final long MAX_CONCURRENTLY_WRITTEN_FILE_SIZE = 1024 * 1024;
+    private static final long MAX_PENDING_WRITE_BYTES = 32 * 1024 * 1024;
 
     private final Deleter deleter;
     private final FileSystem fileSystem;
     private final StreamHasher streamHasher;
     private final Interner<String> stringInterner;
+    private final ExecutorService fileWriteExecutor;
 
     public TarBuildCacheEntryPacker(Deleter deleter, FileSystem fileSystem, StreamHasher streamHasher, Interner<String> stringInterner) {
+        this(deleter, fileSystem, streamHasher, stringInterner, null);
+    }
+
+    /**
+     * @param fileWriteExecutor when present, small files in directory trees are written on this executor while the rest of the archive is being read.
+     */
+    public TarBuildCacheEntryPacker(Deleter deleter, FileSystem fileSystem, StreamHasher streamHasher, Interner<String> stringInterner, @Nullable ExecutorService fileWriteExecutor) {
         this.deleter = deleter;
         this.fileSystem = fileSystem;
         this.streamHasher = streamHasher;
         this.stringInterner = stringInterner;
+        this.fileWriteExecutor = fileWriteExecutor;
     }
 
     @Override
@@ -112,16 +135,21 @@ public PackResult pack(CacheableEntity entity, Map<String, CurrentFileCollection
         } else {
             bufferedOutput = new BufferedOutputStream(output);
         }
-        try (TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(bufferedOutput, ENCODING.name())) {
-            tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
-            tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
-            tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+        try (TarArchiveOutputStream tarOutput = createTarOutput(bufferedOutput)) {
             packMetadata(writeOrigin, tarOutput);
             long entryCount = pack(entity, fingerprints, tarOutput);
             return new PackResult(entryCount + 1);
         }
     }
 
+    static TarArchiveOutputStream createTarOutput(OutputStream output) {
+        TarArchiveOutputStream tarOutput = new TarArchiveOutputStream(output, ENCODING.name());
+        tarOutput.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+        tarOutput.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+        tarOutput.setAddPaxHeadersForNonAsciiNames(true);
+        return tarOutput;
+    }
+
     private void packMetadata(OriginWriter writeMetadata, TarArchiveOutputStream tarOutput) throws IOException {
         ByteArrayOutputStream output = new ByteArrayOutputStream();
         writeMetadata.execute(output);
@@ -243,7 +271,7 @@ private TarArchiveEntry unpackTree(String treeName, TreeType treeType, File tree
             if (isDirEntry) {
                 throw new IllegalStateException("Should be a file: " + treeName);
             }
-            RegularFileSnapshot fileSnapshot = unpackFile(input, rootEntry, treeRoot, treeRoot.getName());
+            RegularFileSnapshot fileSnapshot = unpackFileEntry(input, rootEntry, treeRoot, treeRoot.getName());
             snapshots.put(treeName, fileSnapshot);
             return input.getNextTarEntry();
         }
@@ -263,7 +291,24 @@ private void unpackMissingFile(File treeRoot) throws IOException {
         }
     }
 
-    private RegularFileSnapshot unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+    private RegularFileSnapshot unpackFileEntry(InputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+        if (!entry.isLink()) {
+            return unpackFile(input, entry, file, fileName);
+        }
+        // The content has been moved out of the entry by the local build cache, see TarBuildCacheEntryDeduplicator
+        HashCode expectedHash = HashCode.fromString(entry.getLinkName());
+        File contentFile = ContentAddressedFileStore.getContentForCurrentLoad(expectedHash);
+        RegularFileSnapshot fileSnapshot;
+        try (InputStream contentInput = new FileInputStream(contentFile)) {
+            fileSnapshot = unpackFile(contentInput, entry, file, fileName);
+        }
+        if (!fileSnapshot.getHash().equals(expectedHash)) {
+            throw new IOException(String.format("Content %s of the local build cache is corrupt.", contentFile));
+        }
+        return fileSnapshot;
+    }
+
+    private RegularFileSnapshot unpackFile(InputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
         CountingOutputStream output = new CountingOutputStream(new FileOutputStream(file));
         HashCode hash;
         try {
@@ -282,43 +327,134 @@ private TarArchiveEntry unpackDirectoryTree(TarArchiveInputStream input, TarArch
         RelativePathParser parser = new RelativePathParser();
         parser.rootPath(rootEntry.getName());
 
-        MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        TreeUnpacker unpacker = new TreeUnpacker();
         String rootPath = stringInterner.intern(treeRoot.getAbsolutePath());
         String rootDirName = stringInterner.intern(treeRoot.getName());
-        builder.preVisitDirectory(rootPath, rootDirName);
+        unpacker.visit(builder -> builder.preVisitDirectory(rootPath, rootDirName));
 
         TarArchiveEntry entry;
-
-        while ((entry = input.getNextTarEntry()) != null) {
-            boolean isDir = entry.isDirectory();
-            int directoriesLeft = parser.nextPath(entry.getName(), isDir);
-            for (int i = 0; i < directoriesLeft; i++) {
-                builder.postVisitDirectory();
+        try {
+            while ((entry = input.getNextTarEntry()) != null) {
+                boolean isDir = entry.isDirectory();
+                int directoriesLeft = parser.nextPath(entry.getName(), isDir);
+                for (int i = 0; i < directoriesLeft; i++) {
+                    unpacker.visit(MerkleDirectorySnapshotBuilder::postVisitDirectory);
+                }
+                if (parser.getDepth() == 0) {
+                    break;
+                }
+                entries.increment(1);
+
+                File file = new File(treeRoot, parser.getRelativePath());
+                if (isDir) {
+                    FileUtils.forceMkdir(file);
+                    chmodUnpackedFile(entry, file);
+                    String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
+                    String internedDirName = stringInterner.intern(parser.getName());
+                    unpacker.visit(builder -> builder.preVisitDirectory(internedAbsolutePath, internedDirName));
+                } else {
+                    unpacker.unpackFile(input, entry, file, parser.getName());
+                }
             }
-            if (parser.getDepth() == 0) {
-                break;
+
+            for (int i = 0; i < parser.getDepth(); i++) {
+                unpacker.visit(MerkleDirectorySnapshotBuilder::postVisitDirectory);
             }
-            entries.increment(1);
+            snapshots.put(treeName, unpacker.finish());
+        } finally {
+            unpacker.awaitPendingWrites();
+        }
+        return entry;
+    }
 
-            File file = new File(treeRoot, parser.getRelativePath());
-            if (isDir) {
-                FileUtils.forceMkdir(file);
-                chmodUnpackedFile(entry, file);
-                String internedAbsolutePath = stringInterner.intern(file.getAbsolutePath());
-                String internedDirName = stringInterner.intern(parser.getName());
-                builder.preVisitDirectory(internedAbsolutePath, internedDirName);
+    /**
+     * Unpacks the files of a directory tree, and builds the snapshot of the tree.
+     *
+     * <p>With a file write executor, small files are read into memory and written on the executor, while the rest of the archive is being read.
+     * The visits to the snapshot builder are recorded, and replayed in archive order when the files have been written.</p>
+     */
+    private class TreeUnpacker {
+        private final MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.noSortingRequired();
+        private final List<SnapshotVisit> visits = new ArrayList<>();
+        private final Deque<PendingWrite> pendingWrites = new ArrayDeque<>();
+        private long pendingBytes;
+
+        void visit(SnapshotVisit visit) throws IOException {
+            if (fileWriteExecutor == null) {
+                visit.applyTo(builder);
             } else {
-                RegularFileSnapshot fileSnapshot = unpackFile(input, entry, file, parser.getName());
-                builder.visitFile(fileSnapshot);
+                visits.add(visit);
             }
         }
 
-        for (int i = 0; i < parser.getDepth(); i++) {
-            builder.postVisitDirectory();
+        void unpackFile(TarArchiveInputStream input, TarArchiveEntry entry, File file, String fileName) throws IOException {
+            long size = entry.getSize();
+            if (fileWriteExecutor == null || size > MAX_CONCURRENTLY_WRITTEN_FILE_SIZE || entry.isLink()) {
+                RegularFileSnapshot fileSnapshot = unpackFileEntry(input, entry, file, fileName);
+                visit(builder -> builder.visitFile(fileSnapshot));
+                return;
+            }
+            byte[] content = IOUtils.toByteArray(input, size);
+            Future<RegularFileSnapshot> write = fileWriteExecutor.submit(() -> TarBuildCacheEntryPacker.this.unpackFile(new ByteArrayInputStream(content), entry, file, fileName));
+            pendingWrites.add(new PendingWrite(write, size));
+            pendingBytes += size;
+            while (pendingBytes > MAX_PENDING_WRITE_BYTES) {
+                PendingWrite oldest = pendingWrites.remove();
+                getResult(oldest.write);
+                pendingBytes -= oldest.size;
+            }
+            visit(builder -> builder.visitFile(getResult(write)));
         }
 
-        snapshots.put(treeName, builder.getResult());
-        return entry;
+        FileSystemLocationSnapshot finish() throws IOException {
+            for (SnapshotVisit visit : visits) {
+                visit.applyTo(builder);
+            }
+            return builder.getResult();
+        }
+
+        /**
+         * Makes sure that no file is written after unpacking has finished, even when it fails.
+         */
+        void awaitPendingWrites() {
+            for (PendingWrite pendingWrite : pendingWrites) {
+                try {
+                    pendingWrite.write.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    // Reported by getResult()
+                }
+            }
+        }
+
+        private RegularFileSnapshot getResult(Future<RegularFileSnapshot> write) throws IOException {
+            try {
+                return write.get();
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw UncheckedException.throwAsUncheckedException(e.getCause());
+            }
+        }
+    }
+
+    private interface SnapshotVisit {
+        void applyTo(MerkleDirectorySnapshotBuilder builder) throws IOException;
+    }
+
+    private static class PendingWrite {
+        private final Future<RegularFileSnapshot> write;
+        private final long size;
+
+        PendingWrite(Future<RegularFileSnapshot> write, long size) {
+            this.write = write;
+            this.size = size;
+        }
     }
 
     private void chmodUnpackedFile(TarArchiveEntry entry, File file) {
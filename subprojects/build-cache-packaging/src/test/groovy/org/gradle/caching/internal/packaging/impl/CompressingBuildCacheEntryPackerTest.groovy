@@ -0,0 +1,138 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.caching.internal.CacheableEntity
+import org.gradle.caching.internal.origin.OriginReader
+import org.gradle.caching.internal.origin.OriginWriter
+import org.gradle.caching.internal.packaging.BuildCacheEntryPacker
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import spock.lang.Specification
+import spock.lang.Unroll
+
+import java.util.zip.GZIPInputStream
+
+import static org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker.Compression.DEFLATE
+import static org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker.Compression.GZIP
+import static org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker.Compression.LZ4
+
+class CompressingBuildCacheEntryPackerTest extends Specification {
+    def executor = new DefaultExecutorFactory().create("test", 4)
+    def delegate = Mock(BuildCacheEntryPacker)
+    def entity = Stub(CacheableEntity)
+    def writeOrigin = Stub(OriginWriter)
+    def readOrigin = Stub(OriginReader)
+
+    def cleanup() {
+        executor.stop()
+    }
+
+    @Unroll
+    def "reads entries of #size bytes written with #writtenWith when configured to write #compression"() {
+        def content = content(size)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer(writtenWith).pack(entity, [:], output, writeOrigin)
+
+        then:
+        1 * delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write(content)
+            new BuildCacheEntryPacker.PackResult(1)
+        }
+
+        when:
+        def unpacked = null
+        packer(compression).unpack(entity, new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        1 * delegate.unpack(entity, _, readOrigin) >> { args ->
+            unpacked = args[1].bytes
+            new BuildCacheEntryPacker.UnpackResult(null, 1, [:])
+        }
+        unpacked == content
+
+        where:
+        writtenWith | compression | size
+        GZIP        | GZIP        | 100
+        GZIP        | LZ4         | 100
+        LZ4         | GZIP        | 0
+        LZ4         | LZ4         | 13
+        LZ4         | LZ4         | 3 * BlockCompressedOutputStream.BLOCK_SIZE + 17
+        DEFLATE     | GZIP        | 3 * BlockCompressedOutputStream.BLOCK_SIZE + 17
+    }
+
+    def "writes gzip by default"() {
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer(CompressingBuildCacheEntryPacker.Compression.fromSystemProperty()).pack(entity, [:], output, writeOrigin)
+
+        then:
+        1 * delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write("content".bytes)
+            new BuildCacheEntryPacker.PackResult(1)
+        }
+        new GZIPInputStream(new ByteArrayInputStream(output.toByteArray())).text == "content"
+    }
+
+    def "stores incompressible blocks and detects corrupt blocks"() {
+        def content = new byte[BlockCompressedOutputStream.BLOCK_SIZE]
+        new Random(1).nextBytes(content)
+        def output = new ByteArrayOutputStream()
+
+        when:
+        packer(LZ4).pack(entity, [:], output, writeOrigin)
+
+        then:
+        1 * delegate.pack(entity, [:], _, writeOrigin) >> { args ->
+            args[2].write(content)
+            new BuildCacheEntryPacker.PackResult(1)
+        }
+        output.size() < content.length + 100
+
+        when:
+        def bytes = output.toByteArray()
+        bytes[bytes.length.intdiv(2)] ^= 1
+        packer(LZ4).unpack(entity, new ByteArrayInputStream(bytes), readOrigin)
+
+        then:
+        1 * delegate.unpack(entity, _, readOrigin) >> { args ->
+            args[1].bytes
+        }
+        def e = thrown(IOException)
+        e.message == "Corrupt block, checksum mismatch."
+    }
+
+    private CompressingBuildCacheEntryPacker packer(CompressingBuildCacheEntryPacker.Compression compression) {
+        return new CompressingBuildCacheEntryPacker(delegate, compression, executor, 4)
+    }
+
+    private static byte[] content(int size) {
+        def random = new Random(size)
+        def words = ["class", "Foo", "extends", "Bar", "{", "}", "return", "42;", "\n"]
+        def content = new byte[size]
+        def position = 0
+        while (position < size) {
+            def word = (words[random.nextInt(words.size())] + " ").bytes
+            def length = Math.min(word.length, size - position)
+            System.arraycopy(word, 0, content, position, length)
+            position += length
+        }
+        return content
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2016 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.packaging.impl
+
+import org.gradle.api.internal.file.TestFiles
+import org.gradle.caching.local.internal.ContentAddressedFileStore
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.file.Deleter
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.nativeintegration.filesystem.FileSystem
+
+import static org.gradle.internal.file.TreeType.DIRECTORY
+
+class TarBuildCacheEntryDeduplicatorTest extends AbstractTarBuildCacheEntryPackerSpec {
+    def executor = new DefaultExecutorFactory().create("test", 1)
+    def compressingPacker = new CompressingBuildCacheEntryPacker(packer, CompressingBuildCacheEntryPacker.Compression.GZIP, executor, 1)
+    def deduplicator = new TarBuildCacheEntryDeduplicator(compressingPacker, streamHasher)
+    def contentStore = new ContentAddressedFileStore(temporaryFolder.file("cache/content"))
+
+    @Override
+    protected FileSystem createFileSystem() {
+        TestFiles.fileSystem()
+    }
+
+    @Override
+    protected Deleter createDeleter() {
+        TestFiles.deleter()
+    }
+
+    def cleanup() {
+        executor.stop()
+    }
+
+    def "stores the content of large files once and restores it when loading from the local cache"() {
+        def largeContent = new byte[2 * TarBuildCacheEntryDeduplicator.MIN_DEDUPLICATED_FILE_SIZE]
+        new Random(1).nextBytes(largeContent)
+        def firstSource = temporaryFolder.file("first").createDir()
+        firstSource.file("large.bin").bytes = largeContent
+        firstSource.file("small.txt") << "first"
+        def secondSource = temporaryFolder.file("second").createDir()
+        secondSource.file("sub/large.bin").bytes = largeContent
+        def firstManifest = deduplicate(firstSource)
+        def secondManifest = deduplicate(secondSource)
+
+        expect:
+        contentStore.dir.list() as List == [streamHasher.hash(new ByteArrayInputStream(largeContent)).toString()]
+        firstManifest.length() < largeContent.length
+        referencedContent(firstManifest) == referencedContent(secondManifest)
+
+        when:
+        def target = temporaryFolder.file("target")
+        contentStore.whileLoading {
+            compressingPacker.unpack(entity(prop(DIRECTORY, target)), new FileInputStream(firstManifest), readOrigin)
+        }
+
+        then:
+        target.file("large.bin").bytes == largeContent
+        target.file("small.txt").text == "first"
+    }
+
+    def "content can only be resolved when loading from the local cache"() {
+        def source = temporaryFolder.file("source").createDir()
+        source.file("large.bin").bytes = new byte[TarBuildCacheEntryDeduplicator.MIN_DEDUPLICATED_FILE_SIZE]
+        def manifest = deduplicate(source)
+
+        when:
+        compressingPacker.unpack(entity(prop(DIRECTORY, temporaryFolder.file("target"))), new FileInputStream(manifest), readOrigin)
+
+        then:
+        def e = thrown(IOException)
+        e.message == "Build cache entry refers to content that is only available when loading from the local build cache."
+    }
+
+    def "expands manifest into an entry that can be unpacked without the local cache"() {
+        def largeContent = new byte[2 * TarBuildCacheEntryDeduplicator.MIN_DEDUPLICATED_FILE_SIZE]
+        new Random(1).nextBytes(largeContent)
+        def source = temporaryFolder.file("source").createDir()
+        source.file("large.bin").bytes = largeContent
+        source.file("small.txt") << "small"
+        def manifest = deduplicate(source)
+        def expanded = temporaryFolder.file("expanded")
+
+        when:
+        contentStore.whileLoading {
+            deduplicator.expand(manifest, expanded)
+        }
+        def target = temporaryFolder.file("target")
+        compressingPacker.unpack(entity(prop(DIRECTORY, target)), new FileInputStream(expanded), readOrigin)
+
+        then:
+        referencedContent(expanded).empty
+        target.file("large.bin").bytes == largeContent
+        target.file("small.txt").text == "small"
+    }
+
+    def "detects corrupt content"() {
+        def source = temporaryFolder.file("source").createDir()
+        source.file("large.bin").bytes = new byte[TarBuildCacheEntryDeduplicator.MIN_DEDUPLICATED_FILE_SIZE]
+        def manifest = deduplicate(source)
+        def contentFile = contentStore.dir.listFiles()[0]
+        contentFile.bytes = new byte[10]
+
+        when:
+        contentStore.whileLoading {
+            compressingPacker.unpack(entity(prop(DIRECTORY, temporaryFolder.file("target"))), new FileInputStream(manifest), readOrigin)
+        }
+
+        then:
+        def e = thrown(IOException)
+        e.message == "Content ${contentFile} of the local build cache is corrupt."
+    }
+
+    private File deduplicate(File source) {
+        def entry = temporaryFolder.file("${source.name}.entry")
+        entry.withOutputStream { output ->
+            compressingPacker.pack(entity(prop(DIRECTORY, source)), [test: prop(DIRECTORY, source).fingerprint()], output, writeOrigin)
+        }
+        def manifest = temporaryFolder.file("${source.name}.manifest")
+        deduplicator.deduplicate(entry, manifest, contentStore)
+        return manifest
+    }
+
+    private Set<HashCode> referencedContent(File manifest) {
+        def hashes = [] as Set
+        deduplicator.visitReferencedContent(manifest) { hashes.add(it) }
+        return hashes
+    }
+}
@@ -32,6 +32,8 @@ import org.gradle.util.Requires
 import org.gradle.util.TestPrecondition
 import spock.lang.Unroll
 
+import java.util.concurrent.Executors
+
 import static org.gradle.internal.file.TreeType.DIRECTORY
 import static org.gradle.internal.file.TreeType.FILE
 
@@ -70,6 +72,36 @@ class TarBuildCacheEntryPackerTest extends AbstractTarBuildCacheEntryPackerSpec
         result.entries == 4
     }
 
+    def "unpacks files concurrently into the same tree as when unpacking sequentially"() {
+        def sourceOutputDir = temporaryFolder.file("source").createDir()
+        20.times { dir ->
+            10.times { sourceOutputDir.file("dir$dir/file${it}.txt") << "content $dir $it" }
+        }
+        sourceOutputDir.file("dir3/large.bin").bytes = new byte[2 * 1024 * 1024]
+        sourceOutputDir.file("dir3/empty").createDir()
+        def output = new ByteArrayOutputStream()
+        pack output, prop(DIRECTORY, sourceOutputDir)
+
+        def executor = Executors.newFixedThreadPool(4)
+        def concurrentPacker = new TarBuildCacheEntryPacker(deleter, fileSystem, streamHasher, stringInterner, executor)
+        def sequentialTarget = temporaryFolder.file("sequential/target")
+        def concurrentTarget = temporaryFolder.file("concurrent/target")
+
+        when:
+        def sequential = unpack new ByteArrayInputStream(output.toByteArray()), prop(DIRECTORY, sequentialTarget)
+        def concurrent = concurrentPacker.unpack(entity(prop(DIRECTORY, concurrentTarget)), new ByteArrayInputStream(output.toByteArray()), readOrigin)
+
+        then:
+        concurrent.entries == sequential.entries
+        concurrent.snapshots["test"].hash == sequential.snapshots["test"].hash
+        concurrentTarget.file("dir7/file3.txt").text == "content 7 3"
+        concurrentTarget.file("dir3/large.bin").length() == 2 * 1024 * 1024
+        concurrentTarget.file("dir3/empty").directory
+
+        cleanup:
+        executor?.shutdown()
+    }
+
     @Unroll
     def "can pack tree with missing #type (pre-existing as: #preExistsAs)"() {
         def sourceOutput = temporaryFolder.file("source")
@@ -293,7 +293,10 @@ class BuildCacheBuildOperationsIntegrationTest extends AbstractIntegrationSpec {
         packOp.result.archiveEntryCount == 5
         remoteStoreOp.details.archiveSize == packOp.result.archiveSize
 
-        operations.orderedSerialSiblings(remoteMissLoadOp, packOp, remoteStoreOp)
+        operations.orderedSerialSiblings(remoteMissLoadOp, packOp)
+        // The entry is stored in the background, outside of the operation that produced it
+        remoteStoreOp.parentId == null
+        remoteStoreOp.details.producerOperationId == packOp.parentId
 
         where:
         localStore | expectDeprecation | config
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import com.google.common.io.Files;
+import org.gradle.api.Action;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.internal.Factory;
+import org.gradle.internal.resource.local.DefaultLocallyAvailableResource;
+import org.gradle.internal.resource.local.FileAccessTracker;
+import org.gradle.internal.resource.local.LocallyAvailableResource;
+import org.gradle.internal.resource.local.PathKeyFileStore;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.util.GFileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Loads and stores entries of a {@link DirectoryBuildCacheService} from many threads, like a parallel build does.
+ */
+@Fork(1)
+@Warmup(iterations = 5, time = 1, timeUnit = SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = SECONDS)
+@State(Scope.Benchmark)
+public class DirectoryBuildCacheServiceBenchmark {
+    private static final int ENTRIES = 1000;
+    private static final int ENTRY_SIZE = 64 * 1024;
+    private static final int LARGE_ENTRY_SIZE = 16 * 1024 * 1024;
+
+    private final AtomicInteger storedEntries = new AtomicInteger();
+    private File cacheDir;
+    private DirectoryBuildCacheService service;
+    private byte[] largeEntry;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cacheDir = Files.createTempDir();
+        service = new DirectoryBuildCacheService(new SimplePathKeyFileStore(cacheDir), new UnlockedPersistentCache(cacheDir), new DefaultBuildCacheTempFileStore(cacheDir),
+            new NoOpFileAccessTracker(), ".failed", new ContentAddressedFileStore(new File(cacheDir, "content")), null, false);
+        byte[] entry = new byte[ENTRY_SIZE];
+        for (int i = 0; i < ENTRIES; i++) {
+            File file = new File(cacheDir, "entry.tmp");
+            Files.write(entry, file);
+            service.storeLocally(key("existing-" + i), file);
+        }
+        largeEntry = new byte[LARGE_ENTRY_SIZE];
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        service.close();
+        GFileUtils.deleteDirectory(cacheDir);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void load(Blackhole blackhole) {
+        loadExistingEntry(blackhole);
+    }
+
+    @Benchmark
+    @Group("loadWhileStoring")
+    @GroupThreads(6)
+    public void loadWhileStoringLoad(Blackhole blackhole) {
+        loadExistingEntry(blackhole);
+    }
+
+    @Benchmark
+    @Group("loadWhileStoring")
+    @GroupThreads(2)
+    public void loadWhileStoringStore() {
+        final BuildCacheKey key = key("stored-" + storedEntries.incrementAndGet());
+        service.withTempFile(key, new Action<File>() {
+            @Override
+            public void execute(File file) {
+                try {
+                    Files.write(largeEntry, file);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+                service.storeLocally(key, file);
+            }
+        });
+    }
+
+    private void loadExistingEntry(final Blackhole blackhole) {
+        service.loadLocally(key("existing-" + ThreadLocalRandom.current().nextInt(ENTRIES)), new Action<File>() {
+            @Override
+            public void execute(File file) {
+                try {
+                    blackhole.consume(Files.toByteArray(file));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+    }
+
+    private static BuildCacheKey key(final String hashCode) {
+        return new BuildCacheKey() {
+            @Override
+            public String getHashCode() {
+                return hashCode;
+            }
+
+            @Override
+            public byte[] toByteArray() {
+                return hashCode.getBytes();
+            }
+
+            @Override
+            public String getDisplayName() {
+                return hashCode;
+            }
+        };
+    }
+
+    private static class SimplePathKeyFileStore implements PathKeyFileStore {
+        private final File baseDir;
+
+        SimplePathKeyFileStore(File baseDir) {
+            this.baseDir = baseDir;
+        }
+
+        @Override
+        public LocallyAvailableResource get(String... path) {
+            File file = new File(baseDir, path[0]);
+            return file.exists() ? new DefaultLocallyAvailableResource(file) : null;
+        }
+
+        @Override
+        public LocallyAvailableResource move(String key, File source) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public LocallyAvailableResource add(String key, Action<File> addAction) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public Set<? extends LocallyAvailableResource> search(String key) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Runs all actions right away, as if no other process used the cache.
+     */
+    private static class UnlockedPersistentCache implements PersistentCache {
+        private final File baseDir;
+
+        UnlockedPersistentCache(File baseDir) {
+            this.baseDir = baseDir;
+        }
+
+        @Override
+        public File getBaseDir() {
+            return baseDir;
+        }
+
+        @Override
+        public Collection<File> getReservedCacheFiles() {
+            return Collections.emptyList();
+        }
+
+        @Override
+        public String getDisplayName() {
+            return "benchmark cache";
+        }
+
+        @Override
+        public <K, V> PersistentIndexedCache<K, V> createCache(PersistentIndexedCacheParameters<K, V> parameters) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <K, V> PersistentIndexedCache<K, V> createCache(String name, Class<K> keyType, Serializer<V> valueSerializer) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public <T> T useCache(Factory<? extends T> action) {
+            return action.create();
+        }
+
+        @Override
+        public void useCache(Runnable action) {
+            action.run();
+        }
+
+        @Override
+        public <T> T withFileLock(Factory<? extends T> action) {
+            return action.create();
+        }
+
+        @Override
+        public void withFileLock(Runnable action) {
+            action.run();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static class NoOpFileAccessTracker implements FileAccessTracker {
+        @Override
+        public void markAccessed(File file) {
+        }
+
+        @Override
+        public void markAccessed(Collection<File> files) {
+        }
+    }
+}
@@ -35,11 +35,11 @@
 import org.gradle.caching.internal.controller.service.NullBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.NullLocalBuildCacheServiceHandle;
 import org.gradle.caching.internal.controller.service.OpFiringBuildCacheServiceHandle;
-import org.gradle.caching.internal.controller.service.StoreTarget;
 import org.gradle.caching.local.internal.BuildCacheTempFileStore;
 import org.gradle.caching.local.internal.DefaultBuildCacheTempFileStore;
 import org.gradle.caching.local.internal.LocalBuildCacheService;
 import org.gradle.internal.UncheckedException;
+import org.gradle.internal.concurrent.ExecutorFactory;
 import org.gradle.internal.operations.BuildOperationContext;
 import org.gradle.internal.operations.BuildOperationDescriptor;
 import org.gradle.internal.operations.BuildOperationExecutor;
@@ -62,6 +62,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
     @VisibleForTesting
     final LocalBuildCacheServiceHandle local;
 
+    private final RemoteStoreQueue remoteStores;
     private final BuildCacheTempFileStore tmp;
     private final BuildOperationExecutor buildOperationExecutor;
     private final boolean emitDebugLogging;
@@ -71,6 +72,7 @@ public class DefaultBuildCacheController implements BuildCacheController {
     public DefaultBuildCacheController(
         BuildCacheServicesConfiguration config,
         BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
         File gradleUserHomeDir,
         boolean logStackTraces,
         boolean emitDebugLogging
@@ -79,6 +81,7 @@ public DefaultBuildCacheController(
         this.emitDebugLogging = emitDebugLogging;
         this.local = toLocalHandle(config.getLocal(), config.isLocalPush());
         this.remote = toRemoteHandle(config.getRemote(), config.isRemotePush(), buildOperationExecutor, logStackTraces);
+        this.remoteStores = new RemoteStoreQueue(remote, buildOperationExecutor, executorFactory);
         this.tmp = toTempFileStore(config.getLocal(), gradleUserHomeDir);
     }
 
@@ -179,7 +182,8 @@ public void store(BuildCacheStoreCommand command) {
             pack.execute(file);
 
             if (remote.canStore()) {
-                remote.store(key, new StoreTarget(file));
+                // The local cache takes ownership of the file, so the remote store needs its own copy
+                remoteStores.store(key, file, local.canStore());
             }
 
             if (local.canStore()) {
@@ -229,6 +233,8 @@ public void close() throws IOException {
             Closer closer = Closer.create();
             closer.register(local);
             closer.register(remote);
+            // Closed first, so that pending stores complete before the remote cache is closed
+            closer.register(remoteStores);
             closer.close();
         }
     }
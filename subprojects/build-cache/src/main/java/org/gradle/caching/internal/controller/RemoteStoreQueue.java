@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.internal.controller;
+
+import org.gradle.caching.BuildCacheKey;
+import org.gradle.caching.internal.controller.operations.StoreOperationDetails;
+import org.gradle.caching.internal.controller.operations.StoreOperationResult;
+import org.gradle.caching.internal.controller.service.BuildCacheServiceHandle;
+import org.gradle.caching.internal.controller.service.StoreTarget;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.CurrentBuildOperationRef;
+import org.gradle.internal.operations.OperationIdentifier;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores entries in the remote build cache in the background, so that the worker that produced an entry does not wait for the upload.
+ *
+ * <p>A build operation must not complete before its children, so the store operation of an entry can't be a child of the operation that
+ * produced the entry, for example the execution of a task. Instead, it is a root operation that refers to the producer by its id,
+ * see {@link org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType.Details#getProducerOperationId()}.</p>
+ *
+ * <p>Each entry is staged next to the temp file it was packed into, as the temp file may be moved into the local cache or deleted
+ * as soon as {@link #store(BuildCacheKey, File, boolean)} returns. At most {@value #MAX_PENDING_STORES} entries are pending at any time.
+ * When the queue is full, the entry is not stored, and a store operation with a {@link StoreOperationResult#NOT_STORED} result is fired
+ * for it instead. Pending stores are completed when the queue is closed at the end of the build.</p>
+ */
+class RemoteStoreQueue implements Closeable {
+    private static final Logger LOGGER = LoggerFactory.getLogger(RemoteStoreQueue.class);
+
+    static final int MAX_CONCURRENT_STORES = 4;
+    static final int MAX_PENDING_STORES = 64;
+    private static final String STAGED_FILE_SUFFIX = ".upload";
+
+    private final BuildCacheServiceHandle remote;
+    private final BuildOperationExecutor buildOperationExecutor;
+    private final ManagedExecutor executor;
+    private final Semaphore pendingStores = new Semaphore(MAX_PENDING_STORES);
+    private final AtomicInteger rejectedStores = new AtomicInteger();
+
+    RemoteStoreQueue(BuildCacheServiceHandle remote, BuildOperationExecutor buildOperationExecutor, ExecutorFactory executorFactory) {
+        this.remote = remote;
+        this.buildOperationExecutor = buildOperationExecutor;
+        this.executor = executorFactory.create("Remote build cache store", MAX_CONCURRENT_STORES);
+    }
+
+    /**
+     * Queues the given entry to be stored in the remote build cache.
+     *
+     * @param file the packed entry. Unless {@code keepFile} is true, the file is moved and must not be used by the caller afterwards.
+     */
+    void store(BuildCacheKey key, File file, boolean keepFile) {
+        if (!pendingStores.tryAcquire()) {
+            rejectedStores.incrementAndGet();
+            fireNotStored(key, file.length());
+            return;
+        }
+        File stagedFile;
+        try {
+            stagedFile = stage(file, keepFile);
+        } catch (IOException e) {
+            pendingStores.release();
+            LOGGER.debug("Could not stage build cache entry {} for storing in the background, storing it now.", key.getHashCode(), e);
+            remote.store(key, new StoreTarget(file));
+            return;
+        }
+        OperationIdentifier producerOperationId = CurrentBuildOperationRef.instance().getId();
+        executor.execute(() -> {
+            try {
+                // A previous store may have disabled the remote cache since this one was queued
+                if (remote.canStore()) {
+                    remote.store(key, new StoreTarget(stagedFile, producerOperationId));
+                }
+            } finally {
+                GFileUtils.deleteQuietly(stagedFile);
+                pendingStores.release();
+            }
+        });
+    }
+
+    private static File stage(File file, boolean keepFile) throws IOException {
+        File stagedFile = new File(file.getParentFile(), file.getName() + STAGED_FILE_SUFFIX);
+        if (!keepFile) {
+            Files.move(file.toPath(), stagedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return stagedFile;
+        }
+        try {
+            Files.createLink(stagedFile.toPath(), file.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            // The file system does not support hard links
+            Files.copy(file.toPath(), stagedFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+        return stagedFile;
+    }
+
+    private void fireNotStored(BuildCacheKey key, long size) {
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                LOGGER.info("Not storing entry {} in remote build cache, as there are too many pending stores.", key.getDisplayName());
+                context.setResult(StoreOperationResult.NOT_STORED);
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Store entry " + key.getDisplayName() + " in remote build cache")
+                    .details(new StoreOperationDetails(key, size))
+                    .progressDisplayName("Uploading to remote build cache");
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        executor.stop();
+        int rejected = rejectedStores.get();
+        if (rejected > 0) {
+            LOGGER.warn("{} entries were not stored in the remote build cache, as there were too many pending stores.", rejected);
+        }
+    }
+}
@@ -18,15 +18,24 @@
 
 import org.gradle.caching.BuildCacheKey;
 import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType;
+import org.gradle.internal.operations.OperationIdentifier;
+
+import javax.annotation.Nullable;
 
 public class StoreOperationDetails implements BuildCacheRemoteStoreBuildOperationType.Details {
 
     private final BuildCacheKey cacheKey;
     private final long archiveSize;
+    private final OperationIdentifier producerOperationId;
 
     public StoreOperationDetails(BuildCacheKey cacheKey, long archiveSize) {
+        this(cacheKey, archiveSize, null);
+    }
+
+    public StoreOperationDetails(BuildCacheKey cacheKey, long archiveSize, @Nullable OperationIdentifier producerOperationId) {
         this.cacheKey = cacheKey;
         this.archiveSize = archiveSize;
+        this.producerOperationId = producerOperationId;
     }
 
     @Override
@@ -38,4 +47,10 @@ public String getCacheKey() {
     public long getArchiveSize() {
         return archiveSize;
     }
+
+    @Nullable
+    @Override
+    public Long getProducerOperationId() {
+        return producerOperationId == null ? null : producerOperationId.getId();
+    }
 }
@@ -19,7 +19,9 @@
 import com.google.common.io.Closer;
 import com.google.common.io.Files;
 import org.gradle.caching.BuildCacheEntryWriter;
+import org.gradle.internal.operations.OperationIdentifier;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
@@ -27,10 +29,19 @@
 public class StoreTarget implements BuildCacheEntryWriter {
 
     private final File file;
+    private final OperationIdentifier producerOperationId;
     private boolean stored;
 
     public StoreTarget(File file) {
+        this(file, null);
+    }
+
+    /**
+     * @param producerOperationId the build operation that produced the entry, when the entry is stored outside of it.
+     */
+    public StoreTarget(File file, @Nullable OperationIdentifier producerOperationId) {
         this.file = file;
+        this.producerOperationId = producerOperationId;
     }
 
     @Override
@@ -54,6 +65,11 @@ public boolean isStored() {
         return stored;
     }
 
+    @Nullable
+    public OperationIdentifier getProducerOperationId() {
+        return producerOperationId;
+    }
+
     @Override
     public long getSize() {
         return file.length();
@@ -19,6 +19,8 @@
 import org.gradle.internal.operations.BuildOperationType;
 import org.gradle.internal.scan.UsedByScanPlugin;
 
+import javax.annotation.Nullable;
+
 /**
  * A store operation to a build cache.
  *
@@ -40,6 +42,14 @@ public interface Details {
          */
         long getArchiveSize();
 
+        /**
+         * The id of the build operation that produced the entry, for example the execution of a task.
+         * The store runs in the background once the entry has been produced, so it is not a child of that operation.
+         * Null when the store is a child of the operation that produced the entry.
+         */
+        @Nullable
+        Long getProducerOperationId();
+
     }
 
     @UsedByScanPlugin
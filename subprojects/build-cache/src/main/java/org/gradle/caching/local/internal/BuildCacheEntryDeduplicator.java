@@ -0,0 +1,46 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.internal.hash.HashCode;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Converts build cache entries into manifests that refer to the contents of large files in a {@link ContentAddressedFileStore}.
+ *
+ * <p>A manifest can be loaded like the entry it was created from, as long as it is loaded from the local build cache the content store belongs to.</p>
+ */
+public interface BuildCacheEntryDeduplicator {
+    /**
+     * Writes the manifest for the given entry, adding the contents it refers to to the content store.
+     */
+    void deduplicate(File entry, File manifest, ContentAddressedFileStore contentStore) throws IOException;
+
+    /**
+     * Writes the entry the given manifest was created from, so that it can be loaded without the content store.
+     * Must be called while loading from the content store, see {@link ContentAddressedFileStore#whileLoading(Runnable)}.
+     */
+    void expand(File manifest, File entry) throws IOException;
+
+    /**
+     * Visits the hashes of the contents the given manifest refers to.
+     */
+    void visitReferencedContent(File manifest, Consumer<HashCode> visitor) throws IOException;
+}
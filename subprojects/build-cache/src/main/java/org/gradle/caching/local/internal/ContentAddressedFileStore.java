@@ -0,0 +1,116 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.internal.hash.HashCode;
+import org.gradle.util.GFileUtils;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Stores file contents of a local build cache by their hash, so that contents shared by several entries are only stored once.
+ *
+ * <p>Entries refer to the contents via the hash, and the contents can only be resolved while such an entry is being loaded from the local build cache.
+ * This way an entry that has been loaded from elsewhere can't be used to read arbitrary files.</p>
+ */
+public class ContentAddressedFileStore {
+    private static final ThreadLocal<ContentAddressedFileStore> LOADING_FROM = new ThreadLocal<ContentAddressedFileStore>();
+
+    private final File dir;
+
+    public ContentAddressedFileStore(File dir) {
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /**
+     * Adds the content written by the given writer, unless the same content has been stored before.
+     *
+     * @return the hash of the content.
+     */
+    public HashCode add(ContentWriter writer) throws IOException {
+        GFileUtils.mkdirs(dir);
+        File tempFile = File.createTempFile("content-", BuildCacheTempFileStore.PARTIAL_FILE_SUFFIX, dir);
+        try {
+            HashCode hash = writer.writeTo(tempFile);
+            File contentFile = getContentFile(hash);
+            if (!contentFile.exists()) {
+                try {
+                    Files.move(tempFile.toPath(), contentFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (FileAlreadyExistsException e) {
+                    // Stored concurrently
+                }
+            }
+            return hash;
+        } finally {
+            GFileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    File getContentFile(HashCode hash) {
+        return new File(dir, hash.toString());
+    }
+
+    /**
+     * Runs the given action, making the contents of this store available to {@link #getContentForCurrentLoad(HashCode)} on the current thread.
+     */
+    public void whileLoading(Runnable action) {
+        ContentAddressedFileStore previous = LOADING_FROM.get();
+        LOADING_FROM.set(this);
+        try {
+            action.run();
+        } finally {
+            if (previous == null) {
+                LOADING_FROM.remove();
+            } else {
+                LOADING_FROM.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Returns the file holding the content with the given hash, for the entry that is being loaded from the local build cache on the current thread.
+     */
+    public static File getContentForCurrentLoad(HashCode hash) throws IOException {
+        ContentAddressedFileStore store = LOADING_FROM.get();
+        if (store == null) {
+            throw new IOException("Build cache entry refers to content that is only available when loading from the local build cache.");
+        }
+        File contentFile = store.getContentFile(hash);
+        if (!contentFile.isFile()) {
+            throw new FileNotFoundException(String.format("Content %s is missing from the local build cache.", contentFile));
+        }
+        return contentFile;
+    }
+
+    public interface ContentWriter {
+        /**
+         * Writes the content to the given file.
+         *
+         * @return the hash of the content.
+         */
+        HashCode writeTo(File file) throws IOException;
+    }
+}
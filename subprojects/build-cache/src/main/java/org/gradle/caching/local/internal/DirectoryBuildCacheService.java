@@ -17,6 +17,7 @@
 package org.gradle.caching.local.internal;
 
 import com.google.common.io.Closer;
+import com.google.common.util.concurrent.Striped;
 import org.gradle.api.Action;
 import org.gradle.api.UncheckedIOException;
 import org.gradle.cache.PersistentCache;
@@ -30,30 +31,55 @@
 import org.gradle.internal.resource.local.LocallyAvailableResource;
 import org.gradle.internal.resource.local.PathKeyFileStore;
 import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.concurrent.locks.ReadWriteLock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 public class DirectoryBuildCacheService implements LocalBuildCacheService, BuildCacheService {
+    /**
+     * Suffix of entries stored as manifests by a {@link BuildCacheEntryDeduplicator}.
+     */
+    public static final String MANIFEST_SUFFIX = ".manifest";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DirectoryBuildCacheService.class);
+    private static final int LOCK_STRIPES = 64;
 
     private final PathKeyFileStore fileStore;
     private final PersistentCache persistentCache;
     private final BuildCacheTempFileStore tempFileStore;
     private final FileAccessTracker fileAccessTracker;
     private final String failedFileSuffix;
-    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ContentAddressedFileStore contentStore;
+    private final BuildCacheEntryDeduplicator deduplicator;
+    private final boolean deduplicate;
+    private final Striped<ReadWriteLock> locks = Striped.readWriteLock(LOCK_STRIPES);
 
-    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix) {
+    /**
+     * @param deduplicator expands manifests into complete entries when they are loaded via {@link #load(BuildCacheKey, BuildCacheEntryReader)}.
+     * Without it, such loads treat manifests as a miss.
+     * @param deduplicate whether entries are stored as manifests that refer to the contents in the content store.
+     * Manifests are loaded regardless, as they may have been stored by another build.
+     */
+    public DirectoryBuildCacheService(PathKeyFileStore fileStore, PersistentCache persistentCache, BuildCacheTempFileStore tempFileStore, FileAccessTracker fileAccessTracker, String failedFileSuffix,
+                                      ContentAddressedFileStore contentStore, @Nullable BuildCacheEntryDeduplicator deduplicator, boolean deduplicate) {
         this.fileStore = fileStore;
         this.persistentCache = persistentCache;
         this.tempFileStore = tempFileStore;
         this.fileAccessTracker = fileAccessTracker;
         this.failedFileSuffix = failedFileSuffix;
+        this.contentStore = contentStore;
+        this.deduplicator = deduplicator;
+        this.deduplicate = deduplicate && deduplicator != null;
     }
 
     private static class LoadAction implements Action<File> {
@@ -84,38 +110,85 @@ public void execute(@Nonnull File file) {
     @Override
     public boolean load(final BuildCacheKey key, final BuildCacheEntryReader reader) throws BuildCacheException {
         LoadAction loadAction = new LoadAction(reader);
-        loadLocally(key, loadAction);
+        // The reader may keep the entry and unpack it later, when the content store is no longer available to it
+        load(key, loadAction, true);
         return loadAction.loaded;
     }
 
     @Override
     public void loadLocally(final BuildCacheKey key, final Action<? super File> reader) {
-        // We need to lock other processes out here because garbage collection can be under way in another process
-        persistentCache.withFileLock(new Runnable() {
-            @Override
-            public void run() {
-                lock.readLock().lock();
-                try {
-                    loadInsideLock(key, reader);
-                } finally {
-                    lock.readLock().unlock();
-                }
-            }
-        });
+        load(key, reader, false);
     }
 
-    private void loadInsideLock(BuildCacheKey key, Action<? super File> reader) {
+    private void load(final BuildCacheKey key, final Action<? super File> reader, boolean expandManifest) {
+        // Other processes are not locked out here: entries are renamed into place once complete, and garbage collection
+        // only removes entries that have not been used for days, which a concurrent load handles as a miss
+        ReadWriteLock lock = locks.get(key.getHashCode());
+        lock.readLock().lock();
+        try {
+            loadInsideLock(key, reader, expandManifest);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void loadInsideLock(final BuildCacheKey key, final Action<? super File> reader, final boolean expandManifest) {
         LocallyAvailableResource resource = fileStore.get(key.getHashCode());
-        if (resource == null) {
-            return;
+        if (resource != null) {
+            loadEntry(resource.getFile(), reader);
+        } else if (expandManifest && deduplicator == null) {
+            LOGGER.debug("Not loading build cache entry {} stored as a manifest, as it can't be expanded.", key);
+        } else if (fileStore.get(key.getHashCode() + MANIFEST_SUFFIX) != null) {
+            // Removing unreferenced content holds the file lock as well, so it can't remove the content the manifest refers to while loading
+            persistentCache.withFileLock(new Runnable() {
+                @Override
+                public void run() {
+                    final LocallyAvailableResource manifest = fileStore.get(key.getHashCode() + MANIFEST_SUFFIX);
+                    if (manifest == null) {
+                        return;
+                    }
+                    fileAccessTracker.markAccessed(contentStore.getDir());
+                    contentStore.whileLoading(new Runnable() {
+                        @Override
+                        public void run() {
+                            loadEntry(manifest.getFile(), expandManifest ? expanding(key, reader) : reader);
+                        }
+                    });
+                }
+            });
         }
+    }
 
-        File file = resource.getFile();
+    private Action<File> expanding(final BuildCacheKey key, final Action<? super File> reader) {
+        return new Action<File>() {
+            @Override
+            public void execute(@Nonnull final File manifest) {
+                tempFileStore.withTempFile(key, new Action<File>() {
+                    @Override
+                    public void execute(@Nonnull File entry) {
+                        try {
+                            deduplicator.expand(manifest, entry);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        reader.execute(entry);
+                    }
+                });
+            }
+        };
+    }
+
+    private void loadEntry(File file, Action<? super File> reader) {
         fileAccessTracker.markAccessed(file);
 
         try {
             reader.execute(file);
         } catch (Exception e) {
+            if (!file.exists()) {
+                // Removed by garbage collection in another process before it could be opened
+                LOGGER.debug("Build cache entry {} was removed while loading it.", file, e);
+                return;
+            }
             // Try to move the file out of the way in case its permanently corrupt
             // Don't delete, so that it can be potentially used for debugging
             File failedFile = new File(file.getAbsolutePath() + failedFileSuffix);
@@ -152,32 +225,76 @@ public void execute(@Nonnull File file) {
 
     @Override
     public void storeLocally(final BuildCacheKey key, final File file) {
+        if (!deduplicate) {
+            publish(key, key.getHashCode(), file);
+            return;
+        }
+        // Removing unreferenced content holds the file lock as well, so it can't remove the added content before the manifest referring to it is in place
         persistentCache.withFileLock(new Runnable() {
             @Override
             public void run() {
-                lock.writeLock().lock();
+                storeDeduplicated(key, file);
+            }
+        });
+    }
+
+    private void storeDeduplicated(final BuildCacheKey key, final File file) {
+        tempFileStore.withTempFile(key, new Action<File>() {
+            @Override
+            public void execute(@Nonnull File manifest) {
                 try {
-                    storeInsideLock(key, file);
-                } finally {
-                    lock.writeLock().unlock();
+                    deduplicator.deduplicate(file, manifest, contentStore);
+                } catch (Exception e) {
+                    LOGGER.warn("Could not deduplicate build cache entry {}, storing it as is.", key, e);
+                    publish(key, key.getHashCode(), file);
+                    return;
                 }
+                publish(key, key.getHashCode() + MANIFEST_SUFFIX, manifest);
+                fileAccessTracker.markAccessed(contentStore.getDir());
+                GFileUtils.deleteQuietly(file);
             }
         });
     }
 
-    private void storeInsideLock(BuildCacheKey key, File file) {
-        LocallyAvailableResource resource = fileStore.move(key.getHashCode(), file);
-        fileAccessTracker.markAccessed(resource.getFile());
+    /**
+     * Atomically renames the given file into place, so that neither this nor another process ever sees a partial entry.
+     */
+    private void publish(BuildCacheKey key, String path, File file) {
+        File target = new File(persistentCache.getBaseDir(), path);
+        // Record the access first, so that garbage collection never considers the new entry unused
+        fileAccessTracker.markAccessed(target);
+        // Only needs to exclude loads of the same entry, as replacing a file that is being read fails on some platforms
+        ReadWriteLock lock = locks.get(key.getHashCode());
+        lock.writeLock().lock();
+        try {
+            moveAtomically(file, target);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static void moveAtomically(File file, File target) {
+        try {
+            try {
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(file.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            if (target.isFile()) {
+                // Another process has stored the same entry, and is reading it
+                LOGGER.debug("Could not replace build cache entry {}, keeping the existing one.", target, e);
+                GFileUtils.deleteQuietly(file);
+                return;
+            }
+            throw new UncheckedIOException(e);
+        }
     }
 
     @Override
     public void withTempFile(final BuildCacheKey key, final Action<? super File> action) {
-        persistentCache.withFileLock(new Runnable() {
-            @Override
-            public void run() {
-                tempFileStore.withTempFile(key, action);
-            }
-        });
+        // Garbage collection leaves temporary files that are being written alone, as they have been modified recently
+        tempFileStore.withTempFile(key, action);
     }
 
     @Override
@@ -19,9 +19,12 @@
 import org.gradle.api.UncheckedIOException;
 import org.gradle.cache.CacheBuilder;
 import org.gradle.cache.CacheRepository;
+import org.gradle.cache.FileLockManager;
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.internal.CacheScopeMapping;
 import org.gradle.cache.internal.CleanupActionFactory;
+import org.gradle.cache.internal.CompositeCleanupAction;
+import org.gradle.cache.internal.FilesFinder;
 import org.gradle.cache.internal.LeastRecentlyUsedCacheCleanup;
 import org.gradle.cache.internal.SingleDepthFilesFinder;
 import org.gradle.cache.internal.VersionStrategy;
@@ -42,11 +45,16 @@
 
 public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFactory<DirectoryBuildCache> {
     public static final String FAILED_READ_SUFFIX = ".failed";
+    /**
+     * Enables storing the contents of large files only once, no matter how many entries they belong to.
+     */
+    public static final String DEDUPLICATION_PROPERTY = "org.gradle.unsafe.build-cache.local-deduplication";
 
     private static final String BUILD_CACHE_VERSION = "1";
     private static final String BUILD_CACHE_KEY = "build-cache-" + BUILD_CACHE_VERSION;
     private static final String DIRECTORY_BUILD_CACHE_TYPE = "directory";
     private static final int FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP = 1;
+    private static final String CONTENT_DIRECTORY = "content";
 
     private final CacheRepository cacheRepository;
     private final CacheScopeMapping cacheScopeMapping;
@@ -54,16 +62,21 @@ public class DirectoryBuildCacheServiceFactory implements BuildCacheServiceFacto
     private final DirectoryBuildCacheFileStoreFactory fileStoreFactory;
     private final CleanupActionFactory cleanupActionFactory;
     private final FileAccessTimeJournal fileAccessTimeJournal;
+    private final BuildCacheEntryDeduplicator deduplicator;
+    private final FileLockManager fileLockManager;
 
     @Inject
     public DirectoryBuildCacheServiceFactory(CacheRepository cacheRepository, CacheScopeMapping cacheScopeMapping, PathToFileResolver resolver, DirectoryBuildCacheFileStoreFactory fileStoreFactory,
-                                             CleanupActionFactory cleanupActionFactory, FileAccessTimeJournal fileAccessTimeJournal) {
+                                             CleanupActionFactory cleanupActionFactory, FileAccessTimeJournal fileAccessTimeJournal, BuildCacheEntryDeduplicator deduplicator,
+                                             FileLockManager fileLockManager) {
         this.cacheRepository = cacheRepository;
         this.cacheScopeMapping = cacheScopeMapping;
         this.resolver = resolver;
         this.fileStoreFactory = fileStoreFactory;
         this.cleanupActionFactory = cleanupActionFactory;
         this.fileAccessTimeJournal = fileAccessTimeJournal;
+        this.deduplicator = deduplicator;
+        this.fileLockManager = fileLockManager;
     }
 
     @Override
@@ -83,9 +96,13 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
             config("removeUnusedEntriesAfter", String.valueOf(removeUnusedEntriesAfterDays) + " days");
 
         PathKeyFileStore fileStore = fileStoreFactory.createFileStore(target);
+        ContentAddressedFileStore contentStore = new ContentAddressedFileStore(new File(target, CONTENT_DIRECTORY));
         PersistentCache persistentCache = cacheRepository
             .cache(target)
-            .withCleanup(cleanupActionFactory.create(new LeastRecentlyUsedCacheCleanup(new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP), fileAccessTimeJournal, removeUnusedEntriesAfterDays)))
+            .withCleanup(cleanupActionFactory.create(CompositeCleanupAction.builder()
+                .add(new LeastRecentlyUsedCacheCleanup(entriesFinder(contentStore.getDir()), fileAccessTimeJournal, removeUnusedEntriesAfterDays))
+                .add(new UnreferencedContentCleanup(contentStore, deduplicator, DirectoryBuildCacheService.MANIFEST_SUFFIX, fileLockManager))
+                .build()))
             .withDisplayName("Build cache")
             .withLockOptions(mode(None))
             .withCrossVersionCache(CacheBuilder.LockTarget.DefaultTarget)
@@ -93,7 +110,15 @@ public BuildCacheService createBuildCacheService(DirectoryBuildCache configurati
         BuildCacheTempFileStore tempFileStore = new DefaultBuildCacheTempFileStore(target);
         FileAccessTracker fileAccessTracker = new SingleDepthFileAccessTracker(fileAccessTimeJournal, target, FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
 
-        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX);
+        return new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, FAILED_READ_SUFFIX, contentStore, deduplicator, Boolean.getBoolean(DEDUPLICATION_PROPERTY));
+    }
+
+    /**
+     * Finds the entries, leaving the contents to {@link UnreferencedContentCleanup}.
+     */
+    private static FilesFinder entriesFinder(File contentDir) {
+        FilesFinder filesFinder = new SingleDepthFilesFinder(FILE_TREE_DEPTH_TO_TRACK_AND_CLEANUP);
+        return (baseDir, filter) -> filesFinder.find(baseDir, file -> !file.equals(contentDir) && filter.accept(file));
     }
 
     private static void checkDirectory(File directory) {
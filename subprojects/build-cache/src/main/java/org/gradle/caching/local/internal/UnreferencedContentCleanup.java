@@ -0,0 +1,117 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.caching.local.internal;
+
+import org.gradle.cache.CleanableStore;
+import org.gradle.cache.CleanupAction;
+import org.gradle.cache.CleanupProgressMonitor;
+import org.gradle.cache.FileLock;
+import org.gradle.cache.FileLockManager;
+import org.gradle.internal.hash.HashCode;
+import org.gradle.util.GFileUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.gradle.cache.FileLockManager.LockMode.Exclusive;
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
+/**
+ * Deletes the contents of a {@link ContentAddressedFileStore} that are no longer referred to by any manifest in the local build cache.
+ *
+ * <p>Runs after the entries that have not been used recently have been removed, so that the contents are only kept as long as an entry refers to them.</p>
+ *
+ * <p>Cleanup runs once the cache has been closed, so the file lock of the cache is acquired again while looking for unreferenced contents.
+ * Storing an entry adds its contents before the manifest referring to them is in place, and holds the same lock while doing so.</p>
+ */
+public class UnreferencedContentCleanup implements CleanupAction {
+    private static final Logger LOGGER = LoggerFactory.getLogger(UnreferencedContentCleanup.class);
+
+    private final ContentAddressedFileStore contentStore;
+    private final BuildCacheEntryDeduplicator deduplicator;
+    private final String manifestSuffix;
+    private final FileLockManager lockManager;
+
+    public UnreferencedContentCleanup(ContentAddressedFileStore contentStore, BuildCacheEntryDeduplicator deduplicator, String manifestSuffix, FileLockManager lockManager) {
+        this.contentStore = contentStore;
+        this.deduplicator = deduplicator;
+        this.manifestSuffix = manifestSuffix;
+        this.lockManager = lockManager;
+    }
+
+    @Override
+    public void clean(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        String[] contentFileNames = contentStore.getDir().list();
+        if (contentFileNames == null || contentFileNames.length == 0) {
+            return;
+        }
+        FileLock lock = lockManager.lock(cleanableStore.getBaseDir(), mode(Exclusive), cleanableStore.getDisplayName(), "remove unreferenced build cache content");
+        try {
+            cleanInsideLock(cleanableStore, progressMonitor);
+        } finally {
+            lock.close();
+        }
+    }
+
+    private void cleanInsideLock(CleanableStore cleanableStore, CleanupProgressMonitor progressMonitor) {
+        File[] contentFiles = contentStore.getDir().listFiles();
+        if (contentFiles == null || contentFiles.length == 0) {
+            return;
+        }
+        Set<HashCode> referencedContent = new HashSet<HashCode>();
+        File[] manifests = cleanableStore.getBaseDir().listFiles(file -> file.getName().endsWith(manifestSuffix) && file.isFile());
+        if (manifests != null) {
+            for (File manifest : manifests) {
+                try {
+                    deduplicator.visitReferencedContent(manifest, referencedContent::add);
+                } catch (IOException | RuntimeException e) {
+                    // The manifest can't be loaded either, so get rid of it
+                    LOGGER.debug("Could not read build cache manifest {}, deleting it.", manifest, e);
+                    GFileUtils.deleteQuietly(manifest);
+                }
+            }
+        }
+
+        int filesDeleted = 0;
+        for (File contentFile : contentFiles) {
+            if (referencedContent.contains(hashOf(contentFile))) {
+                progressMonitor.incrementSkipped();
+            } else {
+                progressMonitor.incrementDeleted();
+                if (GFileUtils.deleteQuietly(contentFile)) {
+                    filesDeleted++;
+                }
+            }
+        }
+        LOGGER.debug("{} cleanup deleted {} unreferenced content files.", cleanableStore.getDisplayName(), filesDeleted);
+    }
+
+    @Nullable
+    private static HashCode hashOf(File contentFile) {
+        try {
+            return HashCode.fromString(contentFile.getName());
+        } catch (IllegalArgumentException e) {
+            // Not content, e.g. a partially written file
+            return null;
+        }
+    }
+}
@@ -22,12 +22,21 @@ import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
 import org.gradle.caching.BuildCacheService
 import org.gradle.caching.internal.controller.service.BuildCacheServicesConfiguration
+import org.gradle.caching.internal.operations.BuildCacheRemoteStoreBuildOperationType
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
+import org.gradle.internal.concurrent.ExecutorFactory
+import org.gradle.internal.operations.BuildOperationRef
+import org.gradle.internal.operations.CurrentBuildOperationRef
+import org.gradle.internal.operations.OperationIdentifier
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
 import spock.lang.Specification
 import org.junit.Rule
 
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
 class DefaultBuildCacheControllerTest extends Specification {
 
     def key = Mock(BuildCacheKey) {
@@ -77,6 +86,7 @@ class DefaultBuildCacheControllerTest extends Specification {
     }
 
     def operations = new TestBuildOperationExecutor()
+    ExecutorFactory executorFactory = new DefaultExecutorFactory()
 
     @Rule
     final TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
@@ -92,6 +102,7 @@ class DefaultBuildCacheControllerTest extends Specification {
                 remotePush
             ),
             operations,
+            executorFactory,
             tmpDir.file("dir"),
             false,
             false
@@ -115,7 +126,9 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * remote.store(key, _) >> { throw new RuntimeException() }
 
         when:
+        def controller = getController()
         controller.store(storeCommand)
+        controller.close()
 
         then:
         noExceptionThrown()
@@ -129,7 +142,9 @@ class DefaultBuildCacheControllerTest extends Specification {
         localPush = false
 
         when:
+        def controller = getController()
         controller.store(storeCommand)
+        controller.close()
 
         then:
         0 * local.storeLocally(key, _)
@@ -140,7 +155,9 @@ class DefaultBuildCacheControllerTest extends Specification {
         local = null
 
         when:
+        def controller = getController()
         controller.store(storeCommand)
+        controller.close()
 
         then:
         0 * local.store(key, _)
@@ -224,11 +241,13 @@ class DefaultBuildCacheControllerTest extends Specification {
 
     def "stops calling through after write error"() {
         local = null
+        executorFactory = serialExecutorFactory()
 
         when:
         def controller = getController()
         controller.store(storeCommand)
         controller.store(storeCommand)
+        controller.close()
         controller.load(loadCommand)
 
         then:
@@ -239,6 +258,64 @@ class DefaultBuildCacheControllerTest extends Specification {
         0 * remote.store(key, _)
     }
 
+    def "stores in remote in the background"() {
+        def storeReturned = new CountDownLatch(1)
+        def storedSize = null
+        def producer = Stub(BuildOperationRef) {
+            getId() >> new OperationIdentifier(42)
+        }
+
+        when:
+        def controller = getController()
+        CurrentBuildOperationRef.instance().set(producer)
+        try {
+            controller.store(storeCommand)
+        } finally {
+            CurrentBuildOperationRef.instance().clear()
+        }
+        storeReturned.countDown()
+        controller.close()
+
+        then:
+        1 * local.storeLocally(key, _)
+        1 * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            assert storeReturned.await(10, TimeUnit.SECONDS)
+            def output = new ByteArrayOutputStream()
+            writer.writeTo(output)
+            storedSize = output.size()
+        }
+
+        and:
+        storedSize == 0
+        operations.log.mostRecentResult(BuildCacheRemoteStoreBuildOperationType).stored
+        operations.log.mostRecentDetails(BuildCacheRemoteStoreBuildOperationType).producerOperationId == 42
+    }
+
+    def "does not store in remote when too many stores are pending"() {
+        def storesQueued = new CountDownLatch(1)
+        def pendingStores = RemoteStoreQueue.MAX_PENDING_STORES
+        local = null
+
+        when:
+        def controller = getController()
+        (pendingStores + 1).times {
+            controller.store(storeCommand)
+        }
+        storesQueued.countDown()
+        controller.close()
+
+        then:
+        pendingStores * remote.store(key, _) >> { BuildCacheKey key, BuildCacheEntryWriter writer ->
+            storesQueued.await()
+            writer.writeTo(new ByteArrayOutputStream())
+        }
+
+        and:
+        def results = operations.log.all(BuildCacheRemoteStoreBuildOperationType)*.result
+        results.size() == pendingStores + 1
+        results.count { !it.stored } == 1
+    }
+
     def "close only closes once"() {
         when:
         def controller = getController()
@@ -250,4 +327,11 @@ class DefaultBuildCacheControllerTest extends Specification {
         1 * local.close()
         1 * remote.close()
     }
+
+    private ExecutorFactory serialExecutorFactory() {
+        def delegate = new DefaultExecutorFactory()
+        return Stub(ExecutorFactory) {
+            create(_ as String, _ as Integer) >> { String displayName, int fixedSize -> delegate.create(displayName, 1) }
+        }
+    }
 }
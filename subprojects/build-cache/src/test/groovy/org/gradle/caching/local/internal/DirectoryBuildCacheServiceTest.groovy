@@ -20,6 +20,7 @@ import org.gradle.cache.PersistentCache
 import org.gradle.caching.BuildCacheEntryReader
 import org.gradle.caching.BuildCacheEntryWriter
 import org.gradle.caching.BuildCacheKey
+import org.gradle.internal.hash.HashCode
 import org.gradle.internal.resource.local.DefaultPathKeyFileStore
 import org.gradle.internal.resource.local.FileAccessTracker
 import org.gradle.test.fixtures.file.CleanupTestDirectory
@@ -40,7 +41,8 @@ class DirectoryBuildCacheServiceTest extends Specification {
     }
     def tempFileStore = new DefaultBuildCacheTempFileStore(cacheDir)
     def fileAccessTracker = Mock(FileAccessTracker)
-    def service = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed")
+    def contentStore = new ContentAddressedFileStore(new File(cacheDir, "content"))
+    def service = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", contentStore, null, false)
     def hashCode = "1234abcd"
     def key = Mock(BuildCacheKey) {
         getHashCode() >> hashCode
@@ -132,4 +134,158 @@ class DirectoryBuildCacheServiceTest extends Specification {
         1 * fileAccessTracker.markAccessed(cachedFile)
         loaded
     }
+
+    def "stores deduplicated entries as manifests and makes the content available when loading them"() {
+        def deduplicator = Mock(BuildCacheEntryDeduplicator)
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", contentStore, deduplicator, true)
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "entry"
+
+        when:
+        deduplicatingService.storeLocally(key, originalFile)
+
+        then:
+        1 * deduplicator.deduplicate(originalFile, _, contentStore) >> { File entry, File manifest, ContentAddressedFileStore store ->
+            manifest.text = "manifest"
+        }
+        !originalFile.exists()
+        cacheDir.file(hashCode + DirectoryBuildCacheService.MANIFEST_SUFFIX).text == "manifest"
+
+        when:
+        def contentFile = null
+        service.loadLocally(key, { file ->
+            assert file.text == "manifest"
+            contentFile = ContentAddressedFileStore.getContentForCurrentLoad(HashCode.fromInt(1))
+        })
+
+        then:
+        def e = thrown(FileNotFoundException)
+        e.message == "Content ${contentStore.dir.file("00000001")} is missing from the local build cache."
+        contentFile == null
+    }
+
+    def "holds the file lock while storing deduplicated entries and loading manifests"() {
+        def deduplicator = Mock(BuildCacheEntryDeduplicator)
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", contentStore, deduplicator, true)
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "entry"
+        def lockHeld = false
+
+        when:
+        deduplicatingService.storeLocally(key, originalFile)
+
+        then:
+        1 * persistentCache.withFileLock(_) >> { Runnable r -> lockHeld = true; r.run(); lockHeld = false }
+        1 * deduplicator.deduplicate(originalFile, _, contentStore) >> { File entry, File manifest, ContentAddressedFileStore store ->
+            assert lockHeld
+            manifest.text = "manifest"
+        }
+
+        when:
+        deduplicatingService.loadLocally(key, { file -> assert lockHeld })
+
+        then:
+        1 * persistentCache.withFileLock(_) >> { Runnable r -> lockHeld = true; r.run(); lockHeld = false }
+    }
+
+    def "expands manifests when loading through the build cache service API"() {
+        def deduplicator = Mock(BuildCacheEntryDeduplicator)
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", contentStore, deduplicator, true)
+        def loaded = new ByteArrayOutputStream()
+
+        when:
+        deduplicatingService.store(key, new BuildCacheEntryWriter() {
+            @Override
+            void writeTo(OutputStream output) throws IOException {
+                output.write("entry".getBytes())
+            }
+
+            @Override
+            long getSize() {
+                return 5
+            }
+        })
+
+        then:
+        1 * deduplicator.deduplicate(_, _, contentStore) >> { File entry, File manifest, ContentAddressedFileStore store ->
+            manifest.text = "manifest"
+        }
+        cacheDir.file(hashCode + DirectoryBuildCacheService.MANIFEST_SUFFIX).text == "manifest"
+
+        when:
+        def hit = deduplicatingService.load(key, new BuildCacheEntryReader() {
+            @Override
+            void readFrom(InputStream input) throws IOException {
+                loaded << input
+            }
+        })
+
+        then:
+        1 * deduplicator.expand(_, _) >> { File manifest, File entry ->
+            assert manifest.text == "manifest"
+            entry.text = "entry"
+        }
+        hit
+        loaded.toString() == "entry"
+    }
+
+    def "does not load manifests through the build cache service API when they can't be expanded"() {
+        cacheDir.file(hashCode + DirectoryBuildCacheService.MANIFEST_SUFFIX).text = "manifest"
+
+        when:
+        def hit = service.load(key, new BuildCacheEntryReader() {
+            @Override
+            void readFrom(InputStream input) throws IOException {
+                throw new IllegalStateException()
+            }
+        })
+
+        then:
+        !hit
+    }
+
+    def "stores entry as is when it cannot be deduplicated"() {
+        def deduplicator = Mock(BuildCacheEntryDeduplicator)
+        def deduplicatingService = new DirectoryBuildCacheService(fileStore, persistentCache, tempFileStore, fileAccessTracker, ".failed", contentStore, deduplicator, true)
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "entry"
+
+        when:
+        deduplicatingService.storeLocally(key, originalFile)
+
+        then:
+        1 * deduplicator.deduplicate(originalFile, _, contentStore) >> { throw new IOException("broken") }
+        cacheDir.file(hashCode).text == "entry"
+        !cacheDir.file(hashCode + DirectoryBuildCacheService.MANIFEST_SUFFIX).exists()
+    }
+
+    def "does not lock other processes out when loading and storing entries"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "entry"
+
+        when:
+        service.storeLocally(key, originalFile)
+        service.loadLocally(key, { file -> assert file.text == "entry" })
+
+        then:
+        0 * persistentCache.withFileLock(_)
+        !originalFile.exists()
+        cacheDir.file(hashCode).text == "entry"
+    }
+
+    def "treats entry removed by another process before it could be read as a miss"() {
+        def originalFile = temporaryFolder.createFile("foo")
+        originalFile.text = "entry"
+        service.storeLocally(key, originalFile)
+
+        when:
+        service.loadLocally(key, { file ->
+            file.delete()
+            throw new FileNotFoundException(file.path)
+        })
+
+        then:
+        noExceptionThrown()
+        cacheDir.listFiles() as List == []
+    }
 }
@@ -18,6 +18,7 @@
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
 import org.gradle.api.internal.cache.StringInterner;
+import org.gradle.api.internal.changedetection.state.FileIdentityHashIndex.FileIdentity;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.internal.file.FileMetadataSnapshot;
@@ -30,6 +31,7 @@
 import org.gradle.internal.serialize.HashCodeSerializer;
 import org.gradle.internal.serialize.InterningStringSerializer;
 
+import javax.annotation.Nullable;
 import java.io.File;
 
 public class CachingFileHasher implements FileHasher {
@@ -38,12 +40,25 @@ public class CachingFileHasher implements FileHasher {
     private final FileSystem fileSystem;
     private final StringInterner stringInterner;
     private final FileTimeStampInspector timestampInspector;
+    private final FileIdentityHashIndex identityIndex;
+    private final String workspaceRootPrefix;
 
     public CachingFileHasher(FileHasher delegate, CrossBuildFileHashCache store, StringInterner stringInterner, FileTimeStampInspector timestampInspector, String cacheName, FileSystem fileSystem) {
+        this(delegate, store, stringInterner, timestampInspector, cacheName, fileSystem, null, null);
+    }
+
+    /**
+     * @param identityIndex when not null, used to find the hash of files which have not been seen under their current path before.
+     * @param workspaceRoot when not null, files below it are also looked up in the identity index by their path relative to it.
+     */
+    public CachingFileHasher(FileHasher delegate, CrossBuildFileHashCache store, StringInterner stringInterner, FileTimeStampInspector timestampInspector, String cacheName, FileSystem fileSystem, @Nullable FileIdentityHashIndex identityIndex, @Nullable File workspaceRoot) {
         this.delegate = delegate;
+        this.identityIndex = identityIndex;
+        this.workspaceRootPrefix = workspaceRoot == null ? null : workspaceRoot.getAbsolutePath() + File.separatorChar;
         this.fileSystem = fileSystem;
         this.cache = store.createCache(
-            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer()),
+            PersistentIndexedCacheParameters.of(cacheName, new InterningStringSerializer(stringInterner), new FileInfoSerializer())
+                .withStorage(PersistentIndexedCacheParameters.Storage.forFrequentlyUpdatedCache()),
             400000,
             true);
         this.stringInterner = stringInterner;
@@ -72,15 +87,42 @@ private FileInfo snapshot(File file) {
 
     private FileInfo snapshot(File file, long length, long timestamp) {
         String absolutePath = file.getAbsolutePath();
+        FileIdentity identity = null;
+        FileIdentity relativePathIdentity = null;
+        HashCode hash = null;
         if (timestampInspector.timestampCanBeUsedToDetectFileChange(absolutePath, timestamp)) {
             FileInfo info = cache.get(absolutePath);
 
             if (info != null && length == info.length && timestamp == info.timestamp) {
                 return info;
             }
+
+            if (identityIndex != null) {
+                identity = identityIndex.identify(file, length, timestamp);
+                if (identity != null) {
+                    hash = identityIndex.get(identity);
+                }
+                if (hash == null && workspaceRootPrefix != null && absolutePath.startsWith(workspaceRootPrefix)) {
+                    relativePathIdentity = identityIndex.identifyRelativePath(absolutePath.substring(workspaceRootPrefix.length()), length, timestamp);
+                    if (relativePathIdentity != null) {
+                        hash = identityIndex.get(relativePathIdentity);
+                    }
+                    if (hash != null && identity != null) {
+                        identityIndex.put(identity, hash);
+                    }
+                }
+            }
         }
 
-        HashCode hash = delegate.hash(file);
+        if (hash == null) {
+            hash = delegate.hash(file);
+            if (identity != null) {
+                identityIndex.put(identity, hash);
+            }
+            if (relativePathIdentity != null) {
+                identityIndex.put(relativePathIdentity, hash);
+            }
+        }
         FileInfo info = new FileInfo(hash, length, timestamp);
         cache.put(stringInterner.intern(absolutePath), info);
         return info;
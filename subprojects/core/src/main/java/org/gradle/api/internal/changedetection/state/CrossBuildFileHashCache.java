@@ -51,6 +51,10 @@ public <K, V> PersistentIndexedCache<K, V> createCache(PersistentIndexedCachePar
         );
     }
 
+    public File getBaseDir() {
+        return cache.getBaseDir();
+    }
+
     @Override
     public void close() {
         cache.close();
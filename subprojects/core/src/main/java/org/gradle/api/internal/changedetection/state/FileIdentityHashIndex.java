@@ -0,0 +1,351 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state;
+
+import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.hash.Hashing;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+
+/**
+ * A machine-wide index of file content hashes, keyed by the identity of the file on the file system (device, inode, length and last modified time)
+ * rather than by its path. Allows a file seen under a different path, for example after a workspace has been moved or through a hard link,
+ * to be recognized without hashing its content again.
+ *
+ * <p>A copy of a file has a new identity. To recognize copies in other workspaces, for example a CI workspace restored to a new path,
+ * files can also be keyed by their path relative to the workspace root, together with their length and last modified time.
+ * A fresh clone or a new worktree gives its files new timestamps, so the index cannot help there.</p>
+ *
+ * <p>The index is a fixed size open-addressing hash table in a memory-mapped file, shared by all threads and processes using the same file.
+ * Reads and writes take no locks. Each slot carries a checksum of its content, so a slot that is being written concurrently or has been torn
+ * by concurrent writers is treated as empty. Entries are overwritten when the probe sequence for a file is full, so lookups can miss,
+ * but never return the hash of different content for the same identity.</p>
+ *
+ * <p>File identities are only available on file systems which support the {@code unix} attribute view. Everywhere else the index is empty.</p>
+ */
+public class FileIdentityHashIndex implements Closeable {
+    public static final String ENABLED_PROPERTY = "org.gradle.unsafe.file-identity-hash-index";
+    public static final int DEFAULT_SLOT_COUNT = 1 << 18;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileIdentityHashIndex.class);
+
+    private static final int MAGIC = 0x46494849;
+    private static final int VERSION = 2;
+    private static final int HEADER_SIZE = 64;
+    private static final int SLOT_SIZE = 64;
+    private static final int HASH_LENGTH = 16;
+    private static final int MAX_PROBES = 8;
+    // Covers the timestamp granularity of common file systems
+    private static final long MIN_AGE_MILLIS = 2000;
+
+    private static final int FIRST_OFFSET = 0;
+    private static final int SECOND_OFFSET = 8;
+    private static final int LENGTH_OFFSET = 16;
+    private static final int LAST_MODIFIED_OFFSET = 24;
+    private static final int HASH_OFFSET = 32;
+    private static final int CHECKSUM_OFFSET = 48;
+    private static final int KIND_OFFSET = 56;
+
+    private static final long INODE_KIND = 1;
+    private static final long RELATIVE_PATH_KIND = 2;
+
+    private final File indexFile;
+    private final int slotCount;
+    private final Object lock = new Object();
+    private volatile ByteBuffer buffer;
+    private volatile boolean unavailable;
+    private volatile boolean inodesUnavailable;
+    private RandomAccessFile openFile;
+
+    public FileIdentityHashIndex(File indexFile, int slotCount) {
+        if (Integer.bitCount(slotCount) != 1) {
+            throw new IllegalArgumentException("Slot count must be a power of two, but was " + slotCount);
+        }
+        this.indexFile = indexFile;
+        this.slotCount = slotCount;
+    }
+
+    /**
+     * Returns the identity of the given file, or {@code null} when the identity cannot be determined.
+     *
+     * Files which have been modified very recently have no identity, as they may still change without a visible change to their timestamp.
+     */
+    @Nullable
+    public FileIdentity identify(File file, long length, long lastModified) {
+        if (unavailable || inodesUnavailable || isRecentlyModified(lastModified)) {
+            return null;
+        }
+        try {
+            Map<String, Object> attributes = Files.readAttributes(file.toPath(), "unix:dev,ino");
+            return new FileIdentity((Long) attributes.get("dev"), (Long) attributes.get("ino"), length, lastModified);
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            LOGGER.debug("File identities are not available on this file system, only using relative paths in the file identity hash index.", e);
+            inodesUnavailable = true;
+            return null;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the identity of a file by its path relative to the root of its workspace, or {@code null} when the file has been modified very recently.
+     *
+     * Copies of a file in different workspaces have the same identity as long as their length and last modified time are the same.
+     */
+    @Nullable
+    public FileIdentity identifyRelativePath(String relativePath, long length, long lastModified) {
+        if (unavailable || isRecentlyModified(lastModified)) {
+            return null;
+        }
+        byte[] pathHash = Hashing.hashString(relativePath).toByteArray();
+        ByteBuffer pathHashBuffer = ByteBuffer.wrap(pathHash);
+        return new FileIdentity(RELATIVE_PATH_KIND, pathHashBuffer.getLong(0), pathHashBuffer.getLong(8), length, lastModified);
+    }
+
+    private static boolean isRecentlyModified(long lastModified) {
+        return lastModified > System.currentTimeMillis() - MIN_AGE_MILLIS;
+    }
+
+    @Nullable
+    public HashCode get(FileIdentity identity) {
+        ByteBuffer buffer = getBuffer();
+        if (buffer == null) {
+            return null;
+        }
+        int home = slotFor(identity);
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = slotOffset(home + probe);
+            // Read the checksum first, so a concurrent write to the slot results in a mismatch
+            long checksum = buffer.getLong(offset + CHECKSUM_OFFSET);
+            long kind = buffer.getLong(offset + KIND_OFFSET);
+            long first = buffer.getLong(offset + FIRST_OFFSET);
+            long second = buffer.getLong(offset + SECOND_OFFSET);
+            long length = buffer.getLong(offset + LENGTH_OFFSET);
+            long lastModified = buffer.getLong(offset + LAST_MODIFIED_OFFSET);
+            long hashHigh = buffer.getLong(offset + HASH_OFFSET);
+            long hashLow = buffer.getLong(offset + HASH_OFFSET + 8);
+            if (checksum == 0 || checksum != checksum(kind, first, second, length, lastModified, hashHigh, hashLow)) {
+                continue;
+            }
+            if (identity.hasKey(kind, first, second)) {
+                if (length != identity.length || lastModified != identity.lastModified) {
+                    return null;
+                }
+                return HashCode.fromBytes(ByteBuffer.allocate(HASH_LENGTH).putLong(hashHigh).putLong(hashLow).array());
+            }
+        }
+        return null;
+    }
+
+    public void put(FileIdentity identity, HashCode hash) {
+        byte[] hashBytes = hash.toByteArray();
+        if (hashBytes.length != HASH_LENGTH) {
+            return;
+        }
+        ByteBuffer buffer = getBuffer();
+        if (buffer == null) {
+            return;
+        }
+        long hashHigh = ByteBuffer.wrap(hashBytes).getLong(0);
+        long hashLow = ByteBuffer.wrap(hashBytes).getLong(8);
+        int offset = findSlotToWrite(buffer, identity);
+        buffer.putLong(offset + CHECKSUM_OFFSET, 0);
+        buffer.putLong(offset + KIND_OFFSET, identity.kind);
+        buffer.putLong(offset + FIRST_OFFSET, identity.first);
+        buffer.putLong(offset + SECOND_OFFSET, identity.second);
+        buffer.putLong(offset + LENGTH_OFFSET, identity.length);
+        buffer.putLong(offset + LAST_MODIFIED_OFFSET, identity.lastModified);
+        buffer.putLong(offset + HASH_OFFSET, hashHigh);
+        buffer.putLong(offset + HASH_OFFSET + 8, hashLow);
+        buffer.putLong(offset + CHECKSUM_OFFSET, checksum(identity.kind, identity.first, identity.second, identity.length, identity.lastModified, hashHigh, hashLow));
+    }
+
+    private int findSlotToWrite(ByteBuffer buffer, FileIdentity identity) {
+        int home = slotFor(identity);
+        int free = -1;
+        for (int probe = 0; probe < MAX_PROBES; probe++) {
+            int offset = slotOffset(home + probe);
+            if (!isValid(buffer, offset)) {
+                if (free < 0) {
+                    free = offset;
+                }
+            } else if (identity.hasKey(buffer.getLong(offset + KIND_OFFSET), buffer.getLong(offset + FIRST_OFFSET), buffer.getLong(offset + SECOND_OFFSET))) {
+                return offset;
+            }
+        }
+        // All slots in the probe sequence are taken by other files, evict the first one
+        return free >= 0 ? free : slotOffset(home);
+    }
+
+    private static boolean isValid(ByteBuffer buffer, int offset) {
+        long checksum = buffer.getLong(offset + CHECKSUM_OFFSET);
+        return checksum != 0 && checksum == checksum(
+            buffer.getLong(offset + KIND_OFFSET),
+            buffer.getLong(offset + FIRST_OFFSET),
+            buffer.getLong(offset + SECOND_OFFSET),
+            buffer.getLong(offset + LENGTH_OFFSET),
+            buffer.getLong(offset + LAST_MODIFIED_OFFSET),
+            buffer.getLong(offset + HASH_OFFSET),
+            buffer.getLong(offset + HASH_OFFSET + 8)
+        );
+    }
+
+    private static long checksum(long kind, long first, long second, long length, long lastModified, long hashHigh, long hashLow) {
+        long checksum = 0x9e3779b97f4a7c15L;
+        checksum = mix(checksum ^ kind);
+        checksum = mix(checksum ^ first);
+        checksum = mix(checksum ^ second);
+        checksum = mix(checksum ^ length);
+        checksum = mix(checksum ^ lastModified);
+        checksum = mix(checksum ^ hashHigh);
+        checksum = mix(checksum ^ hashLow);
+        // Zero marks an empty slot
+        return checksum == 0 ? 1 : checksum;
+    }
+
+    private int slotFor(FileIdentity identity) {
+        return (int) mix((identity.kind * 31 + identity.first) * 31 + identity.second);
+    }
+
+    private int slotOffset(int slot) {
+        return HEADER_SIZE + (slot & (slotCount - 1)) * SLOT_SIZE;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xff51afd7ed558ccdL;
+        value ^= value >>> 33;
+        value *= 0xc4ceb9fe1a85ec53L;
+        value ^= value >>> 33;
+        return value;
+    }
+
+    @Nullable
+    private ByteBuffer getBuffer() {
+        ByteBuffer buffer = this.buffer;
+        if (buffer != null || unavailable) {
+            return buffer;
+        }
+        synchronized (lock) {
+            if (this.buffer == null && !unavailable) {
+                try {
+                    this.buffer = open();
+                } catch (IOException e) {
+                    LOGGER.debug("Could not open file identity hash index {}, not using it.", indexFile, e);
+                    unavailable = true;
+                }
+            }
+            return this.buffer;
+        }
+    }
+
+    private ByteBuffer open() throws IOException {
+        long size = HEADER_SIZE + (long) slotCount * SLOT_SIZE;
+        if (!indexFile.exists()) {
+            create(size);
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "rw");
+        try {
+            if (file.length() != size || file.readInt() != MAGIC || file.readInt() != VERSION || file.readInt() != slotCount) {
+                throw new IOException("Unexpected format of file identity hash index " + indexFile);
+            }
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            openFile = file;
+            return buffer;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes an empty index to a temporary file and links it into place, so that other processes never see an index without its header.
+     */
+    private void create(long size) throws IOException {
+        Path dir = Files.createDirectories(indexFile.getParentFile().toPath());
+        Path tempFile = Files.createTempFile(dir, indexFile.getName(), ".tmp");
+        try {
+            try (RandomAccessFile file = new RandomAccessFile(tempFile.toFile(), "rw")) {
+                file.writeInt(MAGIC);
+                file.writeInt(VERSION);
+                file.writeInt(slotCount);
+                file.setLength(size);
+            }
+            try {
+                // Unlike a rename, fails rather than replacing an index that another process has created and may already be using
+                Files.createLink(indexFile.toPath(), tempFile);
+            } catch (FileAlreadyExistsException e) {
+                // Created by another process in the meantime
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            // The mapping itself is released when the buffer is garbage collected
+            unavailable = true;
+            buffer = null;
+            if (openFile != null) {
+                openFile.close();
+                openFile = null;
+            }
+        }
+    }
+
+    /**
+     * Identifies a file either by its device and inode or by its relative path, together with its length and last modified time.
+     */
+    public static class FileIdentity {
+        private final long kind;
+        private final long first;
+        private final long second;
+        private final long length;
+        private final long lastModified;
+
+        public FileIdentity(long device, long inode, long length, long lastModified) {
+            this(INODE_KIND, device, inode, length, lastModified);
+        }
+
+        private FileIdentity(long kind, long first, long second, long length, long lastModified) {
+            this.kind = kind;
+            this.first = first;
+            this.second = second;
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+
+        private boolean hasKey(long kind, long first, long second) {
+            return this.kind == kind && this.first == first && this.second == second;
+        }
+    }
+}
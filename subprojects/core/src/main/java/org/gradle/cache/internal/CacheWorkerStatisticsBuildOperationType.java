@@ -0,0 +1,44 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.operations.BuildOperationType;
+
+import java.util.List;
+
+/**
+ * Reports the work done by the workers that apply the updates of persistent caches in the background.
+ *
+ * Fired at the end of each root build. The counts cover the time since the previous report.
+ */
+public final class CacheWorkerStatisticsBuildOperationType implements BuildOperationType<CacheWorkerStatisticsBuildOperationType.Details, CacheWorkerStatisticsBuildOperationType.Result> {
+
+    public interface Details {
+    }
+
+    public interface Result {
+
+        /**
+         * The statistics of each cache that had a worker, in no particular order.
+         */
+        List<CacheAccessWorkerStatistics> getWorkers();
+
+    }
+
+    private CacheWorkerStatisticsBuildOperationType() {
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.BuildResult;
+import org.gradle.api.Action;
+import org.gradle.api.invocation.Gradle;
+import org.gradle.internal.InternalBuildAdapter;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fires a {@link CacheWorkerStatisticsBuildOperationType} when a root build finishes, so that the statistics of the cache workers show up next to the build's other operations.
+ */
+public class CacheWorkerStatisticsReporter extends InternalBuildAdapter {
+    private static final CacheWorkerStatisticsBuildOperationType.Details DETAILS = new CacheWorkerStatisticsBuildOperationType.Details() {};
+
+    private final CacheFactory cacheFactory;
+    private final BuildOperationExecutor buildOperationExecutor;
+
+    public CacheWorkerStatisticsReporter(CacheFactory cacheFactory, BuildOperationExecutor buildOperationExecutor) {
+        this.cacheFactory = cacheFactory;
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    @Override
+    public void buildFinished(BuildResult result) {
+        Gradle gradle = result.getGradle();
+        if (gradle == null || gradle.getParent() != null) {
+            // Only report once for the whole build tree
+            return;
+        }
+        buildOperationExecutor.run(new RunnableBuildOperation() {
+            @Override
+            public void run(BuildOperationContext context) {
+                final List<CacheAccessWorkerStatistics> workers = new ArrayList<CacheAccessWorkerStatistics>();
+                cacheFactory.visitWorkerStatistics(new Action<CacheAccessWorkerStatistics>() {
+                    @Override
+                    public void execute(CacheAccessWorkerStatistics statistics) {
+                        workers.add(statistics.reset());
+                    }
+                });
+                context.setResult(new CacheWorkerStatisticsBuildOperationType.Result() {
+                    @Override
+                    public List<CacheAccessWorkerStatistics> getWorkers() {
+                        return workers;
+                    }
+                });
+            }
+
+            @Override
+            public BuildOperationDescriptor.Builder description() {
+                return BuildOperationDescriptor.displayName("Report cache worker statistics").details(DETAILS);
+            }
+        });
+    }
+}
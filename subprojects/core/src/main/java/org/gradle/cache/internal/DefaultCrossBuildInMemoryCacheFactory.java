@@ -16,21 +16,27 @@
 
 package org.gradle.cache.internal;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
 import org.gradle.api.Transformer;
 import org.gradle.initialization.SessionLifecycleListener;
 import org.gradle.internal.Factory;
 import org.gradle.internal.classloader.VisitableURLClassLoader;
 import org.gradle.internal.event.ListenerManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.lang.ref.SoftReference;
-import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A factory for {@link CrossBuildInMemoryCache} instances.
@@ -39,9 +45,12 @@
  * Note that this implementation currently retains strong references to keys and values during the whole lifetime of a build session.
  *
  * Uses a simple algorithm to collect unused values, by retaining strong references to all keys and values used during the current build session, and the previous build session. All other values are referenced only by soft references.
+ * Bounded caches retain strong references to all keys and values used during the current build session, and to the most recently used values up to their maximum weight.
  */
 @ThreadSafe
 public class DefaultCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFactory {
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultCrossBuildInMemoryCacheFactory.class);
+
     private final ListenerManager listenerManager;
 
     public DefaultCrossBuildInMemoryCacheFactory(ListenerManager listenerManager) {
@@ -55,6 +64,14 @@ public <K, V> CrossBuildInMemoryCache<K, V> newCache() {
         return cache;
     }
 
+    @Override
+    public <K, V> BoundedCrossBuildInMemoryCache<K, V> newBoundedCache(String name, long maxWeight, BoundedCrossBuildInMemoryCache.Weigher<? super K, ? super V> weigher) {
+        long effectiveMaxWeight = Long.getLong("org.gradle.cache.cross-build." + name + ".max-weight", maxWeight);
+        DefaultBoundedCrossBuildInMemoryCache<K, V> cache = new DefaultBoundedCrossBuildInMemoryCache<K, V>(name, effectiveMaxWeight, weigher);
+        listenerManager.addListener(cache);
+        return cache;
+    }
+
     @Override
     public <V> CrossBuildInMemoryCache<Class<?>, V> newClassCache() {
         // Should use some variation of DefaultClassMap below to associate values with classes, as currently we retain a strong reference to each value for one session after the ClassLoader
@@ -82,7 +99,7 @@ public void afterStart() {
         @Override
         public void beforeComplete() {
             synchronized (lock) {
-                retainValuesFromCurrentSession(valuesForThisSession.values());
+                retainValuesFromCurrentSession(valuesForThisSession);
                 valuesForThisSession.clear();
             }
         }
@@ -95,7 +112,7 @@ public void clear() {
             }
         }
 
-        protected abstract void retainValuesFromCurrentSession(Collection<V> values);
+        protected abstract void retainValuesFromCurrentSession(Map<K, V> values);
 
         protected abstract void discardRetainedValues();
 
@@ -168,10 +185,10 @@ public DefaultCrossBuildInMemoryCache(Map<K, SoftReference<V>> allValues) {
         }
 
         @Override
-        protected void retainValuesFromCurrentSession(Collection<V> values) {
+        protected void retainValuesFromCurrentSession(Map<K, V> values) {
             // Retain strong references to the values created for this session
             valuesForPreviousSession.clear();
-            valuesForPreviousSession.addAll(values);
+            valuesForPreviousSession.addAll(values.values());
         }
 
         @Override
@@ -196,6 +213,85 @@ protected V maybeGetRetainedValue(K key) {
         }
     }
 
+    private static class DefaultBoundedCrossBuildInMemoryCache<K, V> extends AbstractCrossBuildInMemoryCache<K, V> implements BoundedCrossBuildInMemoryCache<K, V> {
+        private final String name;
+        private final long maxWeight;
+        private final Weigher<? super K, ? super V> weigher;
+        private final Cache<K, V> retainedValues;
+        private final AtomicLong hitCount = new AtomicLong();
+        private final AtomicLong missCount = new AtomicLong();
+        private final AtomicLong evictionCount = new AtomicLong();
+        private final AtomicLong weight = new AtomicLong();
+
+        public DefaultBoundedCrossBuildInMemoryCache(String name, long maxWeight, final Weigher<? super K, ? super V> weigher) {
+            this.name = name;
+            this.maxWeight = maxWeight;
+            this.weigher = weigher;
+            // Access is serialized by the lock, and a single segment makes the eviction order strictly least recently used across all entries
+            this.retainedValues = CacheBuilder.newBuilder()
+                .concurrencyLevel(1)
+                .maximumWeight(maxWeight)
+                .<K, V>weigher(new com.google.common.cache.Weigher<K, V>() {
+                    @Override
+                    public int weigh(K key, V value) {
+                        return weigher.weigh(key, value);
+                    }
+                })
+                .removalListener(new RemovalListener<K, V>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<K, V> notification) {
+                        weight.addAndGet(-weigher.weigh(notification.getKey(), notification.getValue()));
+                        if (notification.wasEvicted()) {
+                            evictionCount.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+        }
+
+        @Override
+        public void beforeComplete() {
+            super.beforeComplete();
+            LOGGER.debug("Cross-build cache {}: {}", name, getStatistics());
+        }
+
+        @Override
+        public Statistics getStatistics() {
+            return new Statistics(hitCount.get(), missCount.get(), evictionCount.get(), weight.get(), maxWeight);
+        }
+
+        @Override
+        protected void retainValuesFromCurrentSession(Map<K, V> values) {
+            // Mark the values used in this session as the most recently used ones. Values that have been evicted during the session are not retained.
+            for (K key : values.keySet()) {
+                retainedValues.getIfPresent(key);
+            }
+        }
+
+        @Override
+        protected void discardRetainedValues() {
+            retainedValues.invalidateAll();
+        }
+
+        @Override
+        protected void retainValue(K key, V v) {
+            weight.addAndGet(weigher.weigh(key, v));
+            retainedValues.put(key, v);
+        }
+
+        @Nullable
+        @Override
+        protected V maybeGetRetainedValue(K key) {
+            V value = retainedValues.getIfPresent(key);
+            if (value != null) {
+                hitCount.incrementAndGet();
+            } else {
+                missCount.incrementAndGet();
+            }
+            return value;
+        }
+    }
+
     /**
      * Retains strong references to the keys and values via the key's ClassLoader. This allows the ClassLoader to be collected.
      */
@@ -205,7 +301,7 @@ protected V maybeGetRetainedValue(K key) {
         private final Map<Class<?>, V> leakyValues = new HashMap<>();
 
         @Override
-        protected void retainValuesFromCurrentSession(Collection<V> values) {
+        protected void retainValuesFromCurrentSession(Map<Class<?>, V> values) {
             // Ignore
         }
 
@@ -26,11 +26,15 @@
 import org.gradle.caching.internal.controller.RootBuildCacheControllerRef;
 import org.gradle.caching.internal.origin.OriginMetadataFactory;
 import org.gradle.caching.internal.packaging.BuildCacheEntryPacker;
-import org.gradle.caching.internal.packaging.impl.GZipBuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.CompressingBuildCacheEntryPacker;
+import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryDeduplicator;
 import org.gradle.caching.internal.packaging.impl.TarBuildCacheEntryPacker;
 import org.gradle.caching.internal.services.BuildCacheControllerFactory.BuildCacheMode;
 import org.gradle.caching.internal.services.BuildCacheControllerFactory.RemoteAccessMode;
+import org.gradle.caching.local.internal.BuildCacheEntryDeduplicator;
 import org.gradle.internal.SystemProperties;
+import org.gradle.internal.concurrent.ExecutorFactory;
+import org.gradle.internal.concurrent.ManagedExecutor;
 import org.gradle.internal.file.Deleter;
 import org.gradle.internal.hash.StreamHasher;
 import org.gradle.internal.instantiation.InstantiatorFactory;
@@ -44,6 +48,7 @@
 import org.gradle.util.Path;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
 
 import static org.gradle.caching.internal.services.BuildCacheControllerFactory.BuildCacheMode.DISABLED;
 import static org.gradle.caching.internal.services.BuildCacheControllerFactory.BuildCacheMode.ENABLED;
@@ -53,15 +58,33 @@
 public class BuildCacheServices {
 
     private static final String GRADLE_VERSION_KEY = "gradleVersion";
+    private static final int MAX_PACKING_THREADS = 4;
 
-    BuildCacheEntryPacker createResultPacker(
+    CompressingBuildCacheEntryPacker createResultPacker(
         Deleter deleter,
         FileSystem fileSystem,
         StreamHasher fileHasher,
-        StringInterner stringInterner
+        StringInterner stringInterner,
+        ExecutorFactory executorFactory
+    ) {
+        int parallelism = Math.min(MAX_PACKING_THREADS, Runtime.getRuntime().availableProcessors());
+        ManagedExecutor executor = executorFactory.create("Build cache entry packing", parallelism);
+        CompressingBuildCacheEntryPacker.Compression compression = CompressingBuildCacheEntryPacker.Compression.fromSystemProperty();
+        // Files are only written on the shared executor together with the block format, so that gzip entries are still unpacked on the calling thread
+        ExecutorService fileWriteExecutor = compression == CompressingBuildCacheEntryPacker.Compression.GZIP ? null : executor;
+        return new CompressingBuildCacheEntryPacker(
+            new TarBuildCacheEntryPacker(deleter, fileSystem, fileHasher, stringInterner, fileWriteExecutor),
+            compression,
+            executor,
+            parallelism
+        );
+    }
+
+    BuildCacheEntryDeduplicator createBuildCacheEntryDeduplicator(
+        CompressingBuildCacheEntryPacker packer,
+        StreamHasher fileHasher
     ) {
-        return new GZipBuildCacheEntryPacker(
-            new TarBuildCacheEntryPacker(deleter, fileSystem, fileHasher, stringInterner));
+        return new TarBuildCacheEntryDeduplicator(packer, fileHasher);
     }
 
     OriginMetadataFactory createOriginMetadataFactory(
@@ -93,12 +116,13 @@ BuildCacheController createBuildCacheController(
         ServiceRegistry serviceRegistry,
         BuildCacheConfigurationInternal buildCacheConfiguration,
         BuildOperationExecutor buildOperationExecutor,
+        ExecutorFactory executorFactory,
         InstantiatorFactory instantiatorFactory,
         GradleInternal gradle,
         RootBuildCacheControllerRef rootControllerRef
     ) {
         if (isRoot(gradle) || isGradleBuildTaskRoot(rootControllerRef)) {
-            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, instantiatorFactory, gradle);
+            return doCreateBuildCacheController(serviceRegistry, buildCacheConfiguration, buildOperationExecutor, executorFactory, instantiatorFactory, gradle);
         } else {
             // must be an included build or buildSrc
             return rootControllerRef.getForNonRootBuild();
@@ -118,7 +142,7 @@ private boolean isRoot(GradleInternal gradle) {
         return gradle.getParent() == null;
     }
 
-    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
+    private BuildCacheController doCreateBuildCacheController(ServiceRegistry serviceRegistry, BuildCacheConfigurationInternal buildCacheConfiguration, BuildOperationExecutor buildOperationExecutor, ExecutorFactory executorFactory, InstantiatorFactory instantiatorFactory, GradleInternal gradle) {
         StartParameter startParameter = gradle.getStartParameter();
         Path buildIdentityPath = gradle.getIdentityPath();
         File gradleUserHomeDir = gradle.getGradleUserHomeDir();
@@ -129,6 +153,7 @@ private BuildCacheController doCreateBuildCacheController(ServiceRegistry servic
 
         return BuildCacheControllerFactory.create(
             buildOperationExecutor,
+            executorFactory,
             buildIdentityPath,
             gradleUserHomeDir,
             buildCacheConfiguration,
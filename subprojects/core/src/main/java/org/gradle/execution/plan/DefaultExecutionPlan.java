@@ -17,12 +17,14 @@
 package org.gradle.execution.plan;
 
 import com.google.common.base.Function;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 import org.gradle.api.BuildCancelledException;
 import org.gradle.api.CircularReferenceException;
@@ -37,26 +39,27 @@
 import org.gradle.api.internal.project.ProjectInternal;
 import org.gradle.api.specs.Spec;
 import org.gradle.api.specs.Specs;
-import org.gradle.internal.Pair;
 import org.gradle.internal.graph.CachingDirectedGraphWalker;
 import org.gradle.internal.graph.DirectedGraphRenderer;
 import org.gradle.internal.logging.text.StyledTextOutput;
 import org.gradle.internal.resources.ResourceLock;
 import org.gradle.internal.resources.ResourceLockState;
 import org.gradle.internal.resources.SharedResourceLeaseRegistry;
+import org.gradle.internal.time.Time;
+import org.gradle.internal.time.Timer;
 import org.gradle.internal.work.WorkerLeaseRegistry;
 import org.gradle.util.Path;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nullable;
-import java.io.File;
 import java.io.StringWriter;
 import java.util.AbstractCollection;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
@@ -73,8 +76,12 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultExecutionPlan.class);
 
     private final Set<Node> entryNodes = new LinkedHashSet<>();
+    // The group of nodes added together with each entry node, for example one task selector on the command line
+    private final Map<Node, Integer> entryGroups = Maps.newIdentityHashMap();
+    private int entryGroupCount;
     private final NodeMapping nodeMapping = new NodeMapping();
-    private final List<Node> executionQueue = Lists.newLinkedList();
+    private final Set<Node> executionQueue = new LinkedHashSet<>();
+    private final ReadyQueue readyQueue = new ReadyQueue();
     private final Map<Project, ResourceLock> projectLocks = Maps.newHashMap();
     private final FailureCollector failureCollector = new FailureCollector();
     private final TaskNodeFactory taskNodeFactory;
@@ -86,22 +93,30 @@ public class DefaultExecutionPlan implements ExecutionPlan {
     private final Set<Node> runningNodes = Sets.newIdentityHashSet();
     private final Set<Node> filteredNodes = Sets.newIdentityHashSet();
     private final Set<Node> producedButNotYetConsumed = Sets.newIdentityHashSet();
-    private final Map<Pair<Node, Node>, Boolean> reachableCache = Maps.newHashMap();
+    private final MutationPathIndex runningNodeMutations = new MutationPathIndex();
+    private final MutationPathIndex notYetConsumedOutputs = new MutationPathIndex();
+    private final NodeReachability nodeReachability = new NodeReachability();
     private final List<Node> dependenciesWhichRequireMonitoring = Lists.newArrayList();
-    private boolean maybeNodesReady;
     private final SharedResourceLeaseRegistry sharedResourceLeaseRegistry;
     private final Map<Node, List<ResourceLock>> sharedResourceLocks = Maps.newIdentityHashMap();
     private final SharedResourceContainer sharedResourceContainer;
     private final GradleInternal gradle;
+    @Nullable
+    private final NodeDurationHistory nodeDurationHistory;
+    private final Map<Node, Timer> executionTimers = Maps.newIdentityHashMap();
 
     private boolean buildCancelled;
 
-    public DefaultExecutionPlan(GradleInternal gradle, TaskNodeFactory taskNodeFactory, TaskDependencyResolver dependencyResolver, SharedResourceLeaseRegistry sharedResourceLeaseRegistry) {
+    /**
+     * @param nodeDurationHistory when not null, ready nodes on the longest path through the plan are started first, using the durations of previous executions.
+     */
+    public DefaultExecutionPlan(GradleInternal gradle, TaskNodeFactory taskNodeFactory, TaskDependencyResolver dependencyResolver, SharedResourceLeaseRegistry sharedResourceLeaseRegistry, @Nullable NodeDurationHistory nodeDurationHistory) {
         this.gradle = gradle;
         this.taskNodeFactory = taskNodeFactory;
         this.dependencyResolver = dependencyResolver;
         this.sharedResourceLeaseRegistry = sharedResourceLeaseRegistry;
         this.sharedResourceContainer = gradle.getSharedResources();
+        this.nodeDurationHistory = nodeDurationHistory;
     }
 
     @Override
@@ -120,11 +135,12 @@ public TaskNode getNode(Task task) {
 
     public void addNodes(Collection<? extends Node> nodes) {
         Deque<Node> queue = new ArrayDeque<>(nodes);
+        int entryGroup = entryGroupCount++;
         for (Node node : nodes) {
             assert node.getDependenciesProcessed();
             node.require();
             node.dependenciesProcessed();
-            entryNodes.add(node);
+            addEntryNode(node, entryGroup);
         }
         doAddNodes(queue);
     }
@@ -134,6 +150,7 @@ public void addEntryTasks(Collection<? extends Task> tasks) {
 
         List<Task> sortedTasks = new ArrayList<>(tasks);
         Collections.sort(sortedTasks);
+        int entryGroup = entryGroupCount++;
         for (Task task : sortedTasks) {
             TaskNode node = taskNodeFactory.getOrCreateNode(task);
             if (node.isMustNotRun()) {
@@ -141,13 +158,19 @@ public void addEntryTasks(Collection<? extends Task> tasks) {
             } else if (filter.isSatisfiedBy(task)) {
                 node.require();
             }
-            entryNodes.add(node);
+            addEntryNode(node, entryGroup);
             queue.add(node);
         }
 
         doAddNodes(queue);
     }
 
+    private void addEntryNode(Node node, int entryGroup) {
+        if (entryNodes.add(node)) {
+            entryGroups.put(node, entryGroup);
+        }
+    }
+
     private void doAddNodes(Deque<Node> queue) {
         Set<Node> nodesInUnknownState = Sets.newLinkedHashSet();
         final Set<Node> visiting = Sets.newHashSet();
@@ -365,12 +388,59 @@ public NodeInVisitingSegment apply(Node node) {
         }
         executionQueue.clear();
         Iterables.addAll(executionQueue, nodeMapping);
+        readyQueue.setPlan(nodeDurationHistory == null ? executionQueue : inCriticalPathOrder(executionQueue, entryGroups, nodeDurationHistory));
         for (Node node : executionQueue) {
-            maybeNodesReady |= node.updateAllDependenciesComplete() && node.isReady();
+            node.updateAllDependenciesComplete();
+            maybeReady(node);
         }
         this.dependenciesWhichRequireMonitoring.addAll(dependenciesWhichRequireMonitoring);
     }
 
+    /**
+     * Orders the nodes by the estimated time from the start of the node to the end of the longest chain of nodes that depend on it.
+     * Nodes that have not executed before are assumed to take no time. Nodes with the same estimate stay in plan order.
+     *
+     * <p>A node that another node should run after is treated as if that node depended on it, so its estimate is never lower and
+     * should-run-after ordering is kept, even when only one node runs at a time.</p>
+     *
+     * <p>Nodes are only reordered within the part of the plan that was added for the same group of entry nodes. The nodes of different groups,
+     * such as {@code clean} and {@code build} on the command line, are not connected by any edges, so plan order is the only thing that keeps them in order.</p>
+     */
+    private static List<Node> inCriticalPathOrder(Collection<Node> plan, Map<Node, Integer> entryGroups, NodeDurationHistory nodeDurationHistory) {
+        List<Node> nodes = new ArrayList<>(plan);
+        Map<Node, Long> remainingDurations = Maps.newIdentityHashMap();
+        Map<Node, Integer> groups = Maps.newIdentityHashMap();
+        // Dependencies come before the nodes that depend on them, and the nodes of each group come before the entry nodes of the group, so visit the plan backwards
+        Multimap<Node, Node> shouldRunAfter = ArrayListMultimap.create();
+        for (Node node : nodes) {
+            if (node instanceof TaskNode) {
+                for (Node shouldSuccessor : ((TaskNode) node).getShouldSuccessors()) {
+                    shouldRunAfter.put(shouldSuccessor, node);
+                }
+            }
+        }
+        int group = Integer.MAX_VALUE;
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            Node node = nodes.get(i);
+            Integer entryGroup = entryGroups.get(node);
+            if (entryGroup != null) {
+                group = Math.min(group, entryGroup);
+            }
+            groups.put(node, group);
+            long longestRemainingAfter = 0;
+            for (Node predecessor : Iterables.concat(node.getDependencyPredecessors(), shouldRunAfter.get(node))) {
+                Long remaining = remainingDurations.get(predecessor);
+                if (remaining != null) {
+                    longestRemainingAfter = Math.max(longestRemainingAfter, remaining);
+                }
+            }
+            Long previousDuration = nodeDurationHistory.getPreviousDuration(node);
+            remainingDurations.put(node, (previousDuration == null ? 0 : previousDuration) + longestRemainingAfter);
+        }
+        nodes.sort(Comparator.<Node, Integer>comparing(groups::get).thenComparing(remainingDurations::get, Comparator.reverseOrder()));
+        return nodes;
+    }
+
     private void maybeRemoveProcessedShouldRunAfterEdge(Deque<GraphEdge> walkedShouldRunAfterEdges, Node node) {
         GraphEdge edge = walkedShouldRunAfterEdges.peek();
         if (edge != null && edge.to.equals(node)) {
@@ -504,12 +574,18 @@ public void clear() {
         taskNodeFactory.clear();
         dependencyResolver.clear();
         entryNodes.clear();
+        entryGroups.clear();
+        entryGroupCount = 0;
         nodeMapping.clear();
         executionQueue.clear();
+        readyQueue.clear();
+        executionTimers.clear();
         projectLocks.clear();
         failureCollector.clearFailures();
         producedButNotYetConsumed.clear();
-        reachableCache.clear();
+        runningNodeMutations.clear();
+        notYetConsumedOutputs.clear();
+        nodeReachability.clear();
         dependenciesWhichRequireMonitoring.clear();
         runningNodes.clear();
     }
@@ -558,41 +634,43 @@ public Node selectNext(WorkerLeaseRegistry.WorkerLease workerLease, ResourceLock
                 iterator.remove();
             }
         }
-        if (!maybeNodesReady) {
+        if (readyQueue.isEmpty()) {
             return null;
         }
-        Iterator<Node> iterator = executionQueue.iterator();
-        boolean foundReadyNode = false;
-        while (iterator.hasNext()) {
-            Node node = iterator.next();
-            if (node.isReady() && node.allDependenciesComplete()) {
-                foundReadyNode = true;
-                MutationInfo mutations = getResolvedMutationInfo(node);
-
-                if (!tryAcquireLocksForNode(node, workerLease, mutations)) {
-                    resourceLockState.releaseLocks();
-                    continue;
-                }
-
-                if (node.allDependenciesSuccessful()) {
-                    node.startExecution(this::recordNodeExecutionStarted);
-                } else {
-                    node.skipExecution(this::recordNodeCompleted);
-                }
-                iterator.remove();
-                return node;
+        Node selected = readyQueue.select(node -> {
+            if (!node.isReady() || !node.allDependenciesComplete()) {
+                // Enforced, aborted or had a dependency enforced since it was queued
+                return ReadyQueue.Decision.DISCARD;
+            }
+            if (!tryLockProjectFor(node)) {
+                LOGGER.debug("Cannot acquire project lock for node {}", node);
+                resourceLockState.releaseLocks();
+                // All other nodes of the project need the same lock
+                return ReadyQueue.Decision.SKIP_PROJECT;
+            }
+            if (!tryAcquireLocksForNode(node, workerLease, getResolvedMutationInfo(node))) {
+                resourceLockState.releaseLocks();
+                return ReadyQueue.Decision.SKIP;
             }
+            return ReadyQueue.Decision.SELECT;
+        });
+        if (selected == null) {
+            LOGGER.debug("No node could be selected");
+            return null;
         }
-        LOGGER.debug("No node could be selected, nodes ready: {}", foundReadyNode);
-        maybeNodesReady = foundReadyNode;
-        return null;
+
+        // Selecting the node may complete it, which queues its predecessors, so only do this once the queue is no longer being visited
+        if (selected.allDependenciesSuccessful()) {
+            selected.startExecution(this::recordNodeExecutionStarted);
+        } else {
+            selected.skipExecution(this::recordNodeCompleted);
+        }
+        executionQueue.remove(selected);
+        return selected;
     }
 
     private boolean tryAcquireLocksForNode(Node node, WorkerLeaseRegistry.WorkerLease workerLease, MutationInfo mutations) {
-        if (!tryLockProjectFor(node)) {
-            LOGGER.debug("Cannot acquire project lock for node {}", node);
-            return false;
-        } else if (!tryLockSharedResourceFor(node)) {
+        if (!tryLockSharedResourceFor(node)) {
             LOGGER.debug("Cannot acquire shared resource lock for node {}", node);
             return false;
         } else if (!workerLease.tryLock()) {
@@ -608,7 +686,15 @@ private boolean tryAcquireLocksForNode(Node node, WorkerLeaseRegistry.WorkerLeas
 
     private void updateAllDependenciesCompleteForPredecessors(Node node) {
         for (Node predecessor : node.getAllPredecessors()) {
-            maybeNodesReady |= predecessor.updateAllDependenciesComplete() && predecessor.isReady();
+            if (predecessor.updateAllDependenciesComplete()) {
+                maybeReady(predecessor);
+            }
+        }
+    }
+
+    private void maybeReady(Node node) {
+        if (node.isReady() && node.allDependenciesComplete()) {
+            readyQueue.add(node);
         }
     }
 
@@ -682,29 +768,16 @@ private boolean canRunWithCurrentlyExecutedNodes(Node node, MutationInfo mutatio
     }
 
     private boolean hasNodeWithOverlappingMutations(Set<String> candidateMutationPaths) {
-        if (!candidateMutationPaths.isEmpty()) {
-            for (Node runningNode : runningNodes) {
-                MutationInfo runningMutations = runningNode.getMutationInfo();
-                Iterable<String> runningMutationPaths = Iterables.concat(runningMutations.outputPaths, runningMutations.destroyablePaths);
-                if (hasOverlap(candidateMutationPaths, runningMutationPaths)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return !candidateMutationPaths.isEmpty() && runningNodeMutations.hasOverlap(candidateMutationPaths);
     }
 
     private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set<String> destroyablePaths) {
         if (!destroyablePaths.isEmpty()) {
-            for (Node producingNode : producedButNotYetConsumed) {
+            for (Node producingNode : notYetConsumedOutputs.getOverlappingNodes(destroyablePaths)) {
                 MutationInfo producingNodeMutations = producingNode.getMutationInfo();
                 assert !producingNodeMutations.consumingNodes.isEmpty();
-                if (!hasOverlap(destroyablePaths, producingNodeMutations.outputPaths)) {
-                    // No overlap no cry
-                    continue;
-                }
                 for (Node consumer : producingNodeMutations.consumingNodes) {
-                    if (doesConsumerDependOnDestroyer(consumer, destroyer)) {
+                    if (nodeReachability.isReachable(consumer, destroyer)) {
                         // If there's an explicit dependency from consuming node to destroyer,
                         // then we accept that as the will of the user
                         continue;
@@ -717,70 +790,14 @@ private boolean doesDestroyNotYetConsumedOutputOfAnotherNode(Node destroyer, Set
         return false;
     }
 
-    private boolean doesConsumerDependOnDestroyer(Node consumer, Node destroyer) {
-        if (consumer == destroyer) {
-            return true;
-        }
-        Pair<Node, Node> nodePair = Pair.of(consumer, destroyer);
-        if (reachableCache.get(nodePair) != null) {
-            return reachableCache.get(nodePair);
-        }
-
-        boolean reachable = false;
-        for (Node dependency : consumer.getAllSuccessors()) {
-            if (!dependency.isComplete()) {
-                if (doesConsumerDependOnDestroyer(dependency, destroyer)) {
-                    reachable = true;
-                }
-            }
-        }
-
-        reachableCache.put(nodePair, reachable);
-        return reachable;
-    }
-
-    private static boolean hasOverlap(Iterable<String> paths1, Iterable<String> paths2) {
-        for (String path1 : paths1) {
-            for (String path2 : paths2) {
-                String overLappedPath = getOverLappedPath(path1, path2);
-                if (overLappedPath != null) {
-                    return true;
-                }
-            }
-        }
-
-        return false;
-    }
-
-    @Nullable
-    private static String getOverLappedPath(String firstPath, String secondPath) {
-        if (firstPath.equals(secondPath)) {
-            return firstPath;
-        }
-        if (firstPath.length() == secondPath.length()) {
-            return null;
+    private void recordNodeExecutionStarted(Node node) {
+        if (runningNodes.add(node)) {
+            MutationInfo mutations = node.getMutationInfo();
+            runningNodeMutations.add(node, Iterables.concat(mutations.outputPaths, mutations.destroyablePaths));
         }
-
-        String shorter;
-        String longer;
-        if (firstPath.length() > secondPath.length()) {
-            shorter = secondPath;
-            longer = firstPath;
-        } else {
-            shorter = firstPath;
-            longer = secondPath;
+        if (nodeDurationHistory != null) {
+            executionTimers.put(node, Time.startTimer());
         }
-
-        boolean isOverlapping = longer.startsWith(shorter) && longer.charAt(shorter.length()) == File.separatorChar;
-        if (isOverlapping) {
-            return shorter;
-        } else {
-            return null;
-        }
-    }
-
-    private void recordNodeExecutionStarted(Node node) {
-        runningNodes.add(node);
     }
 
     private void recordNodeCompleted(Node node) {
@@ -788,13 +805,13 @@ private void recordNodeCompleted(Node node) {
         MutationInfo mutations = node.getMutationInfo();
         for (Node producer : node.getDependencySuccessors()) {
             MutationInfo producerMutations = producer.getMutationInfo();
-            if (producerMutations.consumingNodes.remove(node) && producerMutations.consumingNodes.isEmpty()) {
-                producedButNotYetConsumed.remove(producer);
+            if (producerMutations.consumingNodes.remove(node) && producerMutations.consumingNodes.isEmpty() && producedButNotYetConsumed.remove(producer)) {
+                notYetConsumedOutputs.remove(producer, producerMutations.outputPaths);
             }
         }
 
-        if (!mutations.consumingNodes.isEmpty() && !mutations.outputPaths.isEmpty()) {
-            producedButNotYetConsumed.add(node);
+        if (!mutations.consumingNodes.isEmpty() && !mutations.outputPaths.isEmpty() && producedButNotYetConsumed.add(node)) {
+            notYetConsumedOutputs.add(node, mutations.outputPaths);
         }
 
         updateAllDependenciesCompleteForPredecessors(node);
@@ -805,7 +822,6 @@ public void finishedExecuting(Node node) {
         try {
             if (!node.isComplete()) {
                 enforceFinalizers(node);
-                maybeNodesReady = true;
                 if (node.isFailed()) {
                     LOGGER.debug("Node {} failed", node);
                     handleFailure(node);
@@ -813,7 +829,11 @@ public void finishedExecuting(Node node) {
                     LOGGER.debug("Node {} finished executing", node);
                 }
 
-                runningNodes.remove(node);
+                if (runningNodes.remove(node)) {
+                    MutationInfo mutations = node.getMutationInfo();
+                    runningNodeMutations.remove(node, Iterables.concat(mutations.outputPaths, mutations.destroyablePaths));
+                }
+                recordDuration(node);
                 node.finishExecution(this::recordNodeCompleted);
             } else {
                 LOGGER.debug("Already completed node {} reported as finished executing", node);
@@ -824,7 +844,14 @@ public void finishedExecuting(Node node) {
         }
     }
 
-    private static void enforceFinalizers(Node node) {
+    private void recordDuration(Node node) {
+        Timer timer = executionTimers.remove(node);
+        if (timer != null) {
+            nodeDurationHistory.executed(node, timer.getElapsedMillis());
+        }
+    }
+
+    private void enforceFinalizers(Node node) {
         for (Node finalizerNode : node.getFinalizers()) {
             if (finalizerNode.isRequired() || finalizerNode.isMustNotRun()) {
                 Set<Node> enforcedNodes = Sets.newHashSet();
@@ -833,7 +860,7 @@ private static void enforceFinalizers(Node node) {
         }
     }
 
-    private static void enforceWithDependencies(Node nodeInfo, Set<Node> enforcedNodes) {
+    private void enforceWithDependencies(Node nodeInfo, Set<Node> enforcedNodes) {
         Deque<Node> candidateNodes = new ArrayDeque<>();
         candidateNodes.add(nodeInfo);
 
@@ -846,9 +873,11 @@ private static void enforceWithDependencies(Node nodeInfo, Set<Node> enforcedNod
 
                 if (node.isMustNotRun() || node.isRequired()) {
                     node.enforceRun();
+                    maybeReady(node);
                     // Completed changed from true to false - inform all nodes depending on this one.
                     for (Node predecessor : node.getAllPredecessors()) {
                         predecessor.forceAllDependenciesCompleteUpdate();
+                        maybeReady(predecessor);
                     }
                 }
             }
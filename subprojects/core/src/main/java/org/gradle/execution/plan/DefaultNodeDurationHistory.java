@@ -0,0 +1,75 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.internal.tasks.TaskExecutionOutcome;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.internal.execution.history.ExecutionHistoryCacheAccess;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the durations of the tasks that were executed alongside the execution history of the build.
+ *
+ * <p>Durations are written when the build finishes, so that recording them does not slow down the scheduling of the plan.
+ * Only tasks that actually executed are recorded, as up-to-date or cached tasks say nothing about how long they take when they do run.</p>
+ */
+public class DefaultNodeDurationHistory implements NodeDurationHistory, Closeable {
+    public static final String CRITICAL_PATH_SCHEDULING_PROPERTY = "org.gradle.unsafe.critical-path-scheduling";
+
+    private final PersistentIndexedCache<String, Long> durations;
+    private final Map<String, Long> executedDurations = new ConcurrentHashMap<>();
+
+    public DefaultNodeDurationHistory(ExecutionHistoryCacheAccess cacheAccess) {
+        this.durations = cacheAccess.createCache(PersistentIndexedCacheParameters.of("taskDurations", String.class, Long.class), 10000, true);
+    }
+
+    @Nullable
+    @Override
+    public Long getPreviousDuration(Node node) {
+        String key = keyFor(node);
+        return key == null ? null : durations.get(key);
+    }
+
+    @Override
+    public void executed(Node node, long durationMillis) {
+        String key = keyFor(node);
+        if (key != null && !node.isFailed() && ((LocalTaskNode) node).getTask().getState().getOutcome() == TaskExecutionOutcome.EXECUTED) {
+            executedDurations.put(key, durationMillis);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Map.Entry<String, Long> entry : executedDurations.entrySet()) {
+            durations.put(entry.getKey(), entry.getValue());
+        }
+        executedDurations.clear();
+    }
+
+    @Nullable
+    private static String keyFor(Node node) {
+        if (node instanceof LocalTaskNode) {
+            return ((LocalTaskNode) node).getTask().getIdentityPath().getPath();
+        }
+        return null;
+    }
+}
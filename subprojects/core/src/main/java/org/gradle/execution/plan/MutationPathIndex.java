@@ -0,0 +1,169 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Indexes the paths mutated by a set of nodes in a trie keyed by the segments of the paths.
+ *
+ * <p>Finding the nodes that mutate a path, one of its ancestors or one of its descendants walks the segments of that path
+ * instead of comparing it with every path of every node. Two paths overlap when they are the same, or when one of them is
+ * an ancestor of the other.</p>
+ */
+class MutationPathIndex {
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final Entry root = new Entry();
+
+    void add(Node node, Iterable<String> paths) {
+        for (String path : paths) {
+            Entry entry = root;
+            entry.pathsInSubtree++;
+            int segmentStart = 0;
+            while (true) {
+                int segmentEnd = segmentEnd(path, segmentStart);
+                entry = entry.children.computeIfAbsent(path.substring(segmentStart, segmentEnd), segment -> new Entry());
+                entry.pathsInSubtree++;
+                if (segmentEnd == path.length()) {
+                    break;
+                }
+                segmentStart = segmentEnd + 1;
+            }
+            entry.nodes.add(node);
+        }
+    }
+
+    void remove(Node node, Iterable<String> paths) {
+        for (String path : paths) {
+            remove(node, path);
+        }
+    }
+
+    private void remove(Node node, String path) {
+        List<String> segments = new ArrayList<>();
+        Entry entry = root;
+        int segmentStart = 0;
+        while (entry != null) {
+            int segmentEnd = segmentEnd(path, segmentStart);
+            String segment = path.substring(segmentStart, segmentEnd);
+            segments.add(segment);
+            entry = entry.children.get(segment);
+            if (segmentEnd == path.length()) {
+                break;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        if (entry == null || !entry.nodes.remove(node)) {
+            // Not registered for this node
+            return;
+        }
+        Entry parent = root;
+        parent.pathsInSubtree--;
+        for (String segment : segments) {
+            Entry child = parent.children.get(segment);
+            if (--child.pathsInSubtree == 0) {
+                parent.children.remove(segment);
+                return;
+            }
+            parent = child;
+        }
+    }
+
+    /**
+     * Returns whether any node mutates one of the given paths, one of their ancestors or one of their descendants.
+     */
+    boolean hasOverlap(Iterable<String> paths) {
+        for (String path : paths) {
+            Entry entry = root;
+            int segmentStart = 0;
+            while (true) {
+                int segmentEnd = segmentEnd(path, segmentStart);
+                entry = entry.children.get(path.substring(segmentStart, segmentEnd));
+                if (entry == null) {
+                    break;
+                }
+                if (segmentEnd == path.length()) {
+                    if (entry.pathsInSubtree > 0) {
+                        return true;
+                    }
+                    break;
+                }
+                if (!entry.nodes.isEmpty()) {
+                    return true;
+                }
+                segmentStart = segmentEnd + 1;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the nodes that mutate one of the given paths, one of their ancestors or one of their descendants.
+     */
+    Set<Node> getOverlappingNodes(Iterable<String> paths) {
+        Set<Node> overlappingNodes = new LinkedHashSet<>();
+        for (String path : paths) {
+            Entry entry = root;
+            int segmentStart = 0;
+            while (true) {
+                int segmentEnd = segmentEnd(path, segmentStart);
+                entry = entry.children.get(path.substring(segmentStart, segmentEnd));
+                if (entry == null) {
+                    break;
+                }
+                if (segmentEnd == path.length()) {
+                    entry.collectNodesInSubtree(overlappingNodes);
+                    break;
+                }
+                overlappingNodes.addAll(entry.nodes);
+                segmentStart = segmentEnd + 1;
+            }
+        }
+        return overlappingNodes;
+    }
+
+    void clear() {
+        root.children.clear();
+        root.pathsInSubtree = 0;
+    }
+
+    private static int segmentEnd(String path, int segmentStart) {
+        int separatorIndex = path.indexOf(SEPARATOR, segmentStart);
+        return separatorIndex < 0 ? path.length() : separatorIndex;
+    }
+
+    private static class Entry {
+        private final Map<String, Entry> children = new HashMap<>(4);
+        // Usually a single node mutates a path, so a list is cheaper than a set
+        private final List<Node> nodes = new ArrayList<>(1);
+        private int pathsInSubtree;
+
+        void collectNodesInSubtree(Set<Node> collected) {
+            collected.addAll(nodes);
+            for (Entry child : children.values()) {
+                child.collectNodesInSubtree(collected);
+            }
+        }
+    }
+}
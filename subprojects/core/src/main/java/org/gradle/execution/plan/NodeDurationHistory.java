@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import javax.annotation.Nullable;
+
+/**
+ * Remembers how long nodes took to execute in previous builds, so that the nodes on the critical path of a plan can be started first.
+ */
+public interface NodeDurationHistory {
+    /**
+     * Returns how long the node took to execute the last time it did any work, in milliseconds, or {@code null} when this is not known.
+     */
+    @Nullable
+    Long getPreviousDuration(Node node);
+
+    /**
+     * Records how long the given node took to execute. Nodes that did not do any work are ignored.
+     */
+    void executed(Node node, long durationMillis);
+}
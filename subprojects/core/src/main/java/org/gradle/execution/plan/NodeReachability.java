@@ -0,0 +1,88 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Answers whether a node depends on another node, either directly or via nodes that have not completed yet.
+ *
+ * <p>Each node that is asked about gets a number, and the nodes reachable from a node are stored as a bit set of those numbers.
+ * The bit set is computed the first time it is needed and reused afterwards, including while computing the bit sets of nodes
+ * that depend on the node. As with any cached answer, nodes that complete afterwards are not taken into account.</p>
+ */
+class NodeReachability {
+    private final Map<Node, Integer> nodeNumbers = new IdentityHashMap<>();
+    private final Map<Node, BitSet> reachableNodes = new IdentityHashMap<>();
+
+    boolean isReachable(Node from, Node to) {
+        if (from == to) {
+            return true;
+        }
+        BitSet reachable = reachableNodes.get(from);
+        if (reachable == null) {
+            reachable = computeReachableNodes(from);
+            reachableNodes.put(from, reachable);
+        }
+        Integer toNumber = nodeNumbers.get(to);
+        return toNumber != null && reachable.get(toNumber);
+    }
+
+    private BitSet computeReachableNodes(Node from) {
+        BitSet reachable = new BitSet();
+        Deque<Node> queue = new ArrayDeque<>();
+        queue.push(from);
+        while (!queue.isEmpty()) {
+            Node node = queue.pop();
+            for (Node successor : node.getAllSuccessors()) {
+                if (successor.isComplete()) {
+                    continue;
+                }
+                int successorNumber = numberOf(successor);
+                if (reachable.get(successorNumber)) {
+                    continue;
+                }
+                reachable.set(successorNumber);
+                BitSet reachableFromSuccessor = reachableNodes.get(successor);
+                if (reachableFromSuccessor != null) {
+                    reachable.or(reachableFromSuccessor);
+                } else {
+                    queue.push(successor);
+                }
+            }
+        }
+        return reachable;
+    }
+
+    private int numberOf(Node node) {
+        Integer number = nodeNumbers.get(node);
+        if (number == null) {
+            number = nodeNumbers.size();
+            nodeNumbers.put(node, number);
+        }
+        return number;
+    }
+
+    void clear() {
+        nodeNumbers.clear();
+        reachableNodes.clear();
+    }
+}
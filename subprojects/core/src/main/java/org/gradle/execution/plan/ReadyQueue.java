@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan;
+
+import org.gradle.api.Project;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * The nodes of an execution plan whose dependencies are complete, in plan order and grouped by the project they need to lock.
+ *
+ * <p>A node is added when its dependencies complete, and removed when it is selected or found to be no longer ready while selecting.
+ * So selecting a node only visits nodes that were ready at some point, no matter how many nodes the plan contains.</p>
+ */
+class ReadyQueue {
+    enum Decision {
+        /**
+         * The node is selected for execution. Selection stops.
+         */
+        SELECT,
+        /**
+         * The node can't run right now, but stays in the queue.
+         */
+        SKIP,
+        /**
+         * None of the remaining nodes for the same project can run right now.
+         */
+        SKIP_PROJECT,
+        /**
+         * The node is no longer ready and is removed from the queue.
+         */
+        DISCARD
+    }
+
+    interface Selector {
+        Decision decide(Node node);
+    }
+
+    private final Map<Node, Integer> planPositions = new IdentityHashMap<>();
+    private final Comparator<Node> inPlanOrder = Comparator.comparingInt(planPositions::get);
+    // Nodes that don't need a project lock are stored with the null key
+    private final Map<Project, NavigableSet<Node>> nodesByProject = new HashMap<>();
+    private int size;
+
+    /**
+     * Sets the order in which nodes are selected. Only nodes in the plan are ever added to the queue.
+     */
+    void setPlan(Iterable<Node> plan) {
+        clear();
+        int position = 0;
+        for (Node node : plan) {
+            planPositions.put(node, position++);
+        }
+    }
+
+    void add(Node node) {
+        if (!planPositions.containsKey(node)) {
+            return;
+        }
+        if (nodesByProject.computeIfAbsent(node.getProjectToLock(), project -> new TreeSet<>(inPlanOrder)).add(node)) {
+            size++;
+        }
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Visits the nodes in plan order until the selector selects one, skipping the remaining nodes of a project when asked to.
+     */
+    @Nullable
+    Node select(Selector selector) {
+        List<ProjectCursor> cursors = new ArrayList<>(nodesByProject.size());
+        for (NavigableSet<Node> nodes : nodesByProject.values()) {
+            ProjectCursor cursor = new ProjectCursor(nodes.iterator());
+            if (cursor.advance()) {
+                cursors.add(cursor);
+            }
+        }
+        while (!cursors.isEmpty()) {
+            ProjectCursor next = cursors.get(0);
+            for (int i = 1; i < cursors.size(); i++) {
+                ProjectCursor cursor = cursors.get(i);
+                if (inPlanOrder.compare(cursor.current, next.current) < 0) {
+                    next = cursor;
+                }
+            }
+            Node node = next.current;
+            Decision decision = selector.decide(node);
+            if (decision == Decision.SELECT || decision == Decision.DISCARD) {
+                next.nodes.remove();
+                size--;
+            }
+            if (decision == Decision.SELECT) {
+                return node;
+            }
+            if (decision == Decision.SKIP_PROJECT || !next.advance()) {
+                cursors.remove(next);
+            }
+        }
+        return null;
+    }
+
+    void clear() {
+        planPositions.clear();
+        nodesByProject.clear();
+        size = 0;
+    }
+
+    private static class ProjectCursor {
+        private final Iterator<Node> nodes;
+        private Node current;
+
+        ProjectCursor(Iterator<Node> nodes) {
+            this.nodes = nodes;
+        }
+
+        boolean advance() {
+            if (nodes.hasNext()) {
+                current = nodes.next();
+                return true;
+            }
+            return false;
+        }
+    }
+}
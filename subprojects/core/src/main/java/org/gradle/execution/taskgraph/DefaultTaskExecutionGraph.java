@@ -39,6 +39,7 @@
 import org.gradle.execution.ProjectExecutionServiceRegistry;
 import org.gradle.execution.plan.DefaultExecutionPlan;
 import org.gradle.execution.plan.Node;
+import org.gradle.execution.plan.NodeDurationHistory;
 import org.gradle.execution.plan.NodeExecutor;
 import org.gradle.execution.plan.PlanExecutor;
 import org.gradle.execution.plan.TaskDependencyResolver;
@@ -62,6 +63,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -105,7 +107,8 @@ public DefaultTaskExecutionGraph(
         ListenerBroadcast<TaskExecutionListener> taskListeners,
         SharedResourceLeaseRegistry sharedResourceLeaseRegistry,
         ProjectStateRegistry projectStateRegistry,
-        ServiceRegistry globalServices
+        ServiceRegistry globalServices,
+        @Nullable NodeDurationHistory nodeDurationHistory
     ) {
         this.planExecutor = planExecutor;
         this.nodeExecutors = nodeExecutors;
@@ -117,7 +120,7 @@ public DefaultTaskExecutionGraph(
         this.taskListeners = taskListeners;
         this.projectStateRegistry = projectStateRegistry;
         this.globalServices = globalServices;
-        this.executionPlan = new DefaultExecutionPlan(gradleInternal, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry);
+        this.executionPlan = new DefaultExecutionPlan(gradleInternal, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry, nodeDurationHistory);
     }
 
     @Override
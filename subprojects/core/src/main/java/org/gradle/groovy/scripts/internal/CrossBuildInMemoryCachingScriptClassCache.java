@@ -19,17 +19,29 @@
 import org.codehaus.groovy.ast.ClassNode;
 import org.gradle.api.Action;
 import org.gradle.api.internal.initialization.ClassLoaderScope;
-import org.gradle.cache.internal.CrossBuildInMemoryCache;
+import org.gradle.cache.internal.BoundedCrossBuildInMemoryCache;
 import org.gradle.cache.internal.CrossBuildInMemoryCacheFactory;
 import org.gradle.groovy.scripts.ScriptSource;
 import org.gradle.internal.Cast;
 import org.gradle.internal.hash.HashCode;
+import org.gradle.internal.resource.TextResource;
+
+import java.io.File;
 
 public class CrossBuildInMemoryCachingScriptClassCache {
-    private final CrossBuildInMemoryCache<ScriptCacheKey, CachedCompiledScript> cachedCompiledScripts;
+    // The retained scripts are weighed by the length of their source, which is roughly proportional to the size of the compiled classes
+    private static final long MAX_RETAINED_SOURCE_LENGTH = 16 * 1024 * 1024;
+    private static final int UNKNOWN_SOURCE_LENGTH = 4096;
+
+    private final BoundedCrossBuildInMemoryCache<ScriptCacheKey, CachedCompiledScript> cachedCompiledScripts;
 
     public CrossBuildInMemoryCachingScriptClassCache(CrossBuildInMemoryCacheFactory cacheFactory) {
-        cachedCompiledScripts = cacheFactory.newCache();
+        cachedCompiledScripts = cacheFactory.newBoundedCache("compiledScripts", MAX_RETAINED_SOURCE_LENGTH, new BoundedCrossBuildInMemoryCache.Weigher<ScriptCacheKey, CachedCompiledScript>() {
+            @Override
+            public int weigh(ScriptCacheKey key, CachedCompiledScript value) {
+                return value.sourceLength;
+            }
+        });
     }
 
     public <T extends Script, M> CompiledScript<T, M> getOrCompile(ScriptSource source,
@@ -47,17 +59,33 @@ public <T extends Script, M> CompiledScript<T, M> getOrCompile(ScriptSource sour
             }
         }
         CompiledScript<T, M> compiledScript = delegate.compile(source, targetScope, operation, scriptBaseClass, verifier);
-        cachedCompiledScripts.put(key, new CachedCompiledScript(hash, compiledScript));
+        cachedCompiledScripts.put(key, new CachedCompiledScript(hash, compiledScript, sourceLength(source.getResource())));
         return compiledScript;
     }
 
+    private static int sourceLength(TextResource resource) {
+        File file = resource.getFile();
+        long length;
+        if (file != null) {
+            length = file.length();
+        } else if (resource.isContentCached()) {
+            length = resource.getText().length();
+        } else {
+            // Avoid fetching the content again
+            length = UNKNOWN_SOURCE_LENGTH;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(1, length));
+    }
+
     private static class CachedCompiledScript {
         private final HashCode hash;
         private final CompiledScript<?, ?> compiledScript;
+        private final int sourceLength;
 
-        private CachedCompiledScript(HashCode hash, CompiledScript<?, ?> compiledScript) {
+        private CachedCompiledScript(HashCode hash, CompiledScript<?, ?> compiledScript, int sourceLength) {
             this.hash = hash;
             this.compiledScript = compiledScript;
+            this.sourceLength = sourceLength;
         }
     }
 
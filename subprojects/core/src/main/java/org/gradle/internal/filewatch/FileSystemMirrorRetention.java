@@ -0,0 +1,170 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch;
+
+import org.gradle.api.internal.file.FileSystemSubset;
+import org.gradle.initialization.RootBuildLifecycleListener;
+import org.gradle.internal.FileUtils;
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides what happens to the state of a {@link DefaultFileSystemMirror} at the end of a root build.
+ *
+ * <p>By default, all state is discarded. When retention is enabled via the {@value #RETENTION_PROPERTY} system property,
+ * the state for files outside of the append-only caches is kept and the retained locations are watched for changes.
+ * Each change reported by the watcher invalidates the affected paths only. When the watcher loses events or fails, all state is discarded.</p>
+ *
+ * <p>Only the state for locations that were already being watched when the build started is kept, as a change made between taking
+ * a snapshot and registering its location with the watcher would go unnoticed. The roots of the remaining locations are registered
+ * at the end of the build, so that their state can be kept from the next build on.</p>
+ */
+public class FileSystemMirrorRetention implements RootBuildLifecycleListener, FileWatcherListener {
+    public static final String RETENTION_PROPERTY = "org.gradle.unsafe.vfs.retention";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileSystemMirrorRetention.class);
+
+    private final DefaultFileSystemMirror fileSystemMirror;
+    private final FileWatcherFactory fileWatcherFactory;
+    private FileWatcher watcher;
+    // The roots registered with the current watcher
+    private final List<File> watchedRoots = new ArrayList<File>();
+
+    public FileSystemMirrorRetention(DefaultFileSystemMirror fileSystemMirror, FileWatcherFactory fileWatcherFactory) {
+        this.fileSystemMirror = fileSystemMirror;
+        this.fileWatcherFactory = fileWatcherFactory;
+    }
+
+    @Override
+    public void afterStart() {
+        if (!isRetentionEnabled()) {
+            // Retention may have been switched off since the previous build
+            stopWatching();
+        }
+    }
+
+    @Override
+    public void beforeComplete() {
+        if (!isRetentionEnabled()) {
+            stopWatching();
+            fileSystemMirror.beforeBuildFinished();
+            return;
+        }
+        try {
+            Set<String> retainedPaths = fileSystemMirror.getRetainedPaths();
+            Collection<? extends File> retainedRoots = retainedRoots(retainedPaths);
+            List<String> unwatchedPaths = new ArrayList<String>();
+            synchronized (this) {
+                FileWatcher currentWatcher = startWatching();
+                for (String retainedPath : retainedPaths) {
+                    if (!isWatched(retainedPath)) {
+                        unwatchedPaths.add(retainedPath);
+                    }
+                }
+                FileSystemSubset.Builder newRoots = FileSystemSubset.builder();
+                for (File root : retainedRoots) {
+                    if (!isWatched(root.getPath())) {
+                        newRoots.add(root);
+                        watchedRoots.add(root);
+                    }
+                }
+                currentWatcher.watch(newRoots.build());
+            }
+            // These may have changed after they were snapshotted but before they were watched
+            fileSystemMirror.changed(unwatchedPaths);
+            fileSystemMirror.beforeBuildFinishedRetainingState();
+        } catch (Exception e) {
+            LOGGER.warn("Unable to watch the file system for changes, discarding file system state.", e);
+            stopWatching();
+            fileSystemMirror.beforeBuildFinished();
+        }
+    }
+
+    @Override
+    public void onChange(FileWatcher watcher, FileWatcherEvent event) {
+        File changedFile = event.getFile();
+        if (event.getType() == FileWatcherEvent.Type.UNDEFINED || changedFile == null) {
+            // Events have been lost, so we can't know which state is still valid
+            LOGGER.debug("File watcher lost events, discarding file system state.");
+            fileSystemMirror.beforeOutputChange();
+        } else {
+            fileSystemMirror.changed(Collections.singleton(changedFile.getAbsolutePath()));
+        }
+    }
+
+    private static Collection<? extends File> retainedRoots(Set<String> retainedPaths) {
+        List<File> files = new ArrayList<File>(retainedPaths.size());
+        for (String retainedPath : retainedPaths) {
+            files.add(new File(retainedPath));
+        }
+        return FileUtils.calculateRoots(files);
+    }
+
+    private boolean isWatched(String path) {
+        for (File root : watchedRoots) {
+            if (FileUtils.doesPathStartWith(path, root.getPath())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized FileWatcher startWatching() {
+        if (watcher != null && !watcher.isRunning()) {
+            // The watcher stopped at some point, so changes may have been missed
+            fileSystemMirror.beforeOutputChange();
+            watcher = null;
+            watchedRoots.clear();
+        }
+        if (watcher == null) {
+            watcher = fileWatcherFactory.watch(this::onWatcherFailure, this);
+        }
+        return watcher;
+    }
+
+    private void onWatcherFailure(Throwable failure) {
+        LOGGER.warn("File watcher failed, discarding file system state.", failure);
+        fileSystemMirror.beforeOutputChange();
+        synchronized (this) {
+            watcher = null;
+            watchedRoots.clear();
+        }
+    }
+
+    private synchronized void stopWatching() {
+        FileWatcher current = watcher;
+        watcher = null;
+        watchedRoots.clear();
+        if (current != null) {
+            current.stop();
+            // Any state retained so far can no longer be trusted
+            fileSystemMirror.beforeOutputChange();
+        }
+    }
+
+    private static boolean isRetentionEnabled() {
+        return Boolean.getBoolean(RETENTION_PROPERTY);
+    }
+}
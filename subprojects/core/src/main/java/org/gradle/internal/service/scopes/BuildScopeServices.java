@@ -77,6 +77,8 @@
 import org.gradle.api.provider.ProviderFactory;
 import org.gradle.cache.CacheRepository;
 import org.gradle.cache.FileLockManager;
+import org.gradle.cache.internal.CacheFactory;
+import org.gradle.cache.internal.CacheWorkerStatisticsReporter;
 import org.gradle.caching.internal.BuildCacheServices;
 import org.gradle.configuration.BuildOperatingFiringProjectsPreparer;
 import org.gradle.configuration.DefaultInitScriptProcessor;
@@ -221,6 +223,15 @@ protected ListenerManager createListenerManager(ListenerManager listenerManager)
         return listenerManager.createChild();
     }
 
+    protected BuildScopeListenerManagerAction createCacheWorkerStatisticsListeners(final CacheFactory cacheFactory, final BuildOperationExecutor buildOperationExecutor) {
+        return new BuildScopeListenerManagerAction() {
+            @Override
+            public void execute(ListenerManager listenerManager) {
+                listenerManager.addListener(new CacheWorkerStatisticsReporter(cacheFactory, buildOperationExecutor));
+            }
+        };
+    }
+
     protected ClassPathRegistry createClassPathRegistry() {
         ModuleRegistry moduleRegistry = get(ModuleRegistry.class);
         return new DefaultClassPathRegistry(
@@ -27,7 +27,9 @@
 import org.gradle.caching.internal.command.BuildCacheCommandFactory;
 import org.gradle.caching.internal.controller.BuildCacheController;
 import org.gradle.execution.DefaultSharedResourceContainer;
+import org.gradle.execution.plan.DefaultNodeDurationHistory;
 import org.gradle.execution.plan.DefaultPlanExecutor;
+import org.gradle.execution.plan.NodeDurationHistory;
 import org.gradle.execution.plan.PlanExecutor;
 import org.gradle.initialization.BuildCancellationToken;
 import org.gradle.internal.concurrent.ExecutorFactory;
@@ -92,6 +94,10 @@ ExecutionHistoryStore createExecutionHistoryStore(ExecutionHistoryCacheAccess ex
         return new DefaultExecutionHistoryStore(executionHistoryCacheAccess, stringInterner);
     }
 
+    NodeDurationHistory createNodeDurationHistory(ExecutionHistoryCacheAccess executionHistoryCacheAccess) {
+        return new DefaultNodeDurationHistory(executionHistoryCacheAccess);
+    }
+
     OutputFilesRepository createOutputFilesRepository(CacheRepository cacheRepository, Gradle gradle, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
         PersistentCache cacheAccess = cacheRepository
             .cache(gradle, "buildOutputCleanup")
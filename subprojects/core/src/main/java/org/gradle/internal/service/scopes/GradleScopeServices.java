@@ -58,8 +58,10 @@
 import org.gradle.execution.TaskSelector;
 import org.gradle.execution.commandline.CommandLineTaskConfigurer;
 import org.gradle.execution.commandline.CommandLineTaskParser;
+import org.gradle.execution.plan.DefaultNodeDurationHistory;
 import org.gradle.execution.plan.DependencyResolver;
 import org.gradle.execution.plan.LocalTaskNodeExecutor;
+import org.gradle.execution.plan.NodeDurationHistory;
 import org.gradle.execution.plan.NodeExecutor;
 import org.gradle.execution.plan.PlanExecutor;
 import org.gradle.execution.plan.TaskDependencyResolver;
@@ -246,7 +248,24 @@ TaskExecutionGraphInternal createTaskExecutionGraph(
         ProjectStateRegistry projectStateRegistry,
         ServiceRegistry gradleScopedServices
     ) {
-        return new DefaultTaskExecutionGraph(planExecutor, nodeExecutors, buildOperationExecutor, listenerBuildOperationDecorator, coordinationService, gradleInternal, taskNodeFactory, dependencyResolver, graphListeners, taskListeners, sharedResourceRegistry, projectStateRegistry, gradleScopedServices);
+        // Only create the duration history when it is used, as it opens an index in the execution history cache
+        NodeDurationHistory nodeDurationHistory = Boolean.getBoolean(DefaultNodeDurationHistory.CRITICAL_PATH_SCHEDULING_PROPERTY) ? gradleScopedServices.get(NodeDurationHistory.class) : null;
+        return new DefaultTaskExecutionGraph(
+            planExecutor,
+            nodeExecutors,
+            buildOperationExecutor,
+            listenerBuildOperationDecorator,
+            coordinationService,
+            gradleInternal,
+            taskNodeFactory,
+            dependencyResolver,
+            graphListeners,
+            taskListeners,
+            sharedResourceRegistry,
+            projectStateRegistry,
+            gradleScopedServices,
+            nodeDurationHistory
+        );
     }
 
     ServiceRegistryFactory createServiceRegistryFactory(final ServiceRegistry services) {
@@ -26,6 +26,7 @@
 import org.gradle.api.internal.changedetection.state.DefaultFileAccessTimeJournal;
 import org.gradle.api.internal.changedetection.state.DefaultResourceSnapshotterCacheService;
 import org.gradle.api.internal.changedetection.state.DefaultWellKnownFileLocations;
+import org.gradle.api.internal.changedetection.state.FileIdentityHashIndex;
 import org.gradle.api.internal.changedetection.state.GlobalScopeFileTimeStampInspector;
 import org.gradle.api.internal.changedetection.state.ResourceFilter;
 import org.gradle.api.internal.changedetection.state.ResourceSnapshotterCacheService;
@@ -53,7 +54,6 @@
 import org.gradle.groovy.scripts.internal.ScriptSourceHasher;
 import org.gradle.initialization.ClassLoaderRegistry;
 import org.gradle.initialization.GradleUserHomeDirProvider;
-import org.gradle.initialization.RootBuildLifecycleListener;
 import org.gradle.internal.classloader.ClasspathHasher;
 import org.gradle.internal.classloader.DefaultHashingClassLoaderFactory;
 import org.gradle.internal.classloader.HashingClassLoaderFactory;
@@ -68,6 +68,8 @@
 import org.gradle.internal.file.FileAccessTimeJournal;
 import org.gradle.internal.file.JarCache;
 import org.gradle.internal.file.Stat;
+import org.gradle.internal.filewatch.FileSystemMirrorRetention;
+import org.gradle.internal.filewatch.FileWatcherFactory;
 import org.gradle.internal.fingerprint.FileCollectionSnapshotter;
 import org.gradle.internal.fingerprint.classpath.ClasspathFingerprinter;
 import org.gradle.internal.fingerprint.classpath.impl.DefaultClasspathFingerprinter;
@@ -92,6 +94,8 @@
 import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror;
 import org.gradle.internal.snapshot.impl.DefaultFileSystemSnapshotter;
 import org.gradle.internal.snapshot.impl.DefaultValueSnapshotter;
+import org.gradle.internal.snapshot.impl.DirectorySnapshotter;
+import org.gradle.internal.snapshot.impl.DirectorySnapshottingPool;
 import org.gradle.internal.state.ManagedFactoryRegistry;
 import org.gradle.process.internal.JavaExecHandleFactory;
 import org.gradle.process.internal.health.memory.MemoryManager;
@@ -130,6 +134,10 @@ CrossBuildFileHashCache createCrossBuildFileHashCache(CacheRepository cacheRepos
         return new CrossBuildFileHashCache(null, cacheRepository, inMemoryCacheDecoratorFactory);
     }
 
+    FileIdentityHashIndex createFileIdentityHashIndex(CrossBuildFileHashCache fileStore) {
+        return new FileIdentityHashIndex(new File(fileStore.getBaseDir(), "fileIdentityHashes.bin"), FileIdentityHashIndex.DEFAULT_SLOT_COUNT);
+    }
+
     GlobalScopeFileTimeStampInspector createFileTimestampInspector(CacheScopeMapping cacheScopeMapping, ListenerManager listenerManager) {
         GlobalScopeFileTimeStampInspector timeStampInspector = new GlobalScopeFileTimeStampInspector(cacheScopeMapping);
         listenerManager.addListener(timeStampInspector);
@@ -162,7 +170,7 @@ WellKnownFileLocations createFileCategorizer(List<CachedJarFileStore> fileStores
         return new DefaultWellKnownFileLocations(fileStores);
     }
 
-    FileSystemMirror createFileSystemMirror(ListenerManager listenerManager, WellKnownFileLocations wellKnownFileLocations) {
+    FileSystemMirror createFileSystemMirror(ListenerManager listenerManager, WellKnownFileLocations wellKnownFileLocations, FileWatcherFactory fileWatcherFactory) {
         final DefaultFileSystemMirror fileSystemMirror = new DefaultFileSystemMirror(wellKnownFileLocations);
         listenerManager.addListener(new OutputChangeListener() {
             @Override
@@ -175,21 +183,16 @@ public void beforeOutputChange(Iterable<String> affectedOutputPaths) {
                 fileSystemMirror.beforeOutputChange(affectedOutputPaths);
             }
         });
-        listenerManager.addListener(new RootBuildLifecycleListener() {
-            @Override
-            public void afterStart() {
-            }
-
-            @Override
-            public void beforeComplete() {
-                fileSystemMirror.beforeBuildFinished();
-            }
-        });
+        listenerManager.addListener(new FileSystemMirrorRetention(fileSystemMirror, fileWatcherFactory));
         return fileSystemMirror;
     }
 
-    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, Stat stat, FileSystemMirror fileSystemMirror) {
-        return new DefaultFileSystemSnapshotter(hasher, stringInterner, stat, fileSystemMirror, DirectoryScanner.getDefaultExcludes());
+    DirectorySnapshottingPool createDirectorySnapshottingPool() {
+        return new DirectorySnapshottingPool(Integer.getInteger(DirectorySnapshotter.PARALLELISM_PROPERTY, 1));
+    }
+
+    FileSystemSnapshotter createFileSystemSnapshotter(FileHasher hasher, StringInterner stringInterner, Stat stat, FileSystemMirror fileSystemMirror, DirectorySnapshottingPool snapshottingPool) {
+        return new DefaultFileSystemSnapshotter(hasher, stringInterner, stat, fileSystemMirror, snapshottingPool, DirectoryScanner.getDefaultExcludes());
     }
 
     FileCollectionSnapshotter createFileCollectionSnapshotter(FileSystemSnapshotter fileSystemSnapshotter, Stat stat) {
@@ -25,6 +25,7 @@
 import org.gradle.cache.PersistentCache;
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.CacheAccessWorkerStatistics;
 import org.gradle.cache.internal.CacheFactory;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factory;
@@ -50,6 +51,10 @@ public PersistentCache open(File cacheDir, String displayName, Map<String, ?> pr
         return cache;
     }
 
+    @Override
+    public void visitWorkerStatistics(Action<? super CacheAccessWorkerStatistics> visitor) {
+    }
+
     public PersistentCache open(File cacheDir, String displayName) {
         return new InMemoryCache(cacheDir, displayName, CleanupAction.NO_OP);
     }
@@ -166,4 +166,103 @@ class CachingFileHasherTest extends Specification {
         }
         0 * _._
     }
+
+    def usesHashFromIdentityIndexWhenPathIsNotCached() {
+        def identityIndex = Mock(FileIdentityHashIndex)
+        def identity = new FileIdentityHashIndex.FileIdentity(1, 2, 3, 4)
+        def stat = fileSystem.stat(file)
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes"  }, _, _) >> cache
+        hasher = new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem, identityIndex, null)
+
+        when:
+        def result = hasher.hash(file)
+
+        then:
+        result == hash
+
+        and:
+        1 * timeStampInspector.timestampCanBeUsedToDetectFileChange(file.absolutePath, stat.lastModified) >> true
+        1 * cache.get(file.absolutePath) >> null
+        1 * identityIndex.identify(file, stat.length, stat.lastModified) >> identity
+        1 * identityIndex.get(identity) >> hash
+        1 * cache.put(file.absolutePath, _) >> { String key, FileInfo fileInfo ->
+            assert fileInfo.hash == hash
+        }
+        0 * _._
+    }
+
+    def storesHashInIdentityIndexWhenHashingFile() {
+        def identityIndex = Mock(FileIdentityHashIndex)
+        def identity = new FileIdentityHashIndex.FileIdentity(1, 2, 3, 4)
+        def stat = fileSystem.stat(file)
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes"  }, _, _) >> cache
+        hasher = new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem, identityIndex, null)
+
+        when:
+        def result = hasher.hash(file)
+
+        then:
+        result == hash
+
+        and:
+        1 * timeStampInspector.timestampCanBeUsedToDetectFileChange(file.absolutePath, stat.lastModified) >> true
+        1 * cache.get(file.absolutePath) >> null
+        1 * identityIndex.identify(file, stat.length, stat.lastModified) >> identity
+        1 * identityIndex.get(identity) >> null
+        1 * target.hash(file) >> hash
+        1 * identityIndex.put(identity, hash)
+        1 * cache.put(file.absolutePath, _)
+        0 * _._
+    }
+
+    def usesHashFromIdentityIndexByRelativePathWhenFileIdentityIsNotKnown() {
+        def identityIndex = Mock(FileIdentityHashIndex)
+        def identity = new FileIdentityHashIndex.FileIdentity(1, 2, 3, 4)
+        def relativePathIdentity = new FileIdentityHashIndex.FileIdentity(5, 6, 7, 8)
+        def stat = fileSystem.stat(file)
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes"  }, _, _) >> cache
+        hasher = new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem, identityIndex, tmpDir.testDirectory)
+
+        when:
+        def result = hasher.hash(file)
+
+        then:
+        result == hash
+
+        and:
+        1 * timeStampInspector.timestampCanBeUsedToDetectFileChange(file.absolutePath, stat.lastModified) >> true
+        1 * cache.get(file.absolutePath) >> null
+        1 * identityIndex.identify(file, stat.length, stat.lastModified) >> identity
+        1 * identityIndex.get(identity) >> null
+        1 * identityIndex.identifyRelativePath("testfile", stat.length, stat.lastModified) >> relativePathIdentity
+        1 * identityIndex.get(relativePathIdentity) >> hash
+        1 * identityIndex.put(identity, hash)
+        1 * cache.put(file.absolutePath, _)
+        0 * _._
+    }
+
+    def storesHashInIdentityIndexByRelativePathWhenHashingFile() {
+        def identityIndex = Mock(FileIdentityHashIndex)
+        def relativePathIdentity = new FileIdentityHashIndex.FileIdentity(5, 6, 7, 8)
+        def stat = fileSystem.stat(file)
+        1 * cacheAccess.createCache({ it.cacheName == "fileHashes"  }, _, _) >> cache
+        hasher = new CachingFileHasher(target, cacheAccess, new StringInterner(), timeStampInspector, "fileHashes", fileSystem, identityIndex, tmpDir.testDirectory)
+
+        when:
+        def result = hasher.hash(file)
+
+        then:
+        result == hash
+
+        and:
+        1 * timeStampInspector.timestampCanBeUsedToDetectFileChange(file.absolutePath, stat.lastModified) >> true
+        1 * cache.get(file.absolutePath) >> null
+        1 * identityIndex.identify(file, stat.length, stat.lastModified) >> null
+        1 * identityIndex.identifyRelativePath("testfile", stat.length, stat.lastModified) >> relativePathIdentity
+        1 * identityIndex.get(relativePathIdentity) >> null
+        1 * target.hash(file) >> hash
+        1 * identityIndex.put(relativePathIdentity, hash)
+        1 * cache.put(file.absolutePath, _)
+        0 * _._
+    }
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.changedetection.state
+
+import org.gradle.api.internal.changedetection.state.FileIdentityHashIndex.FileIdentity
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.hash.Hashing
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.Files
+
+class FileIdentityHashIndexTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def indexFile = tmpDir.file("index.bin")
+    def index = new FileIdentityHashIndex(indexFile, 16)
+
+    def cleanup() {
+        index.close()
+    }
+
+    def "serves hashes stored by another instance using the same file"() {
+        def identity = new FileIdentity(1, 2, 3, 4)
+        def hash = Hashing.hashString("content")
+        def other = new FileIdentityHashIndex(indexFile, 16)
+
+        when:
+        index.put(identity, hash)
+
+        then:
+        other.get(identity) == hash
+        other.get(new FileIdentity(1, 2, 3, 5)) == null
+        other.get(new FileIdentity(1, 2, 4, 4)) == null
+        other.get(new FileIdentity(1, 3, 3, 4)) == null
+
+        cleanup:
+        other.close()
+    }
+
+    def "instances creating the index at the same time share the same file"() {
+        def identity = new FileIdentity(1, 2, 3, 4)
+        def hash = Hashing.hashString("content")
+        def instances = (1..8).collect { new FileIdentityHashIndex(indexFile, 16) }
+
+        when:
+        instances.collect { instance -> Thread.start { instance.get(identity) } }*.join()
+        index.put(identity, hash)
+
+        then:
+        instances.every { it.get(identity) == hash }
+        tmpDir.testDirectory.list() as List == [indexFile.name]
+
+        cleanup:
+        instances*.close()
+    }
+
+    def "replaces the hash for a file with the same identity"() {
+        def hash = Hashing.hashString("new")
+
+        when:
+        index.put(new FileIdentity(1, 2, 3, 4), Hashing.hashString("old"))
+        index.put(new FileIdentity(1, 2, 5, 6), hash)
+
+        then:
+        index.get(new FileIdentity(1, 2, 3, 4)) == null
+        index.get(new FileIdentity(1, 2, 5, 6)) == hash
+    }
+
+    def "never serves the wrong hash when the index is full"() {
+        when:
+        (0..<100).each { index.put(new FileIdentity(1, it, 1, 1), Hashing.hashString("content $it")) }
+
+        then:
+        def hits = (0..<100).findAll { index.get(new FileIdentity(1, it, 1, 1)) != null }
+        hits.size() <= 16
+        hits.every { index.get(new FileIdentity(1, it, 1, 1)) == Hashing.hashString("content $it") }
+    }
+
+    def "ignores hashes of unsupported length"() {
+        def identity = new FileIdentity(1, 2, 3, 4)
+
+        when:
+        index.put(identity, HashCode.fromInt(1234))
+
+        then:
+        index.get(identity) == null
+    }
+
+    def "copies with the same relative path, length and timestamp have the same identity"() {
+        def lastModified = System.currentTimeMillis() - 10_000
+        def hash = Hashing.hashString("content")
+
+        when:
+        index.put(index.identifyRelativePath("src/Foo.java", 7, lastModified), hash)
+
+        then:
+        index.get(index.identifyRelativePath("src/Foo.java", 7, lastModified)) == hash
+        index.get(index.identifyRelativePath("src/Foo.java", 7, lastModified + 1)) == null
+        index.get(index.identifyRelativePath("src/Foo.java", 8, lastModified)) == null
+        index.get(index.identifyRelativePath("src/Bar.java", 7, lastModified)) == null
+        index.identifyRelativePath("src/Foo.java", 7, System.currentTimeMillis()) == null
+    }
+
+    @Requires(TestPrecondition.UNIX_DERIVATIVE)
+    def "hard links to the same file have the same identity"() {
+        def file = tmpDir.file("file").createFile()
+        file.text = "content"
+        file.setLastModified(System.currentTimeMillis() - 10_000)
+        def link = tmpDir.file("link")
+        Files.createLink(link.toPath(), file.toPath())
+        def hash = Hashing.hashString("content")
+
+        when:
+        index.put(index.identify(file, file.length(), file.lastModified()), hash)
+
+        then:
+        index.get(index.identify(link, link.length(), link.lastModified())) == hash
+    }
+
+    @Requires(TestPrecondition.UNIX_DERIVATIVE)
+    def "recently modified files have no identity"() {
+        def file = tmpDir.file("file").createFile()
+
+        expect:
+        index.identify(file, file.length(), System.currentTimeMillis()) == null
+    }
+}
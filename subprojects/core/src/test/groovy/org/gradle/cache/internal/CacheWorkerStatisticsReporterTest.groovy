@@ -0,0 +1,60 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal
+
+import org.gradle.BuildResult
+import org.gradle.api.Action
+import org.gradle.api.invocation.Gradle
+import org.gradle.internal.operations.TestBuildOperationExecutor
+import spock.lang.Specification
+
+class CacheWorkerStatisticsReporterTest extends Specification {
+    def statistics = new CacheAccessWorkerStatistics("<cache>")
+    def cacheFactory = Stub(CacheFactory) {
+        visitWorkerStatistics(_) >> { Action<CacheAccessWorkerStatistics> visitor -> visitor.execute(statistics) }
+    }
+    def buildOperationExecutor = new TestBuildOperationExecutor()
+    def reporter = new CacheWorkerStatisticsReporter(cacheFactory, buildOperationExecutor)
+
+    def "reports the statistics since the previous build when the root build finishes"() {
+        given:
+        statistics.applied(3)
+        statistics.coalesced()
+
+        when:
+        reporter.buildFinished(new BuildResult(Stub(Gradle), null))
+
+        then:
+        def workers = buildOperationExecutor.log.mostRecentResult(CacheWorkerStatisticsBuildOperationType).workers
+        workers*.cacheDisplayName == ["<cache>"]
+        workers[0].appliedUpdates == 3
+        workers[0].coalescedUpdates == 1
+        statistics.appliedUpdates == 0
+    }
+
+    def "does not report when a nested build finishes"() {
+        given:
+        statistics.applied(3)
+
+        when:
+        reporter.buildFinished(new BuildResult(Stub(Gradle) { getParent() >> Stub(Gradle) }, null))
+
+        then:
+        buildOperationExecutor.log.all(CacheWorkerStatisticsBuildOperationType).empty
+        statistics.appliedUpdates == 3
+    }
+}
@@ -147,6 +147,64 @@ class DefaultCrossBuildInMemoryCacheFactoryTest extends ConcurrentSpec {
         0 * transformer._
     }
 
+    def "bounded cache discards least recently used values beyond its maximum weight"() {
+        def transformer = Mock(Transformer)
+
+        given:
+        def cache = factory.newBoundedCache("test", 10, { key, value -> 4 } as BoundedCrossBuildInMemoryCache.Weigher)
+        cache.put("a", "A")
+        cache.put("b", "B")
+        listenerManager.getBroadcaster(SessionLifecycleListener).beforeComplete()
+
+        when:
+        cache.get("a")
+        cache.put("c", "C")
+        listenerManager.getBroadcaster(SessionLifecycleListener).beforeComplete()
+
+        then:
+        cache.get("a") == "A"
+        cache.get("c") == "C"
+        cache.get("b", transformer) == "new B"
+
+        and:
+        1 * transformer.transform("b") >> "new B"
+
+        and:
+        def statistics = cache.statistics
+        statistics.hitCount == 3
+        statistics.missCount == 1
+        statistics.evictionCount == 2
+        statistics.weight == 8
+        statistics.maxWeight == 10
+    }
+
+    def "bounded cache retains values used in the current session beyond its maximum weight"() {
+        given:
+        def cache = factory.newBoundedCache("test", 10, { key, value -> 4 } as BoundedCrossBuildInMemoryCache.Weigher)
+        cache.put("a", "A")
+        cache.put("b", "B")
+        cache.put("c", "C")
+
+        expect:
+        cache.get("a") == "A"
+        cache.statistics.evictionCount == 1
+
+        when:
+        listenerManager.getBroadcaster(SessionLifecycleListener).beforeComplete()
+
+        then:
+        cache.get("a") == null
+        cache.get("b") == "B"
+        cache.get("c") == "C"
+
+        when:
+        cache.clear()
+
+        then:
+        cache.get("b") == null
+        cache.statistics.weight == 0
+    }
+
     def "creates a cache whose keys are classes"() {
         def a = new Object()
         def b = new Object()
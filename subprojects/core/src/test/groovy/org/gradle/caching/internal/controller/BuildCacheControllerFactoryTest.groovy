@@ -30,6 +30,7 @@ import org.gradle.caching.internal.FinalizeBuildCacheConfigurationBuildOperation
 import org.gradle.caching.internal.services.BuildCacheControllerFactory
 import org.gradle.caching.local.DirectoryBuildCache
 import org.gradle.caching.local.internal.LocalBuildCacheService
+import org.gradle.internal.concurrent.DefaultExecutorFactory
 import org.gradle.internal.operations.TestBuildOperationExecutor
 import org.gradle.util.Path
 import org.gradle.util.TestUtil
@@ -59,6 +60,7 @@ class BuildCacheControllerFactoryTest extends Specification {
     private <T extends BuildCacheController> T createController(Class<T> controllerType) {
         def controller = BuildCacheControllerFactory.create(
             buildOperationExecuter,
+            new DefaultExecutorFactory(),
             Path.path("test"),
             null,
             config,
@@ -53,7 +53,7 @@ class DefaultExecutionPlanParallelTest extends AbstractExecutionPlanSpec {
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
         def coordinationService = new DefaultResourceLockCoordinationService()
         def sharedResourceLeaseRegistry = new SharedResourceLeaseRegistry(coordinationService)
-        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry)
+        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry, null)
     }
 
     TaskInternal task(Map<String, ?> options = [:], String name) {
@@ -45,7 +45,7 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
         def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
         def coordinationService = new DefaultResourceLockCoordinationService()
         def sharedResourceLeaseRegistry = new SharedResourceLeaseRegistry(coordinationService)
-        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry)
+        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, sharedResourceLeaseRegistry, null)
         _ * workerLease.tryLock() >> true
     }
 
@@ -756,6 +756,71 @@ class DefaultExecutionPlanTest extends AbstractExecutionPlanSpec {
         executes(b)
     }
 
+    def "starts ready tasks on the longest path first when durations of previous executions are known"() {
+        given:
+        def durations = [a: 1L, b: 1L, c: 10L, d: 10L]
+        def nodeDurationHistory = Stub(NodeDurationHistory) {
+            getPreviousDuration(_) >> { Node node -> durations[node.task.name] }
+        }
+        def taskNodeFactory = new TaskNodeFactory(thisBuild, Stub(IncludedBuildTaskGraph))
+        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, new SharedResourceLeaseRegistry(new DefaultResourceLockCoordinationService()), nodeDurationHistory)
+        Task a = task("a")
+        Task b = task("b")
+        Task c = task("c")
+        Task d = task("d", dependsOn: [c])
+
+        when:
+        addToGraphAndPopulate([a, b, d])
+
+        then:
+        executionPlan.tasks as List == [a, b, c, d]
+        executedTasks == [c, d, a, b]
+    }
+
+    def "does not start tasks on the longest path ahead of tasks requested earlier on the command line"() {
+        given:
+        def durations = [clean: 1L, compile: 10L, build: 1L]
+        def nodeDurationHistory = Stub(NodeDurationHistory) {
+            getPreviousDuration(_) >> { Node node -> durations[node.task.name] }
+        }
+        def taskNodeFactory = new TaskNodeFactory(thisBuild, Stub(IncludedBuildTaskGraph))
+        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, new SharedResourceLeaseRegistry(new DefaultResourceLockCoordinationService()), nodeDurationHistory)
+        Task clean = task("clean")
+        Task compile = task("compile")
+        Task build = task("build", dependsOn: [compile])
+
+        when:
+        executionPlan.addEntryTasks([clean])
+        executionPlan.addEntryTasks([build])
+        executionPlan.determineExecutionPlan()
+
+        then:
+        executes(clean, compile, build)
+    }
+
+    def "does not start tasks on the longest path ahead of tasks they should run after"() {
+        given:
+        def durations = [a: 10L, b: 1L, c: 10L]
+        def nodeDurationHistory = Stub(NodeDurationHistory) {
+            getPreviousDuration(_) >> { Node node -> durations[node.task.name] }
+        }
+        def taskNodeFactory = new TaskNodeFactory(thisBuild, Stub(IncludedBuildTaskGraph))
+        def dependencyResolver = new TaskDependencyResolver([new TaskNodeDependencyResolver(taskNodeFactory)])
+        executionPlan = new DefaultExecutionPlan(thisBuild, taskNodeFactory, dependencyResolver, new SharedResourceLeaseRegistry(new DefaultResourceLockCoordinationService()), nodeDurationHistory)
+        Task b = task("b")
+        Task a = task("a", shouldRunAfter: [b])
+        Task c = task("c", dependsOn: [a])
+
+        when:
+        addToGraphAndPopulate([b, c])
+
+        then:
+        executionPlan.tasks as List == [b, a, c]
+        executedTasks == [b, a, c]
+    }
+
     def "does not build graph for or execute filtered tasks"() {
         given:
         Task a = filteredTask("a")
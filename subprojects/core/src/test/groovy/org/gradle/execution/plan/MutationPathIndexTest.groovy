@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import spock.lang.Specification
+
+class MutationPathIndexTest extends Specification {
+    def root = new File("root").absoluteFile
+    def index = new MutationPathIndex()
+    def node1 = Stub(Node)
+    def node2 = Stub(Node)
+
+    def "finds nodes mutating the same path, an ancestor or a descendant"() {
+        given:
+        index.add(node1, [path("build/classes"), path("build/tmp")])
+        index.add(node2, [path("build/classes/main")])
+
+        expect:
+        index.hasOverlap([path("build/classes")])
+        index.hasOverlap([path("build")])
+        index.hasOverlap([path("build/tmp/file")])
+        !index.hasOverlap([path("build/resources")])
+        !index.hasOverlap([path("build/classesAndMore")])
+        !index.hasOverlap([])
+
+        and:
+        index.getOverlappingNodes([path("build")]) == [node1, node2] as Set
+        index.getOverlappingNodes([path("build/classes/main/Foo.class")]) == [node1, node2] as Set
+        index.getOverlappingNodes([path("build/tmp")]) == [node1] as Set
+        index.getOverlappingNodes([path("other")]).empty
+    }
+
+    def "forgets the paths of removed nodes"() {
+        given:
+        index.add(node1, [path("build/classes"), path("build/tmp")])
+        index.add(node2, [path("build/classes")])
+
+        when:
+        index.remove(node1, [path("build/classes"), path("build/tmp")])
+
+        then:
+        !index.hasOverlap([path("build/tmp")])
+        index.getOverlappingNodes([path("build")]) == [node2] as Set
+
+        when:
+        index.remove(node2, [path("build/classes")])
+
+        then:
+        !index.hasOverlap([path("build")])
+        !index.hasOverlap([root.path])
+    }
+
+    def "clear removes all paths"() {
+        given:
+        index.add(node1, [path("build")])
+
+        when:
+        index.clear()
+
+        then:
+        !index.hasOverlap([path("build")])
+        index.getOverlappingNodes([root.path]).empty
+    }
+
+    private String path(String relativePath) {
+        return new File(root, relativePath).path
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import spock.lang.Specification
+
+class NodeReachabilityTest extends Specification {
+    def reachability = new NodeReachability()
+
+    def "finds nodes reachable via incomplete dependencies"() {
+        given:
+        def d = node()
+        def c = node(d)
+        def completed = node([d], true)
+        def b = node(c)
+        def a = node(b, completed)
+        def unrelated = node()
+
+        expect:
+        reachability.isReachable(a, a)
+        reachability.isReachable(a, b)
+        reachability.isReachable(a, d)
+        reachability.isReachable(b, d)
+        !reachability.isReachable(a, completed)
+        !reachability.isReachable(a, unrelated)
+        !reachability.isReachable(d, a)
+        reachability.isReachable(completed, d)
+    }
+
+    def "reuses the nodes reachable from dependencies"() {
+        given:
+        def c = node()
+        def b = Mock(Node)
+        def a = node(b)
+
+        when:
+        def fromB = reachability.isReachable(b, c)
+
+        then:
+        fromB
+        1 * b.getAllSuccessors() >> [c]
+
+        when:
+        def fromA = reachability.isReachable(a, c)
+
+        then:
+        fromA
+        _ * b.isComplete() >> false
+        0 * b.getAllSuccessors()
+    }
+
+    private Node node(Node... successors) {
+        return node(successors as List, false)
+    }
+
+    private Node node(List<Node> successors, boolean complete) {
+        return Stub(Node) {
+            getAllSuccessors() >> successors
+            isComplete() >> complete
+        }
+    }
+}
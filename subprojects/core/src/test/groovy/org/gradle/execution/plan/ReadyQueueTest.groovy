@@ -0,0 +1,110 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.execution.plan
+
+import org.gradle.api.Project
+import spock.lang.Specification
+
+import static org.gradle.execution.plan.ReadyQueue.Decision.DISCARD
+import static org.gradle.execution.plan.ReadyQueue.Decision.SELECT
+import static org.gradle.execution.plan.ReadyQueue.Decision.SKIP
+import static org.gradle.execution.plan.ReadyQueue.Decision.SKIP_PROJECT
+
+class ReadyQueueTest extends Specification {
+    def projectA = Stub(Project)
+    def projectB = Stub(Project)
+    def queue = new ReadyQueue()
+
+    def "selects nodes in plan order regardless of the order they became ready"() {
+        def a = node(projectA)
+        def b = node(projectB)
+        def c = node(null)
+        def d = node(projectA)
+        queue.setPlan([a, b, c, d])
+
+        when:
+        queue.add(d)
+        queue.add(c)
+        queue.add(a)
+        queue.add(b)
+        def visited = []
+        queue.select { visited << it; SKIP }
+
+        then:
+        visited == [a, b, c, d]
+        queue.select { it == c ? SELECT : SKIP } == c
+        queue.select { it == c ? SELECT : SKIP } == null
+    }
+
+    def "ignores nodes that are not in the plan and nodes that are already queued"() {
+        def a = node(projectA)
+        queue.setPlan([a])
+
+        when:
+        queue.add(node(projectA))
+        queue.add(a)
+        queue.add(a)
+
+        then:
+        !queue.isEmpty()
+        queue.select { SELECT } == a
+        queue.isEmpty()
+    }
+
+    def "skips the remaining nodes of a project whose lock cannot be acquired"() {
+        def a1 = node(projectA)
+        def b = node(projectB)
+        def a2 = node(projectA)
+        queue.setPlan([a1, b, a2])
+        [a1, b, a2].each { queue.add(it) }
+
+        when:
+        def visited = []
+        def selected = queue.select { visited << it; it == a1 ? SKIP_PROJECT : SKIP }
+
+        then:
+        selected == null
+        visited == [a1, b]
+
+        when:
+        selected = queue.select { it == a2 ? SELECT : SKIP }
+
+        then:
+        selected == a2
+    }
+
+    def "discards nodes that are no longer ready"() {
+        def a = node(projectA)
+        def b = node(projectB)
+        queue.setPlan([a, b])
+        queue.add(a)
+        queue.add(b)
+
+        when:
+        def selected = queue.select { DISCARD }
+
+        then:
+        selected == null
+        queue.isEmpty()
+    }
+
+    private Node node(Project project) {
+        return Stub(Node) {
+            getProjectToLock() >> project
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.filewatch
+
+import org.gradle.internal.snapshot.impl.DefaultFileSystemMirror
+import org.gradle.util.SetSystemProperties
+import org.junit.Rule
+import spock.lang.Specification
+
+class FileSystemMirrorRetentionTest extends Specification {
+    @Rule
+    SetSystemProperties systemProperties = new SetSystemProperties()
+
+    def mirror = Mock(DefaultFileSystemMirror)
+    def watcher = Mock(FileWatcher)
+    def watcherFactory = Mock(FileWatcherFactory)
+    def retention = new FileSystemMirrorRetention(mirror, watcherFactory)
+
+    def "discards all state at the end of the build by default"() {
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * mirror.beforeBuildFinished()
+        0 * watcherFactory._
+        0 * mirror.beforeBuildFinishedRetainingState()
+    }
+
+    def "watches retained locations when retention is enabled"() {
+        System.setProperty(FileSystemMirrorRetention.RETENTION_PROPERTY, "true")
+        def retainedFile = new File("retained").absoluteFile
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, retention) >> watcher
+        1 * mirror.retainedPaths >> ([retainedFile.path] as Set)
+        1 * watcher.watch({ it.contains(retainedFile) })
+        1 * mirror.beforeBuildFinishedRetainingState()
+        0 * mirror.beforeBuildFinished()
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        _ * watcher.running >> true
+        0 * watcherFactory._
+        1 * mirror.retainedPaths >> ([retainedFile.path] as Set)
+        1 * watcher.watch({ it.empty })
+        1 * mirror.changed([])
+        1 * mirror.beforeBuildFinishedRetainingState()
+    }
+
+    def "discards state for locations that were not watched while they were snapshotted"() {
+        System.setProperty(FileSystemMirrorRetention.RETENTION_PROPERTY, "true")
+        def watchedDir = new File("watched").absoluteFile
+        def watchedFile = new File(watchedDir, "file")
+        def newFile = new File("new").absoluteFile
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, retention) >> watcher
+        1 * mirror.retainedPaths >> ([watchedDir.path] as Set)
+        1 * mirror.changed([watchedDir.path])
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        _ * watcher.running >> true
+        1 * mirror.retainedPaths >> ([watchedDir.path, watchedFile.path, newFile.path] as Set)
+        1 * watcher.watch({ it.roots as List == [newFile] })
+        1 * mirror.changed([newFile.path])
+        1 * mirror.beforeBuildFinishedRetainingState()
+    }
+
+    def "registers the roots of the retained locations"() {
+        System.setProperty(FileSystemMirrorRetention.RETENTION_PROPERTY, "true")
+        def dir = new File("dir").absoluteFile
+        def child = new File(dir, "child")
+        def other = new File("other").absoluteFile
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, retention) >> watcher
+        1 * mirror.retainedPaths >> ([child.path, dir.path, other.path] as Set)
+        1 * watcher.watch({ it.roots as Set == [dir, other] as Set })
+    }
+
+    def "invalidates changed paths only"() {
+        def changedFile = new File("changed").absoluteFile
+
+        when:
+        retention.onChange(watcher, FileWatcherEvent.modify(changedFile))
+
+        then:
+        1 * mirror.changed([changedFile.path] as Set)
+        0 * mirror._
+    }
+
+    def "discards all state when events are lost"() {
+        when:
+        retention.onChange(watcher, FileWatcherEvent.undefined())
+
+        then:
+        1 * mirror.beforeOutputChange()
+        0 * mirror._
+    }
+
+    def "discards all state when locations cannot be watched"() {
+        System.setProperty(FileSystemMirrorRetention.RETENTION_PROPERTY, "true")
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, retention) >> watcher
+        1 * mirror.retainedPaths >> ([] as Set)
+        1 * watcher.watch(_) >> { throw new IOException("broken") }
+        1 * watcher.stop()
+        1 * mirror.beforeBuildFinished()
+        0 * mirror.beforeBuildFinishedRetainingState()
+    }
+
+    def "stops watching and discards all state when retention is disabled"() {
+        System.setProperty(FileSystemMirrorRetention.RETENTION_PROPERTY, "true")
+
+        when:
+        retention.beforeComplete()
+
+        then:
+        1 * watcherFactory.watch(_, retention) >> watcher
+        1 * mirror.retainedPaths >> ([] as Set)
+
+        when:
+        System.clearProperty(FileSystemMirrorRetention.RETENTION_PROPERTY)
+        retention.afterStart()
+
+        then:
+        1 * watcher.stop()
+        1 * mirror.beforeOutputChange()
+    }
+}
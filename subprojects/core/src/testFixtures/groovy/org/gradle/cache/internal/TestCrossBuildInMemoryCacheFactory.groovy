@@ -26,6 +26,11 @@ class TestCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFacto
         return new TestCache<K, V>()
     }
 
+    @Override
+    <K, V> BoundedCrossBuildInMemoryCache<K, V> newBoundedCache(String name, long maxWeight, BoundedCrossBuildInMemoryCache.Weigher<? super K, ? super V> weigher) {
+        return new TestCache<K, V>()
+    }
+
     @Override
     <V> CrossBuildInMemoryCache<Class<?>, V> newClassCache() {
         return new TestCache<Class<?>, V>()
@@ -36,7 +41,7 @@ class TestCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFacto
         return new TestCache<Class<?>, V>()
     }
 
-    static class TestCache<K, V> implements CrossBuildInMemoryCache<K, V> {
+    static class TestCache<K, V> implements BoundedCrossBuildInMemoryCache<K, V> {
         private final Map<K, V> values = new ConcurrentHashMap<>()
 
         @Override
@@ -63,5 +68,10 @@ class TestCrossBuildInMemoryCacheFactory implements CrossBuildInMemoryCacheFacto
         void clear() {
             values.clear()
         }
+
+        @Override
+        Statistics getStatistics() {
+            return new Statistics(0, 0, 0, 0, Long.MAX_VALUE)
+        }
     }
 }
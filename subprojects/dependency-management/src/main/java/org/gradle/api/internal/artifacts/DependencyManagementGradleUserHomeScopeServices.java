@@ -20,6 +20,7 @@
 import org.gradle.api.internal.artifacts.ivyservice.ArtifactCacheMetadata;
 import org.gradle.api.internal.artifacts.ivyservice.DefaultArtifactCacheLockingManager;
 import org.gradle.api.internal.artifacts.ivyservice.DefaultArtifactCacheMetadata;
+import org.gradle.api.internal.artifacts.ivyservice.modulecache.ModuleMetadataStringTable;
 import org.gradle.api.internal.artifacts.transform.ImmutableCachingTransformationWorkspaceProvider;
 import org.gradle.api.internal.artifacts.transform.ImmutableTransformationWorkspaceProvider;
 import org.gradle.api.internal.cache.StringInterner;
@@ -35,6 +36,8 @@
 import org.gradle.internal.execution.history.impl.DefaultExecutionHistoryStore;
 import org.gradle.internal.file.FileAccessTimeJournal;
 
+import java.io.File;
+
 public class DependencyManagementGradleUserHomeScopeServices {
     DefaultArtifactCacheMetadata createArtifactCacheMetaData(CacheScopeMapping cacheScopeMapping) {
         return new DefaultArtifactCacheMetadata(cacheScopeMapping);
@@ -45,6 +48,10 @@ ArtifactCacheLockingManager createArtifactCacheLockingManager(CacheRepository ca
         return new DefaultArtifactCacheLockingManager(cacheRepository, artifactCacheMetadata, fileAccessTimeJournal, usedGradleVersions);
     }
 
+    ModuleMetadataStringTable createModuleMetadataStringTable(ArtifactCacheMetadata artifactCacheMetadata, StringInterner stringInterner) {
+        return new ModuleMetadataStringTable(new File(artifactCacheMetadata.getMetaDataStoreDirectory().getParentFile(), "descriptor-strings.bin"), stringInterner);
+    }
+
     ExecutionHistoryCacheAccess createExecutionHistoryCacheAccess(CacheRepository cacheRepository, InMemoryCacheDecoratorFactory inMemoryCacheDecoratorFactory) {
         return new DefaultExecutionHistoryCacheAccess(null, cacheRepository, inMemoryCacheDecoratorFactory);
     }
@@ -33,6 +33,8 @@ class ComponentMetaDataResolveState {
 
     private boolean searchedLocally;
     private boolean searchedRemotely;
+    private boolean probedRemotely;
+    private RuntimeException probeFailure;
 
     public ComponentMetaDataResolveState(ModuleComponentIdentifier componentIdentifier, ComponentOverrideMetadata componentOverrideMetadata, ModuleComponentRepository repository, VersionedComponentChooser versionedComponentChooser) {
         this.componentOverrideMetadata = componentOverrideMetadata;
@@ -43,6 +45,13 @@ public ComponentMetaDataResolveState(ModuleComponentIdentifier componentIdentifi
     }
 
     BuildableModuleComponentMetaDataResolveResult resolve() {
+        if (probedRemotely) {
+            probedRemotely = false;
+            if (probeFailure != null) {
+                throw probeFailure;
+            }
+            return resolveResult;
+        }
         if (!searchedLocally) {
             searchedLocally = true;
             process(repository.getLocalAccess());
@@ -65,6 +74,21 @@ BuildableModuleComponentMetaDataResolveResult resolve() {
         throw new IllegalStateException();
     }
 
+    /**
+     * Searches the remote repository ahead of the next call to {@link #resolve()}, which then returns the result of this search.
+     * May be called from any thread, once the local search has not found a result.
+     */
+    BuildableModuleComponentMetaDataResolveResult probeRemotely() {
+        searchedRemotely = true;
+        probedRemotely = true;
+        try {
+            process(repository.getRemoteAccess());
+        } catch (RuntimeException e) {
+            probeFailure = e;
+        }
+        return resolveResult;
+    }
+
     protected void process(ModuleComponentRepositoryAccess moduleAccess) {
         moduleAccess.resolveComponentMetaData(componentIdentifier, componentOverrideMetadata, resolveResult);
         if (resolveResult.getState() == BuildableModuleComponentMetaDataResolveResult.State.Resolved) {
@@ -50,6 +50,7 @@
 import org.gradle.internal.resolve.caching.ComponentMetadataSupplierRuleExecutor;
 import org.gradle.internal.resolve.result.BuildableComponentIdResolveResult;
 import org.gradle.internal.resolve.result.BuildableModuleComponentMetaDataResolveResult;
+import org.gradle.internal.resolve.result.BuildableModuleVersionListingResolveResult;
 import org.gradle.internal.resolve.result.ComponentSelectionContext;
 import org.gradle.internal.resolve.result.DefaultBuildableModuleComponentMetaDataResolveResult;
 import org.gradle.internal.resolve.result.DefaultBuildableModuleVersionListingResolveResult;
@@ -57,6 +58,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedHashMap;
@@ -72,6 +74,18 @@
 
 public class DynamicVersionResolver {
     private static final Logger LOGGER = LoggerFactory.getLogger(DynamicVersionResolver.class);
+    private static final ParallelRepositoryProbe.Query<RepositoryResolveState> VERSION_LISTING_QUERY = new ParallelRepositoryProbe.Query<RepositoryResolveState>() {
+        @Override
+        public String getDisplayName(RepositoryResolveState request) {
+            return request.repository.getName();
+        }
+
+        @Override
+        public boolean queryRemotely(RepositoryResolveState request) {
+            // Every repository contributes to the choice of version, unless a failure stops the search
+            return request.versionListingResult.probeRemotely();
+        }
+    };
 
     private final List<ModuleComponentRepository> repositories = new ArrayList<ModuleComponentRepository>();
     private final List<String> repositoryNames = new ArrayList<String>();
@@ -82,8 +96,9 @@ public class DynamicVersionResolver {
     private final ComponentMetadataProcessorFactory componentMetadataProcessor;
     private final ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor;
     private final CachePolicy cachePolicy;
+    private final ParallelRepositoryProbe repositoryProbe;
 
-    public DynamicVersionResolver(VersionedComponentChooser versionedComponentChooser, VersionParser versionParser, Transformer<ModuleComponentResolveMetadata, RepositoryChainModuleResolution> metaDataFactory, ImmutableAttributesFactory attributesFactory, ComponentMetadataProcessorFactory componentMetadataProcessor, ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor, CachePolicy cachePolicy) {
+    public DynamicVersionResolver(VersionedComponentChooser versionedComponentChooser, VersionParser versionParser, Transformer<ModuleComponentResolveMetadata, RepositoryChainModuleResolution> metaDataFactory, ImmutableAttributesFactory attributesFactory, ComponentMetadataProcessorFactory componentMetadataProcessor, ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor, CachePolicy cachePolicy, @Nullable ParallelRepositoryProbe repositoryProbe) {
         this.versionedComponentChooser = versionedComponentChooser;
         this.versionParser = versionParser;
         this.metaDataFactory = metaDataFactory;
@@ -91,6 +106,7 @@ public DynamicVersionResolver(VersionedComponentChooser versionedComponentChoose
         this.componentMetadataProcessor = componentMetadataProcessor;
         this.componentMetadataSupplierRuleExecutor = componentMetadataSupplierRuleExecutor;
         this.cachePolicy = cachePolicy;
+        this.repositoryProbe = repositoryProbe;
     }
 
     public void add(ModuleComponentRepository repository) {
@@ -162,6 +178,9 @@ private RepositoryChainModuleResolution findLatestModule(List<RepositoryResolveS
         // Nothing found - do a second pass
         queue.addAll(missing);
         missing.clear();
+        if (repositoryProbe != null) {
+            repositoryProbe.probe(queue, VERSION_LISTING_QUERY);
+        }
         return findLatestModule(queue, failures, missing);
     }
 
@@ -515,6 +534,7 @@ private static class VersionListResult {
 
         private boolean searchedLocally;
         private boolean searchedRemotely;
+        private RuntimeException probeFailure;
 
         public VersionListResult(ModuleDependencyMetadata dependency, ModuleComponentRepository repository) {
             this.dependency = dependency;
@@ -522,6 +542,11 @@ public VersionListResult(ModuleDependencyMetadata dependency, ModuleComponentRep
         }
 
         void resolve() {
+            if (probeFailure != null) {
+                RuntimeException failure = probeFailure;
+                probeFailure = null;
+                throw failure;
+            }
             if (!searchedLocally) {
                 searchedLocally = true;
                 process(dependency, repository.getLocalAccess());
@@ -546,6 +571,22 @@ public boolean canMakeFurtherAttempts() {
             return !searchedRemotely;
         }
 
+        /**
+         * Lists the versions in the remote repository ahead of the next call to {@link #resolve()}, which then uses the result of this listing.
+         * May be called from any thread.
+         *
+         * @return true when the listing has failed in a way that stops the search.
+         */
+        boolean probeRemotely() {
+            try {
+                resolve();
+            } catch (RuntimeException e) {
+                probeFailure = e;
+                return isCriticalFailure(e);
+            }
+            return result.getState() == BuildableModuleVersionListingResolveResult.State.Failed && isCriticalFailure(result.getFailure());
+        }
+
         public void applyTo(ResourceAwareResolveResult target) {
             result.applyTo(target);
         }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve;
+
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.BuildOperationExecutor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queries the remote repositories of a resolver chain concurrently, ahead of the resolver consuming the results in declaration order.
+ *
+ * <p>A query that has not started yet is skipped once the query of an earlier repository has produced an answer that makes it unnecessary.
+ * Queries that have already started are allowed to complete. Their results, including misses, are cached by the repositories as usual.</p>
+ */
+public class ParallelRepositoryProbe {
+    public static final String PARALLEL_REPOSITORY_PROBING_PROPERTY = "org.gradle.unsafe.resolution.parallel-repository-probing";
+
+    private final BuildOperationExecutor buildOperationExecutor;
+
+    public ParallelRepositoryProbe(BuildOperationExecutor buildOperationExecutor) {
+        this.buildOperationExecutor = buildOperationExecutor;
+    }
+
+    /**
+     * Queries the remote repositories of the given requests, which are in declaration order. Does nothing when there is only a single request.
+     */
+    <T> void probe(final List<T> requests, final Query<T> query) {
+        if (requests.size() < 2) {
+            return;
+        }
+        final AtomicInteger firstAnswer = new AtomicInteger(Integer.MAX_VALUE);
+        buildOperationExecutor.runAll(queue -> {
+            for (int i = 0; i < requests.size(); i++) {
+                queue.add(new ProbeOperation<T>(i, requests.get(i), query, firstAnswer));
+            }
+        });
+    }
+
+    interface Query<T> {
+        String getDisplayName(T request);
+
+        /**
+         * Queries the remote repository for the given request, so that the resolver can later use the result. Called from any thread.
+         *
+         * @return true when the queries of later repositories are no longer required.
+         */
+        boolean queryRemotely(T request);
+    }
+
+    private static class ProbeOperation<T> implements RunnableBuildOperation {
+        private final int index;
+        private final T request;
+        private final Query<T> query;
+        private final AtomicInteger firstAnswer;
+
+        ProbeOperation(int index, T request, Query<T> query, AtomicInteger firstAnswer) {
+            this.index = index;
+            this.request = request;
+            this.query = query;
+            this.firstAnswer = firstAnswer;
+        }
+
+        @Override
+        public void run(BuildOperationContext context) {
+            if (index > firstAnswer.get()) {
+                // An earlier repository has answered, so the resolver won't look at this one
+                return;
+            }
+            if (query.queryRemotely(request)) {
+                firstAnswer.accumulateAndGet(index, Math::min);
+            }
+        }
+
+        @Override
+        public BuildOperationDescriptor.Builder description() {
+            return BuildOperationDescriptor.displayName("Probe " + query.getDisplayName(request));
+        }
+    }
+}
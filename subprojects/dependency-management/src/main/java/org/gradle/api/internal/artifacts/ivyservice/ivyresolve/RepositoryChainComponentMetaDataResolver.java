@@ -29,6 +29,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.LinkedList;
@@ -39,15 +40,37 @@
 
 public class RepositoryChainComponentMetaDataResolver implements ComponentMetaDataResolver {
     private static final Logger LOGGER = LoggerFactory.getLogger(RepositoryChainComponentMetaDataResolver.class);
+    private static final ParallelRepositoryProbe.Query<ComponentMetaDataResolveState> REMOTE_METADATA_QUERY = new ParallelRepositoryProbe.Query<ComponentMetaDataResolveState>() {
+        @Override
+        public String getDisplayName(ComponentMetaDataResolveState request) {
+            return request.repository.getName();
+        }
+
+        @Override
+        public boolean queryRemotely(ComponentMetaDataResolveState request) {
+            // Later repositories are not used once a repository has the component, or has failed in a way that stops the search
+            BuildableModuleComponentMetaDataResolveResult result = request.probeRemotely();
+            switch (result.getState()) {
+                case Resolved:
+                    return !result.getMetaData().isMissing();
+                case Failed:
+                    return isCriticalFailure(result.getFailure());
+                default:
+                    return false;
+            }
+        }
+    };
 
     private final List<ModuleComponentRepository> repositories = new ArrayList<ModuleComponentRepository>();
     private final List<String> repositoryNames = new ArrayList<String>();
     private final VersionedComponentChooser versionedComponentChooser;
     private final Transformer<ModuleComponentResolveMetadata, RepositoryChainModuleResolution> metaDataFactory;
+    private final ParallelRepositoryProbe repositoryProbe;
 
-    public RepositoryChainComponentMetaDataResolver(VersionedComponentChooser componentChooser, Transformer<ModuleComponentResolveMetadata, RepositoryChainModuleResolution> metaDataFactory) {
+    public RepositoryChainComponentMetaDataResolver(VersionedComponentChooser componentChooser, Transformer<ModuleComponentResolveMetadata, RepositoryChainModuleResolution> metaDataFactory, @Nullable ParallelRepositoryProbe repositoryProbe) {
         this.versionedComponentChooser = componentChooser;
         this.metaDataFactory = metaDataFactory;
+        this.repositoryProbe = repositoryProbe;
     }
 
     public void add(ModuleComponentRepository repository) {
@@ -128,6 +151,9 @@ private RepositoryChainModuleResolution findBestMatch(List<ComponentMetaDataReso
         // Nothing found locally - try a remote search for all resolve states that were not yet searched remotely
         queue.addAll(missing);
         missing.clear();
+        if (repositoryProbe != null) {
+            repositoryProbe.probe(queue, REMOTE_METADATA_QUERY);
+        }
         return findBestMatch(queue, failures, missing);
     }
 
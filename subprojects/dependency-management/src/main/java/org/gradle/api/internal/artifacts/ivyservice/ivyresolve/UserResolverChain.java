@@ -32,6 +32,8 @@
 import org.gradle.internal.resolve.resolver.DependencyToComponentIdResolver;
 import org.gradle.internal.resolve.resolver.OriginArtifactSelector;
 
+import javax.annotation.Nullable;
+
 public class UserResolverChain implements ComponentResolvers {
     private final RepositoryChainDependencyToComponentIdResolver componentIdResolver;
     private final RepositoryChainComponentMetaDataResolver componentResolver;
@@ -44,12 +46,13 @@ public UserResolverChain(VersionComparator versionComparator,
                              AttributeContainer consumerAttributes,
                              AttributesSchema attributesSchema,
                              ImmutableAttributesFactory attributesFactory,
-                             ComponentMetadataProcessorFactory componentMetadataProcessor, ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor, CachePolicy cachePolicy) {
+                             ComponentMetadataProcessorFactory componentMetadataProcessor, ComponentMetadataSupplierRuleExecutor componentMetadataSupplierRuleExecutor, CachePolicy cachePolicy,
+                             @Nullable ParallelRepositoryProbe repositoryProbe) {
         this.componentSelectionRules = componentSelectionRules;
         VersionedComponentChooser componentChooser = new DefaultVersionedComponentChooser(versionComparator, versionParser, componentSelectionRules, attributesSchema);
         ModuleTransformer metaDataFactory = new ModuleTransformer();
-        componentIdResolver = new RepositoryChainDependencyToComponentIdResolver(componentChooser, metaDataFactory, versionParser, consumerAttributes, attributesFactory, componentMetadataProcessor, componentMetadataSupplierRuleExecutor, cachePolicy);
-        componentResolver = new RepositoryChainComponentMetaDataResolver(componentChooser, metaDataFactory);
+        componentIdResolver = new RepositoryChainDependencyToComponentIdResolver(componentChooser, metaDataFactory, versionParser, consumerAttributes, attributesFactory, componentMetadataProcessor, componentMetadataSupplierRuleExecutor, cachePolicy, repositoryProbe);
+        componentResolver = new RepositoryChainComponentMetaDataResolver(componentChooser, metaDataFactory, repositoryProbe);
         artifactResolver = new RepositoryChainArtifactResolver();
     }
 
@@ -65,15 +65,18 @@ public final class GradlePomModuleDescriptorParser extends AbstractModuleDescrip
     private final VersionSelectorScheme mavenVersionSelectorScheme;
     private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
     private final MavenMutableModuleMetadataFactory metadataFactory;
+    private final ProcessedPomCache processedPomCache;
 
     public GradlePomModuleDescriptorParser(VersionSelectorScheme gradleVersionSelectorScheme,
                                            ImmutableModuleIdentifierFactory moduleIdentifierFactory,
-                                           FileResourceRepository fileResourceRepository, MavenMutableModuleMetadataFactory metadataFactory) {
+                                           FileResourceRepository fileResourceRepository, MavenMutableModuleMetadataFactory metadataFactory,
+                                           ProcessedPomCache processedPomCache) {
         super(fileResourceRepository);
         this.gradleVersionSelectorScheme = gradleVersionSelectorScheme;
         mavenVersionSelectorScheme = new MavenVersionSelectorScheme(gradleVersionSelectorScheme);
         this.moduleIdentifierFactory = moduleIdentifierFactory;
         this.metadataFactory = metadataFactory;
+        this.processedPomCache = processedPomCache;
     }
 
     @Override
@@ -234,9 +237,14 @@ private ModuleDependencyMetadata toDependencyMetadata(ModuleComponentSelector se
     }
 
     private PomReader parsePomResource(DescriptorParseContext parseContext, LocallyAvailableExternalResource localResource, Map<String, String> childProperties) throws SAXException, IOException {
-        PomReader pomReader = new PomReader(localResource, moduleIdentifierFactory, childProperties);
+        PomReader pomReader = processedPomCache.get(localResource, childProperties);
+        if (pomReader != null) {
+            return pomReader;
+        }
+        pomReader = new PomReader(localResource, moduleIdentifierFactory, childProperties);
         GradlePomModuleDescriptorBuilder mdBuilder = new GradlePomModuleDescriptorBuilder(pomReader, gradleVersionSelectorScheme, mavenVersionSelectorScheme);
         doParsePom(parseContext, mdBuilder, pomReader);
+        processedPomCache.put(localResource, childProperties, pomReader);
         return pomReader;
     }
 }
@@ -16,39 +16,184 @@
 
 package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
 
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.commons.io.IOUtils;
+import org.gradle.internal.UncheckedException;
+import org.gradle.internal.classloader.ClassLoaderUtils;
 
+import javax.annotation.Nullable;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLResolver;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import java.io.*;
-import java.util.LinkedList;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 
+/**
+ * Reads a POM into a tree of {@link PomElement}s using a streaming parser.
+ *
+ * <p>Only the sections of the POM that Gradle uses are kept. Everything else, such as the build, reporting and developer sections, is checked to be
+ * well-formed XML and then discarded without being materialized.</p>
+ */
 public final class PomDomParser {
-    private PomDomParser() {}
+    private static final byte[] M2_ENTITIES_RESOURCE;
+
+    static {
+        try {
+            M2_ENTITIES_RESOURCE = IOUtils.toByteArray(org.apache.ivy.plugins.parser.m2.PomReader.class.getResourceAsStream("m2-entities.ent"));
+        } catch (IOException e) {
+            throw UncheckedException.throwAsUncheckedException(e);
+        }
+    }
 
-    public static String getTextContent(Element element) {
-        StringBuilder result = new StringBuilder();
+    private static final XMLResolver M2_ENTITY_RESOLVER = new XMLResolver() {
+        @Override
+        public Object resolveEntity(String publicId, String systemId, String baseUri, String namespace) {
+            if ((systemId != null) && systemId.endsWith("m2-entities.ent")) {
+                return new ByteArrayInputStream(M2_ENTITIES_RESOURCE);
+            }
+            return null;
+        }
+    };
 
-        NodeList childNodes = element.getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node child = childNodes.item(i);
+    // Input factories are not guaranteed to be safe to share between threads, as some implementations reuse their readers
+    private static final ThreadLocal<XMLInputFactory> XML_INPUT_FACTORY = new ThreadLocal<XMLInputFactory>() {
+        @Override
+        protected XMLInputFactory initialValue() {
+            // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
+            // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
+            ClassLoader original = Thread.currentThread().getContextClassLoader();
+            Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
+            try {
+                XMLInputFactory factory = XMLInputFactory.newInstance();
+                factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+                factory.setProperty(XMLInputFactory.IS_VALIDATING, false);
+                factory.setProperty(XMLInputFactory.SUPPORT_DTD, true);
+                factory.setProperty(XMLInputFactory.IS_REPLACING_ENTITY_REFERENCES, true);
+                factory.setXMLResolver(M2_ENTITY_RESOLVER);
+                return factory;
+            } finally {
+                Thread.currentThread().setContextClassLoader(original);
+            }
+        }
+    };
+
+    private static final Retention ALL = new Retention(null, false);
+    private static final Retention PROJECT = new Retention(ImmutableMap.<String, Retention>builder()
+        .put("parent", ALL)
+        .put("groupId", ALL)
+        .put("artifactId", ALL)
+        .put("version", ALL)
+        .put("packaging", ALL)
+        .put("properties", ALL)
+        .put("dependencies", ALL)
+        .put("dependencyManagement", ALL)
+        .put("distributionManagement", new Retention(ImmutableMap.of("relocation", ALL), false))
+        .put("profiles", new Retention(ImmutableMap.of("profile", new Retention(ImmutableMap.<String, Retention>builder()
+            .put("id", ALL)
+            .put("activation", ALL)
+            .put("properties", ALL)
+            .put("dependencies", ALL)
+            .put("dependencyManagement", ALL)
+            .build(), false)), false))
+        .build(), true);
+
+    private PomDomParser() {}
+
+    /**
+     * Parses the given POM content, returning its root element.
+     */
+    static PomElement parse(InputStream inputStream, String systemId) throws IOException, XMLStreamException {
+        XMLStreamReader reader = XML_INPUT_FACTORY.get().createXMLStreamReader(systemId, new AddDTDFilterInputStream(inputStream));
+        try {
+            int event = reader.next();
+            while (event != XMLStreamConstants.START_ELEMENT) {
+                event = reader.next();
+            }
+            PomElement root = readElement(reader, qualifiedName(reader), PROJECT);
+            // Read the rest of the document, so that it is checked to be well-formed
+            while (reader.hasNext()) {
+                reader.next();
+            }
+            return root;
+        } finally {
+            reader.close();
+        }
+    }
 
-            switch (child.getNodeType()) {
-                case Node.CDATA_SECTION_NODE:
-                case Node.TEXT_NODE:
-                    result.append(child.getNodeValue());
+    private static PomElement readElement(XMLStreamReader reader, String name, Retention retention) throws XMLStreamException {
+        StringBuilder text = null;
+        List<PomElement> children = null;
+        List<String> comments = null;
+        while (true) {
+            switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    String childName = qualifiedName(reader);
+                    Retention childRetention = retention.getChild(childName);
+                    if (childRetention == null) {
+                        skipElement(reader);
+                    } else {
+                        if (children == null) {
+                            children = new ArrayList<PomElement>();
+                        }
+                        children.add(readElement(reader, childName, childRetention));
+                    }
+                    break;
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    if (text == null) {
+                        text = new StringBuilder();
+                    }
+                    text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
                     break;
+                case XMLStreamConstants.COMMENT:
+                    if (retention.keepComments) {
+                        if (comments == null) {
+                            comments = new ArrayList<String>();
+                        }
+                        comments.add(reader.getText());
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    return new PomElement(name,
+                        text == null ? "" : text.toString(),
+                        children == null ? Collections.<PomElement>emptyList() : children,
+                        comments == null ? Collections.<String>emptyList() : comments);
                 default:
                     break;
             }
         }
+    }
+
+    private static void skipElement(XMLStreamReader reader) throws XMLStreamException {
+        int depth = 1;
+        while (depth > 0) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+            }
+        }
+    }
 
-        return result.toString();
+    private static String qualifiedName(XMLStreamReader reader) {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
     }
 
-    public static String getFirstChildText(Element parentElem, String name) {
-        Element node = getFirstChildElement(parentElem, name);
+    static String getTextContent(PomElement element) {
+        return element.getText();
+    }
+
+    @Nullable
+    static String getFirstChildText(@Nullable PomElement parentElem, String name) {
+        PomElement node = getFirstChildElement(parentElem, name);
         if (node != null) {
             return getTextContent(node);
         } else {
@@ -56,32 +201,45 @@ public static String getFirstChildText(Element parentElem, String name) {
         }
     }
 
-    public static Element getFirstChildElement(Element parentElem, String name) {
+    @Nullable
+    static PomElement getFirstChildElement(@Nullable PomElement parentElem, String name) {
         if (parentElem == null) {
             return null;
         }
-        NodeList childs = parentElem.getChildNodes();
-        for (int i = 0; i < childs.getLength(); i++) {
-            Node node = childs.item(i);
-            if (node instanceof Element && name.equals(node.getNodeName())) {
-                return (Element) node;
+        for (PomElement child : parentElem.getChildren()) {
+            if (name.equals(child.getName())) {
+                return child;
             }
         }
         return null;
     }
 
-    public static List<Element> getAllChilds(Element parent) {
-        List<Element> r = new LinkedList<Element>();
-        if (parent != null) {
-            NodeList childs = parent.getChildNodes();
-            for (int i = 0; i < childs.getLength(); i++) {
-                Node node = childs.item(i);
-                if (node instanceof Element) {
-                    r.add((Element) node);
-                }
-            }
+    static List<PomElement> getAllChilds(@Nullable PomElement parent) {
+        if (parent == null) {
+            return Collections.emptyList();
+        }
+        return parent.getChildren();
+    }
+
+    /**
+     * Describes which child elements of an element are kept.
+     */
+    private static class Retention {
+        private final Map<String, Retention> children;
+        private final boolean keepComments;
+
+        /**
+         * @param children the retention of the children to keep, or null to keep all children.
+         */
+        Retention(@Nullable Map<String, Retention> children, boolean keepComments) {
+            this.children = children;
+            this.keepComments = keepComments;
+        }
+
+        @Nullable
+        Retention getChild(String name) {
+            return children == null ? this : children.get(name);
         }
-        return r;
     }
 
     public static final class AddDTDFilterInputStream extends FilterInputStream {
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import java.util.List;
+
+/**
+ * An element of a POM, as read by {@link PomDomParser}. Only holds the text content and the child elements, and only for the parts of the POM that Gradle uses.
+ */
+final class PomElement {
+    private final String name;
+    private final String text;
+    private final List<PomElement> children;
+    private final List<String> comments;
+
+    PomElement(String name, String text, List<PomElement> children, List<String> comments) {
+        this.name = name;
+        this.text = text;
+        this.children = children;
+        this.comments = comments;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the text and CDATA content of this element, excluding the content of child elements.
+     */
+    public String getText() {
+        return text;
+    }
+
+    public List<PomElement> getChildren() {
+        return children;
+    }
+
+    /**
+     * Returns the comments that are direct children of this element. Only retained for the root element.
+     */
+    public List<String> getComments() {
+        return comments;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
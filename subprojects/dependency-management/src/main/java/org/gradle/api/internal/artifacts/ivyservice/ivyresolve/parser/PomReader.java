@@ -16,7 +16,6 @@
 package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
 
 import com.google.common.collect.Lists;
-import org.apache.commons.io.IOUtils;
 import org.apache.ivy.core.IvyPatternHelper;
 import org.gradle.api.Transformer;
 import org.gradle.api.artifacts.ModuleIdentifier;
@@ -26,24 +25,10 @@
 import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.data.MavenDependencyKey;
 import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.data.PomDependencyMgt;
 import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser.data.PomProfile;
-import org.gradle.internal.UncheckedException;
-import org.gradle.internal.classloader.ClassLoaderUtils;
 import org.gradle.internal.resource.local.LocallyAvailableExternalResource;
-import org.w3c.dom.Comment;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.EntityResolver;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
 import org.xml.sax.SAXParseException;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -85,40 +70,6 @@ public class PomReader implements PomParent {
     private static final String PROFILE_ACTIVATION = "activation";
     private static final String PROFILE_ACTIVATION_ACTIVE_BY_DEFAULT = "activeByDefault";
     private static final String PROFILE_ACTIVATION_PROPERTY = "property";
-    private static final byte[] M2_ENTITIES_RESOURCE;
-    private static final DocumentBuilderFactory DOCUMENT_BUILDER_FACTORY;
-
-    static {
-        byte[] bytes;
-        try {
-            bytes = IOUtils.toByteArray(org.apache.ivy.plugins.parser.m2.PomReader.class.getResourceAsStream("m2-entities.ent"));
-        } catch (IOException e) {
-            throw UncheckedException.throwAsUncheckedException(e);
-        }
-        M2_ENTITIES_RESOURCE = bytes;
-
-        // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
-        // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
-        ClassLoader original = Thread.currentThread().getContextClassLoader();
-        Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
-        try {
-            DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
-            DOCUMENT_BUILDER_FACTORY.setValidating(false);
-        } finally {
-            Thread.currentThread().setContextClassLoader(original);
-        }
-    }
-
-    private static final EntityResolver M2_ENTITY_RESOLVER = new EntityResolver() {
-        @Override
-        public InputSource resolveEntity(String publicId, String systemId)
-            throws SAXException, IOException {
-            if ((systemId != null) && systemId.endsWith("m2-entities.ent")) {
-                return new InputSource(new ByteArrayInputStream(M2_ENTITIES_RESOURCE));
-            }
-            return null;
-        }
-    };
 
     private PomParent pomParent = new RootPomParent();
     private final Map<String, String> pomProperties = new HashMap<String, String>();
@@ -130,25 +81,25 @@ public InputSource resolveEntity(String publicId, String systemId)
     private Map<MavenDependencyKey, PomDependencyData> resolvedDependencies;
     private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
 
-    private final Element projectElement;
-    private final Element parentElement;
+    private final String systemId;
+    private final PomElement projectElement;
+    private final PomElement parentElement;
 
     public PomReader(final LocallyAvailableExternalResource resource, ImmutableModuleIdentifierFactory moduleIdentifierFactory, Map<String, String> childPomProperties) throws SAXException {
         this.moduleIdentifierFactory = moduleIdentifierFactory;
         setPomProperties(childPomProperties);
-        final String systemId = resource.getFile().toURI().toASCIIString();
-        Document pomDomDoc = resource.withContent(new Transformer<Document, InputStream>() {
+        systemId = resource.getFile().toURI().toASCIIString();
+        projectElement = resource.withContent(new Transformer<PomElement, InputStream>() {
             @Override
-            public Document transform(InputStream inputStream) {
+            public PomElement transform(InputStream inputStream) {
                 try {
-                    return parseToDom(inputStream, systemId);
+                    return PomDomParser.parse(inputStream, systemId);
                 } catch (Exception e) {
                     throw new MetaDataParseException("POM", resource, e);
                 }
             }
         }).getResult();
-        projectElement = pomDomDoc.getDocumentElement();
-        if (!PROJECT.equals(projectElement.getNodeName()) && !MODEL.equals(projectElement.getNodeName())) {
+        if (!PROJECT.equals(projectElement.getName()) && !MODEL.equals(projectElement.getName())) {
             throw new SAXParseException("project must be the root tag", systemId, systemId, 0, 0);
         }
         parentElement = getFirstChildElement(projectElement, PARENT);
@@ -233,32 +184,7 @@ public String[] getNames() {
 
     @Override
     public String toString() {
-        return projectElement.getOwnerDocument().getDocumentURI();
-    }
-
-    private static DocumentBuilder getDocBuilder(EntityResolver entityResolver) {
-        try {
-            DocumentBuilder docBuilder = DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
-            if (entityResolver != null) {
-                docBuilder.setEntityResolver(entityResolver);
-            }
-            return docBuilder;
-        } catch (ParserConfigurationException e) {
-            throw UncheckedException.throwAsUncheckedException(e);
-        }
-    }
-
-    private static Document parseToDom(InputStream stream, String systemId) throws IOException, SAXException {
-        // Set the context classloader the bootstrap classloader, to work around the way that JAXP locates implementation classes
-        // This should ensure that the JAXP classes provided by the JVM are used, rather than some other implementation
-        ClassLoader original = Thread.currentThread().getContextClassLoader();
-        Thread.currentThread().setContextClassLoader(ClassLoaderUtils.getPlatformClassLoader());
-        try {
-            InputStream dtdStream = new AddDTDFilterInputStream(stream);
-            return getDocBuilder(M2_ENTITY_RESOLVER).parse(dtdStream, systemId);
-        } finally {
-            Thread.currentThread().setContextClassLoader(original);
-        }
+        return systemId;
     }
 
     public boolean hasParent() {
@@ -349,22 +275,17 @@ public String getPackaging() {
     }
 
     public boolean hasGradleMetadataMarker() {
-        NodeList childNodes = projectElement.getChildNodes();
-        for (int i = 0; i < childNodes.getLength(); i++) {
-            Node node = childNodes.item(i);
-            if (node instanceof Comment) {
-                String comment = node.getNodeValue();
-                if (comment.contains(MetaDataParser.GRADLE_METADATA_MARKER)) {
-                    return true;
-                }
+        for (String comment : projectElement.getComments()) {
+            if (comment.contains(MetaDataParser.GRADLE_METADATA_MARKER)) {
+                return true;
             }
         }
         return false;
     }
 
     public ModuleVersionIdentifier getRelocation() {
-        Element distrMgt = getFirstChildElement(projectElement, DISTRIBUTION_MGT);
-        Element relocation = getFirstChildElement(distrMgt, RELOCATION);
+        PomElement distrMgt = getFirstChildElement(projectElement, DISTRIBUTION_MGT);
+        PomElement relocation = getFirstChildElement(distrMgt, RELOCATION);
         if (relocation == null) {
             return null;
         } else {
@@ -412,16 +333,12 @@ private Map<MavenDependencyKey, PomDependencyData> resolveDependencies() {
         return dependencies;
     }
 
-    private List<PomDependencyData> getDependencyData(Element parentElement) {
+    private List<PomDependencyData> getDependencyData(PomElement parentElement) {
         List<PomDependencyData> depElements = new ArrayList<PomDependencyData>();
-        Element dependenciesElement = getFirstChildElement(parentElement, DEPENDENCIES);
-        if (dependenciesElement != null) {
-            NodeList childs = dependenciesElement.getChildNodes();
-            for (int i = 0; i < childs.getLength(); i++) {
-                Node node = childs.item(i);
-                if (node instanceof Element && DEPENDENCY.equals(node.getNodeName())) {
-                    depElements.add(new PomDependencyData((Element) node));
-                }
+        PomElement dependenciesElement = getFirstChildElement(parentElement, DEPENDENCIES);
+        for (PomElement element : getAllChilds(dependenciesElement)) {
+            if (DEPENDENCY.equals(element.getName())) {
+                depElements.add(new PomDependencyData(element));
             }
         }
 
@@ -470,18 +387,14 @@ public List<PomDependencyMgt> parseDependencyMgt() {
         return declaredDependencyMgts;
     }
 
-    private List<PomDependencyMgt> getDependencyMgt(Element parentElement) {
+    private List<PomDependencyMgt> getDependencyMgt(PomElement parentElement) {
         List<PomDependencyMgt> depMgmtElements = new ArrayList<PomDependencyMgt>();
-        Element dependenciesElement = getFirstChildElement(parentElement, DEPENDENCY_MGT);
+        PomElement dependenciesElement = getFirstChildElement(parentElement, DEPENDENCY_MGT);
         dependenciesElement = getFirstChildElement(dependenciesElement, DEPENDENCIES);
 
-        if (dependenciesElement != null) {
-            NodeList childs = dependenciesElement.getChildNodes();
-            for (int i = 0; i < childs.getLength(); i++) {
-                Node node = childs.item(i);
-                if (node instanceof Element && DEPENDENCY.equals(node.getNodeName())) {
-                    depMgmtElements.add(new PomDependencyMgtElement((Element) node));
-                }
+        for (PomElement element : getAllChilds(dependenciesElement)) {
+            if (DEPENDENCY.equals(element.getName())) {
+                depMgmtElements.add(new PomDependencyMgtElement(element));
             }
         }
 
@@ -506,9 +419,9 @@ private void setGavPropertyValue(GavProperty gavProperty, String propertyValue)
     }
 
     public class PomDependencyMgtElement implements PomDependencyMgt {
-        private final Element depElement;
+        private final PomElement depElement;
 
-        PomDependencyMgtElement(Element depElement) {
+        PomDependencyMgtElement(PomElement depElement) {
             this.depElement = depElement;
         }
 
@@ -572,15 +485,13 @@ public String getClassifier() {
 
         @Override
         public List<ModuleIdentifier> getExcludedModules() {
-            Element exclusionsElement = getFirstChildElement(depElement, EXCLUSIONS);
+            PomElement exclusionsElement = getFirstChildElement(depElement, EXCLUSIONS);
             if (exclusionsElement != null) {
-                NodeList childs = exclusionsElement.getChildNodes();
                 List<ModuleIdentifier> exclusions = Lists.newArrayList();
-                for (int i = 0; i < childs.getLength(); i++) {
-                    Node node = childs.item(i);
-                    if (node instanceof Element && EXCLUSION.equals(node.getNodeName())) {
-                        String groupId = getFirstChildText((Element) node, GROUP_ID);
-                        String artifactId = getFirstChildText((Element) node, ARTIFACT_ID);
+                for (PomElement exclusionElement : getAllChilds(exclusionsElement)) {
+                    if (EXCLUSION.equals(exclusionElement.getName())) {
+                        String groupId = getFirstChildText(exclusionElement, GROUP_ID);
+                        String artifactId = getFirstChildText(exclusionElement, ARTIFACT_ID);
                         if ((groupId != null) || (artifactId != null)) {
                             exclusions.add(moduleIdentifierFactory.module(groupId != null ? groupId : "*", artifactId != null ? artifactId : "*"));
                         }
@@ -593,25 +504,25 @@ public List<ModuleIdentifier> getExcludedModules() {
     }
 
     public class PomDependencyData extends PomDependencyMgtElement {
-        private final Element depElement;
+        private final PomElement depElement;
 
-        PomDependencyData(Element depElement) {
+        PomDependencyData(PomElement depElement) {
             super(depElement);
             this.depElement = depElement;
         }
 
         public boolean isOptional() {
-            Element e = getFirstChildElement(depElement, OPTIONAL);
+            PomElement e = getFirstChildElement(depElement, OPTIONAL);
             return (e != null) && "true".equalsIgnoreCase(getTextContent(e));
         }
     }
 
     public class PomProfileElement implements PomProfile {
-        private final Element element;
+        private final PomElement element;
         private List<PomDependencyMgt> declaredDependencyMgts;
         private List<PomDependencyData> declaredDependencies;
 
-        PomProfileElement(Element element) {
+        PomProfileElement(PomElement element) {
             this.element = element;
         }
 
@@ -653,12 +564,12 @@ private List<PomProfile> parseActivePomProfiles() {
         if (declaredActivePomProfiles == null) {
             List<PomProfile> activeByDefaultPomProfiles = new ArrayList<PomProfile>();
             List<PomProfile> activeByAbsenceOfPropertyPomProfiles = new ArrayList<PomProfile>();
-            Element profilesElement = getFirstChildElement(projectElement, PROFILES);
+            PomElement profilesElement = getFirstChildElement(projectElement, PROFILES);
 
             if (profilesElement != null) {
-                for (Element profileElement : getAllChilds(profilesElement)) {
-                    if (PROFILE.equals(profileElement.getNodeName())) {
-                        Element activationElement = getFirstChildElement(profileElement, PROFILE_ACTIVATION);
+                for (PomElement profileElement : getAllChilds(profilesElement)) {
+                    if (PROFILE.equals(profileElement.getName())) {
+                        PomElement activationElement = getFirstChildElement(profileElement, PROFILE_ACTIVATION);
 
                         if (activationElement != null) {
                             String activeByDefault = getFirstChildText(activationElement, PROFILE_ACTIVATION_ACTIVE_BY_DEFAULT);
@@ -666,7 +577,7 @@ private List<PomProfile> parseActivePomProfiles() {
                             if (activeByDefault != null && "true".equals(activeByDefault)) {
                                 activeByDefaultPomProfiles.add(new PomProfileElement(profileElement));
                             } else {
-                                Element propertyElement = getFirstChildElement(activationElement, PROFILE_ACTIVATION_PROPERTY);
+                                PomElement propertyElement = getFirstChildElement(activationElement, PROFILE_ACTIVATION_PROPERTY);
 
                                 if (propertyElement != null) {
                                     if (isActivationPropertyActivated(propertyElement)) {
@@ -704,7 +615,7 @@ private List<PomProfile> determineActiveProfiles(List<PomProfile> activeByDefaul
      * @return Activation indicator
      * @see <a href="http://books.sonatype.com/mvnref-book/reference/profiles-sect-activation.html#profiles-sect-activation-config">Maven documentation</a>
      */
-    private boolean isActivationPropertyActivated(Element propertyElement) {
+    private boolean isActivationPropertyActivated(PomElement propertyElement) {
         String propertyName = getFirstChildText(propertyElement, "name");
         return propertyName.startsWith("!");
     }
@@ -716,14 +627,11 @@ Map<String, String> getAllPomProperties() {
         return pomProperties;
     }
 
-    private Map<String, String> parseProperties(Element parentElement) {
+    private Map<String, String> parseProperties(PomElement parentElement) {
         Map<String, String> pomProperties = new HashMap<String, String>();
-        Element propsEl = getFirstChildElement(parentElement, PROPERTIES);
-        if (propsEl != null) {
-            propsEl.normalize();
-        }
-        for (Element prop : getAllChilds(propsEl)) {
-            pomProperties.put(prop.getNodeName(), getTextContent(prop));
+        PomElement propsEl = getFirstChildElement(parentElement, PROPERTIES);
+        for (PomElement prop : getAllChilds(propsEl)) {
+            pomProperties.put(prop.getName(), getTextContent(prop));
         }
         return pomProperties;
     }
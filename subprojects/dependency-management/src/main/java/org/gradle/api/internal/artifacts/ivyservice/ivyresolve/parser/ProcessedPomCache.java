@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.ivyresolve.parser;
+
+import org.gradle.internal.resource.local.LocallyAvailableExternalResource;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the parent and imported POMs that have been parsed during the build, along with their own parents and imports, so that they are not read
+ * again for every module that refers to them.
+ *
+ * <p>A POM is identified by the state of its file and by the properties of the child POM it is read for, as the child properties take precedence over
+ * those of the POM.</p>
+ */
+public class ProcessedPomCache {
+    private final ConcurrentMap<Key, PomReader> pomReaders = new ConcurrentHashMap<Key, PomReader>();
+
+    @Nullable
+    public PomReader get(LocallyAvailableExternalResource resource, Map<String, String> childProperties) {
+        return pomReaders.get(new Key(resource.getFile(), childProperties));
+    }
+
+    /**
+     * Adds a POM whose parent and imports have been set. The POM must not be changed afterwards.
+     */
+    public void put(LocallyAvailableExternalResource resource, Map<String, String> childProperties, PomReader pomReader) {
+        // Resolve the lazily calculated state up front, as the reader may be used by multiple threads from now on
+        pomReader.getDependencyMgt();
+        pomReader.getDependencies();
+        pomReaders.putIfAbsent(new Key(resource.getFile(), childProperties), pomReader);
+    }
+
+    private static class Key {
+        private final String path;
+        private final long length;
+        private final long lastModified;
+        private final Map<String, String> childProperties;
+        private final int hashCode;
+
+        Key(File file, Map<String, String> childProperties) {
+            this.path = file.getAbsolutePath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.childProperties = new HashMap<String, String>(childProperties);
+            this.hashCode = 31 * path.hashCode() + this.childProperties.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Key other = (Key) o;
+            return length == other.length
+                && lastModified == other.lastModified
+                && path.equals(other.path)
+                && childProperties.equals(other.childProperties);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
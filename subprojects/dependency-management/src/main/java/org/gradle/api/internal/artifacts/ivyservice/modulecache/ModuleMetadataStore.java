@@ -16,7 +16,6 @@
 package org.gradle.api.internal.artifacts.ivyservice.modulecache;
 
 import com.google.common.base.Joiner;
-import com.google.common.collect.Interner;
 import com.google.common.collect.Maps;
 import org.gradle.api.Action;
 import org.gradle.api.artifacts.component.ModuleComponentIdentifier;
@@ -32,6 +31,7 @@
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.IOException;
 
 public class ModuleMetadataStore {
 
@@ -39,13 +39,13 @@ public class ModuleMetadataStore {
     private final PathKeyFileStore metaDataStore;
     private final ModuleMetadataSerializer moduleMetadataSerializer;
     private final ImmutableModuleIdentifierFactory moduleIdentifierFactory;
-    private final Interner<String> stringInterner;
+    private final ModuleMetadataStringTable stringTable;
 
-    public ModuleMetadataStore(PathKeyFileStore metaDataStore, ModuleMetadataSerializer moduleMetadataSerializer, ImmutableModuleIdentifierFactory moduleIdentifierFactory, Interner<String> stringInterner) {
+    public ModuleMetadataStore(PathKeyFileStore metaDataStore, ModuleMetadataSerializer moduleMetadataSerializer, ImmutableModuleIdentifierFactory moduleIdentifierFactory, ModuleMetadataStringTable stringTable) {
         this.metaDataStore = metaDataStore;
         this.moduleMetadataSerializer = moduleMetadataSerializer;
         this.moduleIdentifierFactory = moduleIdentifierFactory;
-        this.stringInterner = stringInterner;
+        this.stringTable = stringTable;
     }
 
     public MutableModuleComponentResolveMetadata getModuleDescriptor(ModuleComponentAtRepositoryKey component) {
@@ -53,7 +53,8 @@ public MutableModuleComponentResolveMetadata getModuleDescriptor(ModuleComponent
         final LocallyAvailableResource resource = metaDataStore.get(filePath);
         if (resource != null) {
             try {
-                StringDeduplicatingDecoder decoder = new StringDeduplicatingDecoder(new KryoBackedDecoder(new FileInputStream(resource.getFile())), stringInterner);
+                stringTable.checkFile();
+                StringTableDecoder decoder = new StringTableDecoder(new KryoBackedDecoder(new FileInputStream(resource.getFile())), stringTable);
                 try {
                     return moduleMetadataSerializer.read(decoder, moduleIdentifierFactory, Maps.newHashMap());
                 } finally {
@@ -70,14 +71,20 @@ public LocallyAvailableResource putModuleDescriptor(ModuleComponentAtRepositoryK
         String[] filePath = getFilePath(component);
         return metaDataStore.add(PATH_JOINER.join(filePath), new Action<File>() {
             @Override
-            public void execute(File moduleDescriptorFile) {
+            public void execute(final File moduleDescriptorFile) {
                 try {
-                    KryoBackedEncoder encoder = new KryoBackedEncoder(new FileOutputStream(moduleDescriptorFile));
-                    try {
-                        moduleMetadataSerializer.write(encoder, metadata, Maps.newHashMap());
-                    } finally {
-                        encoder.close();
-                    }
+                    // The new strings are stored once the descriptor has been written, and before the descriptor is made visible
+                    stringTable.write(new ModuleMetadataStringTable.Action() {
+                        @Override
+                        public void execute(ModuleMetadataStringTable stringTable) throws IOException {
+                            KryoBackedEncoder encoder = new KryoBackedEncoder(new FileOutputStream(moduleDescriptorFile));
+                            try {
+                                moduleMetadataSerializer.write(new StringTableEncoder(encoder, stringTable), metadata, Maps.newHashMap());
+                            } finally {
+                                encoder.close();
+                            }
+                        }
+                    });
                 } catch (Exception e) {
                     throw UncheckedException.throwAsUncheckedException(e);
                 }
@@ -0,0 +1,437 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import com.google.common.base.Objects;
+import com.google.common.collect.Interner;
+import org.gradle.internal.os.OperatingSystem;
+
+import javax.annotation.Nullable;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A table of the strings used by the cached module metadata descriptors, shared by all descriptors in the cache. Descriptors refer to a string by its
+ * index in the table, so that each distinct string is only stored and decoded once, rather than once per occurrence in every descriptor.
+ *
+ * <p>The table is an append-only file. It starts with the offset up to which its content is complete, followed by the length prefixed UTF-8 encoded strings.
+ * The file is memory mapped, and a string is only decoded when it is first referenced. Strings appended past the complete offset, for example by a process
+ * that crashed while writing, are ignored and overwritten by the next writer. The strings that have been stored can be read without holding
+ * the lock of the table. On Windows, the file is read instead, as a mapped file can't be deleted
+ * until the mapping has been garbage collected, which would keep the cleanup of unused cache versions from removing it.</p>
+ *
+ * <p>There must be a single table per file in a process, so that builds running at the same time don't append at the same offset. It is shared by all
+ * builds using the same Gradle user home, see {@link org.gradle.api.internal.artifacts.DependencyManagementGradleUserHomeScopeServices}. The table must only
+ * be used while holding the lock of the artifact cache, so that no other process appends to it at the same time. When the file is replaced, for example
+ * because the cache directory has been deleted and another process has created a new table, the table starts over, see {@link #checkFile()}.</p>
+ */
+public class ModuleMetadataStringTable implements Closeable {
+    private static final int HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    private final File file;
+    private final Interner<String> stringInterner;
+    private final boolean mapFile;
+
+    // The stored strings, read without holding the lock of the table
+    private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+    // Guarded by the lock of the table. Each string is either decoded, or located in the content of the file at the offset of its length prefix.
+    // The arrays are shared with the snapshot, which only uses the entries that have been stored.
+    private String[] strings = new String[INITIAL_CAPACITY];
+    private int[] offsets = new int[INITIAL_CAPACITY];
+    private ByteBuffer content = EMPTY;
+    private int count;
+    private long completeOffset = HEADER_SIZE;
+    private Object fileKey;
+
+    // Only created once a string has to be looked up, when writing descriptors
+    private int[] hashes;
+    private int[] slots;
+
+    private final List<byte[]> pending = new ArrayList<byte[]>();
+    private int committedCount;
+
+    public ModuleMetadataStringTable(File file, Interner<String> stringInterner) {
+        this(file, stringInterner, !OperatingSystem.current().isWindows());
+    }
+
+    ModuleMetadataStringTable(File file, Interner<String> stringInterner, boolean mapFile) {
+        this.file = file;
+        this.stringInterner = stringInterner;
+        this.mapFile = mapFile;
+    }
+
+    /**
+     * Returns the string with the given index.
+     */
+    public String get(int index) throws IOException {
+        Snapshot snapshot = this.snapshot;
+        if (index >= snapshot.count) {
+            synchronized (this) {
+                catchUp();
+            }
+            snapshot = this.snapshot;
+        }
+        if (index < 0 || index >= snapshot.count) {
+            throw new IOException("Unknown string " + index + " in " + file + ".");
+        }
+        return decode(snapshot.strings, snapshot.offsets, snapshot.content, index);
+    }
+
+    /**
+     * Starts over when the file of the table has been replaced since it was read, so that strings are not read from the previous file.
+     * Must be called before reading a descriptor that refers to the strings of this table.
+     */
+    public void checkFile() throws IOException {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot.count > 0 && !Objects.equal(snapshot.fileKey, fileKey(file))) {
+            synchronized (this) {
+                catchUp();
+            }
+        }
+    }
+
+    /**
+     * Runs the given action, which writes strings as indexes into this table, and stores the strings that it added to the table.
+     */
+    public synchronized void write(Action action) throws IOException {
+        catchUp();
+        try {
+            action.execute(this);
+            commit();
+        } catch (IOException e) {
+            discardPending();
+            throw e;
+        } catch (RuntimeException e) {
+            discardPending();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the index of the given string, adding it to the table when it is not present. Must only be called from an {@link Action}.
+     */
+    int indexOf(String string) throws IOException {
+        if (slots == null) {
+            buildIndex();
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        int hash = Arrays.hashCode(bytes);
+        int mask = slots.length - 1;
+        for (int slot = mix(hash) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            int index = slots[slot] - 1;
+            if (hashes[index] == hash && string.equals(decode(strings, offsets, content, index))) {
+                return index;
+            }
+        }
+        int index = add(string, -1);
+        hashes[index] = hash;
+        addToIndex(index);
+        pending.add(bytes);
+        return index;
+    }
+
+    private String decode(String[] strings, int[] offsets, ByteBuffer content, int index) {
+        String string = strings[index];
+        if (string == null) {
+            // Strings are immutable, so it does not matter when several threads decode the same string
+            ByteBuffer buffer = content.duplicate();
+            int offset = offsets[index];
+            byte[] bytes = new byte[buffer.getInt(offset)];
+            buffer.position(offset + 4);
+            buffer.get(bytes);
+            string = stringInterner.intern(new String(bytes, StandardCharsets.UTF_8));
+            strings[index] = string;
+        }
+        return string;
+    }
+
+    private void catchUp() throws IOException {
+        if (!pending.isEmpty()) {
+            throw new IllegalStateException("Cannot read the string table while there are strings to store.");
+        }
+        FileChannel channel;
+        try {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            if (count > 0) {
+                // The file has been deleted
+                reset();
+            }
+            return;
+        }
+        try {
+            Object currentFileKey = fileKey(file);
+            if (count > 0 && !Objects.equal(fileKey, currentFileKey)) {
+                // The file has been replaced, so start over
+                reset();
+            }
+            fileKey = currentFileKey;
+            long size = channel.size();
+            if (size < HEADER_SIZE) {
+                return;
+            }
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            readFully(channel, header, 0);
+            long end = header.getLong(0);
+            if (end < HEADER_SIZE || end > size || end > Integer.MAX_VALUE) {
+                throw new IOException("String table " + file + " is corrupt.");
+            }
+            if (end == completeOffset) {
+                return;
+            }
+            if (end < completeOffset) {
+                // The file has been replaced by a shorter one without changing its key, so start over
+                reset();
+                fileKey = currentFileKey;
+            }
+            ByteBuffer content = readContent(channel, (int) end);
+            int offset = (int) completeOffset;
+            while (offset < end) {
+                int length = content.getInt(offset);
+                if (length < 0 || offset + 4L + length > end) {
+                    throw new IOException("String table " + file + " is corrupt.");
+                }
+                offset += 4 + length;
+            }
+            for (offset = (int) completeOffset; offset < end; offset += 4 + content.getInt(offset)) {
+                int index = add(null, offset);
+                if (slots != null) {
+                    hashes[index] = hash(content, offset + 4, content.getInt(offset));
+                    addToIndex(index);
+                }
+            }
+            this.content = content;
+            completeOffset = end;
+            committedCount = count;
+        } finally {
+            publish();
+            channel.close();
+        }
+    }
+
+    private ByteBuffer readContent(FileChannel channel, int end) throws IOException {
+        if (mapFile) {
+            // Map the whole content again rather than only what has been appended, so that there is a single mapping in use. The previous mapping is
+            // released once it has been garbage collected.
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        // Only read what has been appended since the content was last read
+        ByteBuffer content = ByteBuffer.allocate(end);
+        content.put(this.content.duplicate());
+        readFully(channel, content, 0);
+        content.flip();
+        return content;
+    }
+
+    private void commit() throws IOException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        int length = 0;
+        for (byte[] bytes : pending) {
+            length += 4 + bytes.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int index = committedCount; index < count; index++) {
+            byte[] bytes = pending.get(index - committedCount);
+            offsets[index] = (int) completeOffset + buffer.position();
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+        buffer.flip();
+        long end = completeOffset + length;
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+        try {
+            writeFully(channel, buffer, completeOffset);
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+            header.putLong(0, end);
+            writeFully(channel, header, 0);
+            // The file is created by the first write
+            fileKey = fileKey(file);
+        } finally {
+            channel.close();
+        }
+        // The strings are already decoded, so there's no need to read the content that has just been written
+        completeOffset = end;
+        committedCount = count;
+        pending.clear();
+        publish();
+    }
+
+    /**
+     * Releases the content of the file, so that its mapping can be garbage collected.
+     */
+    @Override
+    public synchronized void close() {
+        reset();
+    }
+
+    private void discardPending() {
+        for (int index = committedCount; index < count; index++) {
+            strings[index] = null;
+        }
+        count = committedCount;
+        pending.clear();
+        if (slots != null) {
+            // Rebuild the index without the discarded strings
+            slots = null;
+            hashes = null;
+        }
+    }
+
+    private void reset() {
+        strings = new String[INITIAL_CAPACITY];
+        offsets = new int[INITIAL_CAPACITY];
+        content = EMPTY;
+        count = 0;
+        committedCount = 0;
+        completeOffset = HEADER_SIZE;
+        fileKey = null;
+        hashes = null;
+        slots = null;
+        publish();
+    }
+
+    private void publish() {
+        snapshot = new Snapshot(strings, offsets, committedCount, content, fileKey);
+    }
+
+    private int add(String string, int offset) {
+        if (count == strings.length) {
+            strings = Arrays.copyOf(strings, count * 2);
+            offsets = Arrays.copyOf(offsets, count * 2);
+            if (hashes != null) {
+                hashes = Arrays.copyOf(hashes, count * 2);
+            }
+        }
+        strings[count] = string;
+        offsets[count] = offset;
+        return count++;
+    }
+
+    private void buildIndex() {
+        hashes = new int[strings.length];
+        slots = new int[slotCount(strings.length)];
+        for (int index = 0; index < count; index++) {
+            String string = strings[index];
+            if (string != null) {
+                hashes[index] = Arrays.hashCode(string.getBytes(StandardCharsets.UTF_8));
+            } else {
+                int offset = offsets[index];
+                hashes[index] = hash(content, offset + 4, content.getInt(offset));
+            }
+            addToIndex(index);
+        }
+    }
+    private void addToIndex(int index) {
+        if (slots.length < slotCount(index + 1)) {
+            slots = new int[slotCount(hashes.length)];
+            for (int other = 0; other < index; other++) {
+                addToIndex(other);
+            }
+        }
+        int mask = slots.length - 1;
+        int slot = mix(hashes[index]) & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = index + 1;
+    }
+
+    private static int slotCount(int capacity) {
+        // Keep the slots at most half full
+        return Integer.highestOneBit(Math.max(capacity, 1) * 2 - 1) * 2;
+    }
+
+    private static int mix(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * Calculates the same hash as {@link Arrays#hashCode(byte[])}.
+     */
+    private static int hash(ByteBuffer buffer, int offset, int length) {
+        int hash = 1;
+        for (int i = offset; i < offset + length; i++) {
+            hash = 31 * hash + buffer.get(i);
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the key that identifies the given file, or null when the file does not exist or the file system does not provide keys.
+     */
+    @Nullable
+    private static Object fileKey(File file) throws IOException {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file.");
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+    private static class Snapshot {
+        private static final Snapshot EMPTY = new Snapshot(new String[0], new int[0], 0, ModuleMetadataStringTable.EMPTY, null);
+
+        private final String[] strings;
+        private final int[] offsets;
+        private final int count;
+        private final ByteBuffer content;
+        private final Object fileKey;
+
+        Snapshot(String[] strings, int[] offsets, int count, ByteBuffer content, @Nullable Object fileKey) {
+            this.strings = strings;
+            this.offsets = offsets;
+            this.count = count;
+            this.content = content;
+            this.fileKey = fileKey;
+        }
+    }
+
+    public interface Action {
+        void execute(ModuleMetadataStringTable stringTable) throws IOException;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache;
+
+import org.gradle.internal.serialize.Encoder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes strings as their index in a {@link ModuleMetadataStringTable}, adding them to the table when required.
+ * Must only be used from a {@link ModuleMetadataStringTable.Action}.
+ */
+class StringTableEncoder implements Encoder {
+    private final Encoder delegate;
+    private final ModuleMetadataStringTable stringTable;
+
+    StringTableEncoder(Encoder delegate, ModuleMetadataStringTable stringTable) {
+        this.delegate = delegate;
+        this.stringTable = stringTable;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return delegate.getOutputStream();
+    }
+
+    @Override
+    public void writeByte(byte value) throws IOException {
+        delegate.writeByte(value);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes) throws IOException {
+        delegate.writeBytes(bytes);
+    }
+
+    @Override
+    public void writeBytes(byte[] bytes, int offset, int count) throws IOException {
+        delegate.writeBytes(bytes, offset, count);
+    }
+
+    @Override
+    public void writeBinary(byte[] bytes) throws IOException {
+        delegate.writeBinary(bytes);
+    }
+
+    @Override
+    public void writeBinary(byte[] bytes, int offset, int count) throws IOException {
+        delegate.writeBinary(bytes, offset, count);
+    }
+
+    @Override
+    public void writeLong(long value) throws IOException {
+        delegate.writeLong(value);
+    }
+
+    @Override
+    public void writeSmallLong(long value) throws IOException {
+        delegate.writeSmallLong(value);
+    }
+
+    @Override
+    public void writeInt(int value) throws IOException {
+        delegate.writeInt(value);
+    }
+
+    @Override
+    public void writeSmallInt(int value) throws IOException {
+        delegate.writeSmallInt(value);
+    }
+
+    @Override
+    public void writeBoolean(boolean value) throws IOException {
+        delegate.writeBoolean(value);
+    }
+
+    @Override
+    public void writeString(CharSequence value) throws IOException {
+        if (value == null) {
+            throw new IllegalArgumentException("Cannot encode a null string.");
+        }
+        delegate.writeSmallInt(stringTable.indexOf(value.toString()));
+    }
+
+    @Override
+    public void writeNullableString(@Nullable CharSequence value) throws IOException {
+        delegate.writeSmallInt(value == null ? 0 : stringTable.indexOf(value.toString()) + 1);
+    }
+}
@@ -65,6 +65,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -77,6 +78,8 @@
 import java.util.stream.Collectors;
 
 public class DependencyGraphBuilder {
+    public static final String FRONTIER_METADATA_FETCHING_PROPERTY = "org.gradle.unsafe.resolution.frontier-metadata-fetching";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DependencyGraphBuilder.class);
     private final ModuleConflictHandler moduleConflictHandler;
     private final Spec<? super DependencyMetadata> edgeFilter;
@@ -94,6 +97,7 @@ public class DependencyGraphBuilder {
     private final VersionSelectorScheme versionSelectorScheme;
     private final Comparator<Version> versionComparator;
     private final VersionParser versionParser;
+    private final boolean fetchFrontierMetadata;
 
     final static Spec<EdgeState> INHERITING_DEPENDENCY_SPEC = dependencyState -> dependencyState.getDependencyState().getDependency().isInheriting();
     final static Spec<EdgeState> NOT_INHERITING_DEPENDENCY_SPEC = dependencyState -> !dependencyState.getDependencyState().getDependency().isInheriting();
@@ -113,7 +117,8 @@ public DependencyGraphBuilder(DependencyToComponentIdResolver componentIdResolve
                                   ImmutableAttributesFactory attributesFactory,
                                   VersionSelectorScheme versionSelectorScheme,
                                   Comparator<Version> versionComparator,
-                                  VersionParser versionParser) {
+                                  VersionParser versionParser,
+                                  boolean fetchFrontierMetadata) {
         this.idResolver = componentIdResolver;
         this.metaDataResolver = componentMetaDataResolver;
         this.moduleResolver = resolveContextToComponentResolver;
@@ -130,6 +135,7 @@ public DependencyGraphBuilder(DependencyToComponentIdResolver componentIdResolve
         this.versionSelectorScheme = versionSelectorScheme;
         this.versionComparator = versionComparator;
         this.versionParser = versionParser;
+        this.fetchFrontierMetadata = fetchFrontierMetadata;
     }
 
     public void resolve(final ResolveContext resolveContext, final DependencyGraphVisitor modelVisitor) {
@@ -142,7 +148,8 @@ public void resolve(final ResolveContext resolveContext, final DependencyGraphVi
         final ResolveState resolveState = new ResolveState(idGenerator, rootModule, resolveContext.getName(), idResolver, metaDataResolver, edgeFilter, attributesSchema, moduleExclusions, componentSelectorConverter, attributesFactory, dependencySubstitutionApplicator, versionSelectorScheme, versionComparator, versionParser, moduleConflictHandler.getResolver(), graphSize);
 
         Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache = Maps.newHashMapWithExpectedSize(graphSize/2);
-        traverseGraph(resolveState, componentIdentifierCache);
+        FrontierMetadataFetcher frontierMetadataFetcher = fetchFrontierMetadata ? new FrontierMetadataFetcher(metaDataResolver, versionSelectorScheme) : null;
+        traverseGraph(resolveState, componentIdentifierCache, frontierMetadataFetcher);
 
         validateGraph(resolveState);
 
@@ -166,7 +173,7 @@ private static int estimateSize(ResolveContext resolveContext) {
     /**
      * Traverses the dependency graph, resolving conflicts and building the paths from the root configuration.
      */
-    private void traverseGraph(final ResolveState resolveState, final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache) {
+    private void traverseGraph(final ResolveState resolveState, final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache, @Nullable FrontierMetadataFetcher frontierMetadataFetcher) {
         resolveState.onMoreSelected(resolveState.getRoot());
         final List<EdgeState> dependencies = Lists.newArrayList();
 
@@ -181,9 +188,9 @@ private void traverseGraph(final ResolveState resolveState, final Map<ModuleVers
                 // Initialize and collect any new outgoing edges of this node
                 dependencies.clear();
                 node.visitOutgoingDependencies(dependencies);
-                boolean edgeWasProcessed = resolveEdges(node, dependencies, INHERITING_DEPENDENCY_SPEC, false, resolveState, componentIdentifierCache);
+                boolean edgeWasProcessed = resolveEdges(node, dependencies, INHERITING_DEPENDENCY_SPEC, false, resolveState, componentIdentifierCache, frontierMetadataFetcher);
                 node.collectInheritedSubgraphConstraints(dependencies);
-                resolveEdges(node, dependencies, NOT_INHERITING_DEPENDENCY_SPEC, edgeWasProcessed, resolveState, componentIdentifierCache);
+                resolveEdges(node, dependencies, NOT_INHERITING_DEPENDENCY_SPEC, edgeWasProcessed, resolveState, componentIdentifierCache, frontierMetadataFetcher);
             } else {
                 // We have some batched up conflicts. Resolve the first, and continue traversing the graph
                 if (moduleConflictHandler.hasConflicts()) {
@@ -240,12 +247,13 @@ private boolean resolveEdges(final NodeState node,
                               final Spec<EdgeState> dependencyFilter,
                               final boolean recomputeSelectors,
                               final ResolveState resolveState,
-                              final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache) {
+                              final Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache,
+                              @Nullable final FrontierMetadataFetcher frontierMetadataFetcher) {
         if (dependencies.isEmpty()) {
             return false;
         }
         if (performSelectionSerially(dependencies, dependencyFilter, resolveState, recomputeSelectors)) {
-            maybeDownloadMetadataInParallel(node, componentIdentifierCache, dependencies, dependencyFilter);
+            maybeDownloadMetadataInParallel(node, componentIdentifierCache, dependencies, dependencyFilter, resolveState, frontierMetadataFetcher);
             attachToTargetRevisionsSerially(dependencies, dependencyFilter);
             return true;
         } else {
@@ -316,8 +324,14 @@ private void checkForModuleConflicts(ResolveState resolveState, ModuleResolveSta
     /**
      * Prepares the resolution of edges, either serially or concurrently.
      * It uses a simple heuristic to determine if we should perform concurrent resolution, based on the the number of edges, and whether they have unresolved metadata.
+     * When some metadata has to be downloaded and a {@link FrontierMetadataFetcher} is given, the metadata that the queued nodes are likely to need is downloaded in the same batch.
      */
-    private void maybeDownloadMetadataInParallel(NodeState node, Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache, List<EdgeState> dependencies, Spec<EdgeState> dependencyFilter) {
+    private void maybeDownloadMetadataInParallel(NodeState node,
+                                                 Map<ModuleVersionIdentifier, ComponentIdentifier> componentIdentifierCache,
+                                                 List<EdgeState> dependencies,
+                                                 Spec<EdgeState> dependencyFilter,
+                                                 ResolveState resolveState,
+                                                 @Nullable FrontierMetadataFetcher frontierMetadataFetcher) {
         List<ComponentState> requiringDownload = null;
         for (EdgeState dependency : dependencies) {
             if (!dependencyFilter.isSatisfiedBy(dependency)) {
@@ -334,16 +348,27 @@ private void maybeDownloadMetadataInParallel(NodeState node, Map<ModuleVersionId
                 }
             }
         }
+        final List<RunnableBuildOperation> aheadOfTraversal = Lists.newArrayList();
+        if (requiringDownload != null && frontierMetadataFetcher != null) {
+            // The traversal has to wait for the network anyway, so also fetch what the rest of the frontier is likely to need
+            for (ComponentState componentState : requiringDownload) {
+                frontierMetadataFetcher.fetchedByTraversal(toComponentId(componentState.getId(), componentIdentifierCache));
+            }
+            frontierMetadataFetcher.collectOperations(resolveState.getQueuedNodes(), aheadOfTraversal);
+        }
         // Only download in parallel if there is more than 1 component to download
-        if (requiringDownload != null && requiringDownload.size() > 1) {
+        if (requiringDownload != null && requiringDownload.size() + aheadOfTraversal.size() > 1) {
             final ImmutableList<ComponentState> toDownloadInParallel = ImmutableList.copyOf(requiringDownload);
-            LOGGER.debug("Submitting {} metadata files to resolve in parallel for {}", toDownloadInParallel.size(), node);
+            LOGGER.debug("Submitting {} metadata files to resolve in parallel for {}, and {} ahead of the traversal", toDownloadInParallel.size(), node, aheadOfTraversal.size());
             buildOperationExecutor.runAll(new Action<BuildOperationQueue<RunnableBuildOperation>>() {
                 @Override
                 public void execute(BuildOperationQueue<RunnableBuildOperation> buildOperationQueue) {
                     for (final ComponentState componentState : toDownloadInParallel) {
                         buildOperationQueue.add(new DownloadMetadataOperation(componentState));
                     }
+                    for (RunnableBuildOperation operation : aheadOfTraversal) {
+                        buildOperationQueue.add(operation);
+                    }
                 }
             });
         }
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.resolveengine.graph.builder;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Sets;
+import org.gradle.api.artifacts.component.ComponentIdentifier;
+import org.gradle.api.artifacts.component.ComponentSelector;
+import org.gradle.api.artifacts.component.ModuleComponentSelector;
+import org.gradle.api.internal.artifacts.ivyservice.ivyresolve.strategy.VersionSelectorScheme;
+import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier;
+import org.gradle.internal.component.model.ComponentOverrideMetadata;
+import org.gradle.internal.component.model.ConfigurationMetadata;
+import org.gradle.internal.component.model.DefaultComponentOverrideMetadata;
+import org.gradle.internal.component.model.DependencyMetadata;
+import org.gradle.internal.operations.BuildOperationContext;
+import org.gradle.internal.operations.BuildOperationDescriptor;
+import org.gradle.internal.operations.RunnableBuildOperation;
+import org.gradle.internal.resolve.resolver.ComponentMetaDataResolver;
+import org.gradle.internal.resolve.result.DefaultBuildableComponentResolveResult;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.util.Collection;
+import java.util.Set;
+
+/**
+ * Fetches the metadata of the components that the nodes waiting to be visited are likely to depend on, together with the metadata the traversal is waiting for.
+ *
+ * <p>The traversal only downloads metadata for the outgoing edges of the node it visits, so on a cold cache resolution turns into a long series of small parallel downloads.
+ * When the traversal has to wait for downloads anyway, this guesses the targets of the dependencies of all queued nodes that request a static version, and fetches their
+ * metadata in the same batch. The fetched metadata is discarded: the repositories cache it, and the traversal finds it there once it gets to those edges.
+ * The traversal itself does not change, so the selected versions and the order of the result are the same as without looking ahead.</p>
+ */
+class FrontierMetadataFetcher {
+    private static final Logger LOGGER = LoggerFactory.getLogger(FrontierMetadataFetcher.class);
+
+    private final ComponentMetaDataResolver metaDataResolver;
+    private final VersionSelectorScheme versionSelectorScheme;
+    private final Set<NodeState> visitedNodes = Sets.newIdentityHashSet();
+    private final Set<ComponentIdentifier> requestedComponents = Sets.newHashSet();
+
+    FrontierMetadataFetcher(ComponentMetaDataResolver metaDataResolver, VersionSelectorScheme versionSelectorScheme) {
+        this.metaDataResolver = metaDataResolver;
+        this.versionSelectorScheme = versionSelectorScheme;
+    }
+
+    /**
+     * Records that the traversal is fetching the metadata of the given component itself.
+     */
+    void fetchedByTraversal(ComponentIdentifier componentId) {
+        requestedComponents.add(componentId);
+    }
+
+    /**
+     * Adds an operation for each component that the given nodes probably depend on, and whose metadata has not been requested yet.
+     */
+    void collectOperations(Iterable<NodeState> queuedNodes, Collection<? super RunnableBuildOperation> operations) {
+        for (NodeState node : queuedNodes) {
+            if (!visitedNodes.add(node)) {
+                continue;
+            }
+            ConfigurationMetadata metadata = node.getMetadata();
+            if (!metadata.isTransitive()) {
+                continue;
+            }
+            for (DependencyMetadata dependency : metadata.getDependencies()) {
+                ComponentIdentifier target = guessTarget(dependency);
+                if (target != null && requestedComponents.add(target) && !metaDataResolver.isFetchingMetadataCheap(target)) {
+                    operations.add(new FetchMetadataOperation(target, DefaultComponentOverrideMetadata.forDependency(dependency)));
+                }
+            }
+        }
+    }
+
+    @Nullable
+    private ComponentIdentifier guessTarget(DependencyMetadata dependency) {
+        if (dependency.isConstraint() || dependency.isChanging()) {
+            return null;
+        }
+        ComponentSelector selector = dependency.getSelector();
+        if (!(selector instanceof ModuleComponentSelector)) {
+            return null;
+        }
+        ModuleComponentSelector moduleSelector = (ModuleComponentSelector) selector;
+        String version = moduleSelector.getVersion();
+        if (Strings.isNullOrEmpty(version) || versionSelectorScheme.parseSelector(version).isDynamic()) {
+            // Only the traversal can tell which version this selects
+            return null;
+        }
+        return DefaultModuleComponentIdentifier.newId(moduleSelector.getModuleIdentifier(), version);
+    }
+
+    private class FetchMetadataOperation implements RunnableBuildOperation {
+        private final ComponentIdentifier componentId;
+        private final ComponentOverrideMetadata overrideMetadata;
+
+        FetchMetadataOperation(ComponentIdentifier componentId, ComponentOverrideMetadata overrideMetadata) {
+            this.componentId = componentId;
+            this.overrideMetadata = overrideMetadata;
+        }
+
+        @Override
+        public void run(BuildOperationContext context) {
+            try {
+                metaDataResolver.resolve(componentId, overrideMetadata, new DefaultBuildableComponentResolveResult());
+            } catch (Exception e) {
+                // The traversal may never need this component, and reports the failure itself if it does
+                LOGGER.debug("Could not fetch metadata for {} ahead of the traversal.", componentId, e);
+            }
+        }
+
+        @Override
+        public BuildOperationDescriptor.Builder description() {
+            return BuildOperationDescriptor.displayName("Resolve " + componentId);
+        }
+    }
+}
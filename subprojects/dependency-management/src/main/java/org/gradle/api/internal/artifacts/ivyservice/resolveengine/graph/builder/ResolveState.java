@@ -51,6 +51,7 @@
 
 import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Deque;
 import java.util.LinkedHashMap;
@@ -171,6 +172,13 @@ public SelectorState getSelector(DependencyState dependencyState, boolean ignore
         return selectorState;
     }
 
+    /**
+     * Returns the nodes that are waiting to be visited, in the order they will be visited.
+     */
+    public Collection<NodeState> getQueuedNodes() {
+        return Collections.unmodifiableCollection(queue);
+    }
+
     public NodeState peek() {
         return queue.isEmpty() ? null : queue.getFirst();
     }
@@ -26,6 +26,9 @@ import org.gradle.api.internal.artifacts.ivyservice.IvyUtil
 import org.gradle.internal.component.external.model.DefaultModuleComponentIdentifier
 import org.gradle.internal.component.external.model.ModuleComponentResolveMetadata
 import org.gradle.internal.component.model.ComponentOverrideMetadata
+import org.gradle.internal.operations.BuildOperationContext
+import org.gradle.internal.operations.BuildOperationExecutor
+import org.gradle.internal.operations.BuildOperationQueue
 import org.gradle.internal.resolve.ModuleVersionResolveException
 import org.gradle.internal.resolve.result.BuildableComponentResolveResult
 import spock.lang.Specification
@@ -44,7 +47,18 @@ class ResolverProviderComponentMetaDataResolverTest extends Specification {
     def remoteAccess2 = Mock(ModuleComponentRepositoryAccess)
 
     final VersionedComponentChooser componentSelectionStrategy = Mock(VersionedComponentChooser)
-    final RepositoryChainComponentMetaDataResolver resolver = new RepositoryChainComponentMetaDataResolver(componentSelectionStrategy, transformer)
+    RepositoryChainComponentMetaDataResolver resolver = new RepositoryChainComponentMetaDataResolver(componentSelectionStrategy, transformer, null)
+
+    def buildOperationExecutor = Mock(BuildOperationExecutor) {
+        def queue = Mock(BuildOperationQueue) {
+            add(_) >> { args ->
+                args[0].run(Stub(BuildOperationContext))
+            }
+        }
+        runAll(_) >> { args ->
+            args[0].execute(queue)
+        }
+    }
 
     ModuleVersionIdentifier moduleVersionIdentifier(ModuleDescriptor moduleDescriptor) {
         def moduleRevId = moduleDescriptor.moduleRevisionId
@@ -557,6 +571,67 @@ class ResolverProviderComponentMetaDataResolverTest extends Specification {
         0 * result._
     }
 
+    def "probes remote repositories in parallel and uses the first repository that has the component"() {
+        given:
+        resolver = new RepositoryChainComponentMetaDataResolver(componentSelectionStrategy, transformer, new ParallelRepositoryProbe(buildOperationExecutor))
+        def repo1 = addRepo1()
+        def repo2 = addRepo2()
+
+        when:
+        resolver.resolve(moduleComponentId, componentRequestMetaData, result)
+
+        then:
+        1 * localAccess.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _)
+        1 * localAccess2.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _)
+        1 * remoteAccess.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _) >> { id, meta, result ->
+            result.missing()
+        }
+        1 * remoteAccess2.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _) >> { id, meta, result ->
+            result.resolved(metaData)
+        }
+        1 * transformer.transform(_) >> { RepositoryChainModuleResolution it ->
+            assert it.repository == repo2
+            metaData
+        }
+        1 * result.resolved(metaData)
+
+        and:
+        0 * localAccess._
+        0 * remoteAccess._
+        0 * localAccess2._
+        0 * remoteAccess2._
+        0 * result._
+    }
+
+    def "does not probe later remote repositories once an earlier repository has the component"() {
+        given:
+        resolver = new RepositoryChainComponentMetaDataResolver(componentSelectionStrategy, transformer, new ParallelRepositoryProbe(buildOperationExecutor))
+        def repo1 = addRepo1()
+        def repo2 = addRepo2()
+
+        when:
+        resolver.resolve(moduleComponentId, componentRequestMetaData, result)
+
+        then:
+        1 * localAccess.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _)
+        1 * localAccess2.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _)
+        1 * remoteAccess.resolveComponentMetaData(moduleComponentId, componentRequestMetaData, _) >> { id, meta, result ->
+            result.resolved(metaData)
+        }
+        1 * transformer.transform(_) >> { RepositoryChainModuleResolution it ->
+            assert it.repository == repo1
+            metaData
+        }
+        1 * result.resolved(metaData)
+
+        and:
+        0 * localAccess._
+        0 * remoteAccess._
+        0 * localAccess2._
+        0 * remoteAccess2._
+        0 * result._
+    }
+
     def descriptor(String version) {
         def descriptor = Stub(ModuleDescriptor)
         descriptor.resolvedModuleRevisionId >> IvyUtil.createModuleRevisionId("org", "module", version)
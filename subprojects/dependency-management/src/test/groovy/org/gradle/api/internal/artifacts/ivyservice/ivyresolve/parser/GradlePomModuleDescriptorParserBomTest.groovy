@@ -483,4 +483,68 @@ class GradlePomModuleDescriptorParserBomTest extends AbstractGradlePomModuleDesc
         dep.constraint
 
     }
+
+    def "reuses an imported BOM that has already been read during the build"() {
+        given:
+        def bomFile = tmpDir.file('bom.xml') << bomWithConstraintOn('module-b')
+        def otherBomFile = tmpDir.file('other-bom.xml') << bomWithConstraintOn('module-c')
+        pomFile << """
+<project>
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group-a</groupId>
+    <artifactId>project</artifactId>
+    <version>1.0</version>
+    <packaging>pom</packaging>
+
+    <dependencyManagement>
+        <dependencies>
+            <dependency>
+                <groupId>group-a</groupId>
+                <artifactId>bom</artifactId>
+                <version>1.0</version>
+                <scope>import</scope>
+                <type>pom</type>
+            </dependency>
+        </dependencies>
+    </dependencyManagement>
+</project>
+"""
+        parseContext.getMetaDataArtifact({ it.selector.module == 'bom' }, _, MAVEN_POM) >> asResource(bomFile)
+        processedPomCache.put(asResource(bomFile), [:], new PomReader(asResource(otherBomFile), moduleIdentifierFactory))
+
+        when:
+        parsePom()
+
+        then:
+        single(metadata.dependencies).selector == moduleId('group-b', 'module-c', '1.0')
+
+        when:
+        bomFile.text = bomWithConstraintOn('changed-module')
+        parsePom()
+
+        then:
+        single(metadata.dependencies).selector == moduleId('group-b', 'changed-module', '1.0')
+    }
+
+    private static String bomWithConstraintOn(String module) {
+        return """
+<project>
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group-a</groupId>
+    <artifactId>bom</artifactId>
+    <version>1.0</version>
+    <packaging>pom</packaging>
+
+    <dependencyManagement>
+        <dependencies>
+            <dependency>
+                <groupId>group-b</groupId>
+                <artifactId>${module}</artifactId>
+                <version>1.0</version>
+            </dependency>
+        </dependencies>
+    </dependencyManagement>
+</project>
+"""
+    }
 }
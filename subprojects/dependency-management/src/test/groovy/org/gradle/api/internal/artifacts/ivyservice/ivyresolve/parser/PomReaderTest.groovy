@@ -1016,4 +1016,78 @@ class PomReaderTest extends AbstractPomReaderTest {
         then:
         def excluded = pomReader.dependencies[keyGroupTwo].excludedModules
         excluded == [DefaultModuleIdentifier.newId('*', '*')]
-    }}
+    }
+
+    def "reads entities and CDATA sections and ignores elements that are not used"() {
+        when:
+        pomFile << """<?xml version="1.0" encoding="UTF-8"?>
+<project>
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group-one</groupId>
+    <artifactId>artifact-one</artifactId>
+    <version>version-one</version>
+    <description>Copyright &copy; <![CDATA[<someone>]]></description>
+
+    <properties>
+        <owner>&copy; <![CDATA[<someone>]]></owner>
+    </properties>
+
+    <build>
+        <plugins>
+            <plugin>
+                <groupId>group-two</groupId>
+                <artifactId>plugin-two</artifactId>
+                <dependencies>
+                    <dependency>
+                        <groupId>group-three</groupId>
+                        <artifactId>artifact-three</artifactId>
+                        <version>version-three</version>
+                    </dependency>
+                </dependencies>
+            </plugin>
+        </plugins>
+    </build>
+
+    <dependencies>
+        <dependency>
+            <groupId>group-two</groupId>
+            <artifactId>artifact-two</artifactId>
+            <version>version-two</version>
+        </dependency>
+    </dependencies>
+</project>
+"""
+        pomReader = new PomReader(locallyAvailableExternalResource, moduleIdentifierFactory)
+
+        then:
+        pomReader.properties['owner'] == '\u00A9 <someone>'
+        pomReader.dependencies.size() == 1
+        assertResolvedPomDependency(new MavenDependencyKey('group-two', 'artifact-two', 'jar', null), 'version-two')
+    }
+
+    def "only considers comments of the project element for the Gradle metadata marker"() {
+        when:
+        pomFile << """<?xml version="1.0" encoding="UTF-8"?>
+<!-- ${MetaDataParser.GRADLE_METADATA_MARKER} -->
+<project>
+    <modelVersion>4.0.0</modelVersion>
+    <groupId>group-one</groupId>
+    <artifactId>artifact-one</artifactId>
+    <version>version-one</version>
+    <dependencies>
+        <!-- ${MetaDataParser.GRADLE_METADATA_MARKER} -->
+    </dependencies>
+    ${projectComment}
+</project>
+"""
+        pomReader = new PomReader(locallyAvailableExternalResource, moduleIdentifierFactory)
+
+        then:
+        pomReader.hasGradleMetadataMarker() == hasMarker
+
+        where:
+        projectComment                                     | hasMarker
+        ""                                                 | false
+        "<!-- ${MetaDataParser.GRADLE_METADATA_MARKER} -->" | true
+    }
+}
@@ -39,7 +39,7 @@ class ModuleMetadataStoreTest extends Specification {
     }
     def moduleComponentIdentifier = DefaultModuleComponentIdentifier.newId(DefaultModuleIdentifier.newId("org.test", "testArtifact"), "1.0")
     def serializer = Mock(ModuleMetadataSerializer)
-    @Subject ModuleMetadataStore store = new ModuleMetadataStore(pathKeyFileStore, serializer, moduleIdentifierFactory, SimpleMapInterner.notThreadSafe())
+    @Subject ModuleMetadataStore store = new ModuleMetadataStore(pathKeyFileStore, serializer, moduleIdentifierFactory, new ModuleMetadataStringTable(temporaryFolder.file("descriptor-strings.bin"), SimpleMapInterner.notThreadSafe()))
     def mavenMetadataFactory = DependencyManagementTestUtil.mavenMetadataFactory()
 
     def "getModuleDescriptorFile returns null for not cached descriptors"() {
@@ -67,6 +67,9 @@ class ModuleMetadataStoreTest extends Specification {
         1 * pathKeyFileStore.add("org.test/testArtifact/1.0/repositoryId/descriptor.bin", _) >> { path, action ->
             action.execute(descriptorFile); fileStoreEntry
         };
-        1 * serializer.write(_, descriptor, _)
+        1 * serializer.write(_, descriptor, _) >> { encoder, metadata, cache ->
+            encoder.writeString("org.test")
+        }
+        temporaryFolder.file("descriptor-strings.bin").assertIsFile()
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.api.internal.artifacts.ivyservice.modulecache
+
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.gradle.util.Requires
+import org.gradle.util.TestPrecondition
+import org.gradle.util.internal.SimpleMapInterner
+import org.junit.Rule
+import spock.lang.Specification
+
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+
+class ModuleMetadataStringTableTest extends Specification {
+    @Rule TestNameTestDirectoryProvider tmpDir
+    def file = tmpDir.file("strings.bin")
+
+    def "reuses index of string that is already in the table"() {
+        def table = newTable()
+        def indexes = []
+
+        when:
+        table.write { t -> indexes << t.indexOf("a") << t.indexOf("b") << t.indexOf("a") }
+        table.write { t -> indexes << t.indexOf("b") << t.indexOf("c") }
+
+        then:
+        indexes == [0, 1, 0, 1, 2]
+        table.get(0) == "a"
+        table.get(1) == "b"
+        table.get(2) == "c"
+    }
+
+    def "reads strings written by another table"() {
+        def writer = newTable()
+        def reader = newTable()
+        def indexes = []
+
+        when:
+        writer.write { t -> indexes << t.indexOf("a") << t.indexOf("été") }
+
+        then:
+        reader.get(indexes[0]) == "a"
+        reader.get(indexes[1]) == "été"
+
+        when:
+        writer.write { t -> indexes << t.indexOf("c") }
+        reader.write { t -> indexes << t.indexOf("été") << t.indexOf("d") }
+
+        then:
+        indexes == [0, 1, 2, 1, 3]
+        writer.get(3) == "d"
+    }
+
+    def "reads strings written by another table without mapping the file"() {
+        def writer = newTable()
+        def reader = new ModuleMetadataStringTable(file, SimpleMapInterner.notThreadSafe(), false)
+        def indexes = []
+
+        when:
+        writer.write { t -> indexes << t.indexOf("a") << t.indexOf("été") }
+
+        then:
+        reader.get(indexes[0]) == "a"
+        reader.get(indexes[1]) == "été"
+
+        when:
+        writer.write { t -> indexes << t.indexOf("c") }
+        reader.write { t -> indexes << t.indexOf("été") << t.indexOf("d") }
+
+        then:
+        indexes == [0, 1, 2, 1, 3]
+        reader.get(2) == "c"
+        writer.get(3) == "d"
+    }
+
+    def "reads the file again after it has been closed"() {
+        def table = newTable()
+        table.write { t -> t.indexOf("a"); t.indexOf("b") }
+
+        when:
+        table.close()
+
+        then:
+        table.get(1) == "b"
+
+        when:
+        def index = -1
+        table.write { t -> index = t.indexOf("a") }
+
+        then:
+        index == 0
+    }
+
+    def "discards strings when action fails"() {
+        def table = newTable()
+        def failure = new IOException("broken")
+
+        when:
+        table.write { t -> t.indexOf("a"); throw failure }
+
+        then:
+        def e = thrown(IOException)
+        e.is(failure)
+
+        when:
+        table.get(0)
+
+        then:
+        thrown(IOException)
+
+        when:
+        def index = -1
+        table.write { t -> index = t.indexOf("b") }
+
+        then:
+        index == 0
+        newTable().get(0) == "b"
+    }
+
+    def "overwrites strings after the complete offset"() {
+        def table = newTable()
+        table.write { t -> t.indexOf("a") }
+        // A string left behind by a writer that did not complete
+        file.append([0, 0, 0, 1, 120] as byte[])
+
+        when:
+        def index = -1
+        newTable().write { t -> index = t.indexOf("b") }
+
+        then:
+        index == 1
+        newTable().get(1) == "b"
+    }
+
+    @Requires(TestPrecondition.NOT_WINDOWS)
+    def "starts over when the file is replaced by one of the same length"() {
+        def table = newTable()
+        table.write { t -> t.indexOf("a"); t.indexOf("b") }
+        table.get(0)
+
+        when:
+        replaceFile("c", "d")
+        table.checkFile()
+
+        then:
+        table.get(0) == "c"
+        table.get(1) == "d"
+    }
+
+    @Requires(TestPrecondition.NOT_WINDOWS)
+    def "starts over when the file is replaced by a longer one"() {
+        def table = newTable()
+        table.write { t -> t.indexOf("a") }
+        table.get(0)
+
+        when:
+        replaceFile("b", "c")
+
+        then:
+        table.get(1) == "c"
+        table.get(0) == "b"
+
+        when:
+        def index = -1
+        table.write { t -> index = t.indexOf("a") }
+
+        then:
+        index == 2
+    }
+
+    @Requires(TestPrecondition.NOT_WINDOWS)
+    def "starts over when the file is deleted"() {
+        def table = newTable()
+        table.write { t -> t.indexOf("a") }
+
+        when:
+        file.delete()
+        table.checkFile()
+        table.get(0)
+
+        then:
+        thrown(IOException)
+    }
+
+    def "fails for unknown string"() {
+        when:
+        newTable().get(0)
+
+        then:
+        thrown(IOException)
+    }
+
+    private void replaceFile(String... strings) {
+        def replacement = tmpDir.file("replacement.bin")
+        new ModuleMetadataStringTable(replacement, SimpleMapInterner.notThreadSafe()).write { t -> strings.each { t.indexOf(it) } }
+        Files.move(replacement.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING)
+    }
+
+    private ModuleMetadataStringTable newTable() {
+        return new ModuleMetadataStringTable(file, SimpleMapInterner.notThreadSafe())
+    }
+}
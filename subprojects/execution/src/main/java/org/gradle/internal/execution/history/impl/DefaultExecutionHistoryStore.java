@@ -44,7 +44,8 @@ public DefaultExecutionHistoryStore(ExecutionHistoryCacheAccess executionHistory
             new FileCollectionFingerprintSerializer(stringInterner));
 
         this.store = executionHistoryCacheAccess.createCache(
-            PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer),
+            PersistentIndexedCacheParameters.of("executionHistory", String.class, serializer)
+                .withStorage(PersistentIndexedCacheParameters.Storage.forFrequentlyUpdatedCache()),
             10000,
             false
         );
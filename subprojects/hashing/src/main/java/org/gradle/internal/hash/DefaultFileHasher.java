@@ -16,11 +16,11 @@
 package org.gradle.internal.hash;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
 
 public class DefaultFileHasher implements FileHasher {
     private final StreamHasher streamHasher;
@@ -31,17 +31,21 @@ public DefaultFileHasher(StreamHasher streamHasher) {
 
     @Override
     public HashCode hash(File file) {
-        InputStream inputStream;
+        FileChannel channel;
         try {
-            inputStream = new FileInputStream(file);
-        } catch (FileNotFoundException e) {
-            throw new UncheckedIOException(String.format("Failed to create MD5 hash for file '%s' as it does not exist.", file), e);
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        } catch (NoSuchFileException e) {
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s' as it does not exist.", file), e);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s'.", file), e);
         }
         try {
-            return streamHasher.hash(inputStream);
+            return streamHasher.hash(channel);
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("Failed to create hash for file '%s'.", file), e);
         } finally {
             try {
-                inputStream.close();
+                channel.close();
             } catch (IOException ignored) {
                 // Ignored
             }
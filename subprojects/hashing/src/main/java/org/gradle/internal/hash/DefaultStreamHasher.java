@@ -21,20 +21,27 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UncheckedIOException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Queue;
 import java.util.concurrent.ArrayBlockingQueue;
 
 public class DefaultStreamHasher implements StreamHasher {
     private static final HashCode SIGNATURE = Hashing.signature(DefaultStreamHasher.class);
 
+    private static final int CHANNEL_BUFFER_SIZE = 64 * 1024;
+
     private final Queue<byte[]> buffers = new ArrayBlockingQueue<byte[]>(16);
+    // MessageDigest copies the content of a direct buffer onto the heap anyway, so channels are read into larger heap buffers to save system calls
+    private final Queue<ByteBuffer> channelBuffers = new ArrayBlockingQueue<ByteBuffer>(16);
 
     @Override
     public HashCode hash(InputStream inputStream) {
         try {
             return doHash(inputStream, ByteStreams.nullOutputStream());
         } catch (IOException e) {
-            throw new UncheckedIOException("Failed to create MD5 hash for file content.", e);
+            throw new UncheckedIOException("Failed to create hash for file content.", e);
         }
     }
 
@@ -43,6 +50,22 @@ public HashCode hashCopy(InputStream inputStream, OutputStream outputStream) thr
         return doHash(inputStream, outputStream);
     }
 
+    @Override
+    public HashCode hash(ReadableByteChannel channel) throws IOException {
+        ByteBuffer buffer = takeChannelBuffer();
+        try {
+            PrimitiveHasher hasher = Hashing.newPrimitiveHasher();
+            hasher.putHash(SIGNATURE);
+            while (channel.read(buffer) >= 0) {
+                hasher.putBytes(buffer.array(), 0, buffer.position());
+                ((Buffer) buffer).clear();
+            }
+            return hasher.hash();
+        } finally {
+            returnChannelBuffer(buffer);
+        }
+    }
+
     private HashCode doHash(InputStream inputStream, OutputStream outputStream) throws IOException {
         byte[] buffer = takeBuffer();
         try {
@@ -74,4 +97,17 @@ private byte[] takeBuffer() {
         }
         return buffer;
     }
+
+    private void returnChannelBuffer(ByteBuffer buffer) {
+        ((Buffer) buffer).clear();
+        channelBuffers.offer(buffer);
+    }
+
+    private ByteBuffer takeChannelBuffer() {
+        ByteBuffer buffer = channelBuffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(CHANNEL_BUFFER_SIZE);
+        }
+        return buffer;
+    }
 }
@@ -18,6 +18,7 @@
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.channels.ReadableByteChannel;
 
 public interface StreamHasher {
     /**
@@ -30,4 +31,10 @@ public interface StreamHasher {
      * The method will not close either stream.
      */
     HashCode hashCopy(InputStream inputStream, OutputStream outputStream) throws IOException;
+
+    /**
+     * Returns the hash of the content read from the given channel, which is the same as the hash of an input stream with the same content.
+     * The channel will not be closed by the method.
+     */
+    HashCode hash(ReadableByteChannel channel) throws IOException;
 }
@@ -18,6 +18,8 @@ package org.gradle.internal.hash
 
 import spock.lang.Specification
 
+import java.nio.channels.Channels
+
 class DefaultStreamHasherTest extends Specification {
     def "can hash input"() {
         def input = new ByteArrayInputStream("hello".bytes)
@@ -36,4 +38,14 @@ class DefaultStreamHasherTest extends Specification {
         hash.toString() == "af67a92e9f73b51572e9b94e343d2840"
         output.toByteArray() == "hello".bytes
     }
+
+    def "hashes content read from a channel the same as content read from a stream"() {
+        def content = new byte[200_000]
+        new Random(1234L).nextBytes(content)
+        def hasher = new DefaultStreamHasher()
+
+        expect:
+        hasher.hash(Channels.newChannel(new ByteArrayInputStream(content))) == hasher.hash(new ByteArrayInputStream(content))
+        hasher.hash(Channels.newChannel(new ByteArrayInputStream("hello".bytes))).toString() == "af67a92e9f73b51572e9b94e343d2840"
+    }
 }
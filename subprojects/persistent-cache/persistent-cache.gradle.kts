@@ -46,3 +46,7 @@ gradlebuildJava {
     moduleType = ModuleType.CORE
 }
 
+
+jmh {
+    include = listOf("BTreePersistentIndexedCacheBenchmark", "CrossProcessCacheContentionBenchmark")
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.cache.AsyncCacheAccess;
+import org.gradle.cache.CacheBuilder;
+import org.gradle.cache.CacheDecorator;
+import org.gradle.cache.CrossProcessCacheAccess;
+import org.gradle.cache.FileLockManager;
+import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+import org.gradle.cache.PersistentCache;
+import org.gradle.cache.PersistentIndexedCache;
+import org.gradle.cache.PersistentIndexedCacheParameters;
+import org.gradle.cache.internal.locklistener.DefaultFileLockContentionHandler;
+import org.gradle.internal.concurrent.DefaultExecutorFactory;
+import org.gradle.internal.remote.internal.inet.InetAddressFactory;
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.gradle.util.GFileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.gradle.cache.internal.filelock.LockOptionsBuilder.mode;
+
+/**
+ * Measures how long it takes a number of processes to work with the same cache at the same time, mostly reading from it.
+ *
+ * <p>Each process opens the cache the way a daemon does, locking it on demand. The processes are separate JVMs, as a JVM can't hold
+ * more than one lock on the same file.</p>
+ */
+@Fork(1)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class CrossProcessCacheContentionBenchmark {
+    private static final String CACHE_NAME = "entries";
+
+    @Param({"1", "4"})
+    int daemons;
+
+    @Param({"BTree", "AppendOnlyLog"})
+    PersistentIndexedCacheParameters.Storage storage;
+
+    @Param({"90"})
+    int readPercentage;
+
+    @Param({"10000"})
+    int entries;
+
+    @Param({"20000"})
+    int operationsPerDaemon;
+
+    File cacheDir;
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        cacheDir = Files.createTempDirectory("cache-contention-benchmark").toFile();
+        // Fill the cache, so that reads mostly find a value
+        runDaemons(1, 0, entries);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        GFileUtils.deleteDirectory(cacheDir);
+    }
+
+    @Benchmark
+    public void readAndWriteFromManyProcesses() throws Exception {
+        runDaemons(daemons, readPercentage, operationsPerDaemon);
+    }
+
+    private void runDaemons(int count, int readPercentage, int operations) throws IOException, InterruptedException {
+        String java = new File(System.getProperty("java.home"), "bin/java").getAbsolutePath();
+        List<Process> processes = new ArrayList<Process>();
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder builder = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), CrossProcessCacheContentionBenchmark.class.getName(),
+                cacheDir.getAbsolutePath(), storage.name(), String.valueOf(readPercentage), String.valueOf(entries), String.valueOf(operations));
+            processes.add(builder.inheritIO().start());
+        }
+        for (Process process : processes) {
+            int exitValue = process.waitFor();
+            if (exitValue != 0) {
+                throw new IllegalStateException("Benchmark process failed with exit value " + exitValue + ".");
+            }
+        }
+    }
+
+    /**
+     * The work done by each process.
+     */
+    public static void main(String[] args) throws Exception {
+        File cacheDir = new File(args[0]);
+        PersistentIndexedCacheParameters.Storage storage = PersistentIndexedCacheParameters.Storage.valueOf(args[1]);
+        int readPercentage = Integer.parseInt(args[2]);
+        int entries = Integer.parseInt(args[3]);
+        int operations = Integer.parseInt(args[4]);
+
+        DefaultExecutorFactory executorFactory = new DefaultExecutorFactory();
+        DefaultFileLockContentionHandler contentionHandler = new DefaultFileLockContentionHandler(executorFactory, new InetAddressFactory());
+        FileLockManager lockManager = new DefaultFileLockManager(new ProcessMetaDataProvider() {
+            @Override
+            public String getProcessIdentifier() {
+                return ManagementFactory.getRuntimeMXBean().getName();
+            }
+
+            @Override
+            public String getProcessDisplayName() {
+                return "cache contention benchmark";
+            }
+        }, contentionHandler);
+        // No cleanup, so no progress is reported
+        DefaultCacheFactory cacheFactory = new DefaultCacheFactory(lockManager, executorFactory, null);
+        try {
+            PersistentCache cache = cacheFactory.open(cacheDir, "cache contention benchmark", Collections.<String, Object>emptyMap(), CacheBuilder.LockTarget.DefaultTarget, mode(FileLockManager.LockMode.None), null, null);
+            PersistentIndexedCache<String, String> indexedCache = cache.createCache(
+                PersistentIndexedCacheParameters.of(CACHE_NAME, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER)
+                    .withStorage(storage)
+                    .withCacheDecorator(new SynchronizingCacheDecorator()));
+            Random random = new Random();
+            for (int i = 0; i < operations; i++) {
+                int index = readPercentage == 0 ? i % entries : random.nextInt(entries);
+                String key = "key" + index;
+                if (random.nextInt(100) < readPercentage) {
+                    indexedCache.get(key);
+                } else {
+                    indexedCache.put(key, "value" + index + "-" + i);
+                }
+            }
+            cache.close();
+        } finally {
+            cacheFactory.close();
+            contentionHandler.stop();
+            executorFactory.stop();
+        }
+    }
+
+    /**
+     * Applies cross-process synchronization and asynchronous updates the way daemons do, without keeping entries in memory.
+     */
+    private static class SynchronizingCacheDecorator implements CacheDecorator {
+        @Override
+        public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
+            return new CrossProcessSynchronizingCache<K, V>(new AsyncCacheAccessDecoratedCache<K, V>(asyncCacheAccess, persistentCache), crossProcessCacheAccess, CrossProcessSynchronizingCache.isReadableWithoutFileLock(persistentCache));
+        }
+    }
+}
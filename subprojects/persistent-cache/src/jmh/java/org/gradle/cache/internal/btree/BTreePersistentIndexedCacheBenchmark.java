@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.btree;
+
+import org.gradle.internal.serialize.BaseSerializerFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Measures the throughput of concurrent reads and writes with different mixes of reads and writes.
+ */
+@Fork(1)
+@Threads(16)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@State(Scope.Benchmark)
+public class BTreePersistentIndexedCacheBenchmark {
+
+    @Param({"100", "95", "50"})
+    int readPercentage;
+
+    @Param({"10000"})
+    int entries;
+
+    File cacheDir;
+    BTreePersistentIndexedCache<String, String> cache;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        cacheDir = Files.createTempDirectory("btree-benchmark").toFile();
+        cache = new BTreePersistentIndexedCache<String, String>(new File(cacheDir, "cache.bin"), BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.STRING_SERIALIZER);
+        for (int i = 0; i < entries; i++) {
+            cache.put(key(i), value(i));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        cache.close();
+        new File(cacheDir, "cache.bin").delete();
+        cacheDir.delete();
+    }
+
+    @Benchmark
+    public String getOrPut() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(entries);
+        if (random.nextInt(100) < readPercentage) {
+            return cache.get(key(index));
+        }
+        cache.put(key(index), value(index));
+        return null;
+    }
+
+    private static String key(int index) {
+        return "/some/path/to/a/file/in/the/project/" + index;
+    }
+
+    private static String value(int index) {
+        return "value-" + index;
+    }
+}
@@ -27,24 +27,26 @@
     private final Serializer<K> keySerializer;
     private final Serializer<V> valueSerializer;
     private final CacheDecorator cacheDecorator;
+    private final Storage storage;
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, null, Storage.BTree);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Serializer<V> valueSerializer) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), valueSerializer, null, Storage.BTree);
     }
 
     public static <K, V> PersistentIndexedCacheParameters<K, V> of(String cacheName, Class<K> keyType, Class<V> valueType) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, SERIALIZER_FACTORY.getSerializerFor(keyType), SERIALIZER_FACTORY.getSerializerFor(valueType), null, Storage.BTree);
     }
 
-    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator) {
+    private PersistentIndexedCacheParameters(String cacheName, Serializer<K> keySerializer, Serializer<V> valueSerializer, @Nullable CacheDecorator cacheDecorator, Storage storage) {
         this.cacheName = cacheName;
         this.keySerializer = keySerializer;
         this.valueSerializer = valueSerializer;
         this.cacheDecorator = cacheDecorator;
+        this.storage = storage;
     }
 
     public String getCacheName() {
@@ -65,6 +67,38 @@ public CacheDecorator getCacheDecorator() {
     }
 
     public PersistentIndexedCacheParameters<K, V> withCacheDecorator(CacheDecorator cacheDecorator) {
-        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator);
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, storage);
+    }
+
+    public Storage getStorage() {
+        return storage;
+    }
+
+    public PersistentIndexedCacheParameters<K, V> withStorage(Storage storage) {
+        return new PersistentIndexedCacheParameters<K, V>(cacheName, keySerializer, valueSerializer, cacheDecorator, storage);
+    }
+
+    /**
+     * How the entries of the cache are stored in the file system.
+     */
+    public enum Storage {
+        /**
+         * A B-tree in a single file, which is updated in place.
+         */
+        BTree,
+        /**
+         * Append-only segment files, which are compacted when they contain too many stale entries.
+         * Never rewrites existing data in place, which suits file systems with slow random writes.
+         */
+        AppendOnlyLog;
+
+        public static final String APPEND_ONLY_LOG_PROPERTY = "org.gradle.unsafe.append-only-cache-storage";
+
+        /**
+         * Returns the storage to use for large caches with many updates, which is {@link #AppendOnlyLog} when enabled via the {@value #APPEND_ONLY_LOG_PROPERTY} system property.
+         */
+        public static Storage forFrequentlyUpdatedCache() {
+            return Boolean.getBoolean(APPEND_ONLY_LOG_PROPERTY) ? AppendOnlyLog : BTree;
+        }
     }
 }
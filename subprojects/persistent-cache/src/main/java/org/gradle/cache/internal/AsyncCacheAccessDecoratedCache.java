@@ -16,17 +16,30 @@
 
 package org.gradle.cache.internal;
 
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.Multiset;
 import org.gradle.api.Transformer;
 import org.gradle.cache.AsyncCacheAccess;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
+import org.gradle.internal.Cast;
+import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
 
 import javax.annotation.Nullable;
 
+/**
+ * Applies changes to a cache asynchronously, using the {@link AsyncCacheAccess} of the cache.
+ *
+ * <p>Reads also go through the {@link AsyncCacheAccess}, so that they see the changes queued before them. When the cache supports it, reads of entries
+ * without a queued change are made on the calling thread instead, so that several threads can read at the same time. For caches that can be read while
+ * another process changes them, this also works while this process does not hold the file lock.</p>
+ */
 public class AsyncCacheAccessDecoratedCache<K, V> implements MultiProcessSafeAsyncPersistentIndexedCache<K, V> {
     private final AsyncCacheAccess asyncCacheAccess;
     private final MultiProcessSafePersistentIndexedCache<K, V> persistentCache;
+    // The keys with changes that have been queued and not yet been applied or discarded
+    private final Multiset<K> pendingKeys = ConcurrentHashMultiset.create();
 
     public AsyncCacheAccessDecoratedCache(AsyncCacheAccess asyncCacheAccess, MultiProcessSafePersistentIndexedCache<K, V> persistentCache) {
         this.asyncCacheAccess = asyncCacheAccess;
@@ -41,12 +54,30 @@ public String toString() {
     @Nullable
     @Override
     public V get(final K key) {
-        return asyncCacheAccess.read(new Factory<V>() {
+        Factory<V> readInOrder = new Factory<V>() {
             @Override
             public V create() {
-                return persistentCache.get(key);
+                return asyncCacheAccess.read(new Factory<V>() {
+                    @Override
+                    public V create() {
+                        return persistentCache.get(key);
+                    }
+                });
             }
-        });
+        };
+        if (persistentCache instanceof ConcurrentlyReadableIndexedCache && !pendingKeys.contains(key)) {
+            return Cast.<ConcurrentlyReadableIndexedCache<K, V>>uncheckedCast(persistentCache).getConcurrently(key, readInOrder);
+        }
+        return readInOrder.create();
+    }
+
+    @Nullable
+    @Override
+    public V getWithoutFileLock(K key) {
+        if (persistentCache instanceof ConcurrentlyReadableIndexedCache && !pendingKeys.contains(key)) {
+            return Cast.<ConcurrentlyReadableIndexedCache<K, V>>uncheckedCast(persistentCache).getConcurrently(key, Factories.<V>constant(null));
+        }
+        return null;
     }
 
     @Override
@@ -56,42 +87,47 @@ public V get(K key, Transformer<? extends V, ? super K> producer, Runnable compl
 
     @Override
     public void putLater(final K key, final V value, final Runnable completion) {
+        final Runnable trackingCompletion = trackPending(key, completion);
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
+            asyncCacheAccess.enqueue(new KeyedCacheUpdate(persistentCache, key, trackingCompletion) {
                 @Override
-                public void run() {
-                    try {
-                        persistentCache.put(key, value);
-                    } finally {
-                        completion.run();
-                    }
+                protected void apply() {
+                    persistentCache.put(key, value);
                 }
             });
         } catch (RuntimeException e) {
-            completion.run();
+            trackingCompletion.run();
             throw e;
         }
     }
 
     @Override
     public void removeLater(final K key, final Runnable completion) {
+        final Runnable trackingCompletion = trackPending(key, completion);
         try {
-            asyncCacheAccess.enqueue(new Runnable() {
+            asyncCacheAccess.enqueue(new KeyedCacheUpdate(persistentCache, key, trackingCompletion) {
                 @Override
-                public void run() {
-                    try {
-                        persistentCache.remove(key);
-                    } finally {
-                        completion.run();
-                    }
+                protected void apply() {
+                    persistentCache.remove(key);
                 }
             });
         } catch (RuntimeException e) {
-            completion.run();
+            trackingCompletion.run();
             throw e;
         }
     }
 
+    private Runnable trackPending(final K key, final Runnable completion) {
+        pendingKeys.add(key);
+        return new Runnable() {
+            @Override
+            public void run() {
+                pendingKeys.remove(key);
+                completion.run();
+            }
+        };
+    }
+
     @Override
     public void afterLockAcquire(FileLock.State currentCacheState) {
         persistentCache.afterLockAcquire(currentCacheState);
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A {@link CrossBuildInMemoryCache} which retains values across builds up to a maximum total weight, discarding the least recently used values first.
+ */
+@ThreadSafe
+public interface BoundedCrossBuildInMemoryCache<K, V> extends CrossBuildInMemoryCache<K, V> {
+    /**
+     * Returns a snapshot of the usage statistics for this cache.
+     */
+    Statistics getStatistics();
+
+    /**
+     * Estimates the weight of an entry, for example its approximate size in memory. Must return the same weight each time it is called for an entry.
+     */
+    interface Weigher<K, V> {
+        int weigh(K key, V value);
+    }
+
+    /**
+     * Usage statistics for a cache. Hits and misses count the lookups of values that have not been used yet in the current build session.
+     */
+    class Statistics {
+        private final long hitCount;
+        private final long missCount;
+        private final long evictionCount;
+        private final long weight;
+        private final long maxWeight;
+
+        public Statistics(long hitCount, long missCount, long evictionCount, long weight, long maxWeight) {
+            this.hitCount = hitCount;
+            this.missCount = missCount;
+            this.evictionCount = evictionCount;
+            this.weight = weight;
+            this.maxWeight = maxWeight;
+        }
+
+        public long getHitCount() {
+            return hitCount;
+        }
+
+        public long getMissCount() {
+            return missCount;
+        }
+
+        public long getEvictionCount() {
+            return evictionCount;
+        }
+
+        /**
+         * The total weight of the values currently retained across builds.
+         */
+        public long getWeight() {
+            return weight;
+        }
+
+        public long getMaxWeight() {
+            return maxWeight;
+        }
+
+        @Override
+        public String toString() {
+            return "hits: " + hitCount + ", misses: " + missCount + ", evictions: " + evictionCount + ", weight: " + weight + "/" + maxWeight;
+        }
+    }
+}
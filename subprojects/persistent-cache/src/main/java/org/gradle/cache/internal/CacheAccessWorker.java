@@ -24,9 +24,13 @@
 import org.gradle.internal.concurrent.Stoppable;
 import org.gradle.internal.time.CountdownTimer;
 import org.gradle.internal.time.Time;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
@@ -35,7 +39,18 @@
 import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 
+/**
+ * Applies operations to a cache on a worker thread, holding the cache lock while the operations are applied.
+ *
+ * <p>Consecutive updates to entries of indexed caches are collected into a batch. When a batch contains several updates to the same entry,
+ * only the last one is applied. The updates of a batch are applied grouped by cache. Any other operation is applied after the updates queued before it.</p>
+ *
+ * <p>The queue of operations is bounded, so that submitting operations blocks when the worker falls behind.</p>
+ */
 class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheAccessWorker.class);
+    private static final int MAX_PENDING_UPDATES = 10000;
+
     private final BlockingQueue<Runnable> workQueue;
     private final String displayName;
     private final CacheAccess cacheAccess;
@@ -46,10 +61,12 @@ class CacheAccessWorker implements Runnable, Stoppable, AsyncCacheAccess {
     private boolean stopSeen;
     private final CountDownLatch doneSignal = new CountDownLatch(1);
     private final ExecutorPolicy.CatchAndRecordFailures failureHandler = new ExecutorPolicy.CatchAndRecordFailures();
+    private final CacheAccessWorkerStatistics statistics;
 
     CacheAccessWorker(String displayName, CacheAccess cacheAccess) {
         this.displayName = displayName;
         this.cacheAccess = cacheAccess;
+        this.statistics = new CacheAccessWorkerStatistics(displayName);
         this.batchWindowMillis = 200;
         this.maximumLockingTimeMillis = 5000;
         HeapProportionalCacheSizer heapProportionalCacheSizer = new HeapProportionalCacheSizer();
@@ -67,10 +84,16 @@ private void addToQueue(Runnable task) {
             throw new IllegalStateException("The worker has already been closed. Cannot add more work to queue.");
         }
         try {
-            workQueue.put(task);
+            if (!workQueue.offer(task)) {
+                // The worker has fallen behind, wait for it to catch up
+                long start = System.nanoTime();
+                workQueue.put(task);
+                statistics.blocked(System.nanoTime() - start);
+            }
         } catch (InterruptedException e) {
             throw UncheckedException.throwAsUncheckedException(e);
         }
+        statistics.queueDepth(workQueue.size());
     }
 
     @Override
@@ -94,9 +117,11 @@ public T call() throws Exception {
     @Override
     public synchronized void flush() {
         if (!workerCompleted && !closed) {
+            long start = System.nanoTime();
             FlushOperationsCommand flushOperationsCommand = new FlushOperationsCommand();
             addToQueue(flushOperationsCommand);
             flushOperationsCommand.await();
+            statistics.flushed(System.nanoTime() - start);
         }
         rethrowFailure();
     }
@@ -175,14 +200,16 @@ private void flushOperations(final Runnable updateOperation) {
             cacheAccess.useCache(new Runnable() {
                 @Override
                 public void run() {
+                    long start = System.nanoTime();
                     CountdownTimer timer = Time.startCountdownTimer(maximumLockingTimeMillis, TimeUnit.MILLISECONDS);
-                    if (updateOperation != null) {
-                        failureHandler.onExecute(updateOperation);
-                    }
-                    Runnable otherOperation;
+                    Map<Object, KeyedCacheUpdate> pendingUpdates = new LinkedHashMap<Object, KeyedCacheUpdate>();
                     try {
+                        if (updateOperation != null) {
+                            execute(updateOperation, pendingUpdates);
+                        }
+                        Runnable otherOperation;
                         while ((otherOperation = workQueue.poll(batchWindowMillis, TimeUnit.MILLISECONDS)) != null) {
-                            failureHandler.onExecute(otherOperation);
+                            execute(otherOperation, pendingUpdates);
                             final Class<? extends Runnable> runnableClass = otherOperation.getClass();
                             if (runnableClass == FlushOperationsCommand.class) {
                                 flushOperations.add((FlushOperationsCommand) otherOperation);
@@ -198,6 +225,9 @@ public void run() {
                         }
                     } catch (InterruptedException e) {
                         throw UncheckedException.throwAsUncheckedException(e);
+                    } finally {
+                        applyUpdates(pendingUpdates);
+                        statistics.locked(System.nanoTime() - start);
                     }
                 }
             });
@@ -208,6 +238,60 @@ public void run() {
         }
     }
 
+    private void execute(Runnable operation, Map<Object, KeyedCacheUpdate> pendingUpdates) {
+        if (operation instanceof KeyedCacheUpdate) {
+            KeyedCacheUpdate update = (KeyedCacheUpdate) operation;
+            // Keep the position of the first update to the entry, the order of updates to different entries does not matter
+            KeyedCacheUpdate supersededUpdate = pendingUpdates.put(update.getEntry(), update);
+            if (supersededUpdate != null) {
+                statistics.coalesced();
+                discard(supersededUpdate);
+            }
+            if (pendingUpdates.size() >= MAX_PENDING_UPDATES) {
+                applyUpdates(pendingUpdates);
+            }
+        } else {
+            // Other operations may depend on the updates queued before them, for example reads
+            applyUpdates(pendingUpdates);
+            failureHandler.onExecute(operation);
+        }
+    }
+
+    private void applyUpdates(Map<Object, KeyedCacheUpdate> pendingUpdates) {
+        if (pendingUpdates.isEmpty()) {
+            return;
+        }
+        statistics.applied(pendingUpdates.size());
+        Map<Object, List<KeyedCacheUpdate>> updatesByCache = new LinkedHashMap<Object, List<KeyedCacheUpdate>>();
+        for (KeyedCacheUpdate update : pendingUpdates.values()) {
+            List<KeyedCacheUpdate> updates = updatesByCache.get(update.getCache());
+            if (updates == null) {
+                updates = new ArrayList<KeyedCacheUpdate>();
+                updatesByCache.put(update.getCache(), updates);
+            }
+            updates.add(update);
+        }
+        pendingUpdates.clear();
+        for (List<KeyedCacheUpdate> updates : updatesByCache.values()) {
+            for (KeyedCacheUpdate update : updates) {
+                failureHandler.onExecute(update);
+            }
+        }
+    }
+
+    private void discard(final KeyedCacheUpdate update) {
+        failureHandler.onExecute(new Runnable() {
+            @Override
+            public void run() {
+                update.discard();
+            }
+        });
+    }
+
+    CacheAccessWorkerStatistics getStatistics() {
+        return statistics;
+    }
+
     @Override
     public synchronized void stop() {
         if (!closed && !workerCompleted) {
@@ -222,6 +306,7 @@ public synchronized void stop() {
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
             }
+            LOGGER.debug("Cache worker for {} completed: {}", displayName, statistics);
         }
         rethrowFailure();
     }
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters describing the work done by the worker that applies the updates of a cache, to tune the size of the queue and to find caches that are updated faster than they can be written.
+ */
+public class CacheAccessWorkerStatistics {
+    private final String cacheDisplayName;
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final AtomicLong blockedNanos = new AtomicLong();
+    private final AtomicLong appliedUpdates = new AtomicLong();
+    private final AtomicLong coalescedUpdates = new AtomicLong();
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong flushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong lockedNanos = new AtomicLong();
+    private final AtomicLong maxLockedNanos = new AtomicLong();
+
+    CacheAccessWorkerStatistics(String cacheDisplayName) {
+        this.cacheDisplayName = cacheDisplayName;
+    }
+
+    void queueDepth(long depth) {
+        updateMax(maxQueueDepth, depth);
+    }
+
+    void blocked(long nanos) {
+        blockedNanos.addAndGet(nanos);
+    }
+
+    void applied(int updates) {
+        appliedUpdates.addAndGet(updates);
+        batches.incrementAndGet();
+    }
+
+    void coalesced() {
+        coalescedUpdates.incrementAndGet();
+    }
+
+    void flushed(long nanos) {
+        flushes.incrementAndGet();
+        flushNanos.addAndGet(nanos);
+        updateMax(maxFlushNanos, nanos);
+    }
+
+    void locked(long nanos) {
+        lockedNanos.addAndGet(nanos);
+        updateMax(maxLockedNanos, nanos);
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Returns the counts since the previous reset, and starts counting from zero again.
+     */
+    public CacheAccessWorkerStatistics reset() {
+        CacheAccessWorkerStatistics counted = new CacheAccessWorkerStatistics(cacheDisplayName);
+        counted.maxQueueDepth.set(maxQueueDepth.getAndSet(0));
+        counted.blockedNanos.set(blockedNanos.getAndSet(0));
+        counted.appliedUpdates.set(appliedUpdates.getAndSet(0));
+        counted.coalescedUpdates.set(coalescedUpdates.getAndSet(0));
+        counted.batches.set(batches.getAndSet(0));
+        counted.flushes.set(flushes.getAndSet(0));
+        counted.flushNanos.set(flushNanos.getAndSet(0));
+        counted.maxFlushNanos.set(maxFlushNanos.getAndSet(0));
+        counted.lockedNanos.set(lockedNanos.getAndSet(0));
+        counted.maxLockedNanos.set(maxLockedNanos.getAndSet(0));
+        return counted;
+    }
+
+    public String getCacheDisplayName() {
+        return cacheDisplayName;
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /**
+     * The total time spent waiting to submit operations because the queue was full.
+     */
+    public long getBlockedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+    }
+
+    public long getAppliedUpdates() {
+        return appliedUpdates.get();
+    }
+
+    /**
+     * The number of updates that were not applied because a later update to the same entry superseded them.
+     */
+    public long getCoalescedUpdates() {
+        return coalescedUpdates.get();
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    /**
+     * The number of explicit flushes, which wait for all operations submitted before them.
+     */
+    public long getFlushes() {
+        return flushes.get();
+    }
+
+    public long getFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(flushNanos.get());
+    }
+
+    public long getMaxFlushMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxFlushNanos.get());
+    }
+
+    /**
+     * The total time the worker spent applying operations while holding the cache lock.
+     */
+    public long getLockHeldMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(lockedNanos.get());
+    }
+
+    public long getMaxLockHeldMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(maxLockedNanos.get());
+    }
+
+    @Override
+    public String toString() {
+        return "applied updates: " + getAppliedUpdates() + " in " + getBatches() + " batches, coalesced updates: " + getCoalescedUpdates()
+            + ", max queue depth: " + getMaxQueueDepth() + ", blocked on full queue: " + getBlockedMillis() + "ms"
+            + ", lock held: " + getLockHeldMillis() + "ms (max " + getMaxLockHeldMillis() + "ms)"
+            + ", flushes: " + getFlushes() + " taking " + getFlushMillis() + "ms (max " + getMaxFlushMillis() + "ms)";
+    }
+}
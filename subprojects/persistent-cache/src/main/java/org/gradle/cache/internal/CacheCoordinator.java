@@ -20,6 +20,7 @@
 import org.gradle.cache.PersistentIndexedCache;
 import org.gradle.cache.PersistentIndexedCacheParameters;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 
 public interface CacheCoordinator extends CacheAccess, Closeable {
@@ -32,4 +33,10 @@ public interface CacheCoordinator extends CacheAccess, Closeable {
     void close();
 
     <K, V> PersistentIndexedCache<K, V> newCache(PersistentIndexedCacheParameters<K, V> parameters);
+
+    /**
+     * Returns the statistics of the worker that applies the updates of the caches, or null when no worker has been started.
+     */
+    @Nullable
+    CacheAccessWorkerStatistics getWorkerStatistics();
 }
@@ -31,4 +31,9 @@ public interface CacheFactory {
      * Opens a cache with the given options. The caller must close the cache when finished with it.
      */
     PersistentCache open(File cacheDir, String displayName, Map<String, ?> properties, CacheBuilder.LockTarget lockTarget, LockOptions lockOptions, @Nullable Action<? super PersistentCache> initializer, @Nullable CleanupAction cleanup) throws CacheOpenException;
+
+    /**
+     * Visits the statistics of the workers that apply the updates of the caches that are currently open.
+     */
+    void visitWorkerStatistics(Action<? super CacheAccessWorkerStatistics> visitor);
 }
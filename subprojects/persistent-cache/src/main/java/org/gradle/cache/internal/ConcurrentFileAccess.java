@@ -0,0 +1,35 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.Factory;
+
+import javax.annotation.Nullable;
+
+/**
+ * Gives threads other than the one that owns a cache access to the cache files, for stores that support reads from several threads at the same time.
+ */
+interface ConcurrentFileAccess {
+    /**
+     * Runs the given action on the current thread while this process holds the file lock of the cache, without waiting for the thread that owns the cache.
+     * The lock is not released until the action has completed.
+     *
+     * @return the result of the action, or {@code whenNotHeld} without running the action when this process does not hold the file lock.
+     */
+    @Nullable
+    <T> T readConcurrently(Factory<? extends T> action, @Nullable T whenNotHeld);
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import org.gradle.internal.Factory;
+
+import javax.annotation.Nullable;
+
+/**
+ * An indexed cache whose entries can be read from several threads at the same time, rather than only by the thread that owns the cache.
+ */
+interface ConcurrentlyReadableIndexedCache<K, V> {
+    /**
+     * Reads the entry for the given key on the current thread when this can be done without waiting for the thread that owns the cache.
+     * Otherwise, returns the value produced by {@code otherwise}.
+     */
+    @Nullable
+    V getConcurrently(K key, Factory<? extends V> otherwise);
+
+    /**
+     * Whether {@link #getConcurrently(Object, Factory)} may read entries while this process does not hold the file lock of the cache, so that the entries
+     * may have been changed by another process since they were read.
+     */
+    boolean isReadableWithoutFileLock();
+}
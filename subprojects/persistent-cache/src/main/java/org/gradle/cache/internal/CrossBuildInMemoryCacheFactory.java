@@ -39,6 +39,17 @@ public interface CrossBuildInMemoryCacheFactory {
      */
     <K, V> CrossBuildInMemoryCache<K, V> newCache();
 
+    /**
+     * Creates a new cache instance which retains values across build sessions up to the given maximum total weight, as estimated by the given weigher.
+     * Values are referenced using strong references, so they are discarded based on their weight and how recently they have been used rather than on memory pressure.
+     * The maximum weight can be overridden using the {@code org.gradle.cache.cross-build.<name>.max-weight} system property.
+     *
+     * <p>The current implementation does not remove an entry during a build session that the entry has been used in, but this is not part of the contract.
+     *
+     * <p>Note: this should be used to create _only_ global scoped instances.
+     */
+    <K, V> BoundedCrossBuildInMemoryCache<K, V> newBoundedCache(String name, long maxWeight, BoundedCrossBuildInMemoryCache.Weigher<? super K, ? super V> weigher);
+
     /**
      * Creates a new cache instance whose keys are Class instances. Keys are referenced using strong or weak references, values by strong or soft references depending on their usage.
      * This allows the classes to be collected.
@@ -30,10 +30,26 @@
 public class CrossProcessSynchronizingCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V> {
     private final CrossProcessCacheAccess cacheAccess;
     private final MultiProcessSafeAsyncPersistentIndexedCache<K, V> target;
+    private final boolean readableWithoutFileLock;
 
     public CrossProcessSynchronizingCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> target, CrossProcessCacheAccess cacheAccess) {
+        this(target, cacheAccess, false);
+    }
+
+    /**
+     * @param readableWithoutFileLock whether entries may be read without acquiring the file lock, while another process may be changing the cache.
+     */
+    public CrossProcessSynchronizingCache(MultiProcessSafeAsyncPersistentIndexedCache<K, V> target, CrossProcessCacheAccess cacheAccess, boolean readableWithoutFileLock) {
         this.target = target;
         this.cacheAccess = cacheAccess;
+        this.readableWithoutFileLock = readableWithoutFileLock;
+    }
+
+    /**
+     * Checks whether the entries of the given backing cache may be read without acquiring the file lock.
+     */
+    static boolean isReadableWithoutFileLock(MultiProcessSafePersistentIndexedCache<?, ?> persistentCache) {
+        return persistentCache instanceof ConcurrentlyReadableIndexedCache && ((ConcurrentlyReadableIndexedCache<?, ?>) persistentCache).isReadableWithoutFileLock();
     }
 
     @Override
@@ -44,6 +60,12 @@ public String toString() {
     @Nullable
     @Override
     public V get(final K key) {
+        if (readableWithoutFileLock) {
+            V value = target.getWithoutFileLock(key);
+            if (value != null) {
+                return value;
+            }
+        }
         return cacheAccess.withFileLock(new Factory<V>() {
             @Override
             public V create() {
@@ -54,6 +76,12 @@ public V create() {
 
     @Override
     public V get(final K key, final Transformer<? extends V, ? super K> producer) {
+        if (readableWithoutFileLock) {
+            V value = target.getWithoutFileLock(key);
+            if (value != null) {
+                return value;
+            }
+        }
         Runnable runnable = cacheAccess.acquireFileLock();
         return target.get(key, producer, runnable);
     }
@@ -17,6 +17,7 @@
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Objects;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import org.gradle.api.Action;
 import org.gradle.api.GradleException;
@@ -31,6 +32,7 @@
 import org.gradle.cache.PersistentIndexedCacheParameters;
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
 import org.gradle.cache.internal.cacheops.CacheAccessOperationsStack;
+import org.gradle.cache.internal.logstore.LogStructuredPersistentIndexedCache;
 import org.gradle.internal.Cast;
 import org.gradle.internal.Factories;
 import org.gradle.internal.Factory;
@@ -49,6 +51,7 @@
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -69,13 +72,16 @@ public void run() {
     private final File baseDir;
     private final CacheCleanupAction cleanupAction;
     private final ExecutorFactory executorFactory;
-    private final FileAccess fileAccess = new UnitOfWorkFileAccess();
+    private final UnitOfWorkFileAccess fileAccess = new UnitOfWorkFileAccess();
     private final Map<String, IndexedCacheEntry<?, ?>> caches = new HashMap<String, IndexedCacheEntry<?, ?>>();
     private final AbstractCrossProcessCacheAccess crossProcessCacheAccess;
     private final CacheAccessOperationsStack operations;
+    private final boolean lockOnDemand;
+    private final List<DefaultMultiProcessSafePersistentIndexedCache<?, ?>> indexedCaches = new ArrayList<DefaultMultiProcessSafePersistentIndexedCache<?, ?>>();
 
     private ManagedExecutor cacheUpdateExecutor;
     private CacheAccessWorker cacheAccessWorker;
+    private ManagedExecutor compactionExecutor;
     private final Lock stateLock = new ReentrantLock(); // protects the following state
     private final Condition condition = stateLock.newCondition();
 
@@ -85,6 +91,7 @@ public void run() {
     private FileLock.State stateAtOpen;
     private Runnable fileLockHeldByOwner;
     private int cacheClosedCount;
+    private int concurrentReads;
 
     public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions lockOptions, File baseDir, FileLockManager lockManager, CacheInitializationAction initializationAction, CacheCleanupAction cleanupAction, ExecutorFactory executorFactory) {
         this.cacheDisplayName = cacheDisplayName;
@@ -92,6 +99,7 @@ public DefaultCacheAccess(String cacheDisplayName, File lockTarget, LockOptions
         this.cleanupAction = cleanupAction;
         this.executorFactory = executorFactory;
         this.operations = new CacheAccessOperationsStack();
+        this.lockOnDemand = lockOptions.getMode() == FileLockManager.LockMode.None;
 
         Action<FileLock> onFileLockAcquireAction = new Action<FileLock>() {
             @Override
@@ -130,6 +138,19 @@ private synchronized AsyncCacheAccess getCacheAccessWorker() {
         return cacheAccessWorker;
     }
 
+    private synchronized Executor getCompactionExecutor() {
+        if (compactionExecutor == null) {
+            compactionExecutor = executorFactory.create("Cache compaction for " + cacheDisplayName);
+        }
+        return compactionExecutor;
+    }
+
+    @Nullable
+    @Override
+    public synchronized CacheAccessWorkerStatistics getWorkerStatistics() {
+        return cacheAccessWorker == null ? null : cacheAccessWorker.getStatistics();
+    }
+
     @Override
     public void open() {
         stateLock.lock();
@@ -170,6 +191,16 @@ public synchronized void close() {
                 fileLockHeldByOwner.run();
             }
             crossProcessCacheAccess.close();
+            // Some stores are kept open while the file lock is not held
+            for (DefaultMultiProcessSafePersistentIndexedCache<?, ?> indexedCache : indexedCaches) {
+                indexedCache.close();
+            }
+            indexedCaches.clear();
+            if (compactionExecutor != null) {
+                // The stores have discarded the compactions that are still running
+                compactionExecutor.stop();
+                compactionExecutor = null;
+            }
             if (cleanupAction != null) {
                 try {
                     if (cleanupAction.requiresCleanup()) {
@@ -283,16 +314,24 @@ public <K, V> MultiProcessSafePersistentIndexedCache<K, V> newCache(final Persis
         IndexedCacheEntry<K, V> entry = Cast.uncheckedCast(caches.get(parameters.getCacheName()));
         try {
             if (entry == null) {
-                final File cacheFile = new File(baseDir, parameters.getCacheName() + ".bin");
+                final boolean appendOnlyLog = parameters.getStorage() == PersistentIndexedCacheParameters.Storage.AppendOnlyLog;
+                final File cacheFile = new File(baseDir, parameters.getCacheName() + (appendOnlyLog ? ".log" : ".bin"));
                 LOG.debug("Creating new cache for {}, path {}, access {}", parameters.getCacheName(), cacheFile, this);
-                Factory<BTreePersistentIndexedCache<K, V>> indexedCacheFactory = new Factory<BTreePersistentIndexedCache<K, V>>() {
+                Factory<PersistentIndexedCacheStore<K, V>> indexedCacheFactory = new Factory<PersistentIndexedCacheStore<K, V>>() {
                     @Override
-                    public BTreePersistentIndexedCache<K, V> create() {
+                    public PersistentIndexedCacheStore<K, V> create() {
+                        if (appendOnlyLog) {
+                            return new LogStructuredPersistentIndexedCache<K, V>(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer(), getCompactionExecutor());
+                        }
                         return doCreateCache(cacheFile, parameters.getKeySerializer(), parameters.getValueSerializer());
                     }
                 };
 
-                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess);
+                // Other processes keep the log consistent while they change it, so reads don't need to take the lock away from them
+                boolean readableWithoutFileLock = appendOnlyLog && lockOnDemand;
+                DefaultMultiProcessSafePersistentIndexedCache<K, V> backingCache = new DefaultMultiProcessSafePersistentIndexedCache<K, V>(indexedCacheFactory, fileAccess, fileAccess, readableWithoutFileLock);
+                indexedCaches.add(backingCache);
+                MultiProcessSafePersistentIndexedCache<K, V> indexedCache = backingCache;
                 CacheDecorator decorator = parameters.getCacheDecorator();
                 if (decorator != null) {
                     indexedCache = decorator.decorate(cacheFile.getAbsolutePath(), parameters.getCacheName(), indexedCache, crossProcessCacheAccess, getCacheAccessWorker());
@@ -341,6 +380,10 @@ private void afterLockAcquire(FileLock fileLock) {
     private void beforeLockRelease(FileLock fileLock) {
         assert this.fileLock == fileLock;
         try {
+            // Let the reads that don't go through the owner complete, the caches may close their stores below
+            while (concurrentReads > 0) {
+                condition.awaitUninterruptibly();
+            }
             cacheClosedCount++;
             takeOwnershipNow();
             try {
@@ -395,12 +438,40 @@ private FileLock getFileLock() {
         return fileLock;
     }
 
-    private class UnitOfWorkFileAccess extends AbstractFileAccess {
+    private class UnitOfWorkFileAccess extends AbstractFileAccess implements ConcurrentFileAccess {
         @Override
         public String toString() {
             return cacheDisplayName;
         }
 
+        @Override
+        public <T> T readConcurrently(Factory<? extends T> action, T whenNotHeld) {
+            FileLock fileLock;
+            stateLock.lock();
+            try {
+                fileLock = DefaultCacheAccess.this.fileLock;
+                if (fileLock == null) {
+                    return whenNotHeld;
+                }
+                concurrentReads++;
+            } finally {
+                stateLock.unlock();
+            }
+            try {
+                return fileLock.readFile(action);
+            } finally {
+                stateLock.lock();
+                try {
+                    concurrentReads--;
+                    if (concurrentReads == 0) {
+                        condition.signalAll();
+                    }
+                } finally {
+                    stateLock.unlock();
+                }
+            }
+        }
+
         @Override
         public <T> T readFile(Factory<? extends T> action) throws LockTimeoutException {
             return getFileLock().readFile(action);
@@ -449,6 +520,7 @@ void assertCompatibleCacheParameters(PersistentIndexedCacheParameters<K, V> para
             checkCompatibleKeySerializer(faultMessages, parameters.getKeySerializer());
             checkCompatibleValueSerializer(faultMessages, parameters.getValueSerializer());
             checkCompatibleCacheDecorator(faultMessages, parameters.getCacheDecorator());
+            checkCompatibleStorage(faultMessages, parameters.getStorage());
 
             if (!faultMessages.isEmpty()) {
                 String lineSeparator = SystemProperties.getInstance().getLineSeparator();
@@ -491,6 +563,14 @@ private void checkCompatibleCacheDecorator(Collection<String> faultMessages, Cac
                         cacheDecorator, parameters.getCacheDecorator()));
             }
         }
+
+        private void checkCompatibleStorage(Collection<String> faultMessages, PersistentIndexedCacheParameters.Storage storage) {
+            if (storage != parameters.getStorage()) {
+                faultMessages.add(
+                    String.format(" * Requested storage (%s) doesn't match current cache storage (%s)",
+                        storage, parameters.getStorage()));
+            }
+        }
     }
 
     @VisibleForTesting
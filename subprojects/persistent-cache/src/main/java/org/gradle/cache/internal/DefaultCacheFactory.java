@@ -82,6 +82,21 @@ public void close() {
         }
     }
 
+    @Override
+    public void visitWorkerStatistics(Action<? super CacheAccessWorkerStatistics> visitor) {
+        lock.lock();
+        try {
+            for (DirCacheReference dirCacheReference : dirCaches.values()) {
+                CacheAccessWorkerStatistics statistics = dirCacheReference.cache.getWorkerStatistics();
+                if (statistics != null) {
+                    visitor.execute(statistics);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
     private PersistentCache doOpen(File cacheDir, String displayName, Map<String, ?> properties, CacheBuilder.LockTarget lockTarget, LockOptions lockOptions, @Nullable Action<? super PersistentCache> initializer, @Nullable CleanupAction cleanup) {
         File canonicalDir = FileUtils.canonicalize(cacheDir);
         DirCacheReference dirCacheReference = dirCaches.get(canonicalDir);
@@ -20,17 +20,37 @@
 import org.gradle.cache.FileIntegrityViolationException;
 import org.gradle.cache.FileLock;
 import org.gradle.cache.MultiProcessSafePersistentIndexedCache;
-import org.gradle.cache.internal.btree.BTreePersistentIndexedCache;
+import org.gradle.internal.Cast;
 import org.gradle.internal.Factory;
 
-public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V> {
+import javax.annotation.Nullable;
+
+public class DefaultMultiProcessSafePersistentIndexedCache<K, V> implements MultiProcessSafePersistentIndexedCache<K, V>, ConcurrentlyReadableIndexedCache<K, V> {
+    private static final Object NOT_READ = new Object();
+    private static final Object NOT_HELD = new Object();
+
     private final FileAccess fileAccess;
-    private final Factory<BTreePersistentIndexedCache<K, V>> factory;
-    private BTreePersistentIndexedCache<K, V> cache;
+    private final ConcurrentFileAccess concurrentFileAccess;
+    private final Factory<? extends PersistentIndexedCacheStore<K, V>> factory;
+    private final boolean readableWithoutFileLock;
+    // Guarded by this
+    private PersistentIndexedCacheStore<K, V> cache;
+    // Set when the store has been kept open while the file lock was not held. Guarded by this
+    private boolean stale;
+
+    public DefaultMultiProcessSafePersistentIndexedCache(Factory<? extends PersistentIndexedCacheStore<K, V>> factory, FileAccess fileAccess) {
+        this(factory, fileAccess, null, false);
+    }
 
-    public DefaultMultiProcessSafePersistentIndexedCache(Factory<BTreePersistentIndexedCache<K, V>> factory, FileAccess fileAccess) {
+    /**
+     * @param concurrentFileAccess used to read the store from threads other than the one that owns the cache, or null when all reads go through the owner.
+     * @param readableWithoutFileLock whether entries may be read from a store kept open while this process does not hold the file lock.
+     */
+    DefaultMultiProcessSafePersistentIndexedCache(Factory<? extends PersistentIndexedCacheStore<K, V>> factory, FileAccess fileAccess, @Nullable ConcurrentFileAccess concurrentFileAccess, boolean readableWithoutFileLock) {
         this.factory = factory;
         this.fileAccess = fileAccess;
+        this.concurrentFileAccess = concurrentFileAccess;
+        this.readableWithoutFileLock = readableWithoutFileLock;
     }
 
     @Override
@@ -40,7 +60,7 @@ public String toString() {
 
     @Override
     public V get(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final PersistentIndexedCacheStore<K, V> cache = getCache();
         try {
             return fileAccess.readFile(new Factory<V>() {
                 @Override
@@ -53,6 +73,49 @@ public V create() {
         }
     }
 
+    @Nullable
+    @Override
+    public V getConcurrently(final K key, Factory<? extends V> otherwise) {
+        if (concurrentFileAccess == null) {
+            return otherwise.create();
+        }
+        Object value;
+        try {
+            value = concurrentFileAccess.readConcurrently(new Factory<Object>() {
+                @Override
+                public Object create() {
+                    // The store is only opened, caught up and closed by the owner of the cache
+                    PersistentIndexedCacheStore<K, V> cache = getOpenCache();
+                    return cache == null ? NOT_READ : cache.get(key);
+                }
+            }, NOT_HELD);
+        } catch (FileIntegrityViolationException e) {
+            return null;
+        }
+        if (value == NOT_HELD) {
+            value = readableWithoutFileLock ? getWithoutFileLock(key) : null;
+            if (value == null) {
+                return otherwise.create();
+            }
+        }
+        if (value == NOT_READ) {
+            return otherwise.create();
+        }
+        return Cast.uncheckedCast(value);
+    }
+
+    @Override
+    public boolean isReadableWithoutFileLock() {
+        return readableWithoutFileLock;
+    }
+
+    @Nullable
+    private V getWithoutFileLock(K key) {
+        PersistentIndexedCacheStore<K, V> cache = getKeptOpenCache();
+        // The store may be closed or caught up by the owner of the cache in the meantime, which it deals with
+        return cache == null ? null : cache.getWithoutFileLock(key);
+    }
+
     @Override
     public V get(K key, Transformer<? extends V, ? super K> producer) {
         V value = get(key);
@@ -65,7 +128,7 @@ public V get(K key, Transformer<? extends V, ? super K> producer) {
 
     @Override
     public void put(final K key, final V value) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final PersistentIndexedCacheStore<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
         fileAccess.writeFile(new Runnable() {
@@ -78,7 +141,7 @@ public void run() {
 
     @Override
     public void remove(final K key) {
-        final BTreePersistentIndexedCache<K, V> cache = getCache();
+        final PersistentIndexedCacheStore<K, V> cache = getCache();
         // Use writeFile because the cache can internally recover from datafile
         // corruption, so we don't care at this level if it's corrupt
         fileAccess.writeFile(new Runnable() {
@@ -90,21 +153,57 @@ public void run() {
     }
 
     @Override
-    public void afterLockAcquire(FileLock.State currentCacheState) {
+    public synchronized void afterLockAcquire(FileLock.State currentCacheState) {
+        if (cache == null || !stale) {
+            return;
+        }
+        // Pick up the changes made by other processes before anything else uses the store, while the lock cannot be handed off
+        final PersistentIndexedCacheStore<K, V> cache = this.cache;
+        try {
+            fileAccess.writeFile(new Runnable() {
+                @Override
+                public void run() {
+                    cache.afterLockAcquire();
+                }
+            });
+            stale = false;
+        } finally {
+            if (stale) {
+                // The store is opened again on next use
+                close();
+            }
+        }
     }
 
     @Override
-    public void finishWork() {
-        if (cache != null) {
+    public synchronized void finishWork() {
+        if (cache != null && !stale) {
+            final PersistentIndexedCacheStore<K, V> cache = this.cache;
             try {
                 fileAccess.writeFile(new Runnable() {
                     @Override
                     public void run() {
-                        cache.close();
+                        stale = cache.beforeLockRelease();
                     }
                 });
+            } finally {
+                if (!stale) {
+                    this.cache = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Closes the store when it has been kept open. Does not require the file lock.
+     */
+    public synchronized void close() {
+        if (cache != null) {
+            try {
+                cache.close();
             } finally {
                 cache = null;
+                stale = false;
             }
         }
     }
@@ -113,7 +212,21 @@ public void run() {
     public void beforeLockRelease(FileLock.State currentCacheState) {
     }
 
-    private BTreePersistentIndexedCache<K, V> getCache() {
+    @Nullable
+    private synchronized PersistentIndexedCacheStore<K, V> getOpenCache() {
+        return stale ? null : cache;
+    }
+
+    @Nullable
+    private synchronized PersistentIndexedCacheStore<K, V> getKeptOpenCache() {
+        return stale ? cache : null;
+    }
+
+    private synchronized PersistentIndexedCacheStore<K, V> getCache() {
+        if (stale) {
+            // The lock has been acquired without the store catching up, so it can't be trusted
+            close();
+        }
         if (cache == null) {
             // Use writeFile because the cache can internally recover from datafile
             // corruption, so we don't care at this level if it's corrupt
@@ -34,6 +34,7 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Collection;
@@ -128,6 +129,13 @@ public void close() {
         }
     }
 
+    @Nullable
+    @Override
+    public CacheAccessWorkerStatistics getWorkerStatistics() {
+        CacheCoordinator cacheAccess = this.cacheAccess;
+        return cacheAccess == null ? null : cacheAccess.getWorkerStatistics();
+    }
+
     @Override
     public File getBaseDir() {
         return dir;
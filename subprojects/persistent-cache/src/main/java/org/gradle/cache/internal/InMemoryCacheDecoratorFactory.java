@@ -115,7 +115,7 @@ public int hashCode() {
         public <K, V> MultiProcessSafePersistentIndexedCache<K, V> decorate(String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache<K, V> persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess) {
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> asyncCache = new AsyncCacheAccessDecoratedCache<K, V>(asyncCacheAccess, persistentCache);
             MultiProcessSafeAsyncPersistentIndexedCache<K, V> memCache = applyInMemoryCaching(cacheId, asyncCache, maxEntriesToKeepInMemory, cacheInMemoryForShortLivedProcesses);
-            return new CrossProcessSynchronizingCache<K, V>(memCache, crossProcessCacheAccess);
+            return new CrossProcessSynchronizingCache<K, V>(memCache, crossProcessCacheAccess, CrossProcessSynchronizingCache.isReadableWithoutFileLock(persistentCache));
         }
     }
 
@@ -71,6 +71,22 @@ public Object call() throws Exception {
         }
     }
 
+    @Override
+    public V getWithoutFileLock(K key) {
+        Object value = inMemoryCache.getIfPresent(key);
+        if (value == NULL) {
+            return null;
+        } else if (value != null) {
+            return Cast.uncheckedCast(value);
+        }
+        V out = delegate.getWithoutFileLock(key);
+        if (out != null) {
+            // Invalidated along with everything else when the lock is acquired again after another process has changed the cache
+            inMemoryCache.asMap().putIfAbsent(key, out);
+        }
+        return out;
+    }
+
     @Override
     public V get(final K key, final Transformer<? extends V, ? super K> producer, final Runnable completion) {
         final AtomicReference<Runnable> completionRef = new AtomicReference<Runnable>(completion);
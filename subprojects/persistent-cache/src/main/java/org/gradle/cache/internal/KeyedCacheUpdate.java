@@ -0,0 +1,89 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+/**
+ * An update to an entry of an indexed cache, submitted to an {@link org.gradle.cache.AsyncCacheAccess}.
+ * An update that has not been applied yet can be discarded when a later update to the same entry supersedes it.
+ */
+abstract class KeyedCacheUpdate implements Runnable {
+    private final Object cache;
+    private final Object key;
+    private final Runnable completion;
+
+    KeyedCacheUpdate(Object cache, Object key, Runnable completion) {
+        this.cache = cache;
+        this.key = key;
+        this.completion = completion;
+    }
+
+    Object getCache() {
+        return cache;
+    }
+
+    /**
+     * Returns an object that identifies the entry this update applies to.
+     */
+    Object getEntry() {
+        return new Entry(cache, key);
+    }
+
+    protected abstract void apply();
+
+    @Override
+    public void run() {
+        try {
+            apply();
+        } finally {
+            completion.run();
+        }
+    }
+
+    /**
+     * Completes this update without applying it.
+     */
+    void discard() {
+        completion.run();
+    }
+
+    private static class Entry {
+        private final Object cache;
+        private final Object key;
+
+        Entry(Object cache, Object key) {
+            this.cache = cache;
+            this.key = key;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj == this) {
+                return true;
+            }
+            if (obj == null || obj.getClass() != getClass()) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return cache == other.cache && key.equals(other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(cache) * 31 + key.hashCode();
+        }
+    }
+}
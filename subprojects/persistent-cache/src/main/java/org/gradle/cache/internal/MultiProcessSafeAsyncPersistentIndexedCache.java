@@ -30,6 +30,14 @@
     @Nullable
     V get(K key);
 
+    /**
+     * Fetches the given entry without acquiring the file lock of the cache. Only called for caches whose entries may be read while another process changes them.
+     *
+     * @return the entry, or null when it can't be fetched without the file lock. The caller then has to fetch it while holding the lock.
+     */
+    @Nullable
+    V getWithoutFileLock(K key);
+
     /**
      * Fetches the given entry, producing if necessary, blocking until the result is available. This method may or may not block until any updates have completed and will invoke the given completion action when the operation is complete.
      */
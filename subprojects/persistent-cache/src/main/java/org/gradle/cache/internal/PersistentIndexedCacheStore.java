@@ -0,0 +1,58 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal;
+
+import javax.annotation.Nullable;
+
+/**
+ * The storage of an indexed cache in the file system. Is not aware of file locking, the caller is responsible for holding the appropriate lock.
+ */
+public interface PersistentIndexedCacheStore<K, V> {
+    @Nullable
+    V get(K key);
+
+    /**
+     * Reads the entry for the given key while the file lock is not held by this process, for example while another process is changing the store.
+     * Only called on a store that has been kept open after the lock was released.
+     *
+     * @return the entry, or null when it was not found or can't be read without the lock. The caller then has to read it while holding the lock.
+     */
+    @Nullable
+    V getWithoutFileLock(K key);
+
+    void put(K key, V value);
+
+    void remove(K key);
+
+    /**
+     * Called just after the file lock has been acquired again by a store that was kept open while the lock was released.
+     * The store should pick up the changes made by other processes in the meantime.
+     */
+    void afterLockAcquire();
+
+    /**
+     * Called just before the file lock is about to be released.
+     *
+     * @return true when the store remains open while the lock is not held, false when the store has been closed.
+     */
+    boolean beforeLockRelease();
+
+    /**
+     * Releases the resources held by this store. The store cannot be used after it has been closed.
+     */
+    void close();
+}
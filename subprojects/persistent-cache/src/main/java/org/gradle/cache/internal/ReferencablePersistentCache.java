@@ -18,6 +18,7 @@
 
 import org.gradle.cache.PersistentCache;
 
+import javax.annotation.Nullable;
 import java.io.Closeable;
 
 public interface ReferencablePersistentCache extends PersistentCache, Closeable {
@@ -26,4 +27,10 @@ public interface ReferencablePersistentCache extends PersistentCache, Closeable
     void close();
 
     ReferencablePersistentCache open();
+
+    /**
+     * Returns the statistics of the worker that applies the updates of the indexed caches, or null when no worker has been started.
+     */
+    @Nullable
+    CacheAccessWorkerStatistics getWorkerStatistics();
 }
@@ -15,8 +15,11 @@
  */
 package org.gradle.cache.internal.btree;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ImmutableSet;
 import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.PersistentIndexedCacheStore;
 import org.gradle.internal.UncheckedException;
 import org.gradle.internal.io.StreamByteBuffer;
 import org.gradle.internal.serialize.Serializer;
@@ -25,37 +28,63 @@
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.locks.StampedLock;
 
 // todo - stream serialised value to file
 // todo - handle hash collisions (properly, this time)
 // todo - don't store null links to child blocks in leaf index blocks
 // todo - align block boundaries
-// todo - thread safety control
 // todo - merge small values into a single data block
 // todo - discard when file corrupt
 // todo - include data directly in index entry when serializer can guarantee small fixed sized data
 // todo - free list leaks disk space
 // todo - merge adjacent free blocks
 // todo - use more efficient lookup for free block with nearest size
+/**
+ * A persistent map from keys to values, stored in a B-tree of key hashes.
+ *
+ * <p>{@link #get(Object)} can be called from many threads at the same time, and concurrently with the methods that change the cache,
+ * provided the key and value serializers are thread-safe. Reads are lock-free unless they overlap with a change: they read an immutable
+ * view of the index blocks directly from the file and are retried while holding a shared lock when a change happened in the meantime.
+ * Changes are serialized using an exclusive lock.</p>
+ */
 @SuppressWarnings("unchecked")
-public class BTreePersistentIndexedCache<K, V> {
+public class BTreePersistentIndexedCache<K, V> implements PersistentIndexedCacheStore<K, V> {
     private static final Logger LOGGER = LoggerFactory.getLogger(BTreePersistentIndexedCache.class);
+    private static final byte HEADER_BLOCK_TYPE = 0x55;
+    private static final byte INDEX_BLOCK_TYPE = 0x77;
+    private static final byte DATA_BLOCK_TYPE = 0x33;
+    // Much deeper than any valid tree, guards against cycles seen while the tree is being changed
+    private static final int MAX_DEPTH = 64;
+    // Bounds the memory allocated for a block header torn by a concurrent change. Well above the size of any index block, larger values are read under the shared lock
+    private static final int MAX_OPTIMISTIC_PAYLOAD_SIZE = 1024 * 1024;
     private final File cacheFile;
+    private final Serializer<K> keySerializer;
     private final KeyHasher<K> keyHasher;
+    private final Queue<KeyHasher<K>> readKeyHashers = new ArrayBlockingQueue<KeyHasher<K>>(16);
     private final Serializer<V> serializer;
     private final short maxChildIndexEntries;
     private final int minIndexChildNodes;
+    private final FileBackedBlockStore fileStore;
     private final StateCheckBlockStore store;
-    private HeaderBlock header;
+    private final StampedLock lock = new StampedLock();
+    // Index blocks as last read by concurrent readers, keyed by position. Only populated while holding the shared lock.
+    private final Cache<Long, IndexView> indexViews = CacheBuilder.newBuilder().maximumSize(100).build();
+    private volatile HeaderBlock header;
 
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer) {
         this(cacheFile, keySerializer, valueSerializer, (short) 512, 512);
@@ -64,11 +93,13 @@ public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer,
     public BTreePersistentIndexedCache(File cacheFile, Serializer<K> keySerializer, Serializer<V> valueSerializer,
                                        short maxChildIndexEntries, int maxFreeListEntries) {
         this.cacheFile = cacheFile;
+        this.keySerializer = keySerializer;
         this.keyHasher = new KeyHasher<K>(keySerializer);
         this.serializer = valueSerializer;
         this.maxChildIndexEntries = maxChildIndexEntries;
         this.minIndexChildNodes = maxChildIndexEntries / 2;
-        BlockStore cachingStore = new CachingBlockStore(new FileBackedBlockStore(cacheFile), ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
+        this.fileStore = new FileBackedBlockStore(cacheFile);
+        BlockStore cachingStore = new CachingBlockStore(fileStore, ImmutableSet.of(IndexBlock.class, FreeListBlockStore.FreeListBlock.class));
         this.store = new StateCheckBlockStore(new FreeListBlockStore(cachingStore, maxFreeListEntries));
         try {
             open();
@@ -121,24 +152,161 @@ public void run() {
         header = store.readFirst(HeaderBlock.class);
     }
 
+    @Override
     public V get(K key) {
         try {
+            long hashCode = hashKey(key);
+            long stamp = lock.tryOptimisticRead();
+            if (stamp != 0) {
+                try {
+                    List<IndexView> loadedViews = new ArrayList<IndexView>();
+                    byte[] value = findValue(hashCode, loadedViews, MAX_OPTIMISTIC_PAYLOAD_SIZE);
+                    if (lock.validate(stamp)) {
+                        rememberIndexViews(stamp, loadedViews);
+                        return deserialize(value);
+                    }
+                } catch (Exception e) {
+                    // The cache may have been changed while reading, try again below
+                }
+            }
+            stamp = lock.readLock();
             try {
-                DataBlock block = header.getRoot().get(key);
-                if (block != null) {
-                    return block.getValue();
+                List<IndexView> loadedViews = new ArrayList<IndexView>();
+                byte[] value = findValue(hashCode, loadedViews, Integer.MAX_VALUE);
+                for (IndexView view : loadedViews) {
+                    indexViews.put(view.pos, view);
                 }
-                return null;
+                return deserialize(value);
             } catch (CorruptedCacheException e) {
-                rebuild();
-                return null;
+                // Rebuild below, while holding the exclusive lock
+            } finally {
+                lock.unlockRead(stamp);
+            }
+            stamp = lock.writeLock();
+            try {
+                return doGet(key);
+            } finally {
+                lock.unlockWrite(stamp);
             }
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
         }
     }
 
+    private V doGet(K key) throws Exception {
+        try {
+            DataBlock block = header.getRoot().get(key);
+            if (block != null) {
+                return block.getValue();
+            }
+            return null;
+        } catch (CorruptedCacheException e) {
+            rebuild();
+            return null;
+        }
+    }
+
+    private long hashKey(K key) throws Exception {
+        KeyHasher<K> hasher = readKeyHashers.poll();
+        if (hasher == null) {
+            hasher = new KeyHasher<K>(keySerializer);
+        }
+        try {
+            return hasher.getHashCode(key);
+        } finally {
+            readKeyHashers.offer(hasher);
+        }
+    }
+
+    /**
+     * Finds the serialized value for the given key hash, without changing any state shared with other readers or writers.
+     *
+     * @param maxPayloadSize the size of the largest block to read. Larger blocks are treated as corrupt.
+     */
+    private byte[] findValue(long hashCode, List<IndexView> loadedViews, int maxPayloadSize) throws Exception {
+        IndexView index = readIndexView(header.index.rootPos, loadedViews, maxPayloadSize);
+        for (int depth = 0; depth < MAX_DEPTH; depth++) {
+            int entry = Arrays.binarySearch(index.hashCodes, hashCode);
+            if (entry >= 0) {
+                final BlockPointer dataPos = BlockPointer.pos(index.dataBlocks[entry]);
+                return fileStore.readPayload(dataPos, DATA_BLOCK_TYPE, maxPayloadSize, new FileBackedBlockStore.PayloadDecoder<byte[]>() {
+                    @Override
+                    public byte[] decode(DataInputStream inputStream) throws Exception {
+                        inputStream.readInt();
+                        int length = inputStream.readInt();
+                        if (length < 0 || length > inputStream.available()) {
+                            throw new CorruptedCacheException(String.format("Corrupted data block at %s found in %s.", dataPos, BTreePersistentIndexedCache.this));
+                        }
+                        byte[] value = new byte[length];
+                        inputStream.readFully(value);
+                        return value;
+                    }
+                });
+            }
+            entry = -entry - 1;
+            long childPos = entry == index.hashCodes.length ? index.tailPos : index.childBlocks[entry];
+            if (childPos < 0) {
+                return null;
+            }
+            index = readIndexView(BlockPointer.pos(childPos), loadedViews, maxPayloadSize);
+        }
+        throw new CorruptedCacheException(String.format("Index of %s is deeper than %s levels.", this, MAX_DEPTH));
+    }
+
+    private IndexView readIndexView(final BlockPointer pos, List<IndexView> loadedViews, int maxPayloadSize) throws Exception {
+        IndexView view = indexViews.getIfPresent(pos.getPos());
+        if (view != null) {
+            return view;
+        }
+        view = fileStore.readPayload(pos, INDEX_BLOCK_TYPE, maxPayloadSize, new FileBackedBlockStore.PayloadDecoder<IndexView>() {
+            @Override
+            public IndexView decode(DataInputStream inputStream) throws Exception {
+                int count = inputStream.readInt();
+                if (count < 0 || count > maxChildIndexEntries) {
+                    throw new CorruptedCacheException(String.format("Corrupted index block at %s found in %s.", pos, BTreePersistentIndexedCache.this));
+                }
+                long[] hashCodes = new long[count];
+                long[] dataBlocks = new long[count];
+                long[] childBlocks = new long[count];
+                for (int i = 0; i < count; i++) {
+                    hashCodes[i] = inputStream.readLong();
+                    dataBlocks[i] = inputStream.readLong();
+                    childBlocks[i] = inputStream.readLong();
+                }
+                return new IndexView(pos.getPos(), hashCodes, dataBlocks, childBlocks, inputStream.readLong());
+            }
+        });
+        loadedViews.add(view);
+        return view;
+    }
+
+    private void rememberIndexViews(long optimisticStamp, List<IndexView> loadedViews) {
+        if (loadedViews.isEmpty()) {
+            return;
+        }
+        // Only remember the views when no change has started since they were read, otherwise they may be stale
+        long stamp = lock.tryConvertToReadLock(optimisticStamp);
+        if (stamp != 0) {
+            try {
+                for (IndexView view : loadedViews) {
+                    indexViews.put(view.pos, view);
+                }
+            } finally {
+                lock.unlockRead(stamp);
+            }
+        }
+    }
+
+    private V deserialize(byte[] value) throws Exception {
+        if (value == null) {
+            return null;
+        }
+        return serializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value)));
+    }
+
+    @Override
     public void put(K key, V value) {
+        long stamp = lock.writeLock();
         try {
             long hashCode = keyHasher.getHashCode(key);
             Lookup lookup = header.getRoot().find(hashCode);
@@ -160,10 +328,14 @@ public void put(K key, V value) {
             store.flush();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
+    @Override
     public void remove(K key) {
+        long stamp = lock.writeLock();
         try {
             Lookup lookup = header.getRoot().find(key);
             if (lookup.entry == null) {
@@ -175,6 +347,8 @@ public void remove(K key) {
             store.flush();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -187,16 +361,55 @@ private IndexBlock load(BlockPointer pos, IndexRoot root, IndexBlock parent, int
     }
 
     public void reset() {
-        close();
+        long stamp = lock.writeLock();
         try {
-            open();
-        } catch (Exception e) {
-            throw new UncheckedIOException(e);
+            doClose();
+            try {
+                open();
+            } catch (Exception e) {
+                throw new UncheckedIOException(e);
+            }
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
+    /**
+     * Other processes rewrite the file in place, so entries can only be read while holding the file lock.
+     */
+    @Nullable
+    @Override
+    public V getWithoutFileLock(K key) {
+        return null;
+    }
+
+    @Override
+    public void afterLockAcquire() {
+    }
+
+    /**
+     * Closes the store, as other processes may change the file while the lock is not held.
+     */
+    @Override
+    public boolean beforeLockRelease() {
+        close();
+        return false;
+    }
+
+    @Override
     public void close() {
+        long stamp = lock.writeLock();
+        try {
+            doClose();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void doClose() {
         LOGGER.debug("Closing {}", this);
+        // Another process may change the file while it is closed
+        indexViews.invalidateAll();
         try {
             store.close();
         } catch (Exception e) {
@@ -210,15 +423,18 @@ public boolean isOpen() {
 
     private void rebuild() throws Exception {
         LOGGER.warn("{} is corrupt. Discarding.", this);
-        clear();
+        doClear();
     }
 
     public void verify() {
+        long stamp = lock.writeLock();
         try {
             doVerify();
         } catch (Exception e) {
             throw new UncheckedIOException(String.format("Some problems were found when checking the integrity of %s.",
                     this), e);
+        } finally {
+            lock.unlockWrite(stamp);
         }
     }
 
@@ -286,8 +502,17 @@ private void verifyTree(IndexBlock current, String prefix, Collection<BlockPaylo
     }
 
     public void clear() {
+        long stamp = lock.writeLock();
+        try {
+            doClear();
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    private void doClear() {
         store.clear();
-        close();
+        doClose();
         try {
             doOpen();
         } catch (Exception e) {
@@ -296,7 +521,7 @@ public void clear() {
     }
 
     private class IndexRoot {
-        private BlockPointer rootPos = BlockPointer.start();
+        private volatile BlockPointer rootPos = BlockPointer.start();
         private HeaderBlock owner;
 
         private IndexRoot(HeaderBlock owner) {
@@ -329,7 +554,7 @@ private HeaderBlock() {
 
         @Override
         protected byte getType() {
-            return 0x55;
+            return HEADER_BLOCK_TYPE;
         }
 
         @Override
@@ -368,7 +593,7 @@ private class IndexBlock extends BlockPayload {
 
         @Override
         protected byte getType() {
-            return 0x77;
+            return INDEX_BLOCK_TYPE;
         }
 
         @Override
@@ -392,6 +617,7 @@ public void read(DataInputStream instr) throws IOException {
 
         @Override
         public void write(DataOutputStream outstr) throws IOException {
+            indexViews.invalidate(getPos().getPos());
             outstr.writeInt(entries.size());
             for (IndexEntry entry : entries) {
                 outstr.writeLong(entry.hashCode);
@@ -615,6 +841,25 @@ private IndexBlock findHighestLeaf() throws Exception {
         }
     }
 
+    /**
+     * An immutable view of an index block, used by concurrent readers.
+     */
+    private static class IndexView {
+        final long pos;
+        final long[] hashCodes;
+        final long[] dataBlocks;
+        final long[] childBlocks;
+        final long tailPos;
+
+        IndexView(long pos, long[] hashCodes, long[] dataBlocks, long[] childBlocks, long tailPos) {
+            this.pos = pos;
+            this.hashCodes = hashCodes;
+            this.dataBlocks = dataBlocks;
+            this.childBlocks = childBlocks;
+            this.tailPos = tailPos;
+        }
+    }
+
     private static class IndexEntry implements Comparable<IndexEntry> {
         long hashCode;
         BlockPointer dataBlock;
@@ -686,7 +931,7 @@ public V getValue() throws Exception {
 
         @Override
         protected byte getType() {
-            return 0x33;
+            return DATA_BLOCK_TYPE;
         }
 
         @Override
@@ -15,13 +15,17 @@
  */
 package org.gradle.cache.internal.btree;
 
+import com.google.common.io.CountingInputStream;
 import org.gradle.api.UncheckedIOException;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 public class FileBackedBlockStore implements BlockStore {
     private final File cacheFile;
@@ -128,6 +132,51 @@ public void write(BlockPayload block) {
         }
     }
 
+    /**
+     * Reads the payload of the block at the given position directly from the file, without using or changing any other state of this store.
+     * Can be called from many threads at the same time. The result is undefined when the file is modified while reading, so the caller
+     * needs to make sure it either holds off writers or discards such results. A block larger than {@code maxPayloadSize} is reported as corrupt
+     * before any memory is allocated for it.
+     */
+    public <T> T readPayload(BlockPointer pos, byte type, int maxPayloadSize, PayloadDecoder<T> decoder) throws Exception {
+        FileChannel channel = file.getChannel();
+        long fileSize = channel.size();
+        long start = pos.getPos();
+        if (start < 0 || start + BlockImpl.HEADER_SIZE + BlockImpl.TAIL_SIZE > fileSize) {
+            throw blockCorruptedException(pos);
+        }
+        ByteBuffer header = ByteBuffer.allocate(BlockImpl.HEADER_SIZE);
+        readFully(channel, header, start);
+        int payloadSize = header.getInt(1);
+        if (header.get(0) != type || payloadSize < 0 || payloadSize > maxPayloadSize || start + BlockImpl.HEADER_SIZE + BlockImpl.TAIL_SIZE + payloadSize > fileSize) {
+            throw blockCorruptedException(pos);
+        }
+        ByteBuffer body = ByteBuffer.allocate(payloadSize + BlockImpl.TAIL_SIZE);
+        readFully(channel, body, start + BlockImpl.HEADER_SIZE);
+
+        CountingInputStream countingInputStream = new CountingInputStream(new ByteArrayInputStream(body.array()));
+        DataInputStream inputStream = new DataInputStream(countingInputStream);
+        T result = decoder.decode(inputStream);
+        long actualCount = countingInputStream.getCount();
+        if (inputStream.readInt() != actualCount) {
+            throw blockCorruptedException(pos);
+        }
+        return result;
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+    }
+
+    private CorruptedCacheException blockCorruptedException(BlockPointer pos) {
+        return new CorruptedCacheException(String.format("Corrupted block at %s found in %s.", pos, this));
+    }
+
     private long alloc(long length) {
         long pos = nextBlock;
         nextBlock += length;
@@ -256,4 +305,7 @@ public RuntimeException blockCorruptedException() {
         }
     }
 
+    public interface PayloadDecoder<T> {
+        T decode(DataInputStream inputStream) throws Exception;
+    }
 }
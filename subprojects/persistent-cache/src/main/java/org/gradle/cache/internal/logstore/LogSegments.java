@@ -0,0 +1,210 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore;
+
+import org.gradle.internal.io.StreamByteBuffer;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedEncoder;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The layout of the segment files of a log-structured cache, shared by all processes that use the cache.
+ *
+ * <p>Segments are named after their id. Ids are never reused within a cache directory, so a segment file that is found under
+ * the same name later on contains the same records, possibly followed by more records.</p>
+ */
+final class LogSegments {
+    static final byte PUT = 1;
+    static final byte REMOVE = 2;
+    // body length and checksum
+    static final int RECORD_HEADER_SIZE = 8;
+    // kind and key length
+    static final int BODY_HEADER_SIZE = 5;
+    static final int MAX_BODY_SIZE = Integer.MAX_VALUE - RECORD_HEADER_SIZE;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACTION_SUFFIX = ".compacting";
+
+    private LogSegments() {
+    }
+
+    static File segmentFile(File dir, long id) {
+        return new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the file to which the segment with the given id is written by a compaction, before it becomes part of the log.
+     */
+    static File compactionFile(File dir, long id) {
+        return new File(dir, SEGMENT_PREFIX + id + SEGMENT_SUFFIX + COMPACTION_SUFFIX);
+    }
+
+    /**
+     * Returns an object that identifies the given file, so that a file that has been replaced under the same name can be told apart, or null when not supported.
+     */
+    @Nullable
+    static Object fileKey(File file) {
+        try {
+            return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the ids of the segments in the given directory, oldest first.
+     */
+    static List<Long> listSegmentIds(File dir) {
+        return listIds(dir, SEGMENT_SUFFIX);
+    }
+
+    /**
+     * Returns the ids of the segments that are being written by a compaction, or have been left behind by one, oldest first.
+     */
+    static List<Long> listCompactionIds(File dir) {
+        return listIds(dir, SEGMENT_SUFFIX + COMPACTION_SUFFIX);
+    }
+
+    private static List<Long> listIds(File dir, String suffix) {
+        List<Long> ids = new ArrayList<Long>();
+        String[] names = dir.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix)) {
+                    try {
+                        ids.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - suffix.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                }
+            }
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+
+    /**
+     * Visits the valid records of a segment between the given offsets, and returns the offset after the last valid record.
+     * Moves the position of the channel, which is not used by positional reads and writes.
+     */
+    static long scan(FileChannel channel, long from, long to, RecordVisitor visitor) throws IOException {
+        channel.position(from);
+        // Not closed, as this would close the channel
+        DataInputStream input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 64 * 1024));
+        CRC32 crc = new CRC32();
+        long offset = from;
+        while (offset < to) {
+            byte[] body;
+            try {
+                int bodyLength = input.readInt();
+                int checksum = input.readInt();
+                if (bodyLength < BODY_HEADER_SIZE || bodyLength > to - offset - RECORD_HEADER_SIZE) {
+                    return offset;
+                }
+                body = new byte[bodyLength];
+                input.readFully(body);
+                crc.reset();
+                crc.update(body, 0, bodyLength);
+                if ((int) crc.getValue() != checksum) {
+                    return offset;
+                }
+            } catch (EOFException e) {
+                return offset;
+            }
+            ByteBuffer bodyBuffer = ByteBuffer.wrap(body);
+            byte kind = bodyBuffer.get();
+            int keyLength = bodyBuffer.getInt();
+            if ((kind != PUT && kind != REMOVE) || keyLength < 0 || keyLength > body.length - BODY_HEADER_SIZE) {
+                return offset;
+            }
+            ByteBuffer key = ByteBuffer.wrap(body, BODY_HEADER_SIZE, keyLength).slice();
+            int recordLength = RECORD_HEADER_SIZE + body.length;
+            if (kind == PUT) {
+                visitor.visitPut(key, offset, recordLength, offset + RECORD_HEADER_SIZE + BODY_HEADER_SIZE + keyLength, body.length - BODY_HEADER_SIZE - keyLength);
+            } else {
+                visitor.visitRemove(key, recordLength);
+            }
+            offset += recordLength;
+        }
+        return offset;
+    }
+
+    static ByteBuffer encodeRecord(byte kind, byte[] keyBytes, byte[] valueBytes) {
+        long bodyLength = (long) BODY_HEADER_SIZE + keyBytes.length + valueBytes.length;
+        if (bodyLength > MAX_BODY_SIZE) {
+            throw new IllegalArgumentException("Entry is too large to be stored.");
+        }
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + (int) bodyLength);
+        record.position(RECORD_HEADER_SIZE);
+        record.put(kind);
+        record.putInt(keyBytes.length);
+        record.put(keyBytes);
+        record.put(valueBytes);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), RECORD_HEADER_SIZE, (int) bodyLength);
+        record.putInt(0, (int) bodyLength);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    static <T> byte[] serialize(Serializer<T> serializer, T value) throws Exception {
+        StreamByteBuffer buffer = new StreamByteBuffer();
+        KryoBackedEncoder encoder = new KryoBackedEncoder(buffer.getOutputStream());
+        serializer.write(encoder, value);
+        encoder.flush();
+        return buffer.readAsByteArray();
+    }
+
+    static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + buffer.position());
+            if (read < 0) {
+                throw new EOFException("Unexpected end of file.");
+            }
+        }
+    }
+
+    static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long start = position - buffer.position();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, start + buffer.position());
+        }
+    }
+
+    interface RecordVisitor {
+        void visitPut(ByteBuffer key, long offset, int recordLength, long valueOffset, int valueLength);
+
+        void visitRemove(ByteBuffer key, int recordLength);
+    }
+}
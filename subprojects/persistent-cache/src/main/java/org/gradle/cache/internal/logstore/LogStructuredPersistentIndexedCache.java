@@ -0,0 +1,876 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore;
+
+import org.gradle.api.UncheckedIOException;
+import org.gradle.cache.internal.PersistentIndexedCacheStore;
+import org.gradle.internal.serialize.Serializer;
+import org.gradle.internal.serialize.kryo.KryoBackedDecoder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.gradle.cache.internal.logstore.LogSegments.BODY_HEADER_SIZE;
+import static org.gradle.cache.internal.logstore.LogSegments.PUT;
+import static org.gradle.cache.internal.logstore.LogSegments.RECORD_HEADER_SIZE;
+import static org.gradle.cache.internal.logstore.LogSegments.REMOVE;
+import static org.gradle.cache.internal.logstore.LogSegments.encodeRecord;
+import static org.gradle.cache.internal.logstore.LogSegments.readFully;
+import static org.gradle.cache.internal.logstore.LogSegments.serialize;
+import static org.gradle.cache.internal.logstore.LogSegments.writeFully;
+
+/**
+ * A {@link PersistentIndexedCacheStore} which appends every change as a record to a log made of segment files in a directory.
+ * Existing data is never rewritten in place.
+ *
+ * <p>Each record consists of the length of its body, a CRC32 checksum of the body and the body itself, which holds the kind of change,
+ * the serialized key and the serialized value. The location of the latest value for each key is kept in an in-memory index. A torn or corrupt
+ * record at the end of the last segment, as left behind by a crash, is truncated away. Corruption anywhere else discards the whole content of the store.</p>
+ *
+ * <p>The store stays open while the file lock is handed over to other processes. When the lock is acquired again, only the records appended
+ * in the meantime are applied to the index. The log is only replayed from scratch when another process has compacted or discarded it.
+ * The index is also written to a checkpoint file from time to time, so that opening the store only replays the records appended after the checkpoint.</p>
+ *
+ * <p>When most of the log is taken up by superseded records, the log is compacted without holding the file lock. Before the file lock is released,
+ * the segments are sealed and a new active segment is started, leaving out one id. The live records of the sealed segments are then copied in the background
+ * to a new segment with the id that was left out, so that it replays after the sealed segments and before the records appended in the meantime, by this or
+ * another process. The next time the file lock is released, the new segment is made part of the log and the sealed segments are deleted. The copy is made
+ * durable before anything is deleted, so replaying the segments left behind by a crash at any point during compaction yields the same content. The copy is
+ * discarded when the log has been compacted or discarded by another process in the meantime.</p>
+ *
+ * <p>Reads are lock-free and may happen concurrently with each other and with changes, but not with replacing the sealed segments or closing the store. Changes are serialized.
+ * Every change is announced to other processes through the {@link SharedLogState} of the log. While the file lock is held by another process, the store can still
+ * be read using {@link #getWithoutFileLock(Object)}, which applies the complete records appended by the other process after it has announced a change.</p>
+ */
+public class LogStructuredPersistentIndexedCache<K, V> implements PersistentIndexedCacheStore<K, V> {
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredPersistentIndexedCache.class);
+    static final long DEFAULT_MAX_SEGMENT_SIZE = 64L * 1024 * 1024;
+    static final long MIN_COMPACTION_SIZE = 1024L * 1024;
+    static final String CHECKPOINT_FILE_NAME = "index.checkpoint";
+    private static final int CHECKPOINT_VERSION = 1;
+    private static final long DIRECTORY_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final File dir;
+    private final File checkpointFile;
+    private final Serializer<K> keySerializer;
+    private final Serializer<V> valueSerializer;
+    private final long maxSegmentSize;
+    private final long minCompactionSize;
+    private final Executor compactionExecutor;
+    private final Map<ByteBuffer, RecordLocation> index = new ConcurrentHashMap<ByteBuffer, RecordLocation>();
+    // Ordered by id
+    private final List<Segment> segments = new ArrayList<Segment>();
+    // Keeps reads out while segments are closed
+    private final ReadWriteLock segmentsLock = new ReentrantReadWriteLock();
+    private volatile SharedLogState state;
+    private Segment activeSegment;
+    private long liveBytes;
+    private long totalBytes;
+    // The records that are not covered by the checkpoint, and are replayed when the store is opened
+    private long bytesSinceCheckpoint;
+    // The generation of the shared state when the index was last brought up to date with the log
+    private volatile long seenGeneration = -1;
+    private volatile long lastDirectoryCheck;
+    // Set when the log has been changed by another process in a way that can only be picked up by replaying it while holding the file lock
+    private volatile boolean reloadRequired;
+    private volatile boolean closed;
+    // Running in the background, or finished and waiting to be made part of the log
+    private Compaction compaction;
+
+    /**
+     * @param compactionExecutor runs the compaction of the log, without holding the file lock.
+     */
+    public LogStructuredPersistentIndexedCache(File dir, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor) {
+        this(dir, keySerializer, valueSerializer, compactionExecutor, DEFAULT_MAX_SEGMENT_SIZE, MIN_COMPACTION_SIZE);
+    }
+
+    LogStructuredPersistentIndexedCache(File dir, Serializer<K> keySerializer, Serializer<V> valueSerializer, Executor compactionExecutor, long maxSegmentSize, long minCompactionSize) {
+        this.dir = dir;
+        this.checkpointFile = new File(dir, CHECKPOINT_FILE_NAME);
+        this.keySerializer = keySerializer;
+        this.valueSerializer = valueSerializer;
+        this.compactionExecutor = compactionExecutor;
+        this.maxSegmentSize = maxSegmentSize;
+        this.minCompactionSize = minCompactionSize;
+        try {
+            open();
+        } catch (Exception e) {
+            closeSegments();
+            throw new UncheckedIOException(String.format("Could not open %s.", this), e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "cache " + dir.getName() + " (" + dir + ")";
+    }
+
+    private void open() throws IOException {
+        createDirectory();
+        state = SharedLogState.openForWriting(dir);
+        boolean upToDate = false;
+        try {
+            upToDate = readCheckpoint() && catchUp(true);
+        } catch (Exception e) {
+            LOGGER.debug("Could not use the checkpoint of {}. Replaying the log.", this, e);
+        }
+        if (!upToDate) {
+            reload();
+        }
+        markSeen();
+    }
+
+    private void createDirectory() throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException(String.format("Could not create directory %s.", dir));
+        }
+    }
+
+    /**
+     * Returns the ids of the segments of the log, oldest first. Obsolete segments that could not be deleted yet are ignored.
+     */
+    private List<Long> listSegmentIds() {
+        long firstSegmentId = state.getFirstSegmentId();
+        List<Long> segmentIds = new ArrayList<Long>();
+        for (Long id : LogSegments.listSegmentIds(dir)) {
+            if (id >= firstSegmentId) {
+                segmentIds.add(id);
+            }
+        }
+        return segmentIds;
+    }
+
+    /**
+     * Restores the index from the checkpoint file.
+     *
+     * @return false when there is no usable checkpoint.
+     */
+    private boolean readCheckpoint() throws IOException {
+        if (!checkpointFile.isFile()) {
+            return false;
+        }
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(checkpointFile), 64 * 1024));
+        try {
+            if (input.readInt() != CHECKPOINT_VERSION) {
+                return false;
+            }
+            int segmentCount = input.readInt();
+            Map<Long, Segment> segmentsById = new HashMap<Long, Segment>();
+            for (int i = 0; i < segmentCount; i++) {
+                long id = input.readLong();
+                long size = input.readLong();
+                if (id < state.getFirstSegmentId() || !LogSegments.segmentFile(dir, id).isFile()) {
+                    // Compacted or discarded since the checkpoint was written
+                    return false;
+                }
+                Segment segment = openSegment(id, false);
+                if (segment.channel.size() < size) {
+                    return false;
+                }
+                segment.size = size;
+                segmentsById.put(id, segment);
+            }
+            liveBytes = input.readLong();
+            totalBytes = input.readLong();
+            int entryCount = input.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                byte[] key = new byte[input.readInt()];
+                input.readFully(key);
+                Segment segment = segmentsById.get(input.readLong());
+                if (segment == null) {
+                    throw new IOException("Checkpoint refers to an unknown segment.");
+                }
+                index.put(ByteBuffer.wrap(key), new RecordLocation(segment, input.readLong(), input.readInt(), input.readLong(), input.readInt()));
+            }
+            return input.readInt() == CHECKPOINT_VERSION;
+        } finally {
+            input.close();
+        }
+    }
+
+    private void writeCheckpoint() throws IOException {
+        // The checkpoint must not refer to records that could be lost in a crash
+        for (Segment segment : segments) {
+            segment.channel.force(false);
+        }
+        File tempFile = new File(dir, CHECKPOINT_FILE_NAME + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+        try {
+            output.writeInt(CHECKPOINT_VERSION);
+            output.writeInt(segments.size());
+            for (Segment segment : segments) {
+                output.writeLong(segment.id);
+                output.writeLong(segment.size);
+            }
+            output.writeLong(liveBytes);
+            output.writeLong(totalBytes);
+            output.writeInt(index.size());
+            for (Map.Entry<ByteBuffer, RecordLocation> entry : index.entrySet()) {
+                ByteBuffer key = entry.getKey();
+                output.writeInt(key.remaining());
+                output.write(key.array(), key.arrayOffset() + key.position(), key.remaining());
+                RecordLocation location = entry.getValue();
+                output.writeLong(location.segment.id);
+                output.writeLong(location.offset);
+                output.writeInt(location.recordLength);
+                output.writeLong(location.valueOffset);
+                output.writeInt(location.valueLength);
+            }
+            // Marks the end, so that a truncated checkpoint is not used
+            output.writeInt(CHECKPOINT_VERSION);
+        } finally {
+            output.close();
+        }
+        moveIntoPlace(tempFile, checkpointFile);
+        bytesSinceCheckpoint = 0;
+    }
+
+    private static void moveIntoPlace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Applies the records that have been appended since the segments were last scanned, for example by another process.
+     *
+     * @return false when the log has changed in some other way, for example because another process has compacted it, and has to be replayed from scratch.
+     */
+    private boolean catchUp(boolean repair) throws IOException {
+        if (segments.isEmpty() || !state.isSameFile()) {
+            return false;
+        }
+        List<Long> segmentIds = listSegmentIds();
+        for (Segment segment : segments) {
+            if (!segmentIds.contains(segment.id) || !segment.isSameFile() || segment.channel.size() < segment.size) {
+                return false;
+            }
+        }
+        long lastKnownId = segments.get(segments.size() - 1).id;
+        int nextKnown = 0;
+        for (int i = 0; i < segmentIds.size(); i++) {
+            long id = segmentIds.get(i);
+            Segment segment;
+            if (nextKnown < segments.size() && segments.get(nextKnown).id == id) {
+                segment = segments.get(nextKnown++);
+            } else if (id > lastKnownId) {
+                segment = openSegment(id, false);
+            } else {
+                return false;
+            }
+            if (!replayTail(segment, i == segmentIds.size() - 1, repair)) {
+                return false;
+            }
+        }
+        activeSegment = segments.get(segments.size() - 1);
+        return true;
+    }
+
+    /**
+     * Replays the whole log.
+     */
+    private void reload() throws IOException {
+        closeSegments();
+        index.clear();
+        reloadRequired = false;
+        liveBytes = 0;
+        totalBytes = 0;
+        bytesSinceCheckpoint = 0;
+        if (!state.isSameFile()) {
+            createDirectory();
+            state = SharedLogState.openForWriting(dir);
+        }
+        List<Long> segmentIds = listSegmentIds();
+        for (int i = 0; i < segmentIds.size(); i++) {
+            Segment segment = openSegment(segmentIds.get(i), false);
+            if (!replayTail(segment, i == segmentIds.size() - 1, true)) {
+                LOGGER.debug("{} contains a corrupt record in {}. Discarding the content of the cache.", this, segment.file);
+                discardAll(segmentIds);
+                return;
+            }
+        }
+        if (segments.isEmpty()) {
+            activeSegment = openSegment(Math.max(1, state.getFirstSegmentId()), true);
+        } else {
+            activeSegment = segments.get(segments.size() - 1);
+        }
+        publish(segments.get(0).id);
+    }
+
+    /**
+     * Applies the records of the given segment after the ones that have already been applied. An incomplete record at the end of the last segment
+     * is truncated when repairing, and otherwise left to be applied once it has been completed.
+     *
+     * @return false when the segment contains a corrupt record before its end.
+     */
+    private boolean replayTail(final Segment segment, boolean lastSegment, boolean repair) throws IOException {
+        long size = segment.channel.size();
+        long validSize = LogSegments.scan(segment.channel, segment.size, size, new LogSegments.RecordVisitor() {
+            @Override
+            public void visitPut(ByteBuffer key, long offset, int recordLength, long valueOffset, int valueLength) {
+                apply(key, new RecordLocation(segment, offset, recordLength, valueOffset, valueLength));
+                totalBytes += recordLength;
+            }
+
+            @Override
+            public void visitRemove(ByteBuffer key, int recordLength) {
+                apply(key, null);
+                totalBytes += recordLength;
+            }
+        });
+        bytesSinceCheckpoint += validSize - segment.size;
+        segment.size = validSize;
+        if (validSize < size) {
+            if (!lastSegment) {
+                return false;
+            }
+            if (repair) {
+                LOGGER.debug("{} contains an incomplete record at offset {} of {}. Truncating.", this, validSize, segment.file);
+                segment.channel.truncate(validSize);
+                publish(segments.get(0).id);
+            }
+        }
+        return true;
+    }
+
+    private Segment openSegment(long id, boolean create) throws IOException {
+        File file = LogSegments.segmentFile(dir, id);
+        FileChannel channel = create
+            ? FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)
+            : FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, file, channel, LogSegments.fileKey(file));
+        segments.add(segment);
+        return segment;
+    }
+
+    private void apply(ByteBuffer key, @Nullable RecordLocation location) {
+        RecordLocation previous = location == null ? index.remove(key) : index.put(key, location);
+        if (previous != null) {
+            liveBytes -= previous.recordLength;
+        }
+        if (location != null) {
+            liveBytes += location.recordLength;
+        }
+    }
+
+    @Nullable
+    @Override
+    public V get(K key) {
+        Lock lock = segmentsLock.readLock();
+        lock.lock();
+        try {
+            assertOpen();
+            return read(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Nullable
+    private V read(K key) {
+        try {
+            RecordLocation location = index.get(ByteBuffer.wrap(serialize(keySerializer, key)));
+            if (location == null) {
+                return null;
+            }
+            ByteBuffer value = ByteBuffer.allocate(location.valueLength);
+            readFully(location.segment.channel, value, location.valueOffset);
+            return valueSerializer.read(new KryoBackedDecoder(new ByteArrayInputStream(value.array())));
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    /**
+     * Reads the entry for the given key while another process may hold the file lock and change the log. When the other process has announced a change,
+     * the complete records it has appended are applied to the index first, without repairing anything. The directory is also looked at when it has not been
+     * looked at for a second, in case it has been replaced altogether.
+     *
+     * <p>Returns null when the log has been compacted, discarded or replaced by another process since it was last read under the file lock, as it then has
+     * to be replayed under the lock. The segments made obsolete are closed right away, so that the other process can delete them on platforms that don't
+     * allow deleting open files.</p>
+     */
+    @Nullable
+    @Override
+    public V getWithoutFileLock(K key) {
+        if (hasChanged()) {
+            catchUpWithoutFileLock();
+        }
+        Lock lock = segmentsLock.readLock();
+        lock.lock();
+        try {
+            if (closed || reloadRequired) {
+                return null;
+            }
+            return read(key);
+        } catch (UncheckedIOException e) {
+            LOGGER.debug("Could not read {} without the file lock.", this, e);
+            return null;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean hasChanged() {
+        return state.getGeneration() != seenGeneration || System.nanoTime() - lastDirectoryCheck >= DIRECTORY_CHECK_INTERVAL_NANOS;
+    }
+
+    private synchronized void catchUpWithoutFileLock() {
+        // Another lookup may have caught up in the meantime
+        if (closed || reloadRequired || !hasChanged()) {
+            return;
+        }
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            // Any change announced from now on is picked up by a later lookup
+            long generation = state.getGeneration();
+            lastDirectoryCheck = System.nanoTime();
+            boolean caughtUp = false;
+            try {
+                caughtUp = catchUp(false);
+            } catch (Exception e) {
+                LOGGER.debug("Could not apply the changes made to {} by other processes.", this, e);
+            }
+            if (caughtUp) {
+                seenGeneration = generation;
+            } else {
+                requireReload();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void requireReload() {
+        reloadRequired = true;
+        closeSegments();
+        index.clear();
+    }
+
+    @Override
+    public synchronized void put(K key, V value) {
+        assertOpen();
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            byte[] valueBytes = serialize(valueSerializer, value);
+            append(PUT, keyBytes, valueBytes);
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not add entry '%s' to %s.", key, this), e);
+        }
+    }
+
+    @Override
+    public synchronized void remove(K key) {
+        assertOpen();
+        try {
+            byte[] keyBytes = serialize(keySerializer, key);
+            if (index.containsKey(ByteBuffer.wrap(keyBytes))) {
+                append(REMOVE, keyBytes, new byte[0]);
+            }
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not remove entry '%s' from %s.", key, this), e);
+        }
+    }
+
+    private void append(byte kind, byte[] keyBytes, byte[] valueBytes) throws IOException {
+        RecordLocation location = appendRecord(encodeRecord(kind, keyBytes, valueBytes));
+        apply(ByteBuffer.wrap(keyBytes), kind == PUT ? location.withValue(RECORD_HEADER_SIZE + BODY_HEADER_SIZE + keyBytes.length, valueBytes.length) : null);
+        publish(segments.get(0).id);
+    }
+
+    /**
+     * Tells other processes that the log has changed. This store has already applied the change, so doesn't need to catch up with it.
+     */
+    private void publish(long firstSegmentId) {
+        state.publish(firstSegmentId);
+        markSeen();
+    }
+
+    private void markSeen() {
+        seenGeneration = state.getGeneration();
+        lastDirectoryCheck = System.nanoTime();
+    }
+
+    private RecordLocation appendRecord(ByteBuffer record) throws IOException {
+        int recordLength = record.remaining();
+        Segment segment = activeSegment;
+        if (segment.size > 0 && segment.size + recordLength > maxSegmentSize) {
+            segment = openSegment(segment.id + 1, true);
+            activeSegment = segment;
+        }
+        long offset = segment.size;
+        writeFully(segment.channel, record, offset);
+        segment.size += recordLength;
+        totalBytes += recordLength;
+        bytesSinceCheckpoint += recordLength;
+        return new RecordLocation(segment, offset, recordLength, offset, 0);
+    }
+
+    /**
+     * Starts compacting the log when most of it is superseded, makes a compaction that has finished part of the log, and writes a checkpoint when many records
+     * have been added since the last one. This is done before the file lock is released rather than on every change, so that the cost of the checkpoint is spread
+     * over many changes. The records are copied in the background, so the file lock is not held for longer while the log is compacted.
+     */
+    @Override
+    public synchronized boolean beforeLockRelease() {
+        if (closed) {
+            return false;
+        }
+        try {
+            if (compaction == null && totalBytes >= minCompactionSize && liveBytes * 2 < totalBytes) {
+                startCompaction();
+            }
+            if (installCompaction() || bytesSinceCheckpoint >= Math.max(minCompactionSize, totalBytes / 4)) {
+                writeCheckpoint();
+            }
+        } catch (Exception e) {
+            LOGGER.debug("Could not compact or checkpoint {}.", this, e);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void afterLockAcquire() {
+        assertOpen();
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            try {
+                if (!reloadRequired && catchUp(true)) {
+                    markSeen();
+                    return;
+                }
+            } catch (Exception e) {
+                LOGGER.debug("Could not apply the changes made to {} by other processes. Replaying the log.", this, e);
+            }
+            reload();
+            markSeen();
+        } catch (Exception e) {
+            throw new UncheckedIOException(String.format("Could not read %s.", this), e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            closed = true;
+            if (compaction != null) {
+                compaction.discard();
+                compaction = null;
+            }
+            closeSegments();
+            index.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void assertOpen() {
+        if (closed) {
+            throw new IllegalStateException(String.format("%s has been closed.", this));
+        }
+    }
+
+    /**
+     * Seals the segments of the log and starts copying their live records to a new segment in the background.
+     */
+    private void startCompaction() throws IOException {
+        LOGGER.debug("Compacting {}: {} of {} bytes are live.", this, liveBytes, totalBytes);
+        List<Segment> sealedSegments = new ArrayList<Segment>(segments);
+        long id = activeSegment.id + 1;
+        // Leave out the id of the new segment, so that it sorts before the records appended while it is written
+        activeSegment = openSegment(id + 1, true);
+        List<ByteBuffer> keys = new ArrayList<ByteBuffer>(index.size());
+        List<RecordLocation> locations = new ArrayList<RecordLocation>(index.size());
+        for (Map.Entry<ByteBuffer, RecordLocation> entry : index.entrySet()) {
+            keys.add(entry.getKey());
+            locations.add(entry.getValue());
+        }
+        compaction = new Compaction(sealedSegments, id, LogSegments.compactionFile(dir, id), keys, locations);
+        compactionExecutor.execute(compaction);
+    }
+
+    /**
+     * Replaces the sealed segments with the segment written by the compaction, once it has finished.
+     *
+     * @return true when the segments have been replaced.
+     */
+    private boolean installCompaction() throws IOException {
+        Compaction compaction = this.compaction;
+        if (compaction == null || !compaction.isFinished()) {
+            return false;
+        }
+        this.compaction = null;
+        File file = LogSegments.segmentFile(dir, compaction.id);
+        // The log has been replayed since the compaction started, for example because another process has compacted it
+        boolean current = segments.size() > compaction.sealedSegments.size()
+            && segments.subList(0, compaction.sealedSegments.size()).equals(compaction.sealedSegments)
+            && !file.exists();
+        if (!compaction.isSucceeded() || !current) {
+            LOGGER.debug("Discarding the compaction of {}.", this, compaction.failure);
+            compaction.discard();
+            return false;
+        }
+        moveIntoPlace(compaction.file, file);
+        Segment compacted = new Segment(compaction.id, file, FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE), LogSegments.fileKey(file));
+        compacted.size = compaction.size;
+        Lock lock = segmentsLock.writeLock();
+        lock.lock();
+        try {
+            segments.add(compaction.sealedSegments.size(), compacted);
+            for (int i = 0; i < compaction.keys.size(); i++) {
+                RecordLocation location = compaction.locations.get(i);
+                long offset = compaction.offsets[i];
+                RecordLocation newLocation = new RecordLocation(compacted, offset, location.recordLength, offset + location.valueOffset - location.offset, location.valueLength);
+                // Leaves the entries that have been changed since the compaction started alone
+                index.replace(compaction.keys.get(i), location, newLocation);
+            }
+            // From now on, the sealed segments are ignored even if they can't be deleted
+            publish(compacted.id);
+            for (Segment segment : compaction.sealedSegments) {
+                totalBytes -= segment.size;
+                segment.close();
+                segments.remove(segment);
+            }
+            totalBytes += compacted.size;
+        } finally {
+            lock.unlock();
+        }
+        deleteObsoleteSegments();
+        return true;
+    }
+
+    /**
+     * Deletes the segments that precede the first segment of the log, including the ones left behind by earlier compactions, and the copies
+     * of compactions that can no longer become part of the log, for example because the process writing them has crashed.
+     */
+    private void deleteObsoleteSegments() {
+        long firstSegmentId = state.getFirstSegmentId();
+        for (Long id : LogSegments.listSegmentIds(dir)) {
+            if (id >= firstSegmentId) {
+                break;
+            }
+            deleteObsolete(LogSegments.segmentFile(dir, id));
+        }
+        for (Long id : LogSegments.listCompactionIds(dir)) {
+            if (id < firstSegmentId) {
+                deleteObsolete(LogSegments.compactionFile(dir, id));
+            }
+        }
+    }
+
+    private static void deleteObsolete(File file) {
+        if (!file.delete()) {
+            // For example, another process on Windows still has it open. Try again after the next compaction
+            LOGGER.debug("Could not delete {}.", file);
+        }
+    }
+
+    private void discardAll(List<Long> segmentIds) throws IOException {
+        closeSegments();
+        for (Long id : segmentIds) {
+            File file = LogSegments.segmentFile(dir, id);
+            if (!file.delete()) {
+                throw new IOException(String.format("Could not delete %s.", file));
+            }
+        }
+        if (checkpointFile.exists() && !checkpointFile.delete()) {
+            throw new IOException(String.format("Could not delete %s.", checkpointFile));
+        }
+        index.clear();
+        liveBytes = 0;
+        totalBytes = 0;
+        bytesSinceCheckpoint = 0;
+        // Don't reuse the ids of the discarded segments, so that other processes notice the change
+        activeSegment = openSegment(segmentIds.get(segmentIds.size() - 1) + 1, true);
+        publish(activeSegment.id);
+    }
+
+    private void closeSegments() {
+        for (Segment segment : segments) {
+            try {
+                segment.close();
+            } catch (IOException e) {
+                LOGGER.debug("Could not close {}.", segment.file, e);
+            }
+        }
+        segments.clear();
+    }
+
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        private final Object fileKey;
+        // The end of the records that have been applied to the index
+        private long size;
+
+        Segment(long id, File file, FileChannel channel, @Nullable Object fileKey) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Checks whether the segment file has been replaced, for example after the whole cache directory has been deleted.
+         */
+        boolean isSameFile() {
+            return fileKey == null || fileKey.equals(LogSegments.fileKey(file));
+        }
+
+        void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * Copies the live records of the sealed segments to a new segment, without holding any lock. Fails when the store closes the sealed segments in the meantime.
+     */
+    private static class Compaction implements Runnable {
+        private final List<Segment> sealedSegments;
+        private final long id;
+        private final File file;
+        private final List<ByteBuffer> keys;
+        private final List<RecordLocation> locations;
+        // The offsets of the copied records in the new segment
+        private final long[] offsets;
+        private long size;
+        private Exception failure;
+        private boolean finished;
+        private volatile boolean discarded;
+
+        Compaction(List<Segment> sealedSegments, long id, File file, List<ByteBuffer> keys, List<RecordLocation> locations) {
+            this.sealedSegments = sealedSegments;
+            this.id = id;
+            this.file = file;
+            this.keys = keys;
+            this.locations = locations;
+            this.offsets = new long[locations.size()];
+        }
+
+        @Override
+        public void run() {
+            Exception failure = null;
+            long size = 0;
+            try {
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+                try {
+                    for (int i = 0; i < locations.size() && !discarded; i++) {
+                        RecordLocation location = locations.get(i);
+                        ByteBuffer record = ByteBuffer.allocate(location.recordLength);
+                        readFully(location.segment.channel, record, location.offset);
+                        record.flip();
+                        writeFully(channel, record, size);
+                        offsets[i] = size;
+                        size += location.recordLength;
+                    }
+                    channel.force(false);
+                } finally {
+                    channel.close();
+                }
+            } catch (Exception e) {
+                failure = e;
+            }
+            boolean delete;
+            synchronized (this) {
+                this.size = size;
+                this.failure = failure;
+                finished = true;
+                delete = discarded || failure != null;
+            }
+            if (delete) {
+                deleteObsolete(file);
+            }
+        }
+
+        synchronized boolean isFinished() {
+            return finished;
+        }
+
+        synchronized boolean isSucceeded() {
+            return finished && failure == null && !discarded;
+        }
+
+        void discard() {
+            boolean delete;
+            synchronized (this) {
+                delete = finished && failure == null && !discarded;
+                discarded = true;
+            }
+            if (delete) {
+                deleteObsolete(file);
+            }
+        }
+    }
+
+    private static class RecordLocation {
+        private final Segment segment;
+        private final long offset;
+        private final int recordLength;
+        private final long valueOffset;
+        private final int valueLength;
+
+        RecordLocation(Segment segment, long offset, int recordLength, long valueOffset, int valueLength) {
+            this.segment = segment;
+            this.offset = offset;
+            this.recordLength = recordLength;
+            this.valueOffset = valueOffset;
+            this.valueLength = valueLength;
+        }
+
+        RecordLocation withValue(int valueOffsetInRecord, int valueLength) {
+            return new RecordLocation(segment, offset, recordLength, offset + valueOffsetInRecord, valueLength);
+        }
+    }
+}
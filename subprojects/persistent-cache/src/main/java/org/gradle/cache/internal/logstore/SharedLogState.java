@@ -0,0 +1,82 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A small memory-mapped file in the directory of a log-structured cache, through which the process that holds the file lock tells other processes
+ * that the log has changed. Other processes that keep the log open only look at the segment files after a change, rather than on every lookup.
+ *
+ * <p>Holds a generation, which the writer increments after every change to the log, and the id of the first segment of the log.
+ * Segments with a lower id are obsolete, even when they could not be deleted yet. On Windows, for example, a segment that is
+ * still open in another process stays visible until that process closes it.</p>
+ */
+final class SharedLogState {
+    static final String FILE_NAME = "log.state";
+    private static final int GENERATION_OFFSET = 0;
+    private static final int FIRST_SEGMENT_OFFSET = 8;
+    private static final int SIZE = 16;
+
+    private final File file;
+    private final Object fileKey;
+    private final MappedByteBuffer buffer;
+
+    private SharedLogState(File file, MappedByteBuffer buffer) {
+        this.file = file;
+        this.fileKey = LogSegments.fileKey(file);
+        this.buffer = buffer;
+    }
+
+    static SharedLogState openForWriting(File dir) throws IOException {
+        File file = new File(dir, FILE_NAME);
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            // The mapping stays valid after the channel has been closed
+            return new SharedLogState(file, channel.map(FileChannel.MapMode.READ_WRITE, 0, SIZE));
+        } finally {
+            channel.close();
+        }
+    }
+
+    long getGeneration() {
+        return buffer.getLong(GENERATION_OFFSET);
+    }
+
+    long getFirstSegmentId() {
+        return buffer.getLong(FIRST_SEGMENT_OFFSET);
+    }
+
+    /**
+     * Tells other processes that the log has changed. Must only be called while holding the file lock of the cache.
+     */
+    void publish(long firstSegmentId) {
+        buffer.putLong(FIRST_SEGMENT_OFFSET, firstSegmentId);
+        buffer.putLong(GENERATION_OFFSET, getGeneration() + 1);
+    }
+
+    /**
+     * Checks whether the state file has been replaced, for example after the whole cache directory has been deleted.
+     */
+    boolean isSameFile() {
+        return fileKey == null || fileKey.equals(LogSegments.fileKey(file));
+    }
+}
@@ -47,6 +47,83 @@ class CacheAccessWorkerTest extends ConcurrentSpec {
         cacheAccessWorker?.stop()
     }
 
+    def "read runs after queued updates are applied"() {
+        given:
+        def applied = []
+        def completed = []
+        start(cacheAccessWorker)
+
+        when:
+        cacheAccessWorker.enqueue(update(new Object(), "a", "a1", applied, completed))
+        def result = cacheAccessWorker.read { applied.collect() }
+
+        then:
+        result == ["a1"]
+        completed == ["a1"]
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "applies only the last of the queued updates to an entry"() {
+        given:
+        def cache = new Object()
+        def otherCache = new Object()
+        def applied = []
+        def completed = []
+        cacheAccessWorker.enqueue(update(cache, "a", "a1", applied, completed))
+        cacheAccessWorker.enqueue(update(otherCache, "a", "other a", applied, completed))
+        cacheAccessWorker.enqueue(update(cache, "b", "b1", applied, completed))
+        cacheAccessWorker.enqueue(update(cache, "a", "a2", applied, completed))
+
+        when:
+        start(cacheAccessWorker)
+        cacheAccessWorker.flush()
+
+        then:
+        applied == ["a2", "b1", "other a"]
+        completed as Set == ["a1", "a2", "b1", "other a"] as Set
+
+        and:
+        def statistics = cacheAccessWorker.statistics
+        statistics.appliedUpdates == 3
+        statistics.coalescedUpdates == 1
+        statistics.batches == 1
+        statistics.flushes == 1
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
+    def "reset returns the statistics since the previous reset"() {
+        given:
+        def cache = new Object()
+        def applied = []
+        def completed = []
+        start(cacheAccessWorker)
+        cacheAccessWorker.enqueue(update(cache, "a", "a1", applied, completed))
+        cacheAccessWorker.flush()
+
+        when:
+        def first = cacheAccessWorker.statistics.reset()
+        cacheAccessWorker.enqueue(update(cache, "b", "b1", applied, completed))
+        cacheAccessWorker.enqueue(update(cache, "c", "c1", applied, completed))
+        cacheAccessWorker.flush()
+        def second = cacheAccessWorker.statistics.reset()
+
+        then:
+        first.cacheDisplayName == "<cache>"
+        first.appliedUpdates == 1
+        first.flushes == 1
+        second.appliedUpdates == 2
+        second.flushes == 1
+        cacheAccessWorker.statistics.appliedUpdates == 0
+        cacheAccessWorker.statistics.flushes == 0
+
+        cleanup:
+        cacheAccessWorker?.stop()
+    }
+
     def "read propagates failure"() {
         given:
         def failure = new RuntimeException()
@@ -198,4 +275,13 @@ class CacheAccessWorkerTest extends ConcurrentSpec {
         def e = thrown(RuntimeException)
         e == failure
     }
+
+    private static KeyedCacheUpdate update(Object cache, String key, String name, List<String> applied, List<String> completed) {
+        return new KeyedCacheUpdate(cache, key, { completed << name } as Runnable) {
+            @Override
+            protected void apply() {
+                applied << name
+            }
+        }
+    }
 }
@@ -620,6 +620,49 @@ class DefaultCacheAccessTest extends ConcurrentSpec {
         access?.close()
     }
 
+    def "reads cache from several threads at the same time while the file lock is held"() {
+        def access = newAccess(Exclusive)
+        def decorator = Mock(CacheDecorator)
+
+        given:
+        lockManager.lock(lockFile, mode(Exclusive), "<display-name>") >> lock
+        initializationAction.requiresInitialization(lock) >> false
+        lock.readFile(_) >> { Factory action -> action.create() }
+        lock.writeFile(_) >> { Runnable action -> action.run() }
+        decorator.decorate(_, _, _, _, _) >> { String cacheId, String cacheName, MultiProcessSafePersistentIndexedCache persistentCache, CrossProcessCacheAccess crossProcessCacheAccess, AsyncCacheAccess asyncCacheAccess ->
+            new AsyncCacheAccessDecoratedCache(asyncCacheAccess, persistentCache)
+        }
+        access.open()
+        def cache = access.newCache(PersistentIndexedCacheParameters.of('cache', String.class, Integer.class).withCacheDecorator(decorator))
+        // Opens the store on the cache worker thread
+        cache.get("other")
+
+        when:
+        async {
+            start {
+                assert cache.get("a") == 1
+            }
+            start {
+                assert cache.get("b") == 2
+            }
+        }
+
+        then:
+        1 * backingCache.get("a") >> {
+            instant.readingA
+            thread.blockUntil.readingB
+            1
+        }
+        1 * backingCache.get("b") >> {
+            instant.readingB
+            thread.blockUntil.readingA
+            2
+        }
+
+        cleanup:
+        access?.close()
+    }
+
     def "does not acquire file lock for cleanup"() {
         given:
         def access = newAccess(None)
@@ -61,6 +61,47 @@ class InMemoryDecoratedCacheTest extends ConcurrentSpec {
         0 * _
     }
 
+    def "serves entries without the file lock from memory before reading the backing cache"() {
+        given:
+        cache.putLater("key", "value", Stub(Runnable))
+
+        when:
+        def result = cache.getWithoutFileLock("key")
+
+        then:
+        result == "value"
+        1 * target.putLater("key", "value", _)
+        0 * _
+
+        when:
+        def other = cache.getWithoutFileLock("other")
+        def again = cache.get("other")
+
+        then:
+        other == "other value"
+        again == "other value"
+        1 * target.getWithoutFileLock("other") >> "other value"
+        0 * _
+    }
+
+    def "does not remember entries that could not be read without the file lock"() {
+        when:
+        def result = cache.getWithoutFileLock("key")
+
+        then:
+        result == null
+        1 * target.getWithoutFileLock("key") >> null
+        0 * _
+
+        when:
+        result = cache.get("key")
+
+        then:
+        result == "value"
+        1 * target.get("key") >> "value"
+        0 * _
+    }
+
     def "produces value and stores in backing cache later when not present"() {
         def producer = Mock(Transformer)
         def completion = Mock(Runnable)
@@ -16,6 +16,7 @@
 package org.gradle.cache.internal
 
 import org.gradle.cache.FileAccess
+import org.gradle.cache.FileLock
 import org.gradle.cache.internal.btree.BTreePersistentIndexedCache
 import org.gradle.internal.Factory
 import spock.lang.Specification
@@ -86,7 +87,7 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
-        1 * backingCache.close()
+        1 * backingCache.beforeLockRelease() >> false
         0 * _._
     }
 
@@ -99,7 +100,7 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
-        1 * backingCache.close()
+        1 * backingCache.beforeLockRelease() >> false
         0 * _._
     }
 
@@ -119,13 +120,186 @@ class MultiProcessSafePersistentIndexedCacheTest extends Specification {
 
         then:
         1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> false
+        0 * _._
+
+        when:
+        cache.finishWork()
+
+        then:
+        0 * _._
+    }
+
+    def "keeps store open when it asks to and catches it up when the lock is acquired again"() {
+        given:
+        cacheOpened()
+
+        when:
+        cache.finishWork()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> true
+        0 * _._
+
+        when:
+        cache.finishWork()
+
+        then:
+        0 * _._
+
+        when:
+        cache.afterLockAcquire(Stub(FileLock.State))
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.afterLockAcquire()
+        0 * _._
+
+        when:
+        def result = cache.get("value")
+
+        then:
+        result == "result"
+
+        and:
+        1 * fileAccess.readFile(!null) >> { Factory action -> action.create() }
+        1 * backingCache.get("value") >> "result"
+        0 * _._
+    }
+
+    def "opens store again when it has been kept open and was not caught up"() {
+        given:
+        cacheOpened()
+        def reopenedCache = Mock(BTreePersistentIndexedCache)
+
+        when:
+        cache.finishWork()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> true
+
+        when:
+        cache.put("key", "value")
+
+        then:
         1 * backingCache.close()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * factory.create() >> reopenedCache
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * reopenedCache.put("key", "value")
         0 * _._
+    }
+
+    def "opens store again when catching up fails"() {
+        given:
+        cacheOpened()
 
         when:
         cache.finishWork()
 
         then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> true
+
+        when:
+        cache.afterLockAcquire(Stub(FileLock.State))
+
+        then:
+        def e = thrown(RuntimeException)
+        e.message == "broken"
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.afterLockAcquire() >> { throw new RuntimeException("broken") }
+        1 * backingCache.close()
+
+        when:
+        cache.get("value")
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * factory.create() >> backingCache
+    }
+
+    def "closes store that has been kept open when closed"() {
+        given:
+        cacheOpened()
+
+        when:
+        cache.finishWork()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> true
+
+        when:
+        cache.close()
+
+        then:
+        1 * backingCache.close()
+        0 * _._
+
+        when:
+        cache.get("value")
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * factory.create() >> backingCache
+    }
+
+    def "reads store that has been kept open without the file lock when the lock is held by another process"() {
+        given:
+        def concurrentFileAccess = Mock(ConcurrentFileAccess)
+        def otherwise = Mock(Factory)
+        def lockFreeCache = new DefaultMultiProcessSafePersistentIndexedCache<String, String>(factory, fileAccess, concurrentFileAccess, true)
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * factory.create() >> backingCache
+        lockFreeCache.get("something")
+
+        when:
+        lockFreeCache.finishWork()
+
+        then:
+        1 * fileAccess.writeFile(!null) >> { Runnable action -> action.run() }
+        1 * backingCache.beforeLockRelease() >> true
+
+        when:
+        def result = lockFreeCache.getConcurrently("key", otherwise)
+
+        then:
+        result == "value"
+        1 * concurrentFileAccess.readConcurrently(!null, _) >> { Factory action, Object whenNotHeld -> whenNotHeld }
+        1 * backingCache.getWithoutFileLock("key") >> "value"
+        0 * _._
+
+        when:
+        result = lockFreeCache.getConcurrently("other", otherwise)
+
+        then:
+        result == "from lock holder"
+        1 * concurrentFileAccess.readConcurrently(!null, _) >> { Factory action, Object whenNotHeld -> whenNotHeld }
+        1 * backingCache.getWithoutFileLock("other") >> null
+        1 * otherwise.create() >> "from lock holder"
+        0 * _._
+    }
+
+    def "does not read store without the file lock when it can only be read while holding the lock"() {
+        given:
+        def concurrentFileAccess = Mock(ConcurrentFileAccess)
+        def otherwise = Mock(Factory)
+        def lockedCache = new DefaultMultiProcessSafePersistentIndexedCache<String, String>(factory, fileAccess, concurrentFileAccess, false)
+
+        when:
+        def result = lockedCache.getConcurrently("key", otherwise)
+
+        then:
+        result == "from lock holder"
+        1 * concurrentFileAccess.readConcurrently(!null, _) >> { Factory action, Object whenNotHeld -> whenNotHeld }
+        1 * otherwise.create() >> "from lock holder"
         0 * _._
     }
 
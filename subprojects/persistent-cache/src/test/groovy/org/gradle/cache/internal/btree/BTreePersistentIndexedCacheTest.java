@@ -34,6 +34,11 @@
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.hamcrest.CoreMatchers.*;
 import static org.junit.Assert.assertNull;
@@ -388,6 +393,47 @@ public void handlesKeysWithSameHashCode() {
         cache.close();
     }
 
+    @Test
+    public void canReadConcurrentlyWithUpdates() throws Exception {
+        createCache();
+        final Map<String, Integer> initial = checkAdds(Arrays.asList(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11));
+        final AtomicBoolean updating = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> readers = new ArrayList<Future<?>>();
+            for (int i = 0; i < 4; i++) {
+                readers.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        while (updating.get()) {
+                            for (Map.Entry<String, Integer> entry : initial.entrySet()) {
+                                Integer value = cache.get(entry.getKey());
+                                assertThat(value % 100, equalTo(entry.getValue()));
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (int i = 1; i <= 50; i++) {
+                for (Map.Entry<String, Integer> entry : initial.entrySet()) {
+                    cache.put(entry.getKey(), entry.getValue() + i * 100);
+                }
+                cache.put("other_" + i, i);
+                if (i % 2 == 0) {
+                    cache.remove("other_" + (i - 1));
+                }
+            }
+            updating.set(false);
+            for (Future<?> reader : readers) {
+                reader.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        verifyAndCloseCache();
+    }
+
     private void checkAdds(Integer... values) {
         checkAdds(Arrays.asList(values));
     }
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.cache.internal.logstore
+
+import org.gradle.internal.serialize.BaseSerializerFactory
+import org.gradle.test.fixtures.concurrent.ConcurrentSpec
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+
+import java.util.concurrent.Executor
+
+class LogStructuredPersistentIndexedCacheTest extends ConcurrentSpec {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def dir = tmpDir.file("cache.log")
+    def cache = open()
+
+    def cleanup() {
+        cache.close()
+    }
+
+    def "stores and removes entries"() {
+        when:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.put("a", 3)
+        cache.remove("b")
+        cache.remove("unknown")
+
+        then:
+        cache.get("a") == 3
+        cache.get("b") == null
+        cache.get("unknown") == null
+
+        when:
+        reopen()
+
+        then:
+        cache.get("a") == 3
+        cache.get("b") == null
+    }
+
+    def "rolls over to new segments"() {
+        when:
+        200.times { cache.put("key" + it, it) }
+        reopen()
+
+        then:
+        segments().size() > 1
+        200.times { assert cache.get("key" + it) == it }
+    }
+
+    def "compacts the log before the lock is released when most records are superseded"() {
+        given:
+        1000.times { cache.put("key" + (it % 10), it) }
+        cache.remove("key0")
+        def segmentsBeforeCompaction = segments()
+
+        when:
+        reopen()
+
+        then:
+        // The compacted segment and the new active segment
+        segments().size() == 2
+        !segmentsBeforeCompaction.any { it.exists() }
+        cache.get("key0") == null
+        (1..9).each { assert cache.get("key" + it) == 990 + it }
+    }
+
+    def "discards incomplete record at the end of the log"() {
+        given:
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.close()
+        def segment = segments().last()
+        segment.bytes = segment.bytes[0..-3] as byte[]
+
+        when:
+        cache = open()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == null
+
+        when:
+        cache.put("b", 3)
+        reopen()
+
+        then:
+        cache.get("a") == 1
+        cache.get("b") == 3
+    }
+
+    def "discards all entries when the log is corrupt before its end"() {
+        given:
+        200.times { cache.put("key" + it, it) }
+        cache.close()
+        def segment = segments().first()
+        def bytes = segment.bytes
+        bytes[12] ^= 0xff
+        segment.bytes = bytes
+
+        when:
+        cache = open()
+
+        then:
+        cache.get("key1") == null
+        cache.get("key199") == null
+        segments().size() == 1
+
+        when:
+        cache.put("key1", 1)
+        reopen()
+
+        then:
+        cache.get("key1") == 1
+    }
+
+    def "compacts the log in the background while another instance changes it"() {
+        given:
+        def compactions = []
+        cache.close()
+        cache = open({ Runnable compaction -> compactions << compaction } as Executor)
+        def other = open({ Runnable compaction -> } as Executor)
+        1000.times { cache.put("key" + (it % 10), it) }
+        def sealedSegments = segments()
+
+        when:
+        cache.beforeLockRelease()
+
+        then:
+        compactions.size() == 1
+        sealedSegments.every { it.exists() }
+
+        when:
+        other.afterLockAcquire()
+        other.put("key1", 1)
+        other.remove("key2")
+        other.beforeLockRelease()
+        compactions[0].run()
+        cache.afterLockAcquire()
+        cache.beforeLockRelease()
+
+        then:
+        !sealedSegments.any { it.exists() }
+        compactionFiles().empty
+        cache.get("key1") == 1
+        cache.get("key2") == null
+        cache.get("key3") == 993
+
+        when:
+        reopen()
+
+        then:
+        cache.get("key1") == 1
+        cache.get("key2") == null
+        (3..9).each { assert cache.get("key" + it) == 990 + it }
+
+        cleanup:
+        other.close()
+    }
+
+    def "discards a compaction when another instance has compacted the log in the meantime"() {
+        given:
+        def compactions = []
+        cache.close()
+        cache = open({ Runnable compaction -> compactions << compaction } as Executor)
+        def other = open()
+        1000.times { cache.put("key" + (it % 10), it) }
+
+        when:
+        cache.beforeLockRelease()
+        compactions[0].run()
+        other.afterLockAcquire()
+        other.put("key1", 1)
+        other.beforeLockRelease()
+        cache.afterLockAcquire()
+        cache.beforeLockRelease()
+
+        then:
+        compactionFiles().empty
+        cache.get("key1") == 1
+        (2..9).each { assert cache.get("key" + it) == 990 + it }
+
+        cleanup:
+        other.close()
+    }
+
+    private LogStructuredPersistentIndexedCache<String, Integer> open(Executor compactionExecutor = { Runnable compaction -> compaction.run() } as Executor) {
+        return new LogStructuredPersistentIndexedCache<String, Integer>(dir, BaseSerializerFactory.STRING_SERIALIZER, BaseSerializerFactory.INTEGER_SERIALIZER, compactionExecutor, 1024, 4096)
+    }
+
+    def "restores the index from the checkpoint without replaying the log"() {
+        given:
+        300.times { cache.put("key" + it, it) }
+        cache.beforeLockRelease()
+        cache.close()
+        def segment = segments().first()
+        def bytes = segment.bytes
+        // Breaks the checksum of the first record, which replaying the log would detect
+        bytes[4] ^= 0xff
+        segment.bytes = bytes
+
+        when:
+        cache = open()
+
+        then:
+        new File(dir, LogStructuredPersistentIndexedCache.CHECKPOINT_FILE_NAME).file
+        cache.get("key150") == 150
+        cache.get("key299") == 299
+    }
+
+    def "replays records appended after the checkpoint when opened"() {
+        given:
+        300.times { cache.put("key" + it, it) }
+        cache.beforeLockRelease()
+        cache.put("key0", 1000)
+        cache.remove("key1")
+        cache.put("other", 1)
+        cache.close()
+
+        when:
+        cache = open()
+
+        then:
+        cache.get("key0") == 1000
+        cache.get("key1") == null
+        cache.get("key2") == 2
+        cache.get("other") == 1
+    }
+
+    def "applies the records appended by another instance after the lock is acquired again"() {
+        given:
+        def other = open()
+        cache.put("a", 1)
+
+        when:
+        cache.beforeLockRelease()
+        other.afterLockAcquire()
+
+        then:
+        other.get("a") == 1
+
+        when:
+        200.times { other.put("key" + it, it) }
+        other.remove("a")
+        other.beforeLockRelease()
+        cache.afterLockAcquire()
+
+        then:
+        cache.get("a") == null
+        200.times { assert cache.get("key" + it) == it }
+
+        cleanup:
+        other.close()
+    }
+
+    def "replays the log after another instance has compacted it"() {
+        given:
+        def other = open()
+        1000.times { cache.put("key" + (it % 10), it) }
+
+        when:
+        cache.beforeLockRelease()
+        other.afterLockAcquire()
+
+        then:
+        segments().size() == 2
+        (0..9).each { assert other.get("key" + it) == 990 + it }
+
+        when:
+        other.put("key0", 0)
+        other.beforeLockRelease()
+        cache.afterLockAcquire()
+
+        then:
+        cache.get("key0") == 0
+        cache.get("key1") == 991
+
+        cleanup:
+        other.close()
+    }
+
+    def "reads the records appended by another instance without the file lock"() {
+        given:
+        def other = open()
+        cache.put("a", 1)
+        cache.put("b", 2)
+        cache.beforeLockRelease()
+        other.afterLockAcquire()
+
+        when:
+        other.put("a", 3)
+        other.remove("b")
+        200.times { other.put("key" + it, it) }
+
+        then:
+        cache.getWithoutFileLock("a") == 3
+        cache.getWithoutFileLock("b") == null
+        cache.getWithoutFileLock("key199") == 199
+
+        when:
+        other.put("c", 4)
+        other.beforeLockRelease()
+        cache.afterLockAcquire()
+
+        then:
+        cache.get("a") == 3
+        cache.get("c") == 4
+        cache.get("key199") == 199
+
+        cleanup:
+        other.close()
+    }
+
+    def "ignores a record that another instance is still writing when read without the file lock"() {
+        given:
+        cache.put("a", 1)
+        cache.beforeLockRelease()
+        def record = LogSegments.encodeRecord(LogSegments.PUT, LogSegments.serialize(BaseSerializerFactory.STRING_SERIALIZER, "b"), LogSegments.serialize(BaseSerializerFactory.INTEGER_SERIALIZER, 2)).array()
+        def segment = segments().last()
+        def state = SharedLogState.openForWriting(dir)
+
+        when:
+        segment << (record[0..-3] as byte[])
+        state.publish(state.firstSegmentId)
+
+        then:
+        cache.getWithoutFileLock("a") == 1
+        cache.getWithoutFileLock("b") == null
+
+        when:
+        segment << (record[-2..-1] as byte[])
+        state.publish(state.firstSegmentId)
+
+        then:
+        cache.getWithoutFileLock("b") == 2
+    }
+
+    def "replays the log under the file lock after another instance has compacted it while it was read without the lock"() {
+        given:
+        def other = open()
+        cache.put("key1", 1)
+        cache.beforeLockRelease()
+        other.afterLockAcquire()
+        1000.times { other.put("key" + (it % 10), it) }
+
+        expect:
+        cache.getWithoutFileLock("key1") == 991
+
+        when:
+        other.beforeLockRelease()
+
+        then:
+        segments().size() == 2
+        cache.getWithoutFileLock("key1") == null
+
+        when:
+        cache.afterLockAcquire()
+
+        then:
+        cache.get("key1") == 991
+        cache.getWithoutFileLock("key2") == 992
+
+        cleanup:
+        other.close()
+    }
+
+    def "serves lookups without the file lock from several threads while another instance changes the log"() {
+        given:
+        def other = open()
+        200.times { cache.put("key" + it, it) }
+        cache.beforeLockRelease()
+        other.afterLockAcquire()
+
+        when:
+        async {
+            4.times {
+                start {
+                    200.times { assert cache.getWithoutFileLock("key" + it) == it }
+                }
+            }
+            200.times { other.put("other" + it, it) }
+        }
+
+        then:
+        200.times { assert cache.getWithoutFileLock("other" + it) == it }
+
+        cleanup:
+        other.close()
+    }
+
+    def "cannot be read after it has been closed"() {
+        given:
+        cache.put("a", 1)
+        cache.close()
+
+        when:
+        cache.get("a")
+
+        then:
+        thrown(IllegalStateException)
+    }
+
+    private void reopen() {
+        cache.beforeLockRelease()
+        cache.close()
+        cache = open()
+    }
+
+    private List<File> segments() {
+        return dir.listFiles().findAll { it.name.startsWith("segment-") && it.name.endsWith(".log") }.sort { Long.parseLong(it.name.replaceAll("\\D", "")) }
+    }
+
+    private List<File> compactionFiles() {
+        return dir.listFiles().findAll { it.name.endsWith(".compacting") }
+    }
+}
@@ -34,6 +34,13 @@ public DirectorySnapshot(String absolutePath, String name, List<FileSystemLocati
         this.contentHash = contentHash;
     }
 
+    /**
+     * Returns the children of this directory, sorted by name.
+     */
+    public List<FileSystemLocationSnapshot> getChildren() {
+        return children;
+    }
+
     @Override
     public HashCode getHash() {
         return contentHash;
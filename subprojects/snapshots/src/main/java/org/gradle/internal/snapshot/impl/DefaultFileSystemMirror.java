@@ -16,25 +16,22 @@
 
 package org.gradle.internal.snapshot.impl;
 
+import com.google.common.collect.ImmutableSet;
 import org.gradle.internal.file.FileMetadataSnapshot;
 import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
 import org.gradle.internal.snapshot.FileSystemMirror;
 import org.gradle.internal.snapshot.WellKnownFileLocations;
 
 import javax.annotation.Nullable;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Set;
 
 /**
  * See {@link DefaultFileSystemSnapshotter} for some more details
  */
 public class DefaultFileSystemMirror implements FileSystemMirror {
-    // Maps from interned absolute path for a file to metadata for the file.
-    private final Map<String, FileMetadataSnapshot> metadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
-    private final Map<String, FileMetadataSnapshot> cacheMetadata = new ConcurrentHashMap<String, FileMetadataSnapshot>();
-    // Maps from interned absolute path for a file to snapshot for the file.
-    private final Map<String, FileSystemLocationSnapshot> files = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
-    private final Map<String, FileSystemLocationSnapshot> cacheFiles = new ConcurrentHashMap<String, FileSystemLocationSnapshot>();
+    // Stores the metadata and snapshots for files, keyed by the segments of the absolute path of the file.
+    private final SnapshotTrie files = new SnapshotTrie();
+    private final SnapshotTrie cacheFiles = new SnapshotTrie();
 
     private final WellKnownFileLocations wellKnownFileLocations;
 
@@ -45,62 +42,71 @@ public DefaultFileSystemMirror(WellKnownFileLocations wellKnownFileLocations) {
     @Nullable
     @Override
     public FileSystemLocationSnapshot getSnapshot(String absolutePath) {
-        // Could potentially also look whether we have the details for an ancestor directory tree
         // Could possibly infer that the path refers to a directory, if we have details for a descendant path (and it's not a missing file)
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheFiles.get(absolutePath);
-        }
-        return files.get(absolutePath);
+        return filesFor(absolutePath).getSnapshot(absolutePath);
     }
 
     @Override
     public void putSnapshot(FileSystemLocationSnapshot snapshot) {
-        String absolutePath = snapshot.getAbsolutePath();
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheFiles.put(absolutePath, snapshot);
-        } else {
-            files.put(absolutePath, snapshot);
-        }
+        filesFor(snapshot.getAbsolutePath()).putSnapshot(snapshot);
     }
 
     @Override
     public FileMetadataSnapshot getMetadata(String absolutePath) {
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            return cacheMetadata.get(absolutePath);
-        }
-        return metadata.get(absolutePath);
+        return filesFor(absolutePath).getMetadata(absolutePath);
     }
 
     @Override
     public void putMetadata(String absolutePath, FileMetadataSnapshot metadata) {
-        if (wellKnownFileLocations.isImmutable(absolutePath)) {
-            cacheMetadata.put(absolutePath, metadata);
-        } else {
-            this.metadata.put(absolutePath, metadata);
-        }
+        filesFor(absolutePath).putMetadata(absolutePath, metadata);
+    }
+
+    private SnapshotTrie filesFor(String absolutePath) {
+        return wellKnownFileLocations.isImmutable(absolutePath) ? cacheFiles : files;
     }
 
     public void beforeOutputChange() {
         // When the outputs are generated, throw away all state for files that do not live in an append-only cache.
         // This is intentionally very simple, to be improved later
-        metadata.clear();
         files.clear();
     }
 
     public void beforeBuildFinished() {
         // We throw away all state between builds
-        metadata.clear();
-        cacheMetadata.clear();
         files.clear();
         cacheFiles.clear();
     }
 
+    /**
+     * Like {@link #beforeBuildFinished()}, but retains the state for files that do not live in an append-only cache.
+     * The caller is responsible for reporting any changes to these files via {@link #changed(Iterable)} until the next build.
+     */
+    public void beforeBuildFinishedRetainingState() {
+        cacheFiles.clear();
+    }
+
+    /**
+     * Returns the paths for which state is currently retained and that do not live in an append-only cache.
+     */
+    public Set<String> getRetainedPaths() {
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        files.visitPaths(builder::add);
+        return builder.build();
+    }
+
+    /**
+     * Discards the state for the given paths, their descendants and any snapshots of their ancestor directories.
+     */
+    public void changed(Iterable<String> changedPaths) {
+        for (String changedPath : changedPaths) {
+            files.invalidate(changedPath);
+        }
+    }
+
     public void beforeOutputChange(Iterable<String> affectedOutputPaths) {
         for (String affectedOutputPath : affectedOutputPaths) {
-            metadata.remove(affectedOutputPath);
-            files.remove(affectedOutputPath);
-            cacheMetadata.remove(affectedOutputPath);
-            cacheFiles.remove(affectedOutputPath);
+            files.invalidate(affectedOutputPath);
+            cacheFiles.invalidate(affectedOutputPath);
         }
     }
 }
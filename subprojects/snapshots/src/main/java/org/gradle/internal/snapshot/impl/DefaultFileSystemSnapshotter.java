@@ -59,11 +59,18 @@ public class DefaultFileSystemSnapshotter implements FileSystemSnapshotter {
     private final DirectorySnapshotter directorySnapshotter;
 
     public DefaultFileSystemSnapshotter(FileHasher hasher, Interner<String> stringInterner, Stat stat, FileSystemMirror fileSystemMirror, String... defaultExcludes) {
+        this(hasher, stringInterner, stat, fileSystemMirror, DirectorySnapshottingPool.SEQUENTIAL, defaultExcludes);
+    }
+
+    /**
+     * @param snapshottingPool the threads to use for snapshotting directory trees, see {@link DirectorySnapshotter}.
+     */
+    public DefaultFileSystemSnapshotter(FileHasher hasher, Interner<String> stringInterner, Stat stat, FileSystemMirror fileSystemMirror, DirectorySnapshottingPool snapshottingPool, String... defaultExcludes) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.stat = stat;
         this.fileSystemMirror = fileSystemMirror;
-        this.directorySnapshotter = new DirectorySnapshotter(hasher, stringInterner, defaultExcludes);
+        this.directorySnapshotter = new DirectorySnapshotter(hasher, stringInterner, snapshottingPool, defaultExcludes);
     }
 
     @Override
@@ -17,6 +17,7 @@
 package org.gradle.internal.snapshot.impl;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Interner;
 import com.google.common.collect.Lists;
@@ -34,43 +35,96 @@
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
 import java.nio.file.FileSystemLoopException;
 import java.nio.file.FileVisitOption;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Predicate;
 
 public class DirectorySnapshotter {
+    /**
+     * The maximum number of threads used to snapshot directory trees, see {@link DirectorySnapshottingPool}.
+     * When not set, a directory tree is snapshotted on the thread requesting the snapshot.
+     */
+    public static final String PARALLELISM_PROPERTY = "org.gradle.unsafe.parallel-snapshotting";
+
     private static final Logger LOGGER = LoggerFactory.getLogger(DirectorySnapshotter.class);
+    private static final int FILE_BATCH_SIZE = 64;
 
     private final FileHasher hasher;
     private final Interner<String> stringInterner;
     private final DefaultExcludes defaultExcludes;
+    private final DirectorySnapshottingPool snapshottingPool;
 
     public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, String... defaultExcludes) {
+        this(hasher, stringInterner, DirectorySnapshottingPool.SEQUENTIAL, defaultExcludes);
+    }
+
+    /**
+     * Creates a snapshotter which fans out the snapshotting of subdirectories and the hashing of files to the threads of the given pool.
+     * The resulting snapshots are the same as when snapshotting on a single thread.
+     */
+    public DirectorySnapshotter(FileHasher hasher, Interner<String> stringInterner, DirectorySnapshottingPool snapshottingPool, String... defaultExcludes) {
         this.hasher = hasher;
         this.stringInterner = stringInterner;
         this.defaultExcludes = new DefaultExcludes(defaultExcludes);
+        this.snapshottingPool = snapshottingPool;
     }
 
     public FileSystemLocationSnapshot snapshot(String absolutePath, @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate, final AtomicBoolean hasBeenFiltered) {
+        EntrySnapshotter entrySnapshotter = new EntrySnapshotter(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes);
         try {
             Path rootPath = Paths.get(absolutePath);
-            PathVisitor visitor = new PathVisitor(predicate, hasBeenFiltered, hasher, stringInterner, defaultExcludes);
-            Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
-            return visitor.getResult();
+            FileSystemLocationSnapshot result = snapshottingPool.isParallel()
+                ? snapshotInParallel(rootPath, entrySnapshotter)
+                : snapshotSequentially(rootPath, entrySnapshotter);
+            if (result == null) {
+                // The root directory has vanished or has been filtered out
+                return new MissingFileSnapshot(stringInterner.intern(absolutePath), stringInterner.intern(getFilename(rootPath)));
+            }
+            return result;
         } catch (IOException e) {
             throw new UncheckedIOException(String.format("Could not list contents of directory '%s'.", absolutePath), e);
         }
     }
 
+    @Nullable
+    private FileSystemLocationSnapshot snapshotInParallel(Path rootPath, EntrySnapshotter entrySnapshotter) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(rootPath, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+        return snapshottingPool.getPool().invoke(new DirectorySnapshotTask(entrySnapshotter, rootPath, ImmutableList.of(), new Ancestor(rootPath, attrs.fileKey(), null)));
+    }
+
+    @Nullable
+    private static FileSystemLocationSnapshot snapshotSequentially(Path rootPath, EntrySnapshotter entrySnapshotter) throws IOException {
+        PathVisitor visitor = new PathVisitor(entrySnapshotter);
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), Integer.MAX_VALUE, visitor);
+        return visitor.getResult();
+    }
+
+    private static String getFilename(Path path) {
+        return Optional.ofNullable(path.getFileName())
+            .map(Object::toString)
+            .orElse("");
+    }
+
     @VisibleForTesting
     static class DefaultExcludes {
         private final ImmutableSet<String> excludeFileNames;
@@ -144,22 +198,23 @@ public boolean test(String element) {
         }
     }
 
-    private static class PathVisitor implements java.nio.file.FileVisitor<Path> {
-        private final MerkleDirectorySnapshotBuilder builder;
+    /**
+     * Decides which entries to include in a snapshot and snapshots the included files.
+     */
+    private static class EntrySnapshotter {
         private final SnapshottingFilter.DirectoryWalkerPredicate predicate;
         private final AtomicBoolean hasBeenFiltered;
         private final FileHasher hasher;
         private final Interner<String> stringInterner;
         private final DefaultExcludes defaultExcludes;
 
-        public PathVisitor(
+        public EntrySnapshotter(
             @Nullable SnapshottingFilter.DirectoryWalkerPredicate predicate,
             AtomicBoolean hasBeenFiltered,
             FileHasher hasher,
             Interner<String> stringInterner,
             DefaultExcludes defaultExcludes
         ) {
-            this.builder = MerkleDirectorySnapshotBuilder.sortingRequired();
             this.predicate = predicate;
             this.hasBeenFiltered = hasBeenFiltered;
             this.hasher = hasher;
@@ -167,47 +222,94 @@ public PathVisitor(
             this.defaultExcludes = defaultExcludes;
         }
 
+        public FileSystemLocationSnapshot snapshotFile(Path absoluteFilePath, String internedName, BasicFileAttributes attrs) {
+            String internedAbsoluteFilePath = intern(absoluteFilePath.toString());
+            if (attrs.isRegularFile()) {
+                try {
+                    HashCode hash = hasher.hash(absoluteFilePath.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis());
+                    FileMetadata metadata = FileMetadata.from(attrs);
+                    return new RegularFileSnapshot(internedAbsoluteFilePath, internedName, hash, metadata);
+                } catch (UncheckedIOException e) {
+                    LOGGER.info("Could not read file path '{}'.", absoluteFilePath, e);
+                }
+            }
+            return new MissingFileSnapshot(internedAbsoluteFilePath, internedName);
+        }
+
+        /**
+         * Snapshots an entry which could not be read, or returns {@code null} if the entry should be ignored.
+         */
+        @Nullable
+        public FileSystemLocationSnapshot snapshotUnreadable(Path file, Iterable<String> relativePath) {
+            String internedName = intern(file.getFileName().toString());
+            boolean isDirectory = Files.isDirectory(file);
+            if (shouldVisit(file, internedName, isDirectory, null, relativePath)) {
+                LOGGER.info("Could not read file path '{}'.", file);
+                String internedAbsolutePath = intern(file.toString());
+                return new MissingFileSnapshot(internedAbsolutePath, internedName);
+            }
+            return null;
+        }
+
+        public String intern(String string) {
+            return stringInterner.intern(string);
+        }
+
+        /**
+         * Returns whether we want to visit the given path during our walk, or ignore it completely,
+         * based on the directory/file excludes or the provided filtering predicate.
+         * Excludes won't mark this walk as `filtered`, only if the `predicate` rejects any entry.
+         **/
+        public boolean shouldVisit(Path path, String internedName, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath) {
+            if (isDirectory) {
+                if (defaultExcludes.excludeDir(internedName)) {
+                    return false;
+                }
+            } else if (defaultExcludes.excludeFile(internedName)) {
+                return false;
+            }
+
+            if (predicate == null) {
+                return true;
+            }
+            boolean allowed = predicate.test(path, internedName, isDirectory, attrs, relativePath);
+            if (!allowed) {
+                hasBeenFiltered.set(true);
+            }
+            return allowed;
+        }
+    }
+
+    private static class PathVisitor implements java.nio.file.FileVisitor<Path> {
+        private final MerkleDirectorySnapshotBuilder builder;
+        private final EntrySnapshotter entrySnapshotter;
+
+        public PathVisitor(EntrySnapshotter entrySnapshotter) {
+            this.builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+            this.entrySnapshotter = entrySnapshotter;
+        }
+
         @Override
         public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
             String fileName = getFilename(dir);
-            String internedName = intern(fileName);
-            if (builder.isRoot() || shouldVisit(dir, internedName, true, attrs, builder.getRelativePath())) {
-                builder.preVisitDirectory(intern(dir.toString()), internedName);
+            String internedName = entrySnapshotter.intern(fileName);
+            if (builder.isRoot() || entrySnapshotter.shouldVisit(dir, internedName, true, attrs, builder.getRelativePath())) {
+                builder.preVisitDirectory(entrySnapshotter.intern(dir.toString()), internedName);
                 return FileVisitResult.CONTINUE;
             } else {
                 return FileVisitResult.SKIP_SUBTREE;
             }
         }
 
-        private String getFilename(Path dir) {
-            return Optional.ofNullable(dir.getFileName())
-                .map(Object::toString)
-                .orElse("");
-        }
-
         @Override
         public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-            String internedName = intern(file.getFileName().toString());
-            if (shouldVisit(file, internedName, false, attrs, builder.getRelativePath())) {
-                builder.visitFile(snapshotFile(file, internedName, attrs));
+            String internedName = entrySnapshotter.intern(file.getFileName().toString());
+            if (entrySnapshotter.shouldVisit(file, internedName, false, attrs, builder.getRelativePath())) {
+                builder.visitFile(entrySnapshotter.snapshotFile(file, internedName, attrs));
             }
             return FileVisitResult.CONTINUE;
         }
 
-        private FileSystemLocationSnapshot snapshotFile(Path absoluteFilePath, String internedName, BasicFileAttributes attrs) {
-            String internedAbsoluteFilePath = intern(absoluteFilePath.toString());
-            if (attrs.isRegularFile()) {
-                try {
-                    HashCode hash = hasher.hash(absoluteFilePath.toFile(), attrs.size(), attrs.lastModifiedTime().toMillis());
-                    FileMetadata metadata = FileMetadata.from(attrs);
-                    return new RegularFileSnapshot(internedAbsoluteFilePath, internedName, hash, metadata);
-                } catch (UncheckedIOException e) {
-                    LOGGER.info("Could not read file path '{}'.", absoluteFilePath, e);
-                }
-            }
-            return new MissingFileSnapshot(internedAbsoluteFilePath, internedName);
-        }
-
         /** unlistable directories (and maybe some locked files) will stop here */
         @Override
         public FileVisitResult visitFileFailed(Path file, IOException exc) {
@@ -215,12 +317,9 @@ public FileVisitResult visitFileFailed(Path file, IOException exc) {
             // so we include all the other files apart from the loop.
             // This way, we include each file only once.
             if (isNotFileSystemLoopException(exc)) {
-                String internedName = intern(file.getFileName().toString());
-                boolean isDirectory = Files.isDirectory(file);
-                if (shouldVisit(file, internedName, isDirectory, null, builder.getRelativePath())) {
-                    LOGGER.info("Could not read file path '{}'.", file);
-                    String internedAbsolutePath = intern(file.toString());
-                    builder.visitFile(new MissingFileSnapshot(internedAbsolutePath, internedName));
+                FileSystemLocationSnapshot snapshot = entrySnapshotter.snapshotUnreadable(file, builder.getRelativePath());
+                if (snapshot != null) {
+                    builder.visitFile(snapshot);
                 }
             }
             return FileVisitResult.CONTINUE;
@@ -242,36 +341,179 @@ private boolean isNotFileSystemLoopException(@Nullable IOException e) {
             return e != null && !(e instanceof FileSystemLoopException);
         }
 
-        private String intern(String string) {
-            return stringInterner.intern(string);
+        @Nullable
+        public FileSystemLocationSnapshot getResult() {
+            return builder.getResult();
         }
+    }
+
+    /**
+     * Snapshots a directory, forking a task for each subdirectory and for each batch of files.
+     *
+     * Visits the same entries as {@link PathVisitor} and uses a {@link MerkleDirectorySnapshotBuilder} per directory,
+     * so the children are ordered and hashed in the same way as when walking the tree on a single thread.
+     */
+    private static class DirectorySnapshotTask extends RecursiveTask<FileSystemLocationSnapshot> {
+        private final EntrySnapshotter entrySnapshotter;
+        private final Path dir;
+        private final List<String> relativePath;
+        private final Ancestor ancestors;
 
         /**
-         * Returns whether we want to visit the given path during our walk, or ignore it completely,
-         * based on the directory/file excludes or the provided filtering predicate.
-         * Excludes won't mark this walk as `filtered`, only if the `predicate` rejects any entry.
-         **/
-        private boolean shouldVisit(Path path, String internedName, boolean isDirectory, @Nullable BasicFileAttributes attrs, Iterable<String> relativePath) {
-            if (isDirectory) {
-                if (defaultExcludes.excludeDir(internedName)) {
-                    return false;
+         * @param relativePath the relative path of the entries of this directory, not including the name of the root directory.
+         * @param ancestors this directory and its ancestors, used to detect file system loops.
+         */
+        DirectorySnapshotTask(EntrySnapshotter entrySnapshotter, Path dir, List<String> relativePath, Ancestor ancestors) {
+            this.entrySnapshotter = entrySnapshotter;
+            this.dir = dir;
+            this.relativePath = relativePath;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        protected FileSystemLocationSnapshot compute() {
+            String internedName = entrySnapshotter.intern(getFilename(dir));
+            List<Path> entries = new ArrayList<Path>();
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+                for (Path entry : stream) {
+                    entries.add(entry);
                 }
-            } else if (defaultExcludes.excludeFile(internedName)) {
-                return false;
+            } catch (DirectoryIteratorException e) {
+                throw new UncheckedIOException(String.format("Could not read directory path '%s'.", dir), e.getCause());
+            } catch (IOException e) {
+                // Unlistable directories are snapshotted as missing files
+                List<String> parentRelativePath = relativePath.isEmpty() ? relativePath : relativePath.subList(0, relativePath.size() - 1);
+                return entrySnapshotter.snapshotUnreadable(dir, parentRelativePath);
             }
 
-            if (predicate == null) {
-                return true;
+            List<DirectorySnapshotTask> subdirectoryTasks = new ArrayList<DirectorySnapshotTask>();
+            List<FileSnapshotTask> fileTasks = new ArrayList<FileSnapshotTask>();
+            List<FileSystemLocationSnapshot> children = new ArrayList<FileSystemLocationSnapshot>();
+            FileSnapshotTask fileBatch = new FileSnapshotTask(entrySnapshotter);
+            for (Path entry : entries) {
+                BasicFileAttributes attrs = readAttributes(entry);
+                if (attrs == null) {
+                    FileSystemLocationSnapshot snapshot = entrySnapshotter.snapshotUnreadable(entry, relativePath);
+                    if (snapshot != null) {
+                        children.add(snapshot);
+                    }
+                    continue;
+                }
+                String internedEntryName = entrySnapshotter.intern(entry.getFileName().toString());
+                if (attrs.isDirectory()) {
+                    // Loops are ignored, so we include each file only once
+                    if (!ancestors.contains(entry, attrs.fileKey()) && entrySnapshotter.shouldVisit(entry, internedEntryName, true, attrs, relativePath)) {
+                        List<String> childRelativePath = ImmutableList.<String>builder().addAll(relativePath).add(internedEntryName).build();
+                        DirectorySnapshotTask subdirectoryTask = new DirectorySnapshotTask(entrySnapshotter, entry, childRelativePath, new Ancestor(entry, attrs.fileKey(), ancestors));
+                        subdirectoryTask.fork();
+                        subdirectoryTasks.add(subdirectoryTask);
+                    }
+                } else if (entrySnapshotter.shouldVisit(entry, internedEntryName, false, attrs, relativePath)) {
+                    fileBatch.add(entry, internedEntryName, attrs);
+                    if (fileBatch.size() == FILE_BATCH_SIZE) {
+                        fileBatch.fork();
+                        fileTasks.add(fileBatch);
+                        fileBatch = new FileSnapshotTask(entrySnapshotter);
+                    }
+                }
             }
-            boolean allowed = predicate.test(path, internedName, isDirectory, attrs, relativePath);
-            if (!allowed) {
-                hasBeenFiltered.set(true);
+
+            // Snapshot the remaining files on this thread while the other tasks are running
+            children.addAll(fileBatch.compute());
+            for (FileSnapshotTask fileTask : fileTasks) {
+                children.addAll(fileTask.join());
+            }
+            for (DirectorySnapshotTask subdirectoryTask : subdirectoryTasks) {
+                FileSystemLocationSnapshot snapshot = subdirectoryTask.join();
+                if (snapshot != null) {
+                    children.add(snapshot);
+                }
             }
-            return allowed;
-        }
 
-        public FileSystemLocationSnapshot getResult() {
+            MerkleDirectorySnapshotBuilder builder = MerkleDirectorySnapshotBuilder.sortingRequired();
+            builder.preVisitDirectory(entrySnapshotter.intern(dir.toString()), internedName);
+            for (FileSystemLocationSnapshot child : children) {
+                builder.visitFile(child);
+            }
+            builder.postVisitDirectory();
             return builder.getResult();
         }
+
+        @Nullable
+        private static BasicFileAttributes readAttributes(Path entry) {
+            try {
+                return Files.readAttributes(entry, BasicFileAttributes.class);
+            } catch (IOException e) {
+                try {
+                    // Use the attributes of the link itself for broken symbolic links, like Files.walkFileTree() does
+                    return Files.readAttributes(entry, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                } catch (IOException ignored) {
+                    return null;
+                }
+            }
+        }
+    }
+
+    private static class FileSnapshotTask extends RecursiveTask<List<FileSystemLocationSnapshot>> {
+        private final EntrySnapshotter entrySnapshotter;
+        private final List<Path> files = new ArrayList<Path>();
+        private final List<String> internedNames = new ArrayList<String>();
+        private final List<BasicFileAttributes> attributes = new ArrayList<BasicFileAttributes>();
+
+        FileSnapshotTask(EntrySnapshotter entrySnapshotter) {
+            this.entrySnapshotter = entrySnapshotter;
+        }
+
+        void add(Path file, String internedName, BasicFileAttributes attrs) {
+            files.add(file);
+            internedNames.add(internedName);
+            attributes.add(attrs);
+        }
+
+        int size() {
+            return files.size();
+        }
+
+        @Override
+        protected List<FileSystemLocationSnapshot> compute() {
+            List<FileSystemLocationSnapshot> snapshots = new ArrayList<FileSystemLocationSnapshot>(files.size());
+            for (int i = 0; i < files.size(); i++) {
+                snapshots.add(entrySnapshotter.snapshotFile(files.get(i), internedNames.get(i), attributes.get(i)));
+            }
+            return snapshots;
+        }
+    }
+
+    private static class Ancestor {
+        private final Path path;
+        private final Object fileKey;
+        private final Ancestor parent;
+
+        Ancestor(Path path, @Nullable Object fileKey, @Nullable Ancestor parent) {
+            this.path = path;
+            this.fileKey = fileKey;
+            this.parent = parent;
+        }
+
+        boolean contains(Path dir, @Nullable Object dirFileKey) {
+            for (Ancestor ancestor = this; ancestor != null; ancestor = ancestor.parent) {
+                if (dirFileKey != null && ancestor.fileKey != null) {
+                    if (dirFileKey.equals(ancestor.fileKey)) {
+                        return true;
+                    }
+                } else if (isSameFile(dir, ancestor.path)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean isSameFile(Path first, Path second) {
+            try {
+                return Files.isSameFile(first, second);
+            } catch (IOException e) {
+                return false;
+            }
+        }
     }
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2018 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import java.io.Closeable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+/**
+ * The threads used by {@link DirectorySnapshotter} to snapshot directory trees in parallel.
+ *
+ * <p>A single instance is shared by all snapshotters, so that the parallelism limit holds across them. The threads are started on first use and stopped when the pool is closed.</p>
+ */
+public class DirectorySnapshottingPool implements Closeable {
+    public static final DirectorySnapshottingPool SEQUENTIAL = new DirectorySnapshottingPool(1);
+
+    private final int parallelism;
+    private ForkJoinPool pool;
+    private boolean closed;
+
+    /**
+     * @param parallelism the maximum number of threads. When 1, directory trees are snapshotted on the thread requesting the snapshot.
+     */
+    public DirectorySnapshottingPool(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public boolean isParallel() {
+        return parallelism > 1;
+    }
+
+    synchronized ForkJoinPool getPool() {
+        if (closed) {
+            throw new IllegalStateException("The directory snapshotting pool has been closed.");
+        }
+        if (pool == null) {
+            pool = new ForkJoinPool(parallelism, pool -> {
+                ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+                thread.setName("Snapshot directory tree thread " + thread.getPoolIndex());
+                return thread;
+            }, null, false);
+        }
+        return pool;
+    }
+
+    @Override
+    public void close() {
+        ForkJoinPool pool;
+        synchronized (this) {
+            closed = true;
+            pool = this.pool;
+            this.pool = null;
+        }
+        if (pool != null) {
+            pool.shutdownNow();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "directory snapshotting pool (parallelism " + parallelism + ")";
+    }
+}
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl;
+
+import org.gradle.internal.file.FileMetadataSnapshot;
+import org.gradle.internal.file.impl.DefaultFileMetadata;
+import org.gradle.internal.snapshot.DirectorySnapshot;
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot;
+import org.gradle.internal.snapshot.MissingFileSnapshot;
+import org.gradle.internal.snapshot.RegularFileSnapshot;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * Stores snapshots and metadata for absolute paths in a trie keyed by the segments of the path.
+ *
+ * Common path prefixes are only stored once. The state for a path can be served from the snapshot of an ancestor directory,
+ * and invalidating a path discards the state for the whole subtree below it as well as the snapshots of its ancestors.
+ *
+ * Safe for concurrent use. Concurrent invalidations and updates of overlapping paths may drop state, but never serve stale state
+ * for a path that has been invalidated.
+ */
+class SnapshotTrie {
+    private static final char SEPARATOR = File.separatorChar;
+
+    private final Node root = new Node();
+
+    @Nullable
+    public FileSystemLocationSnapshot getSnapshot(String absolutePath) {
+        Node node = root;
+        int segmentStart = 0;
+        FileSystemLocationSnapshot ancestorSnapshot = null;
+        int ancestorSnapshotEnd = 0;
+        while (true) {
+            int segmentEnd = segmentEnd(absolutePath, segmentStart);
+            node = node.getChild(absolutePath.substring(segmentStart, segmentEnd));
+            if (node == null) {
+                break;
+            }
+            FileSystemLocationSnapshot snapshot = node.snapshot;
+            if (segmentEnd == absolutePath.length()) {
+                if (snapshot != null) {
+                    return snapshot;
+                }
+                break;
+            }
+            if (snapshot != null) {
+                ancestorSnapshot = snapshot;
+                ancestorSnapshotEnd = segmentEnd;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        return ancestorSnapshot == null ? null : findDescendant(ancestorSnapshot, absolutePath, ancestorSnapshotEnd + 1);
+    }
+
+    public void putSnapshot(FileSystemLocationSnapshot snapshot) {
+        Node node = getOrCreateNode(snapshot.getAbsolutePath());
+        node.snapshot = snapshot;
+        if (snapshot instanceof DirectorySnapshot) {
+            // The directory snapshot contains the state of all the descendants
+            node.clearChildren();
+        }
+    }
+
+    @Nullable
+    public FileMetadataSnapshot getMetadata(String absolutePath) {
+        Node node = findNode(absolutePath);
+        FileMetadataSnapshot metadata = node == null ? null : node.metadata;
+        if (metadata != null) {
+            return metadata;
+        }
+        FileSystemLocationSnapshot snapshot = getSnapshot(absolutePath);
+        return snapshot == null ? null : metadataOf(snapshot);
+    }
+
+    public void putMetadata(String absolutePath, FileMetadataSnapshot metadata) {
+        getOrCreateNode(absolutePath).metadata = metadata;
+    }
+
+    /**
+     * Discards the state for the given path and its descendants, as well as the snapshots of its ancestors.
+     */
+    public void invalidate(String absolutePath) {
+        Node node = root;
+        int segmentStart = 0;
+        while (true) {
+            int segmentEnd = segmentEnd(absolutePath, segmentStart);
+            String segment = absolutePath.substring(segmentStart, segmentEnd);
+            if (segmentEnd == absolutePath.length()) {
+                node.removeChild(segment);
+                return;
+            }
+            Node child = node.getChild(segment);
+            if (child == null) {
+                return;
+            }
+            child.snapshot = null;
+            node = child;
+            segmentStart = segmentEnd + 1;
+        }
+    }
+
+    public void clear() {
+        root.clearChildren();
+    }
+
+    /**
+     * Visits the absolute paths for which there is state stored directly in this trie.
+     */
+    public void visitPaths(Consumer<String> visitor) {
+        root.visitChildren(true, new StringBuilder(), visitor);
+    }
+
+    @Nullable
+    private Node findNode(String absolutePath) {
+        Node node = root;
+        int segmentStart = 0;
+        while (node != null) {
+            int segmentEnd = segmentEnd(absolutePath, segmentStart);
+            node = node.getChild(absolutePath.substring(segmentStart, segmentEnd));
+            if (segmentEnd == absolutePath.length()) {
+                return node;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+        return null;
+    }
+
+    private Node getOrCreateNode(String absolutePath) {
+        Node node = root;
+        int segmentStart = 0;
+        while (true) {
+            int segmentEnd = segmentEnd(absolutePath, segmentStart);
+            node = node.getOrCreateChild(absolutePath.substring(segmentStart, segmentEnd));
+            if (segmentEnd == absolutePath.length()) {
+                return node;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+    }
+
+    private static int segmentEnd(String absolutePath, int segmentStart) {
+        int separatorIndex = absolutePath.indexOf(SEPARATOR, segmentStart);
+        return separatorIndex < 0 ? absolutePath.length() : separatorIndex;
+    }
+
+    @Nullable
+    private static FileSystemLocationSnapshot findDescendant(FileSystemLocationSnapshot ancestor, String absolutePath, int segmentStart) {
+        FileSystemLocationSnapshot current = ancestor;
+        while (true) {
+            if (current instanceof MissingFileSnapshot) {
+                // Nothing can exist below a missing file
+                return new MissingFileSnapshot(absolutePath, absolutePath.substring(absolutePath.lastIndexOf(SEPARATOR) + 1));
+            }
+            if (!(current instanceof DirectorySnapshot)) {
+                return null;
+            }
+            int segmentEnd = segmentEnd(absolutePath, segmentStart);
+            // A child may be absent because it has been excluded while snapshotting, so we can't infer that it is missing
+            current = findChild((DirectorySnapshot) current, absolutePath.substring(segmentStart, segmentEnd));
+            if (current == null || segmentEnd == absolutePath.length()) {
+                return current;
+            }
+            segmentStart = segmentEnd + 1;
+        }
+    }
+
+    @Nullable
+    private static FileSystemLocationSnapshot findChild(DirectorySnapshot directory, String name) {
+        List<FileSystemLocationSnapshot> children = directory.getChildren();
+        int low = 0;
+        int high = children.size() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            FileSystemLocationSnapshot child = children.get(middle);
+            int comparison = child.getName().compareTo(name);
+            if (comparison < 0) {
+                low = middle + 1;
+            } else if (comparison > 0) {
+                high = middle - 1;
+            } else {
+                return child;
+            }
+        }
+        return null;
+    }
+
+    private static FileMetadataSnapshot metadataOf(FileSystemLocationSnapshot snapshot) {
+        switch (snapshot.getType()) {
+            case RegularFile:
+                RegularFileSnapshot regularFileSnapshot = (RegularFileSnapshot) snapshot;
+                return DefaultFileMetadata.file(regularFileSnapshot.getMetadata().getLastModified(), regularFileSnapshot.getMetadata().getSize());
+            case Directory:
+                return DefaultFileMetadata.directory();
+            case Missing:
+                return DefaultFileMetadata.missing();
+            default:
+                throw new IllegalArgumentException("Unrecognized file type: " + snapshot.getType());
+        }
+    }
+
+    private static class Node {
+        private volatile Map<String, Node> children;
+        private volatile FileSystemLocationSnapshot snapshot;
+        private volatile FileMetadataSnapshot metadata;
+
+        @Nullable
+        Node getChild(String segment) {
+            Map<String, Node> children = this.children;
+            return children == null ? null : children.get(segment);
+        }
+
+        Node getOrCreateChild(String segment) {
+            Map<String, Node> children = this.children;
+            if (children == null) {
+                synchronized (this) {
+                    children = this.children;
+                    if (children == null) {
+                        children = new ConcurrentHashMap<String, Node>(4);
+                        this.children = children;
+                    }
+                }
+            }
+            return children.computeIfAbsent(segment, key -> new Node());
+        }
+
+        void removeChild(String segment) {
+            Map<String, Node> children = this.children;
+            if (children != null) {
+                children.remove(segment);
+            }
+        }
+
+        void clearChildren() {
+            children = null;
+        }
+
+        void visitChildren(boolean isRoot, StringBuilder path, Consumer<String> visitor) {
+            Map<String, Node> children = this.children;
+            if (children == null) {
+                return;
+            }
+            int parentLength = path.length();
+            for (Map.Entry<String, Node> entry : children.entrySet()) {
+                if (!isRoot) {
+                    path.append(SEPARATOR);
+                }
+                path.append(entry.getKey());
+                Node child = entry.getValue();
+                if (child.snapshot != null || child.metadata != null) {
+                    visitor.accept(path.toString());
+                }
+                child.visitChildren(false, path, visitor);
+                path.setLength(parentLength);
+            }
+        }
+    }
+}
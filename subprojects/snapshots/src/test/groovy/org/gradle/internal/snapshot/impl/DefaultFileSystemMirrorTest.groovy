@@ -132,4 +132,79 @@ class DefaultFileSystemMirrorTest extends Specification {
         mirror.getMetadata(file.path) == null
         mirror.getSnapshot(file.path) == null
     }
+
+    def "retains state about a file across builds until it is reported as changed"() {
+        def dir = tmpDir.file("dir")
+        def file = dir.file("a")
+        def sibling = dir.file("b")
+        def fileSnapshot = Stub(RegularFileSnapshot)
+        def siblingSnapshot = Stub(RegularFileSnapshot)
+        def dirSnapshot = Stub(FileSystemLocationSnapshot)
+        def metadata = Stub(FileMetadataSnapshot)
+
+        given:
+        _ * fileSnapshot.absolutePath >> file.path
+        _ * siblingSnapshot.absolutePath >> sibling.path
+        _ * dirSnapshot.absolutePath >> dir.path
+
+        expect:
+        mirror.putMetadata(file.path, metadata)
+        mirror.putSnapshot(fileSnapshot)
+        mirror.putSnapshot(siblingSnapshot)
+        mirror.putSnapshot(dirSnapshot)
+
+        mirror.beforeBuildFinishedRetainingState()
+
+        mirror.retainedPaths == [file.path, sibling.path, dir.path] as Set
+        mirror.getMetadata(file.path) == metadata
+        mirror.getSnapshot(file.path) == fileSnapshot
+        mirror.getSnapshot(dir.path) == dirSnapshot
+
+        mirror.changed([file.path])
+
+        mirror.getMetadata(file.path) == null
+        mirror.getSnapshot(file.path) == null
+        mirror.getSnapshot(dir.path) == null
+        mirror.getSnapshot(sibling.path) == siblingSnapshot
+    }
+
+    def "discards state about descendants of a changed directory"() {
+        def dir = tmpDir.file("dir")
+        def file = dir.file("sub/a")
+        def otherFile = tmpDir.file("dir-other/a")
+        def fileSnapshot = Stub(RegularFileSnapshot)
+        def otherFileSnapshot = Stub(RegularFileSnapshot)
+
+        given:
+        _ * fileSnapshot.absolutePath >> file.path
+        _ * otherFileSnapshot.absolutePath >> otherFile.path
+
+        expect:
+        mirror.putSnapshot(fileSnapshot)
+        mirror.putSnapshot(otherFileSnapshot)
+
+        mirror.changed([dir.path])
+
+        mirror.getSnapshot(file.path) == null
+        mirror.getSnapshot(otherFile.path) == otherFileSnapshot
+    }
+
+    def "discards state about files in the caches at the end of the build when retaining state"() {
+        def file = cacheDir.file("some/dir/a")
+        def fileSnapshot = Stub(RegularFileSnapshot)
+        def metadata = Stub(FileMetadataSnapshot)
+
+        given:
+        _ * fileSnapshot.absolutePath >> file.path
+
+        expect:
+        mirror.putMetadata(file.path, metadata)
+        mirror.putSnapshot(fileSnapshot)
+
+        mirror.beforeBuildFinishedRetainingState()
+
+        mirror.retainedPaths.empty
+        mirror.getMetadata(file.path) == null
+        mirror.getSnapshot(file.path) == null
+    }
 }
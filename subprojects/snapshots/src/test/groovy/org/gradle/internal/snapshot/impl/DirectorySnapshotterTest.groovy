@@ -46,6 +46,11 @@ class DirectorySnapshotterTest extends Specification {
 
     def fileHasher = new TestFileHasher()
     def directorySnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner())
+    def snapshottingPool = new DirectorySnapshottingPool(4)
+
+    def cleanup() {
+        snapshottingPool.close()
+    }
 
     def "should snapshot without filters"() {
         given:
@@ -216,6 +221,72 @@ class DirectorySnapshotterTest extends Specification {
         pipe.delete()
     }
 
+    def "snapshots the same tree when snapshotting in parallel"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        (1..200).each {
+            rootDir.file("many/file${it}.txt").text = "content ${it}"
+        }
+        (1..10).each {
+            rootDir.file("nested/dir${it}/a/b/c.txt").text = "nested ${it}"
+            rootDir.file("nested/dir${it}/a/c.html").text = "html ${it}"
+        }
+        rootDir.file("nested/.git/config").createFile()
+        rootDir.file("nested/temporary~").createFile()
+        rootDir.file("empty").createDir()
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), snapshottingPool, DirectoryScanner.getDefaultExcludes())
+        def sequentialSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), DirectoryScanner.getDefaultExcludes())
+
+        when:
+        def sequentiallyFiltered = new AtomicBoolean(false)
+        def parallelFiltered = new AtomicBoolean(false)
+        def sequentialSnapshot = sequentialSnapshotter.snapshot(rootDir.absolutePath, predicate, sequentiallyFiltered)
+        def parallelSnapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, predicate, parallelFiltered)
+
+        then:
+        parallelSnapshot.hash == sequentialSnapshot.hash
+        visitedPaths(parallelSnapshot) == visitedPaths(sequentialSnapshot)
+        parallelFiltered.get() == sequentiallyFiltered.get()
+
+        where:
+        predicate << [null, directoryWalkerPredicate(new PatternSet().include("**/*.txt"))]
+    }
+
+    def "snapshots a root directory that has vanished as missing when snapshotting in parallel"() {
+        given:
+        def rootDir = tmpDir.file("vanished")
+        def parallelSnapshotter = new DirectorySnapshotter(fileHasher, new StringInterner(), snapshottingPool)
+
+        when:
+        def snapshot = parallelSnapshotter.snapshot(rootDir.absolutePath, null, new AtomicBoolean(false))
+
+        then:
+        snapshot instanceof MissingFileSnapshot
+        snapshot.absolutePath == rootDir.absolutePath
+    }
+
+    def "shares the threads of the pool between snapshotters"() {
+        given:
+        def rootDir = tmpDir.createDir("root")
+        rootDir.file("a/b.txt").createFile()
+        def first = new DirectorySnapshotter(fileHasher, new StringInterner(), snapshottingPool)
+        def second = new DirectorySnapshotter(fileHasher, new StringInterner(), snapshottingPool)
+
+        when:
+        first.snapshot(rootDir.absolutePath, null, new AtomicBoolean(false))
+        def pool = snapshottingPool.pool
+        second.snapshot(rootDir.absolutePath, null, new AtomicBoolean(false))
+
+        then:
+        snapshottingPool.pool.is(pool)
+
+        when:
+        snapshottingPool.close()
+
+        then:
+        pool.shutdown
+    }
+
     def "default excludes are correctly parsed"() {
         def defaultExcludes = new DirectorySnapshotter.DefaultExcludes(DirectoryScanner.getDefaultExcludes())
 
@@ -237,6 +308,17 @@ class DirectorySnapshotterTest extends Specification {
         !defaultExcludes.excludeFile('#some')
     }
 
+    private static List<String> visitedPaths(FileSystemLocationSnapshot snapshot) {
+        def visited = []
+        snapshot.accept(new RelativePathTrackingVisitor() {
+            @Override
+            void visit(String absolutePath, Deque<String> relativePath) {
+                visited << absolutePath
+            }
+        })
+        return visited
+    }
+
     private static String fileSystemRoot() {
         "${Paths.get("").toAbsolutePath().root}"
     }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2019 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.gradle.internal.snapshot.impl
+
+import org.gradle.internal.file.FileType
+import org.gradle.internal.file.impl.DefaultFileMetadata
+import org.gradle.internal.hash.HashCode
+import org.gradle.internal.snapshot.DirectorySnapshot
+import org.gradle.internal.snapshot.FileMetadata
+import org.gradle.internal.snapshot.FileSystemLocationSnapshot
+import org.gradle.internal.snapshot.MissingFileSnapshot
+import org.gradle.internal.snapshot.RegularFileSnapshot
+import org.gradle.test.fixtures.file.TestFile
+import org.gradle.test.fixtures.file.TestNameTestDirectoryProvider
+import org.junit.Rule
+import spock.lang.Specification
+
+class SnapshotTrieTest extends Specification {
+    @Rule
+    TestNameTestDirectoryProvider tmpDir = new TestNameTestDirectoryProvider()
+
+    def trie = new SnapshotTrie()
+
+    def "serves snapshots of descendants from the snapshot of an ancestor directory"() {
+        def dir = tmpDir.file("dir")
+        def file = fileSnapshot(dir.file("sub/a"), 1)
+        def otherFile = fileSnapshot(dir.file("sub/b"), 2)
+        def subDir = directorySnapshot(dir.file("sub"), [file, otherFile])
+        def root = directorySnapshot(dir, [subDir])
+
+        when:
+        trie.putSnapshot(root)
+
+        then:
+        trie.getSnapshot(dir.path) == root
+        trie.getSnapshot(dir.file("sub").path) == subDir
+        trie.getSnapshot(dir.file("sub/a").path) == file
+        trie.getSnapshot(dir.file("sub/b").path) == otherFile
+        trie.getSnapshot(dir.file("sub/c").path) == null
+        trie.getSnapshot(dir.file("sub/a/c").path) == null
+        trie.getSnapshot(tmpDir.file("other").path) == null
+
+        and:
+        def metadata = trie.getMetadata(dir.file("sub/b").path)
+        metadata.type == FileType.RegularFile
+        metadata.length == 2
+        trie.getMetadata(dir.file("sub").path).type == FileType.Directory
+    }
+
+    def "infers that descendants of a missing file are missing"() {
+        def missing = tmpDir.file("missing")
+        trie.putSnapshot(new MissingFileSnapshot(missing.path, missing.name))
+
+        when:
+        def snapshot = trie.getSnapshot(missing.file("a/b").path)
+
+        then:
+        snapshot instanceof MissingFileSnapshot
+        snapshot.absolutePath == missing.file("a/b").path
+        snapshot.name == "b"
+        trie.getMetadata(missing.file("a").path).type == FileType.Missing
+    }
+
+    def "invalidating a path discards the subtree and the snapshots of ancestors"() {
+        def dir = tmpDir.file("dir")
+        def file = fileSnapshot(dir.file("a"), 1)
+        def otherFile = fileSnapshot(dir.file("b"), 2)
+        def root = directorySnapshot(dir, [file, otherFile])
+        def descendant = tmpDir.file("dir/a/b")
+        def metadata = DefaultFileMetadata.directory()
+
+        given:
+        trie.putMetadata(dir.path, metadata)
+        trie.putSnapshot(root)
+
+        when:
+        trie.invalidate(file.absolutePath)
+
+        then:
+        trie.getSnapshot(dir.path) == null
+        trie.getSnapshot(file.absolutePath) == null
+        trie.getSnapshot(otherFile.absolutePath) == null
+        trie.getMetadata(dir.path) == metadata
+
+        when:
+        trie.putSnapshot(otherFile)
+        trie.putMetadata(descendant.path, DefaultFileMetadata.missing())
+        trie.invalidate(dir.path)
+
+        then:
+        trie.getSnapshot(otherFile.absolutePath) == null
+        trie.getMetadata(descendant.path) == null
+        trie.getMetadata(dir.path) == null
+    }
+
+    def "storing a directory snapshot replaces the state of descendants"() {
+        def dir = tmpDir.file("dir")
+        def oldFile = fileSnapshot(dir.file("a"), 1)
+        def newFile = fileSnapshot(dir.file("a"), 2)
+
+        given:
+        trie.putSnapshot(oldFile)
+        trie.putMetadata(dir.file("b").path, DefaultFileMetadata.missing())
+
+        when:
+        trie.putSnapshot(directorySnapshot(dir, [newFile]))
+
+        then:
+        trie.getSnapshot(oldFile.absolutePath) == newFile
+        trie.getMetadata(dir.file("b").path) == null
+        visitedPaths() == [dir.path]
+    }
+
+    def "visits paths with stored state"() {
+        def dir = tmpDir.file("dir")
+
+        given:
+        trie.putSnapshot(fileSnapshot(dir.file("a"), 1))
+        trie.putMetadata(dir.file("b/c").path, DefaultFileMetadata.missing())
+        trie.putMetadata(dir.path, DefaultFileMetadata.directory())
+
+        expect:
+        visitedPaths() as Set == [dir.path, dir.file("a").path, dir.file("b/c").path] as Set
+
+        when:
+        trie.clear()
+
+        then:
+        visitedPaths().empty
+        trie.getMetadata(dir.path) == null
+    }
+
+    private List<String> visitedPaths() {
+        def paths = []
+        trie.visitPaths { paths.add(it) }
+        return paths
+    }
+
+    private static RegularFileSnapshot fileSnapshot(TestFile file, long length) {
+        return new RegularFileSnapshot(file.path, file.name, HashCode.fromInt((int) length), new FileMetadata(length, 0))
+    }
+
+    private static DirectorySnapshot directorySnapshot(TestFile dir, List<FileSystemLocationSnapshot> children) {
+        return new DirectorySnapshot(dir.path, dir.name, children.sort(false, FileSystemLocationSnapshot.BY_NAME), HashCode.fromInt(children.size()))
+    }
+}